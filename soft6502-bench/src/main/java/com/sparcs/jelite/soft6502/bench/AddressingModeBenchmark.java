@@ -0,0 +1,114 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.Soft6502;
+
+/**
+ * Cost of each addressing mode: a loop of LDA instructions all using the same
+ * mode, so the {@code instructions} rate is (nearly) the rate of that mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressingModeBenchmark {
+
+	private static final int START = 0x0200;
+	private static final int LOOP = 0x0204;
+	private static final int LENGTH = 256;
+	private static final long TIMESLICE = 40000;
+
+	@Param({ Engines.OPCODE, Engines.SWITCH, Engines.LAZY, Engines.BLOCK, Engines.JIT })
+	public String engine;
+
+	@Param({ "imm", "zp", "zpx", "abs", "absx", "absy", "indx", "indy" })
+	public String mode;
+
+	private Soft6502 cpu;
+
+	@Setup
+	public void setup() {
+
+		Ram16Bit ram = Engines.createMemory(engine);
+		int addr = START;
+
+		// LDX #1, LDY #1
+		ram.setByte(addr++, 0xA2);
+		ram.setByte(addr++, 0x01);
+		ram.setByte(addr++, 0xA0);
+		ram.setByte(addr++, 0x01);
+
+		// ($80,X) and ($81),Y both point at $3000
+		ram.setByte(0x81, 0x00);
+		ram.setByte(0x82, 0x30);
+
+		for (int i = 0; i < LENGTH; i++) {
+			switch (mode) {
+			case "imm":
+				addr = emit(ram, addr, 0xA9, 0x42);
+				break;
+			case "zp":
+				addr = emit(ram, addr, 0xA5, 0x81);
+				break;
+			case "zpx":
+				addr = emit(ram, addr, 0xB5, 0x80);
+				break;
+			case "abs":
+				addr = emit(ram, addr, 0xAD, 0x00, 0x30);
+				break;
+			case "absx":
+				addr = emit(ram, addr, 0xBD, 0x00, 0x30);
+				break;
+			case "absy":
+				addr = emit(ram, addr, 0xB9, 0x00, 0x30);
+				break;
+			case "indx":
+				addr = emit(ram, addr, 0xA1, 0x80);
+				break;
+			case "indy":
+				addr = emit(ram, addr, 0xB1, 0x81);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown mode: " + mode);
+			}
+		}
+		emit(ram, addr, 0x4C, LOOP & 0xFF, LOOP >> 8);
+
+		cpu = new Soft6502(ram);
+		cpu.setEngine(Engines.create(engine));
+		cpu.setPC(START);
+	}
+
+	private static int emit(Ram16Bit ram, int addr, int... bytes) {
+
+		for (int b : bytes) {
+			ram.setByte(addr++, b);
+		}
+		return addr;
+	}
+
+	@Benchmark
+	public long timeslice(InstructionCounter counter) {
+
+		long before = cpu.getInstructions();
+		long overshoot = cpu.run(TIMESLICE);
+		counter.instructions += cpu.getInstructions() - before;
+		return overshoot;
+	}
+}
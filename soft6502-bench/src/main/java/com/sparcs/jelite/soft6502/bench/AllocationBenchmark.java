@@ -0,0 +1,52 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparcs.jelite.soft6502.Soft6502;
+
+/**
+ * One operation is one instruction of the functional test, so run with the
+ * GC profiler ({@code -prof gc}) and {@code gc.alloc.rate.norm} is the number
+ * of bytes allocated per instruction, which should be 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+
+	@Param({ Engines.OPCODE, Engines.SWITCH, Engines.LAZY, Engines.BLOCK, Engines.JIT })
+	public String engine;
+
+	private FunctionalTest test;
+	private Soft6502 cpu;
+
+	@Setup
+	public void setup() throws IOException {
+
+		test = new FunctionalTest(engine);
+		cpu = test.getCpu();
+	}
+
+	@Benchmark
+	public void step() throws IOException {
+
+		cpu.step();
+		test.restartIfDone();
+	}
+}
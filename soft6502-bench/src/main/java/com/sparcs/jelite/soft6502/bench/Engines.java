@@ -0,0 +1,51 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import com.sparcs.jelite.soft6502.BlockEngine;
+import com.sparcs.jelite.soft6502.Engine;
+import com.sparcs.jelite.soft6502.JitEngine;
+import com.sparcs.jelite.soft6502.LazyFlagsEngine;
+import com.sparcs.jelite.soft6502.OpcodeEngine;
+import com.sparcs.jelite.soft6502.PagedMemory;
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.SwitchEngine;
+
+/**
+ * Engines by the names benchmarks take as a {@code @Param}.
+ */
+final class Engines {
+
+	static final String OPCODE = "opcode";
+	static final String SWITCH = "switch";
+	static final String LAZY = "lazy";
+	static final String BLOCK = "block";
+	static final String JIT = "jit";
+
+	private Engines() {
+	}
+
+	static Engine create(String name) {
+
+		switch (name) {
+		case OPCODE:
+			return new OpcodeEngine();
+		case SWITCH:
+			return new SwitchEngine();
+		case LAZY:
+			return new LazyFlagsEngine();
+		case BLOCK:
+			return new BlockEngine();
+		case JIT:
+			return new JitEngine();
+		default:
+			throw new IllegalArgumentException("Unknown engine: " + name);
+		}
+	}
+
+	/**
+	 * @return flat RAM, unless the engine needs to watch pages for writes
+	 */
+	static Ram16Bit createMemory(String name) {
+
+		return BLOCK.equals(name) || JIT.equals(name) ? new PagedMemory() : new Ram16Bit();
+	}
+}
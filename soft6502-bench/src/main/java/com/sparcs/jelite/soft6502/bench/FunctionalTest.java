@@ -0,0 +1,66 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.Soft6502;
+
+/**
+ * Klaus Dormann's 6502 functional test as a workload: it exercises every
+ * documented instruction and addressing mode, and loops back to the start
+ * whenever it completes.
+ */
+final class FunctionalTest {
+
+	static final int START = 0x0400;
+	static final int SUCCESS_TRAP = 0x3399;
+
+	private final byte[] image = new byte[Ram16Bit.LEN_64K];
+	private final Ram16Bit ram;
+	private final Soft6502 cpu;
+
+	/**
+	 * @param engine the name of an engine in {@link Engines}
+	 */
+	FunctionalTest(String engine) throws IOException {
+
+		InputStream stream = FunctionalTest.class.getClassLoader().getResourceAsStream("6502_functional_test.bin");
+		int len = 0;
+		while (len < image.length) {
+			int n = stream.read(image, len, image.length - len);
+			if (n < 0) {
+				break;
+			}
+			len += n;
+		}
+		stream.close();
+
+		ram = Engines.createMemory(engine);
+		cpu = new Soft6502(ram);
+		cpu.setEngine(Engines.create(engine));
+		restart();
+	}
+
+	Soft6502 getCpu() {
+
+		return cpu;
+	}
+
+	/**
+	 * Start the test again if it's finished.
+	 */
+	void restartIfDone() throws IOException {
+
+		if (cpu.getPC() == SUCCESS_TRAP) {
+			restart();
+		}
+	}
+
+	private void restart() throws IOException {
+
+		ram.load(ByteBuffer.wrap(image), 0);
+		cpu.setPC(START);
+	}
+}
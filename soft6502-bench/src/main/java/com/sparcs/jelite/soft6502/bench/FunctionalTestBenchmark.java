@@ -0,0 +1,58 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparcs.jelite.soft6502.Soft6502;
+
+/**
+ * Overall speed of each engine on the functional test, driven in 20ms
+ * timeslices of a 2MHz BBC Micro. The {@code instructions} counter is the
+ * instruction rate; the primary score is timeslices per second, where 50
+ * would be real time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionalTestBenchmark {
+
+	private static final long TIMESLICE = 40000;
+
+	@Param({ Engines.OPCODE, Engines.SWITCH, Engines.LAZY, Engines.BLOCK, Engines.JIT })
+	public String engine;
+
+	private FunctionalTest test;
+	private Soft6502 cpu;
+
+	@Setup
+	public void setup() throws IOException {
+
+		test = new FunctionalTest(engine);
+		cpu = test.getCpu();
+	}
+
+	@Benchmark
+	public long timeslice(InstructionCounter counter) throws IOException {
+
+		long before = cpu.getInstructions();
+		long overshoot = cpu.run(TIMESLICE);
+		counter.instructions += cpu.getInstructions() - before;
+		test.restartIfDone();
+		return overshoot;
+	}
+}
@@ -0,0 +1,80 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.Soft6502;
+
+/**
+ * The kind of tight loop games spend their time in (copy a page, then add it
+ * up), where the JIT should pay off most; compare {@code jit} against the
+ * {@code opcode} engine's lambdas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotLoopBenchmark {
+
+	private static final int START = 0x0200;
+	private static final long TIMESLICE = 40000;
+
+	private static final int[] CODE = {
+		0xA2, 0x00,			// LDX #0
+		0xBD, 0x00, 0x30,	// LDA &3000,X
+		0x9D, 0x00, 0x31,	// STA &3100,X
+		0xE8,				// INX
+		0xD0, 0xF7,			// BNE &0202
+		0x18,				// CLC
+		0xA9, 0x00,			// LDA #0
+		0x7D, 0x00, 0x31,	// ADC &3100,X
+		0xE8,				// INX
+		0xD0, 0xFA,			// BNE &020E
+		0x85, 0x70,			// STA &70
+		0x4C, 0x00, 0x02	// JMP &0200
+	};
+
+	@Param({ Engines.OPCODE, Engines.SWITCH, Engines.LAZY, Engines.BLOCK, Engines.JIT })
+	public String engine;
+
+	private Soft6502 cpu;
+
+	@Setup
+	public void setup() {
+
+		Ram16Bit ram = Engines.createMemory(engine);
+		for (int i = 0; i < CODE.length; i++) {
+			ram.setByte(START + i, CODE[i]);
+		}
+		for (int i = 0; i < 0x100; i++) {
+			ram.setByte(0x3000 + i, i);
+		}
+
+		cpu = new Soft6502(ram);
+		cpu.setEngine(Engines.create(engine));
+		cpu.setPC(START);
+	}
+
+	@Benchmark
+	public long timeslice(InstructionCounter counter) {
+
+		long before = cpu.getInstructions();
+		long overshoot = cpu.run(TIMESLICE);
+		counter.instructions += cpu.getInstructions() - before;
+		return overshoot;
+	}
+}
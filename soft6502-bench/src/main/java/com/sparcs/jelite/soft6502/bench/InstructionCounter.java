@@ -0,0 +1,24 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reports instructions executed as a rate, i.e. instructions per second
+ * (divide by a million for MIPS).
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class InstructionCounter {
+
+	public long instructions;
+
+	@Setup(Level.Iteration)
+	public void clean() {
+
+		instructions = 0;
+	}
+}
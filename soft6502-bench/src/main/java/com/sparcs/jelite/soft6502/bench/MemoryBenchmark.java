@@ -0,0 +1,80 @@
+package com.sparcs.jelite.soft6502.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sparcs.jelite.soft6502.PagedMemory;
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.SidewaysMemory;
+
+/**
+ * Byte reads and writes per second across the whole address space, for
+ * each memory model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBenchmark {
+
+	@Param({ "flat", "paged", "sideways" })
+	public String memory;
+
+	private Ram16Bit ram;
+
+	@Setup
+	public void setup() {
+
+		switch (memory) {
+		case "flat":
+			ram = new Ram16Bit();
+			break;
+		case "paged":
+			PagedMemory paged = new PagedMemory();
+			paged.mapRom(0xC0, 0x40);
+			ram = paged;
+			break;
+		case "sideways":
+			SidewaysMemory sideways = new SidewaysMemory();
+			sideways.mapRom(0xC0, 0x40);
+			ram = sideways;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown memory: " + memory);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Ram16Bit.LEN_64K)
+	public int read() {
+
+		int sum = 0;
+		for (int addr = 0; addr < Ram16Bit.LEN_64K; addr++) {
+			sum += ram.getByte(addr);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(Ram16Bit.LEN_64K)
+	public void write() {
+
+		for (int addr = 0; addr < Ram16Bit.LEN_64K; addr++) {
+			ram.setByte(addr, addr);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package com.sparcs.jelite.soft6502.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sparcs.jelite.soft6502.Soft6502;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+/**
+ * Publishes how fast a {@link Soft6502} is running, to a Micrometer
+ * {@link MeterRegistry} and, if asked, over JMX:
+ *
+ * <ul>
+ * <li>{@code soft6502.instructions} and {@code soft6502.clockticks}, counters
+ * <li>{@code soft6502.mips} and {@code soft6502.mhz}, the rates they're going
+ * up per second of host time, and {@code soft6502.speed}, the clock rate
+ * compared with a real Model B's 2MHz
+ * <li>{@code soft6502.allocation}, bytes allocated by the thread running the
+ * CPU per emulated second
+ * <li>{@code soft6502.frame}, a timer of the frame times the host records,
+ * with percentiles
+ * </ul>
+ *
+ * Nothing is added to the CPU's inner loop: the counters are read straight
+ * from the CPU when they're published, and the rates worked out from them on
+ * a timer thread every sampling period. Those reads race with the thread
+ * running the CPU, but a sample that's an instruction out doesn't matter.
+ * Bind Micrometer's own {@code JvmGcMetrics} alongside for GC pauses.
+ */
+public class CpuMetrics implements CpuMetricsMXBean, AutoCloseable {
+
+	public static final double MODEL_B_MHZ = 2.0;
+
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final Soft6502 cpu;
+	private final long threadId;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final Timer frames;
+	private ScheduledExecutorService sampler;
+	private ObjectName name;
+
+	// the last sample
+	private long sampled;
+	private long instructions;
+	private long clockticks;
+	private long allocated;
+
+	private volatile double mips;
+	private volatile double mhz;
+	private volatile double allocation = Double.NaN;
+
+	/**
+	 * @param thread the thread that runs the CPU, whose allocations are
+	 *        counted
+	 * @param tags to tell this CPU's meters from others'
+	 */
+	public CpuMetrics(Soft6502 cpu, Thread thread, MeterRegistry registry, Tags tags) {
+
+		this.cpu = cpu;
+		this.threadId = thread.getId();
+
+		FunctionCounter.builder("soft6502.instructions", cpu, Soft6502::getInstructions)
+				.tags(tags)
+				.description("Instructions executed")
+				.register(registry);
+		FunctionCounter.builder("soft6502.clockticks", cpu, Soft6502::getClockticks)
+				.tags(tags)
+				.description("Clock ticks emulated")
+				.register(registry);
+		Gauge.builder("soft6502.mips", this, CpuMetrics::getMips)
+				.tags(tags)
+				.description("Millions of instructions per second of host time")
+				.register(registry);
+		Gauge.builder("soft6502.mhz", this, CpuMetrics::getMhz)
+				.tags(tags)
+				.description("Millions of clock ticks per second of host time")
+				.register(registry);
+		Gauge.builder("soft6502.speed", this, CpuMetrics::getSpeed)
+				.tags(tags)
+				.description("Clock rate compared with a real Model B")
+				.register(registry);
+		Gauge.builder("soft6502.allocation", this, CpuMetrics::getAllocationPerEmulatedSecond)
+				.tags(tags)
+				.baseUnit("bytes")
+				.description("Allocation by the thread running the CPU per emulated second")
+				.register(registry);
+		frames = Timer.builder("soft6502.frame")
+				.tags(tags)
+				.publishPercentiles(PERCENTILES)
+				.description("Host time taken to emulate a frame")
+				.register(registry);
+
+		sample(System.nanoTime());
+	}
+
+	/**
+	 * Start working out the rates every {@code period} milliseconds.
+	 */
+	public synchronized void start(long period) {
+
+		if (sampler == null) {
+			sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "soft6502-metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sampler.scheduleAtFixedRate(() -> sample(System.nanoTime()), period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Publish over JMX, as {@code com.sparcs.jelite:type=Soft6502,name=}
+	 * {@code name}, until closed.
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		this.name = ObjectName.getInstance("com.sparcs.jelite:type=Soft6502,name=" + ObjectName.quote(name));
+		server.registerMBean(this, this.name);
+	}
+
+	/**
+	 * Record the host time a frame took to emulate, once a frame.
+	 */
+	public void recordFrame(long nanos) {
+
+		frames.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Work out the rates since the last sample.
+	 */
+	synchronized void sample(long now) {
+
+		long instructions = cpu.getInstructions();
+		long clockticks = cpu.getClockticks();
+		long allocated = allocatedBytes();
+
+		if (sampled != 0 && now > sampled) {
+			double micros = (now - sampled) / 1000.0;
+			long ticks = clockticks - this.clockticks;
+			mips = (instructions - this.instructions) / micros;
+			mhz = ticks / micros;
+			if (allocated >= 0 && this.allocated >= 0 && ticks > 0) {
+				allocation = (allocated - this.allocated) / (ticks / (MODEL_B_MHZ * 1e6));
+			}
+		}
+
+		sampled = now;
+		this.instructions = instructions;
+		this.clockticks = clockticks;
+		this.allocated = allocated;
+	}
+
+	/**
+	 * @return bytes the CPU's thread has allocated so far, or -1 if the JVM
+	 *         can't say
+	 */
+	private long allocatedBytes() {
+
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)threads;
+			if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+				return sun.getThreadAllocatedBytes(threadId);
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public long getInstructions() {
+
+		return cpu.getInstructions();
+	}
+
+	@Override
+	public long getClockticks() {
+
+		return cpu.getClockticks();
+	}
+
+	@Override
+	public double getMips() {
+
+		return mips;
+	}
+
+	@Override
+	public double getMhz() {
+
+		return mhz;
+	}
+
+	@Override
+	public double getSpeed() {
+
+		return mhz / MODEL_B_MHZ;
+	}
+
+	@Override
+	public double getAllocationPerEmulatedSecond() {
+
+		return allocation;
+	}
+
+	@Override
+	public long getFrames() {
+
+		return frames.count();
+	}
+
+	@Override
+	public double[] getFrameTimePercentiles() {
+
+		ValueAtPercentile[] values = frames.takeSnapshot().percentileValues();
+		double[] millis = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			millis[i] = values[i].value(TimeUnit.MILLISECONDS);
+		}
+		return millis;
+	}
+
+	@Override
+	public synchronized void close() {
+
+		if (sampler != null) {
+			sampler.shutdownNow();
+			sampler = null;
+		}
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			} catch (JMException e) {
+				// already gone
+			}
+			name = null;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.sparcs.jelite.soft6502.metrics;
+
+/**
+ * What {@link CpuMetrics} publishes over JMX; the rates are as of the last
+ * sample.
+ */
+public interface CpuMetricsMXBean {
+
+	long getInstructions();
+
+	long getClockticks();
+
+	/**
+	 * @return millions of instructions executed per second of host time
+	 */
+	double getMips();
+
+	/**
+	 * @return millions of clock ticks emulated per second of host time
+	 */
+	double getMhz();
+
+	/**
+	 * @return how many times faster than a real 2MHz Model B it's running
+	 */
+	double getSpeed();
+
+	/**
+	 * @return bytes allocated by the thread running the CPU per emulated
+	 *         second, or NaN if the JVM can't say
+	 */
+	double getAllocationPerEmulatedSecond();
+
+	long getFrames();
+
+	/**
+	 * @return frame times at the 50th, 90th, 99th and 99.9th percentiles, in
+	 *         milliseconds
+	 */
+	double[] getFrameTimePercentiles();
+}
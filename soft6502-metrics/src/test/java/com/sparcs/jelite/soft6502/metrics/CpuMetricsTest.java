@@ -0,0 +1,128 @@
+package com.sparcs.jelite.soft6502.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sparcs.jelite.soft6502.Ram16Bit;
+import com.sparcs.jelite.soft6502.Soft6502;
+import com.sparcs.jelite.soft6502.SwitchEngine;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CpuMetricsTest {
+
+	private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private Soft6502 cpu;
+	private CpuMetrics metrics;
+
+	@Before
+	public void beforeTest() {
+
+		Ram16Bit ram = new Ram16Bit();
+		ram.setByte(0x0200, 0xE8);	// INX
+		ram.setByte(0x0201, 0x4C);	// JMP $0200
+		ram.setByte(0x0202, 0x00);
+		ram.setByte(0x0203, 0x02);
+
+		cpu = new Soft6502(ram);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+		metrics = new CpuMetrics(cpu, Thread.currentThread(), registry, Tags.of("machine", "test"));
+	}
+
+	@After
+	public void afterTest() {
+
+		metrics.close();
+	}
+
+	@Test
+	public void countsFromTheCpu() {
+
+		cpu.run(1000);
+
+		assertEquals(cpu.getInstructions(), registry.get("soft6502.instructions").functionCounter().count(), 0);
+		assertEquals(cpu.getClockticks(), registry.get("soft6502.clockticks").tag("machine", "test").functionCounter().count(), 0);
+	}
+
+	@Test
+	public void worksOutRates() {
+
+		long now = System.nanoTime();
+		metrics.sample(now);
+		cpu.run(2000000);	// INX(2) + JMP(3), so 800,000 instructions
+		metrics.sample(now + TimeUnit.MILLISECONDS.toNanos(500));
+
+		assertEquals(1.6, registry.get("soft6502.mips").gauge().value(), 0.001);
+		assertEquals(4.0, registry.get("soft6502.mhz").gauge().value(), 0.001);
+		assertEquals(2.0, registry.get("soft6502.speed").gauge().value(), 0.001);
+	}
+
+	@Test
+	public void countsAllocationPerEmulatedSecond() {
+
+		long now = System.nanoTime();
+		metrics.sample(now);
+		byte[][] garbage = new byte[100][];
+		for (int i = 0; i < garbage.length; i++) {
+			garbage[i] = new byte[10000];
+		}
+		cpu.run(1000000);
+		metrics.sample(now + 1);
+
+		// at least a megabyte, in half an emulated second
+		double allocation = metrics.getAllocationPerEmulatedSecond();
+		assertTrue(String.valueOf(allocation), Double.isNaN(allocation) || allocation >= 2000000);
+		assertNotNull(garbage[99]);
+	}
+
+	@Test
+	public void timesFrames() {
+
+		for (int i = 1; i <= 100; i++) {
+			metrics.recordFrame(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+
+		assertEquals(100, registry.get("soft6502.frame").timer().count());
+		double[] percentiles = metrics.getFrameTimePercentiles();
+		assertEquals(4, percentiles.length);
+		assertEquals(50, percentiles[0], 2);
+		assertEquals(99, percentiles[2], 3);
+	}
+
+	@Test
+	public void publishesOverJmx() throws Exception {
+
+		metrics.registerMBean("test");
+		cpu.run(1000);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.sparcs.jelite:type=Soft6502,name=\"test\"");
+		assertEquals(cpu.getInstructions(), server.getAttribute(name, "Instructions"));
+
+		metrics.close();
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test
+	public void samplesOnATimer() {
+
+		metrics.start(10);
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		while (System.nanoTime() < end) {
+			cpu.run(10000);
+		}
+
+		assertTrue(metrics.getMips() > 0);
+	}
+}
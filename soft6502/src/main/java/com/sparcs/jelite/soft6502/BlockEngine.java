@@ -0,0 +1,1408 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_BREAK;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CONSTANT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_DECIMAL;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_INTERRUPT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+import static com.sparcs.jelite.soft6502.SwitchEngine.adc;
+import static com.sparcs.jelite.soft6502.SwitchEngine.asl;
+import static com.sparcs.jelite.soft6502.SwitchEngine.branchPenalty;
+import static com.sparcs.jelite.soft6502.SwitchEngine.compare;
+import static com.sparcs.jelite.soft6502.SwitchEngine.lsr;
+import static com.sparcs.jelite.soft6502.SwitchEngine.nz;
+import static com.sparcs.jelite.soft6502.SwitchEngine.pagePenalty;
+import static com.sparcs.jelite.soft6502.SwitchEngine.rol;
+import static com.sparcs.jelite.soft6502.SwitchEngine.ror;
+import static com.sparcs.jelite.soft6502.SwitchEngine.sbc;
+import static com.sparcs.jelite.soft6502.SwitchEngine.word;
+import static com.sparcs.jelite.soft6502.SwitchEngine.zpWord;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Executes basic blocks that have been decoded once and cached.
+ * 
+ * A block is a run of straight-line code, ending with the first branch, jump,
+ * JSR, RTS, RTI or BRK (or after {@value #MAX_LENGTH} instructions). Each
+ * instruction is decoded to a pair of ints, with its operand, branch target
+ * and base cycle count already worked out:
+ * 
+ * <pre>
+ * word 0: operand(16) ticks(4) opcode(8)
+ * word 1: address of the next instruction
+ * </pre>
+ * 
+ * so executing it needs no opcode or operand fetches; the {@code switch} is
+ * otherwise the same as {@link SwitchEngine}'s, and behaviour must match
+ * {@link OpcodeEngine} exactly.
+ * 
+ * Blocks are cached by start address. The engine watches the pages each block
+ * was decoded from (see {@link PagedMemory#watch}), so writing to one, or
+ * paging another sideways bank in over it, throws away every block that
+ * could have been decoded from it, including the one running. That means the
+ * CPU's memory must be a {@link PagedMemory}, and that unlike the other
+ * engines this one can't be shared between CPUs. Code isn't cached while it
+ * runs from I/O pages.
+ * 
+ * Interrupts and the clock goal are still checked before every instruction,
+ * so a block can be left part way through. A block given a {@link Compiled}
+ * form (see {@link JitEngine}) runs that instead, when it's sure to finish
+ * before the clock goal. Running until a condition holds
+ * needs the registers in the CPU before every instruction anyway, so that's
+ * handed to a {@link SwitchEngine}.
+ */
+public class BlockEngine implements Engine {
+
+	public static final int MAX_LENGTH = 32;
+
+	private static final int BASE_STACK = 0x0100;
+
+	// opcodes that end a block
+	private static final boolean[] ENDS = new boolean[256];
+	static {
+		for (int op : new int[] {
+				0x00, 0x20, 0x40, 0x4C, 0x60, 0x6C,
+				0x10, 0x30, 0x50, 0x70, 0x90, 0xB0, 0xD0, 0xF0 }) {
+			ENDS[op] = true;
+		}
+	}
+
+	// extra ticks an instruction can take: crossing a page, or a branch
+	private static final int[] MAX_PENALTY = new int[256];
+	static {
+		for (int op = 0; op < 256; op++) {
+			switch (Opcode.byCode[op].getMode()) {
+			case RELATIVE:
+				MAX_PENALTY[op] = 2;
+				break;
+			case ABSOLUTE_X:
+			case ABSOLUTE_Y:
+			case INDIRECT_Y:
+				MAX_PENALTY[op] = 1;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	// a block that's never valid, to start with
+	private static final Block NONE = new Block(0, new int[0], 0, false);
+	static {
+		NONE.valid = false;
+	}
+
+	private final Engine interpreter = new SwitchEngine();
+	private final PagedMemory.Watcher watcher = this::invalidate;
+	private final Block[] cache = new Block[Ram16Bit.LEN_64K];
+	private final int[] decoded = new int[MAX_LENGTH * 2];
+	// times each page has changed under cached blocks
+	private final int[] rewrites = new int[PagedMemory.PAGES];
+	private PagedMemory memory;
+
+	// counters
+	private long translations;
+	private long invalidations;
+
+	static final class Block {
+
+		final int start;
+		final int[] code;
+		// the most clock ticks it can take, penalties and all
+		final int cycles;
+		// whether it runs on into the next page
+		final boolean spans;
+		boolean valid = true;
+
+		// for JitEngine
+		int entries;
+		Compiled compiled;
+
+		Block(int start, int[] code, int cycles, boolean spans) {
+
+			this.start = start;
+			this.code = code;
+			this.cycles = cycles;
+			this.spans = spans;
+		}
+	}
+
+	@Override
+	public void run(Soft6502 cpu, Predicate<Soft6502> condition) {
+
+		if (condition != null) {
+			interpreter.run(cpu, condition);
+			return;
+		}
+		if (cpu.ram != memory) {
+			bind(cpu.ram);
+		}
+
+		PagedMemory ram = memory;
+		int pc = cpu.pc;
+		int a = cpu.a;
+		int x = cpu.x;
+		int y = cpu.y;
+		int sp = cpu.sp;
+		int p = cpu.status;
+		long ticks = cpu.clockticks;
+		long n = 0;
+		int ea, t, v;
+
+		Block block = NONE;
+		int[] code = block.code;
+		int i = 0;
+
+		// re-read every instruction: a device may schedule an event that
+		// pulls the goal in
+		while (ticks < cpu.clockgoal) {
+
+			// leave interrupts to the CPU, between instructions
+			if (cpu.interruptPending && (cpu.nmiPending || (p & FLAG_INTERRUPT) == 0)) {
+				break;
+			}
+
+			// off the end of the block, or it's just been written to
+			if (i == code.length || !block.valid) {
+				block = lookup(pc);
+				code = block.code;
+				i = 0;
+
+				// compiled, and sure to finish before the goal
+				if (block.compiled != null && ticks + block.cycles < cpu.clockgoal) {
+					cpu.pc = pc;
+					cpu.a = a;
+					cpu.x = x;
+					cpu.y = y;
+					cpu.sp = sp;
+					cpu.status = p;
+					cpu.clockticks = ticks;
+					block.compiled.run(cpu, block);
+					pc = cpu.pc;
+					a = cpu.a;
+					x = cpu.x;
+					y = cpu.y;
+					sp = cpu.sp;
+					p = cpu.status;
+					ticks = cpu.clockticks;
+					i = code.length;
+					continue;
+				}
+			}
+
+			// for I/O devices, which see the cycle an instruction starts on
+			cpu.clockticks = ticks;
+
+			n++;
+			int w = code[i];
+			pc = code[i + 1];
+			i += 2;
+			int o = w >>> 12;
+			ticks += (w >>> 8) & 0x0F;
+
+			switch (w & 0xFF) {
+
+			case 0x00: // BRK
+				pc++;
+				ram.setByte(BASE_STACK + sp, (pc >> 8) & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 1) & 0xFF), pc & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 2) & 0xFF), p | FLAG_BREAK);
+				sp = (sp - 3) & 0xFF;
+				p |= FLAG_INTERRUPT;
+				pc = word(ram, 0xFFFE);
+				break;
+
+			case 0x01: // ORA (zp,X)
+				ea = zpWord(ram, o + x);
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x05: // ORA zp
+				ea = o;
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x06: // ASL zp
+				ea = o;
+				t = asl(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x08: // PHP
+				ram.setByte(BASE_STACK + sp, p | FLAG_BREAK);
+				sp = (sp - 1) & 0xFF;
+				break;
+
+			case 0x09: // ORA #
+				a |= o;
+				p = nz(p, a);
+				break;
+
+			case 0x0A: // ASL A
+				t = asl(p, a);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x0D: // ORA abs
+				ea = o;
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x0E: // ASL abs
+				ea = o;
+				t = asl(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x10: // BPL
+				if ((p & FLAG_SIGN) == 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0x11: // ORA (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x15: // ORA zp,X
+				ea = (o + x) & 0xFF;
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x16: // ASL zp,X
+				ea = (o + x) & 0xFF;
+				t = asl(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x18: // CLC
+				p &= ~FLAG_CARRY;
+				break;
+
+			case 0x19: // ORA abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x1D: // ORA abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a |= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x1E: // ASL abs,X
+				ea = (o + x) & 0xFFFF;
+				t = asl(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x20: // JSR abs
+				t = pc - 1;
+				ram.setByte(BASE_STACK + sp, (t >> 8) & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 1) & 0xFF), t & 0xFF);
+				sp = (sp - 2) & 0xFF;
+				pc = o;
+				break;
+
+			case 0x21: // AND (zp,X)
+				ea = zpWord(ram, o + x);
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x24: // BIT zp
+				ea = o;
+				v = ram.getByte(ea);
+				p = (p & ~(FLAG_SIGN | FLAG_OVERFLOW | FLAG_ZERO)) | (v & (FLAG_SIGN | FLAG_OVERFLOW)) | ((a & v) == 0 ? FLAG_ZERO : 0);
+				break;
+
+			case 0x25: // AND zp
+				ea = o;
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x26: // ROL zp
+				ea = o;
+				t = rol(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x28: // PLP
+				sp = (sp + 1) & 0xFF;
+				p = ram.getByte(BASE_STACK + sp) | FLAG_CONSTANT;
+				break;
+
+			case 0x29: // AND #
+				a &= o;
+				p = nz(p, a);
+				break;
+
+			case 0x2A: // ROL A
+				t = rol(p, a);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x2C: // BIT abs
+				ea = o;
+				v = ram.getByte(ea);
+				p = (p & ~(FLAG_SIGN | FLAG_OVERFLOW | FLAG_ZERO)) | (v & (FLAG_SIGN | FLAG_OVERFLOW)) | ((a & v) == 0 ? FLAG_ZERO : 0);
+				break;
+
+			case 0x2D: // AND abs
+				ea = o;
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x2E: // ROL abs
+				ea = o;
+				t = rol(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x30: // BMI
+				if ((p & FLAG_SIGN) != 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0x31: // AND (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x35: // AND zp,X
+				ea = (o + x) & 0xFF;
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x36: // ROL zp,X
+				ea = (o + x) & 0xFF;
+				t = rol(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x38: // SEC
+				p |= FLAG_CARRY;
+				break;
+
+			case 0x39: // AND abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x3D: // AND abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a &= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x3E: // ROL abs,X
+				ea = (o + x) & 0xFFFF;
+				t = rol(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x40: // RTI
+				sp = (sp + 1) & 0xFF;
+				p = ram.getByte(BASE_STACK + sp) | FLAG_CONSTANT;
+				pc = ram.getByte(BASE_STACK + ((sp + 1) & 0xFF)) | (ram.getByte(BASE_STACK + ((sp + 2) & 0xFF)) << 8);
+				sp = (sp + 2) & 0xFF;
+				break;
+
+			case 0x41: // EOR (zp,X)
+				ea = zpWord(ram, o + x);
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x45: // EOR zp
+				ea = o;
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x46: // LSR zp
+				ea = o;
+				t = lsr(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x48: // PHA
+				ram.setByte(BASE_STACK + sp, a);
+				sp = (sp - 1) & 0xFF;
+				break;
+
+			case 0x49: // EOR #
+				a ^= o;
+				p = nz(p, a);
+				break;
+
+			case 0x4A: // LSR A
+				t = lsr(p, a);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x4C: // JMP abs
+				pc = o;
+				break;
+
+			case 0x4D: // EOR abs
+				ea = o;
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x4E: // LSR abs
+				ea = o;
+				t = lsr(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x50: // BVC
+				if ((p & FLAG_OVERFLOW) == 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0x51: // EOR (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x55: // EOR zp,X
+				ea = (o + x) & 0xFF;
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x56: // LSR zp,X
+				ea = (o + x) & 0xFF;
+				t = lsr(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x58: // CLI
+				p &= ~FLAG_INTERRUPT;
+				break;
+
+			case 0x59: // EOR abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x5D: // EOR abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a ^= ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0x5E: // LSR abs,X
+				ea = (o + x) & 0xFFFF;
+				t = lsr(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x60: // RTS
+				pc = ((ram.getByte(BASE_STACK + ((sp + 1) & 0xFF)) | (ram.getByte(BASE_STACK + ((sp + 2) & 0xFF)) << 8)) + 1) & 0xFFFF;
+				sp = (sp + 2) & 0xFF;
+				break;
+
+			case 0x61: // ADC (zp,X)
+				ea = zpWord(ram, o + x);
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x65: // ADC zp
+				ea = o;
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x66: // ROR zp
+				ea = o;
+				t = ror(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x68: // PLA
+				sp = (sp + 1) & 0xFF;
+				a = ram.getByte(BASE_STACK + sp);
+				p = nz(p, a);
+				break;
+
+			case 0x69: // ADC #
+				t = adc(p, a, o);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x6A: // ROR A
+				t = ror(p, a);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x6C: // JMP (abs)
+				ea = ram.getByte(o) | (ram.getByte((o & 0xFF00) | ((o + 1) & 0xFF)) << 8);
+				pc = ea;
+				break;
+
+			case 0x6D: // ADC abs
+				ea = o;
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x6E: // ROR abs
+				ea = o;
+				t = ror(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x70: // BVS
+				if ((p & FLAG_OVERFLOW) != 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0x71: // ADC (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x75: // ADC zp,X
+				ea = (o + x) & 0xFF;
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x76: // ROR zp,X
+				ea = (o + x) & 0xFF;
+				t = ror(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x78: // SEI
+				p |= FLAG_INTERRUPT;
+				break;
+
+			case 0x79: // ADC abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x7D: // ADC abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				t = adc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0x7E: // ROR abs,X
+				ea = (o + x) & 0xFFFF;
+				t = ror(p, ram.getByte(ea));
+				ram.setByte(ea, t & 0xFF);
+				p = t >> 8;
+				break;
+
+			case 0x81: // STA (zp,X)
+				ea = zpWord(ram, o + x);
+				ram.setByte(ea, a);
+				break;
+
+			case 0x84: // STY zp
+				ea = o;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x85: // STA zp
+				ea = o;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x86: // STX zp
+				ea = o;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x88: // DEY
+				y = (y - 1) & 0xFF;
+				p = nz(p, y);
+				break;
+
+			case 0x8A: // TXA
+				a = x;
+				p = nz(p, a);
+				break;
+
+			case 0x8C: // STY abs
+				ea = o;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x8D: // STA abs
+				ea = o;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x8E: // STX abs
+				ea = o;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x90: // BCC
+				if ((p & FLAG_CARRY) == 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0x91: // STA (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x94: // STY zp,X
+				ea = (o + x) & 0xFF;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x95: // STA zp,X
+				ea = (o + x) & 0xFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x96: // STX zp,Y
+				ea = (o + y) & 0xFF;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x98: // TYA
+				a = y;
+				p = nz(p, a);
+				break;
+
+			case 0x99: // STA abs,Y
+				ea = (o + y) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x9A: // TXS
+				sp = x;
+				break;
+
+			case 0x9D: // STA abs,X
+				ea = (o + x) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0xA0: // LDY #
+				y = o;
+				p = nz(p, y);
+				break;
+
+			case 0xA1: // LDA (zp,X)
+				ea = zpWord(ram, o + x);
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xA2: // LDX #
+				x = o;
+				p = nz(p, x);
+				break;
+
+			case 0xA4: // LDY zp
+				ea = o;
+				y = ram.getByte(ea);
+				p = nz(p, y);
+				break;
+
+			case 0xA5: // LDA zp
+				ea = o;
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xA6: // LDX zp
+				ea = o;
+				x = ram.getByte(ea);
+				p = nz(p, x);
+				break;
+
+			case 0xA8: // TAY
+				y = a;
+				p = nz(p, y);
+				break;
+
+			case 0xA9: // LDA #
+				a = o;
+				p = nz(p, a);
+				break;
+
+			case 0xAA: // TAX
+				x = a;
+				p = nz(p, x);
+				break;
+
+			case 0xAC: // LDY abs
+				ea = o;
+				y = ram.getByte(ea);
+				p = nz(p, y);
+				break;
+
+			case 0xAD: // LDA abs
+				ea = o;
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xAE: // LDX abs
+				ea = o;
+				x = ram.getByte(ea);
+				p = nz(p, x);
+				break;
+
+			case 0xB0: // BCS
+				if ((p & FLAG_CARRY) != 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0xB1: // LDA (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xB4: // LDY zp,X
+				ea = (o + x) & 0xFF;
+				y = ram.getByte(ea);
+				p = nz(p, y);
+				break;
+
+			case 0xB5: // LDA zp,X
+				ea = (o + x) & 0xFF;
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xB6: // LDX zp,Y
+				ea = (o + y) & 0xFF;
+				x = ram.getByte(ea);
+				p = nz(p, x);
+				break;
+
+			case 0xB8: // CLV
+				p &= ~FLAG_OVERFLOW;
+				break;
+
+			case 0xB9: // LDA abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xBA: // TSX
+				x = sp;
+				p = nz(p, x);
+				break;
+
+			case 0xBC: // LDY abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				y = ram.getByte(ea);
+				p = nz(p, y);
+				break;
+
+			case 0xBD: // LDA abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				a = ram.getByte(ea);
+				p = nz(p, a);
+				break;
+
+			case 0xBE: // LDX abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				x = ram.getByte(ea);
+				p = nz(p, x);
+				break;
+
+			case 0xC0: // CPY #
+				p = compare(p, y, o);
+				break;
+
+			case 0xC1: // CMP (zp,X)
+				ea = zpWord(ram, o + x);
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xC4: // CPY zp
+				ea = o;
+				p = compare(p, y, ram.getByte(ea));
+				break;
+
+			case 0xC5: // CMP zp
+				ea = o;
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xC6: // DEC zp
+				ea = o;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xC8: // INY
+				y = (y + 1) & 0xFF;
+				p = nz(p, y);
+				break;
+
+			case 0xC9: // CMP #
+				p = compare(p, a, o);
+				break;
+
+			case 0xCA: // DEX
+				x = (x - 1) & 0xFF;
+				p = nz(p, x);
+				break;
+
+			case 0xCC: // CPY abs
+				ea = o;
+				p = compare(p, y, ram.getByte(ea));
+				break;
+
+			case 0xCD: // CMP abs
+				ea = o;
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xCE: // DEC abs
+				ea = o;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xD0: // BNE
+				if ((p & FLAG_ZERO) == 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0xD1: // CMP (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xD5: // CMP zp,X
+				ea = (o + x) & 0xFF;
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xD6: // DEC zp,X
+				ea = (o + x) & 0xFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xD8: // CLD
+				p &= ~FLAG_DECIMAL;
+				break;
+
+			case 0xD9: // CMP abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xDD: // CMP abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				p = compare(p, a, ram.getByte(ea));
+				break;
+
+			case 0xDE: // DEC abs,X
+				ea = (o + x) & 0xFFFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xE0: // CPX #
+				p = compare(p, x, o);
+				break;
+
+			case 0xE1: // SBC (zp,X)
+				ea = zpWord(ram, o + x);
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xE4: // CPX zp
+				ea = o;
+				p = compare(p, x, ram.getByte(ea));
+				break;
+
+			case 0xE5: // SBC zp
+				ea = o;
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xE6: // INC zp
+				ea = o;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xE8: // INX
+				x = (x + 1) & 0xFF;
+				p = nz(p, x);
+				break;
+
+			case 0xE9: // SBC #
+			case 0xEB: // SBC #
+				t = sbc(p, a, o);
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xEC: // CPX abs
+				ea = o;
+				p = compare(p, x, ram.getByte(ea));
+				break;
+
+			case 0xED: // SBC abs
+				ea = o;
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xEE: // INC abs
+				ea = o;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xF0: // BEQ
+				if ((p & FLAG_ZERO) != 0) {
+					ticks += branchPenalty(pc, o);
+					pc = o;
+				}
+				break;
+
+			case 0xF1: // SBC (zp),Y
+				t = zpWord(ram, o);
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xF5: // SBC zp,X
+				ea = (o + x) & 0xFF;
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xF6: // INC zp,X
+				ea = (o + x) & 0xFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0xF8: // SED
+				p |= FLAG_DECIMAL;
+				break;
+
+			case 0xF9: // SBC abs,Y
+				ea = (o + y) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xFD: // SBC abs,X
+				ea = (o + x) & 0xFFFF;
+				ticks += pagePenalty(o, ea);
+				t = sbc(p, a, ram.getByte(ea));
+				a = t & 0xFF;
+				p = t >> 8;
+				break;
+
+			case 0xFE: // INC abs,X
+				ea = (o + x) & 0xFFFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				p = nz(p, v);
+				break;
+
+			case 0x02: // NOP
+			case 0x12: // NOP
+			case 0x1A: // NOP
+			case 0x22: // NOP
+			case 0x32: // NOP
+			case 0x3A: // NOP
+			case 0x42: // NOP
+			case 0x52: // NOP
+			case 0x5A: // NOP
+			case 0x62: // NOP
+			case 0x72: // NOP
+			case 0x7A: // NOP
+			case 0x92: // NOP
+			case 0xB2: // NOP
+			case 0xD2: // NOP
+			case 0xDA: // NOP
+			case 0xEA: // NOP
+			case 0xF2: // NOP
+			case 0xFA: // NOP
+				break;
+
+			case 0x04: // NOP zp
+			case 0x0B: // NOP #
+			case 0x0C: // NOP abs
+			case 0x14: // NOP zp,X
+			case 0x2B: // NOP #
+			case 0x34: // NOP zp,X
+			case 0x44: // NOP zp
+			case 0x4B: // NOP #
+			case 0x54: // NOP zp,X
+			case 0x64: // NOP zp
+			case 0x6B: // NOP #
+			case 0x74: // NOP zp,X
+			case 0x80: // NOP #
+			case 0x82: // NOP #
+			case 0x89: // NOP #
+			case 0x8B: // NOP #
+			case 0x93: // NOP (zp),Y
+			case 0x9B: // NOP abs,Y
+			case 0x9C: // NOP abs,X
+			case 0x9E: // NOP abs,Y
+			case 0x9F: // NOP abs,Y
+			case 0xAB: // NOP #
+			case 0xC2: // NOP #
+			case 0xCB: // NOP #
+			case 0xD4: // NOP zp,X
+			case 0xE2: // NOP #
+			case 0xF4: // NOP zp,X
+				break;
+
+			case 0x1C: // NOP abs,X
+			case 0x3C: // NOP abs,X
+			case 0x5C: // NOP abs,X
+			case 0x7C: // NOP abs,X
+			case 0xDC: // NOP abs,X
+			case 0xFC: // NOP abs,X
+				ticks += pagePenalty(o, o + x);
+				break;
+
+			// LAX, SAX and the undocumented read-modify-writes are rare enough
+			// to leave to Opcode, which keeps this method under the limit
+			case 0x03: // SLO (zp,X)
+			case 0x07: // SLO zp
+			case 0x0F: // SLO abs
+			case 0x13: // SLO (zp),Y
+			case 0x17: // SLO zp,X
+			case 0x1B: // SLO abs,Y
+			case 0x1F: // SLO abs,X
+			case 0x23: // RLA (zp,X)
+			case 0x27: // RLA zp
+			case 0x2F: // RLA abs
+			case 0x33: // RLA (zp),Y
+			case 0x37: // RLA zp,X
+			case 0x3B: // RLA abs,Y
+			case 0x3F: // RLA abs,X
+			case 0x43: // SRE (zp,X)
+			case 0x47: // SRE zp
+			case 0x4F: // SRE abs
+			case 0x53: // SRE (zp),Y
+			case 0x57: // SRE zp,X
+			case 0x5B: // SRE abs,Y
+			case 0x5F: // SRE abs,X
+			case 0x63: // RRA (zp,X)
+			case 0x67: // RRA zp
+			case 0x6F: // RRA abs
+			case 0x73: // RRA (zp),Y
+			case 0x77: // RRA zp,X
+			case 0x7B: // RRA abs,Y
+			case 0x7F: // RRA abs,X
+			case 0x83: // SAX (zp,X)
+			case 0x87: // SAX zp
+			case 0x8F: // SAX abs
+			case 0x97: // SAX zp,Y
+			case 0xA3: // LAX (zp,X)
+			case 0xA7: // LAX zp
+			case 0xAF: // LAX abs
+			case 0xB3: // LAX (zp),Y
+			case 0xB7: // LAX zp,Y
+			case 0xBB: // LAX abs,Y
+			case 0xBF: // LAX abs,Y
+			case 0xC3: // DCP (zp,X)
+			case 0xC7: // DCP zp
+			case 0xCF: // DCP abs
+			case 0xD3: // DCP (zp),Y
+			case 0xD7: // DCP zp,X
+			case 0xDB: // DCP abs,Y
+			case 0xDF: // DCP abs,X
+			case 0xE3: // ISB (zp,X)
+			case 0xE7: // ISB zp
+			case 0xEF: // ISB abs
+			case 0xF3: // ISB (zp),Y
+			case 0xF7: // ISB zp,X
+			case 0xFB: // ISB abs,Y
+			case 0xFF: // ISB abs,X
+				cpu.pc = (pc - Opcode.byCode[w & 0xFF].getOperandSize()) & 0xFFFF;
+				cpu.a = a;
+				cpu.x = x;
+				cpu.y = y;
+				cpu.status = p;
+				ticks += Opcode.byCode[w & 0xFF].executeWithPenalty(cpu);
+				a = cpu.a;
+				x = cpu.x;
+				y = cpu.y;
+				p = cpu.status;
+				break;
+			}
+		}
+
+		cpu.pc = pc;
+		cpu.a = a;
+		cpu.x = x;
+		cpu.y = y;
+		cpu.sp = sp;
+		cpu.status = p;
+		cpu.clockticks = ticks;
+		cpu.instructions += n;
+	}
+
+	private void bind(Ram16Bit ram) {
+
+		if (!(ram instanceof PagedMemory)) {
+			throw new IllegalStateException("BlockEngine needs a PagedMemory to see writes to code");
+		}
+		flush();
+		memory = (PagedMemory)ram;
+	}
+
+	/**
+	 * @return the cached block starting at {@code pc}, decoding it if need be
+	 */
+	Block lookup(int pc) {
+
+		Block block = cache[pc];
+		if (block == null) {
+			block = translate(pc);
+		}
+		return block;
+	}
+
+	private Block translate(int start) {
+
+		int[] code = decoded;
+		int length = 0;
+		int cycles = 0;
+		int pc = start;
+
+		while (true) {
+			int op = memory.getByte(pc);
+			Opcode opcode = Opcode.byCode[op];
+			int operand;
+			switch (opcode.getOperandSize()) {
+			case 0:
+				operand = 0;
+				break;
+			case 1:
+				operand = memory.getByte((pc + 1) & 0xFFFF);
+				break;
+			default:
+				operand = memory.getByte((pc + 1) & 0xFFFF) | (memory.getByte((pc + 2) & 0xFFFF) << 8);
+				break;
+			}
+			pc = (pc + 1 + opcode.getOperandSize()) & 0xFFFF;
+			if (ENDS[op] && (op & 0x1F) == 0x10) {
+				// branch: resolve the target
+				operand = (pc + (byte)operand) & 0xFFFF;
+			}
+			code[length++] = (operand << 12) | (opcode.getTicks() << 8) | op;
+			code[length++] = pc;
+			cycles += opcode.getTicks() + MAX_PENALTY[op];
+
+			// don't read ahead into I/O; it might notice
+			if (ENDS[op] || length == code.length || memory.isIo(pc >>> 8)) {
+				break;
+			}
+		}
+
+		int first = start >>> 8;
+		int last = ((pc - 1) & 0xFFFF) >>> 8;
+		Block block = new Block(start, Arrays.copyOf(code, length), cycles, first != last);
+		translations++;
+
+		if (!memory.isIo(first) && !memory.isIo(last)) {
+			memory.watch(first, watcher);
+			memory.watch(last, watcher);
+			cache[start] = block;
+		}
+		return block;
+	}
+
+	/**
+	 * Throw away blocks that might have been decoded from a page: those that
+	 * start in it, and those that start in the page before and run into it.
+	 */
+	private void invalidate(int page) {
+
+		int before = ((page - 1) & 0xFF) << 8;
+		for (int addr = before; addr < before + PagedMemory.PAGE_SIZE; addr++) {
+			Block block = cache[addr];
+			if (block != null && block.spans) {
+				discard(addr);
+			}
+		}
+		for (int addr = page << 8; addr < (page + 1) << 8; addr++) {
+			if (cache[addr] != null) {
+				discard(addr);
+			}
+		}
+		rewrites[page]++;
+		invalidations++;
+	}
+
+	/**
+	 * @return the number of times code decoded from a page has been thrown
+	 *         away because the page changed
+	 */
+	int getRewrites(int page) {
+
+		return rewrites[page];
+	}
+
+	private void discard(int addr) {
+
+		cache[addr].valid = false;
+		cache[addr] = null;
+	}
+
+	/**
+	 * Throw away every cached block.
+	 */
+	public void flush() {
+
+		for (int addr = 0; addr < cache.length; addr++) {
+			if (cache[addr] != null) {
+				discard(addr);
+			}
+		}
+	}
+
+	//=== counters
+
+	/**
+	 * @return the number of blocks decoded
+	 */
+	public long getTranslations() {
+
+		return translations;
+	}
+
+	/**
+	 * @return the number of times a watched page changed
+	 */
+	public long getInvalidations() {
+
+		return invalidations;
+	}
+
+	public void resetCounters() {
+
+		translations = 0;
+		invalidations = 0;
+	}
+}
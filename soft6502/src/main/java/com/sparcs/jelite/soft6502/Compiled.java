@@ -0,0 +1,56 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_INTERRUPT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+
+/**
+ * A block compiled to bytecode by {@link JitCompiler}; generated classes
+ * extend this, and call the static helpers below.
+ */
+abstract class Compiled {
+
+	private static final int BASE_STACK = 0x0100;
+
+	/**
+	 * Run the block, and run it again while it loops back to its own start,
+	 * taking and leaving the registers, clock ticks and instruction count in
+	 * the CPU.
+	 *
+	 * Only called when the block is sure to finish before the clock goal.
+	 */
+	abstract void run(Soft6502 cpu, BlockEngine.Block block);
+
+	/**
+	 * Called after an instruction that could have reached a device or the
+	 * block's own code, to see whether the interpreter has to take over.
+	 */
+	static boolean mustStop(Soft6502 cpu, BlockEngine.Block block, long ticks, int p) {
+
+		return ticks >= cpu.clockgoal
+				|| !block.valid
+				|| (cpu.interruptPending && (cpu.nmiPending || (p & FLAG_INTERRUPT) == 0));
+	}
+
+	/**
+	 * Called when a block branches back to its own start.
+	 */
+	static boolean canRepeat(Soft6502 cpu, BlockEngine.Block block, long ticks, int p) {
+
+		return ticks + block.cycles < cpu.clockgoal && !mustStop(cpu, block, ticks, p);
+	}
+
+	static int bit(int p, int a, int value) {
+
+		return (p & ~(FLAG_SIGN | FLAG_OVERFLOW | FLAG_ZERO))
+				| (value & (FLAG_SIGN | FLAG_OVERFLOW))
+				| ((a & value) == 0 ? FLAG_ZERO : 0);
+	}
+
+	// the return address an RTS pulls, less one
+	static int pullWord(Ram16Bit ram, int sp) {
+
+		return ram.getByte(BASE_STACK + ((sp + 1) & 0xFF)) | (ram.getByte(BASE_STACK + ((sp + 2) & 0xFF)) << 8);
+	}
+}
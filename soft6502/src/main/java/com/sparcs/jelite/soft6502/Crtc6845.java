@@ -0,0 +1,97 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * The 6845 CRT controller at &FE00 (address register) and &FE01 (the
+ * register it selects), mirrored up to &FE07. It generates the screen
+ * memory addresses and the sync timing; what the bytes look like is up to
+ * the {@link VideoUla}.
+ *
+ * Only the registers {@link Video} needs are given names here; the rest are
+ * held so they read back and go into snapshots.
+ */
+public class Crtc6845 implements IoDevice {
+
+	public static final int FIRST = 0xFE00;
+	public static final int LAST = 0xFE07;
+
+	public static final int HORIZONTAL_TOTAL = 0;
+	public static final int HORIZONTAL_DISPLAYED = 1;
+	public static final int VERTICAL_TOTAL = 4;
+	public static final int VERTICAL_ADJUST = 5;
+	public static final int VERTICAL_DISPLAYED = 6;
+	public static final int VERTICAL_SYNC = 7;
+	public static final int SCANLINES = 9;
+	public static final int START_HIGH = 12;
+	public static final int START_LOW = 13;
+	public static final int CURSOR_HIGH = 14;
+	public static final int CURSOR_LOW = 15;
+
+	public static final int REGISTERS = 18;
+
+	// the bits of each register that exist
+	private static final int[] MASKS = {
+		0xFF, 0xFF, 0xFF, 0xFF, 0x7F, 0x1F, 0x7F, 0x7F, 0xF3, 0x1F, 0x7F, 0x1F, 0x3F, 0xFF, 0x3F, 0xFF, 0x3F, 0xFF
+	};
+
+	private final Video video;
+	private final int[] registers = new int[REGISTERS];
+	private int selected;
+
+	Crtc6845(Video video) {
+
+		this.video = video;
+	}
+
+	@Override
+	public int read(int addr, long cycle) {
+
+		// only the cursor and light pen registers can be read
+		if ((addr & 1) != 0 && selected >= CURSOR_HIGH && selected < REGISTERS) {
+			return registers[selected];
+		}
+		return 0;
+	}
+
+	@Override
+	public void write(int addr, int value, long cycle) {
+
+		if ((addr & 1) == 0) {
+			selected = value & 0x1F;
+		} else if (selected < REGISTERS) {
+			video.changing(cycle);
+			registers[selected] = value & MASKS[selected];
+		}
+	}
+
+	public int getRegister(int register) {
+
+		return registers[register];
+	}
+
+	/**
+	 * Set a register directly, as if it had been written.
+	 */
+	public void setRegister(int register, int value) {
+
+		write(FIRST, register, video.now());
+		write(FIRST + 1, value, video.now());
+	}
+
+	int getSelected() {
+
+		return selected;
+	}
+
+	void setSelected(int selected) {
+
+		this.selected = selected;
+	}
+
+	/**
+	 * @return the screen start address, in CRTC character units
+	 */
+	public int getStart() {
+
+		return (registers[START_HIGH] << 8) | registers[START_LOW];
+	}
+}
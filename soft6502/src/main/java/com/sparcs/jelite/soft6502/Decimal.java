@@ -0,0 +1,111 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+
+/**
+ * Decimal mode ADC and SBC, as the NMOS 6502 does them, looked up rather than
+ * worked out so they cost no more than binary mode.
+ *
+ * Each table has an entry for every (carry, A, operand):
+ *
+ * <pre>
+ * index: carry(1) A(8) operand(8)
+ * entry: N V 0 0 0 0 Z C(8) result(8)
+ * </pre>
+ *
+ * i.e. the flags are in their status register positions, so an entry can be
+ * merged straight into the {@code (status << 8) | result} the
+ * {@link SwitchEngine} helpers return.
+ *
+ * Only the result and carry are "proper" BCD; N, V and Z come out the way
+ * the NMOS part sets them, which for valid BCD operands isn't always what
+ * you'd expect:
+ *
+ * <pre>
+ * ADC: Z from the binary sum, N and V from the sum after the low digit is adjusted
+ * SBC: N, V and Z all from the binary difference
+ * </pre>
+ *
+ * (see Bruce Clark's "Decimal Mode" tutorial on 6502.org, appendix A)
+ */
+final class Decimal {
+
+	static final int FLAGS = FLAG_SIGN | FLAG_OVERFLOW | FLAG_ZERO | FLAG_CARRY;
+
+	private static final char[] ADC = new char[0x20000];
+	private static final char[] SBC = new char[0x20000];
+	static {
+		for (int i = 0; i < ADC.length; i++) {
+			int c = i >> 16;
+			int a = (i >> 8) & 0xFF;
+			int value = i & 0xFF;
+			ADC[i] = (char)add(a, value, c);
+			SBC[i] = (char)subtract(a, value, c);
+		}
+	}
+
+	private Decimal() {
+	}
+
+	/**
+	 * @return the new status << 8 | result, as {@link SwitchEngine}'s
+	 *         {@code adc}
+	 */
+	static int adc(int p, int a, int value) {
+
+		return ((p & ~FLAGS) << 8) | ADC[((p & FLAG_CARRY) << 16) | (a << 8) | value];
+	}
+
+	/**
+	 * @return the new status << 8 | result; note that {@code value} is the
+	 *         operand itself, not its complement
+	 */
+	static int sbc(int p, int a, int value) {
+
+		return ((p & ~FLAGS) << 8) | SBC[((p & FLAG_CARRY) << 16) | (a << 8) | value];
+	}
+
+	private static int add(int a, int value, int c) {
+
+		int binary = a + value + c;
+
+		int low = (a & 0x0F) + (value & 0x0F) + c;
+		if (low >= 0x0A) {
+			low = ((low + 0x06) & 0x0F) + 0x10;
+		}
+		int result = (a & 0xF0) + (value & 0xF0) + low;
+		int signed = (byte)(a & 0xF0) + (byte)(value & 0xF0) + low;
+		int p = (result & FLAG_SIGN)
+				| (signed < -128 || signed > 127 ? FLAG_OVERFLOW : 0)
+				| ((binary & 0xFF) == 0 ? FLAG_ZERO : 0);
+		if (result >= 0xA0) {
+			result += 0x60;
+		}
+		p |= result >= 0x100 ? FLAG_CARRY : 0;
+
+		return (p << 8) | (result & 0xFF);
+	}
+
+	private static int subtract(int a, int value, int c) {
+
+		int binary = a + (value ^ 0xFF) + c;
+		int p = (binary & FLAG_SIGN)
+				| (((a ^ binary) & (a ^ value) & 0x80) != 0 ? FLAG_OVERFLOW : 0)
+				| ((binary & 0xFF) == 0 ? FLAG_ZERO : 0)
+				| ((binary >> 8) & FLAG_CARRY);
+
+		int low = (a & 0x0F) - (value & 0x0F) + c - 1;
+		if (low < 0) {
+			low = ((low - 0x06) & 0x0F) - 0x10;
+		}
+		int result = (a & 0xF0) - (value & 0xF0) + low;
+		if (result < 0) {
+			result -= 0x60;
+		}
+
+		return (p << 8) | (result & 0xFF);
+	}
+}
@@ -0,0 +1,73 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * 64K of flat RAM that remembers which of its 256 byte pages have been
+ * written since they were last drained, for whoever only wants to look at
+ * what's changed: incremental {@link Snapshot}s, say, or a screen redraw.
+ *
+ * Every write marks its page in a 256 bit map (see {@link DirtyPages}), an
+ * OR into one of four longs. Use a plain {@link Ram16Bit} when nothing needs
+ * to know, and it costs nothing at all; a {@link PagedMemory} keeps track
+ * too, for only the first write to each page after a drain.
+ */
+public class DirtyPageRam extends Ram16Bit {
+
+	public static final int PAGES = LEN_64K / PagedMemory.PAGE_SIZE;
+
+	private final DirtyPages dirty = new DirtyPages(PAGES);
+
+	public DirtyPageRam() {
+
+		super(LEN_64K);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The pages loaded are marked dirty.
+	 */
+	@Override
+	void loaded(int off, int len) {
+
+		dirty.mark(off, len);
+	}
+
+	@Override
+	public void setByte(int addr, int value) {
+
+		memory[addr] = (byte)value;
+		dirty.mark(addr >>> 8);
+	}
+
+	public boolean isDirty(int page) {
+
+		return dirty.isDirty(page);
+	}
+
+	/**
+	 * @return the dirty pages, in ascending order; they're all clean again
+	 *         afterwards
+	 */
+	@Override
+	public int[] drainDirtyPages() {
+
+		return dirty.drain();
+	}
+
+	@Override
+	boolean isTrackingDirtyPages() {
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Every page is marked dirty.
+	 */
+	@Override
+	void restored() {
+
+		dirty.markAll();
+	}
+}
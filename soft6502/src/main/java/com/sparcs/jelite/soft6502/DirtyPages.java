@@ -0,0 +1,78 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * Which 256 byte pages of a backing store have been written since they were
+ * last drained, kept by {@link DirtyPageRam} and {@link PagedMemory} for
+ * incremental {@link Snapshot}s.
+ *
+ * The pages are kept as a bit map in longs, so marking a write is an OR
+ * into the map; shifting a long by the page number only uses its bottom six
+ * bits, which picks the bit within the long.
+ */
+final class DirtyPages {
+
+	private final int pages;
+	private final long[] dirty;
+
+	/**
+	 * @param pages the number of pages, all clean to start with
+	 */
+	DirtyPages(int pages) {
+
+		this.pages = pages;
+		dirty = new long[(pages + 63) / 64];
+	}
+
+	void mark(int page) {
+
+		dirty[page >>> 6] |= 1L << page;
+	}
+
+	/**
+	 * Mark the pages holding {@code len} bytes from {@code off}.
+	 */
+	void mark(int off, int len) {
+
+		for (int page = off >>> 8; page < (off + len + 0xFF) >>> 8; page++) {
+			mark(page);
+		}
+	}
+
+	void markAll() {
+
+		for (int i = 0; i < dirty.length; i++) {
+			dirty[i] = -1L;
+		}
+		if (pages % 64 != 0) {
+			// not the bits past the last page
+			dirty[dirty.length - 1] = -1L >>> (64 - pages % 64);
+		}
+	}
+
+	boolean isDirty(int page) {
+
+		return (dirty[page >>> 6] & (1L << page)) != 0;
+	}
+
+	/**
+	 * @return the dirty pages, in ascending order; they're all clean again
+	 *         afterwards
+	 */
+	int[] drain() {
+
+		int count = 0;
+		for (long bits : dirty) {
+			count += Long.bitCount(bits);
+		}
+
+		int[] pages = new int[count];
+		int n = 0;
+		for (int i = 0; i < dirty.length; i++) {
+			for (long bits = dirty[i]; bits != 0; bits &= bits - 1) {
+				pages[n++] = (i << 6) | Long.numberOfTrailingZeros(bits);
+			}
+			dirty[i] = 0;
+		}
+		return pages;
+	}
+}
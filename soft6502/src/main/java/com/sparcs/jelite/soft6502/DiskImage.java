@@ -0,0 +1,147 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+
+/**
+ * A DFS disk image, memory mapped: an {@code .ssd} holds one side, track
+ * after track, and a {@code .dsd} both, with each track of side 0 followed
+ * by the same track of side 1. Every track is 10 sectors of 256 bytes.
+ *
+ * Images are usually cut short after the last used sector; anything beyond
+ * the end of the file reads as zeros.
+ *
+ * Images mapped from files are read-only; one made from a writable buffer
+ * can have its sectors written, to save a commander say.
+ */
+public class DiskImage {
+
+	public static final int TRACKS = 80;
+	public static final int SECTORS = 10;
+	public static final int SECTOR_SIZE = 256;
+	public static final int TRACK_SIZE = SECTORS * SECTOR_SIZE;
+
+	private static final ByteBuffer BLANK = ByteBuffer.allocate(SECTOR_SIZE).asReadOnlyBuffer();
+
+	private final ByteBuffer data;
+	private final int sides;
+
+	/**
+	 * @param data the image, from its position to its limit
+	 * @param sides 1 for an {@code .ssd}, 2 for a {@code .dsd}
+	 */
+	public DiskImage(ByteBuffer data, int sides) {
+
+		if (sides != 1 && sides != 2) {
+			throw new IllegalArgumentException("A disk has 1 or 2 sides, not " + sides);
+		}
+		if (data.remaining() > TRACKS * sides * TRACK_SIZE) {
+			throw new IllegalArgumentException(String.format("%d bytes is too big for a %d sided disk",
+					data.remaining(), sides));
+		}
+		this.data = data.slice();
+		this.sides = sides;
+	}
+
+	/**
+	 * Map an image, telling an {@code .ssd} from a {@code .dsd} by its name.
+	 */
+	public static DiskImage open(Path file) throws IOException {
+
+		boolean dsd = file.getFileName().toString().toLowerCase().endsWith(".dsd");
+		return new DiskImage(Images.map(file), dsd ? 2 : 1);
+	}
+
+	public int getSides() {
+
+		return sides;
+	}
+
+	/**
+	 * @return whether sectors can be written, which they can't in an image
+	 *         mapped from a file
+	 */
+	public boolean isWritable() {
+
+		return !data.isReadOnly();
+	}
+
+	/**
+	 * @return the 256 bytes of a sector, read-only, sharing the mapping
+	 */
+	public ByteBuffer sector(int side, int track, int sector) {
+
+		int off = offset(side, track, sector);
+		if (off + SECTOR_SIZE <= data.limit()) {
+			return slice(off).asReadOnlyBuffer();
+		}
+		if (off >= data.limit()) {
+			return BLANK.duplicate();
+		}
+
+		// the last, partial, sector of the file
+		ByteBuffer padded = ByteBuffer.allocate(SECTOR_SIZE);
+		ByteBuffer tail = data.duplicate();
+		tail.position(off);
+		padded.put(tail);
+		padded.clear();
+		return padded.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the 256 bytes of a sector, to write to, sharing the image's
+	 *         buffer
+	 * @throws ReadOnlyBufferException if the image isn't writable
+	 * @throws IllegalArgumentException if the sector is past the end of the
+	 *         image
+	 */
+	public ByteBuffer writableSector(int side, int track, int sector) {
+
+		int off = offset(side, track, sector);
+		if (!isWritable()) {
+			throw new ReadOnlyBufferException();
+		}
+		if (off + SECTOR_SIZE > data.limit()) {
+			throw new IllegalArgumentException(String.format("Side %d track %d sector %d is past the end of the image",
+					side, track, sector));
+		}
+		return slice(off);
+	}
+
+	/**
+	 * @return the disk title from the DFS catalogue on side 0, without its
+	 *         padding
+	 */
+	public String getTitle() {
+
+		StringBuilder title = new StringBuilder();
+		ByteBuffer names = sector(0, 0, 0);
+		ByteBuffer counts = sector(0, 0, 1);
+		for (int i = 0; i < 12; i++) {
+			int c = (i < 8 ? names.get(i) : counts.get(i - 8)) & 0x7F;
+			if (c == 0) {
+				break;
+			}
+			title.append((char)c);
+		}
+		return title.toString().trim();
+	}
+
+	private int offset(int side, int track, int sector) {
+
+		if (side < 0 || side >= sides || track < 0 || track >= TRACKS || sector < 0 || sector >= SECTORS) {
+			throw new IllegalArgumentException(String.format("No side %d track %d sector %d", side, track, sector));
+		}
+		return (track * sides + side) * TRACK_SIZE + sector * SECTOR_SIZE;
+	}
+
+	private ByteBuffer slice(int off) {
+
+		ByteBuffer slice = data.duplicate();
+		slice.limit(off + SECTOR_SIZE);
+		slice.position(off);
+		return slice.slice();
+	}
+}
@@ -0,0 +1,32 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.function.Predicate;
+
+/**
+ * Strategy used by {@link Soft6502} to execute instructions.
+ * 
+ * Engines hold no CPU state of their own; everything lives in the CPU they're
+ * given, so an engine can be swapped between calls to {@link Soft6502#run}.
+ * (A {@link BlockEngine} does cache decoded code, but keeps it in step with
+ * memory itself.)
+ */
+public interface Engine {
+
+	/**
+	 * Execute instructions until the CPU's clock ticks reach its clock goal,
+	 * stopping on the boundary of the instruction that reaches or passes it.
+	 * 
+	 * Before every instruction the engine must also stop if the CPU has an
+	 * interrupt it can take (see {@link Soft6502#isInterruptible()}, though the
+	 * cheap test of {@link Soft6502#interruptPending} should come first); the
+	 * CPU takes it and runs the engine again.
+	 * 
+	 * If {@code condition} isn't null it's tested before every instruction,
+	 * after interrupts, with the CPU's registers up to date, and execution
+	 * stops as soon as it holds.
+	 * 
+	 * While an instruction executes, the CPU's clock ticks must hold the count
+	 * at its start; that's the cycle {@link IoDevice}s are told about.
+	 */
+	void run(Soft6502 cpu, Predicate<Soft6502> condition);
+}
@@ -0,0 +1,272 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Runs lots of independent machines at once, for headless regression runs
+ * and replays: each {@link Soft6502} keeps all its state to itself, so
+ * they can run on different threads as long as each has its own memory and
+ * engine (share ROM images with a {@link RomCache}).
+ *
+ * Machines are dealt out to a fixed pool of workers when they're added, and
+ * stay with the same worker; each worker takes its machines in turn, running
+ * each for a quantum of cycles at a time, so they all advance together and
+ * one that's finished, or has failed, drops out without holding up the rest.
+ *
+ * Each machine is timed for the quanta it runs, so besides the aggregate
+ * rate of the whole farm there's a rate per machine. Look at the machines
+ * between runs, not during them.
+ */
+public class Farm implements AutoCloseable {
+
+	private final ExecutorService pool;
+	private final List<List<Machine>> shards = new ArrayList<>();
+	private final long quantum;
+	private int count;
+
+	// totals over every run
+	private long instructions;
+	private long nanos;
+
+	/**
+	 * One machine in the farm, and how it's getting on.
+	 */
+	public static class Machine {
+
+		private final Soft6502 cpu;
+		private final Predicate<Soft6502> finished;
+		private long instructions;
+		private long nanos;
+		private boolean done;
+		private RuntimeException failure;
+
+		Machine(Soft6502 cpu, Predicate<Soft6502> finished) {
+
+			this.cpu = cpu;
+			this.finished = finished;
+		}
+
+		public Soft6502 getCpu() {
+
+			return cpu;
+		}
+
+		/**
+		 * @return whether it's finished, or failed, and won't be run again
+		 */
+		public boolean isDone() {
+
+			return done;
+		}
+
+		/**
+		 * @return whatever was thrown while running it, or null
+		 */
+		public RuntimeException getFailure() {
+
+			return failure;
+		}
+
+		/**
+		 * @return instructions executed while in the farm
+		 */
+		public long getInstructions() {
+
+			return instructions;
+		}
+
+		/**
+		 * @return time spent running it, in nanoseconds
+		 */
+		public long getNanos() {
+
+			return nanos;
+		}
+
+		/**
+		 * @return millions of instructions per second, while it was running
+		 */
+		public double getMips() {
+
+			return mips(instructions, nanos);
+		}
+
+		/**
+		 * Run for a quantum.
+		 */
+		private void run(long cycles) {
+
+			long before = cpu.instructions;
+			long start = System.nanoTime();
+			try {
+				cpu.run(cycles);
+				done = finished.test(cpu);
+			} catch (RuntimeException e) {
+				failure = e;
+				done = true;
+			}
+			nanos += System.nanoTime() - start;
+			instructions += cpu.instructions - before;
+		}
+	}
+
+	/**
+	 * @param workers threads to run machines on
+	 * @param quantum cycles each machine runs before the next has a turn
+	 */
+	public Farm(int workers, long quantum) {
+
+		if (workers < 1 || quantum < 1) {
+			throw new IllegalArgumentException("A farm needs at least one worker and a quantum of a cycle");
+		}
+		this.quantum = quantum;
+		for (int i = 0; i < workers; i++) {
+			shards.add(new ArrayList<>());
+		}
+
+		AtomicInteger threads = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(workers, task -> {
+			Thread thread = new Thread(task, "farm-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Add a machine that runs until it's stopped.
+	 */
+	public Machine add(Soft6502 cpu) {
+
+		return add(cpu, c -> false);
+	}
+
+	/**
+	 * Add a machine that's finished once {@code finished} holds; it's tested
+	 * after every quantum.
+	 */
+	public synchronized Machine add(Soft6502 cpu, Predicate<Soft6502> finished) {
+
+		Machine machine = new Machine(cpu, finished);
+		shards.get(count++ % shards.size()).add(machine);
+		return machine;
+	}
+
+	/**
+	 * @return every machine, in the order they were added
+	 */
+	public synchronized List<Machine> getMachines() {
+
+		List<Machine> machines = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			machines.add(shards.get(i % shards.size()).get(i / shards.size()));
+		}
+		return machines;
+	}
+
+	/**
+	 * Run every machine that isn't done for {@code cycles} more, and wait for
+	 * them all.
+	 *
+	 * @return the number of machines still running
+	 */
+	public synchronized int run(long cycles) throws InterruptedException {
+
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (List<Machine> shard : shards) {
+			if (!shard.isEmpty()) {
+				tasks.add(() -> runShard(shard, cycles));
+			}
+		}
+
+		long start = System.nanoTime();
+		List<Future<Long>> results = pool.invokeAll(tasks);
+		nanos += System.nanoTime() - start;
+
+		for (Future<Long> result : results) {
+			try {
+				instructions += result.get();
+			} catch (ExecutionException e) {
+				// machines catch their own failures, so this is a bug here
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		int running = 0;
+		for (List<Machine> shard : shards) {
+			for (Machine machine : shard) {
+				if (!machine.done) {
+					running++;
+				}
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * @return the number of instructions run
+	 */
+	private long runShard(List<Machine> shard, long cycles) {
+
+		long before = 0;
+		for (Machine machine : shard) {
+			before += machine.instructions;
+		}
+
+		for (long left = cycles; left > 0; left -= quantum) {
+			long slice = Math.min(quantum, left);
+			boolean any = false;
+			for (Machine machine : shard) {
+				if (!machine.done) {
+					machine.run(slice);
+					any = true;
+				}
+			}
+			if (!any) {
+				break;
+			}
+		}
+
+		long after = 0;
+		for (Machine machine : shard) {
+			after += machine.instructions;
+		}
+		return after - before;
+	}
+
+	/**
+	 * @return instructions executed by all the machines together, over every
+	 *         run
+	 */
+	public synchronized long getInstructions() {
+
+		return instructions;
+	}
+
+	/**
+	 * @return millions of instructions per second by all the machines
+	 *         together, over every run
+	 */
+	public synchronized double getMips() {
+
+		return mips(instructions, nanos);
+	}
+
+	@Override
+	public void close() {
+
+		pool.shutdownNow();
+	}
+
+	private static double mips(long instructions, long nanos) {
+
+		return nanos == 0 ? 0 : instructions * 1000.0 / nanos;
+	}
+}
@@ -0,0 +1,589 @@
+package com.sparcs.jelite.soft6502;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Intel 8271 floppy disk controller at &FE80, as the DFS drives it: a
+ * command register (&FE80, which reads the status), a parameter register
+ * (&FE81, which reads the result), a reset register (&FE82) and the data
+ * register (&FE84), all mirrored up to &FE9F. Its interrupt line is wired
+ * to NMI.
+ *
+ * The BBC doesn't connect the 8271's DMA, so data moves a byte at a time:
+ * the controller raises NMI with a data request in the status, and the
+ * DFS's NMI handler moves the byte to or from wherever it's loading or
+ * saving. When the last byte has gone, NMI is raised again with the result.
+ * Each step of a command is a {@link Scheduler} event: the seek, then each
+ * byte as the disk turns under the head, then the result.
+ *
+ * In fast disk mode there's no seeking, settling or waiting for the disk to
+ * turn: a command starts in the event straight after its last parameter,
+ * one without data (seek, verify, format) completes there, and each byte
+ * is offered as soon as the NMI handler could have dealt with the last.
+ * Sectors are read from the {@link DiskImage} as it shares them, so nothing
+ * is copied either way.
+ *
+ * Drives 0 and 1 are the 8271's two select lines; which side of the disk
+ * is read comes from bit 5 of the drive control output special register, as
+ * the DFS sets it for its drives 2 and 3. Only 256 byte sectors, the only
+ * kind a DFS disk has, are supported.
+ */
+public class Fdc8271 implements IoDevice, Stateful {
+
+	public static final int FIRST = 0xFE80;
+	public static final int LAST = 0xFE9F;
+
+	public static final int STATUS_BUSY = 0x80;
+	public static final int STATUS_COMMAND_FULL = 0x40;
+	public static final int STATUS_PARAMETER_FULL = 0x20;
+	public static final int STATUS_RESULT_FULL = 0x10;
+	public static final int STATUS_INTERRUPT = 0x08;
+	public static final int STATUS_DATA_REQUEST = 0x04;
+
+	public static final int RESULT_OK = 0x00;
+	public static final int RESULT_NOT_READY = 0x10;
+	public static final int RESULT_WRITE_PROTECT = 0x12;
+	public static final int RESULT_SECTOR_NOT_FOUND = 0x18;
+
+	// commands, less the drive select bits
+	public static final int WRITE_DATA = 0x0B;
+	public static final int READ_DATA = 0x13;
+	public static final int READ_DATA_AND_DELETED = 0x17;
+	public static final int READ_ID = 0x1B;
+	public static final int VERIFY = 0x1F;
+	public static final int FORMAT = 0x23;
+	public static final int SEEK = 0x29;
+	public static final int READ_DRIVE_STATUS = 0x2C;
+	public static final int SPECIFY = 0x35;
+	public static final int WRITE_SPECIAL_REGISTER = 0x3A;
+	public static final int READ_SPECIAL_REGISTER = 0x3D;
+
+	public static final int SPECIAL_TRACK_0 = 0x12;
+	public static final int SPECIAL_MODE = 0x17;
+	public static final int SPECIAL_TRACK_1 = 0x1A;
+	public static final int SPECIAL_DRIVE_OUTPUT = 0x23;
+
+	private static final int DRIVE_OUTPUT_SIDE = 0x20;
+
+	// 2MHz cycles: a step of the head, its settling, finding a sector, a byte at 125kbit/s
+	static final int STEP_CYCLES = 2 * 6000;
+	static final int SETTLE_CYCLES = 2 * 10000;
+	static final int COMMAND_CYCLES = 2 * 500;
+	static final int BYTE_CYCLES = 2 * 64;
+
+	// time for the DFS's NMI handler to return after it's moved a byte
+	static final int FAST_BYTE_CYCLES = 40;
+
+	// the parameters each command takes
+	private static final int[] PARAMETERS = new int[0x40];
+	static {
+		PARAMETERS[0x00] = PARAMETERS[0x04] = PARAMETERS[FORMAT] = 5;
+		PARAMETERS[0x0A] = PARAMETERS[0x0E] = PARAMETERS[0x12] = PARAMETERS[0x16] = PARAMETERS[0x1E] = 2;
+		PARAMETERS[WRITE_DATA] = PARAMETERS[0x0F] = PARAMETERS[READ_DATA] = PARAMETERS[READ_DATA_AND_DELETED] = 3;
+		PARAMETERS[READ_ID] = PARAMETERS[VERIFY] = 3;
+		PARAMETERS[SEEK] = PARAMETERS[READ_SPECIAL_REGISTER] = 1;
+		PARAMETERS[WRITE_SPECIAL_REGISTER] = 2;
+		PARAMETERS[SPECIFY] = 4;
+	}
+
+	// what the next event does
+	private static final int IDLE = 0;
+	private static final int OFFER = 1;
+	private static final int TAKE = 2;
+	private static final int FINISH = 3;
+
+	private final Soft6502 cpu;
+	private final int source;
+	private final DiskImage[] disks = new DiskImage[2];
+	private boolean fast;
+
+	private int status;
+	private int result;
+	private int data;
+	private int command;
+	private final int[] parameters = new int[5];
+	private int parameterCount;
+	private int mode;
+	private int driveOutput;
+	private final int[] tracks = new int[2];
+
+	// the command in progress
+	private int phase = IDLE;
+	private int drive;
+	private int side;
+	private int track;
+	private int firstSector;
+	private int position;
+	private int length;
+	private int finishResult;
+	private long due = -1;
+
+	// the sector the position is in, as the disk shares it
+	private ByteBuffer sector;
+
+	private final Scheduler.Event step = this::step;
+
+	public Fdc8271(Soft6502 cpu) {
+
+		this.cpu = cpu;
+		this.source = cpu.allocateInterruptSource();
+	}
+
+	public void attach(IoBus bus) {
+
+		bus.register(FIRST, LAST, this);
+	}
+
+	/**
+	 * Put a disk in drive 0 or 1, or take it out with null.
+	 */
+	public void insert(int drive, DiskImage disk) {
+
+		disks[drive] = disk;
+	}
+
+	public DiskImage getDisk(int drive) {
+
+		return disks[drive];
+	}
+
+	/**
+	 * Skip the mechanical delays and offer bytes as fast as they're taken,
+	 * for loading quickly in batch runs.
+	 */
+	public void setFast(boolean fast) {
+
+		this.fast = fast;
+	}
+
+	public boolean isFast() {
+
+		return fast;
+	}
+
+	public int getStatus() {
+
+		return status;
+	}
+
+	/**
+	 * @return the track the head of drive 0 or 1 is over
+	 */
+	public int getTrack(int drive) {
+
+		return tracks[drive];
+	}
+
+	@Override
+	public int read(int addr, long cycle) {
+
+		switch (addr & 0x07) {
+		case 0:
+			return status;
+		case 1:
+			status &= ~(STATUS_RESULT_FULL | STATUS_INTERRUPT);
+			cpu.releaseNmi(source);
+			return result;
+		case 4:
+		case 5:
+		case 6:
+		case 7:
+			int value = data;
+			taken(false, cycle);
+			return value;
+		default:
+			return 0xFF;
+		}
+	}
+
+	@Override
+	public void write(int addr, int value, long cycle) {
+
+		value &= 0xFF;
+		switch (addr & 0x07) {
+		case 0:
+			if ((status & STATUS_BUSY) == 0) {
+				command = value;
+				parameterCount = 0;
+				status = STATUS_BUSY;
+				result = RESULT_OK;
+				if (PARAMETERS[command & 0x3F] == 0) {
+					start(cycle);
+				}
+			}
+			break;
+		case 1:
+			if ((status & STATUS_BUSY) != 0 && phase == IDLE && parameterCount < PARAMETERS[command & 0x3F]) {
+				parameters[parameterCount++] = value;
+				if (parameterCount == PARAMETERS[command & 0x3F]) {
+					start(cycle);
+				}
+			}
+			break;
+		case 2:
+			if ((value & 1) != 0) {
+				reset();
+			}
+			break;
+		case 4:
+		case 5:
+		case 6:
+		case 7:
+			data = value;
+			taken(true, cycle);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void reset() {
+
+		cpu.getScheduler().cancel(step);
+		cpu.releaseNmi(source);
+		status = 0;
+		result = RESULT_OK;
+		parameterCount = 0;
+		phase = IDLE;
+		due = -1;
+		sector = null;
+	}
+
+	//=== commands
+
+	private void start(long cycle) {
+
+		int op = command & 0x3F;
+		drive = (command & 0x80) != 0 ? 1 : 0;
+		side = (driveOutput & DRIVE_OUTPUT_SIDE) != 0 ? 1 : 0;
+
+		switch (op) {
+		case SPECIFY:
+			status = 0;
+			return;
+		case WRITE_SPECIAL_REGISTER:
+			writeSpecial(parameters[0], parameters[1]);
+			status = 0;
+			return;
+		case READ_SPECIAL_REGISTER:
+			result = readSpecial(parameters[0]);
+			status = STATUS_RESULT_FULL;
+			return;
+		case READ_DRIVE_STATUS:
+			result = driveStatus();
+			status = STATUS_RESULT_FULL;
+			return;
+		default:
+			break;
+		}
+
+		// everything else moves the head to the track first
+		track = parameters[0];
+		long delay = seek(track);
+		position = 0;
+		length = 0;
+		sector = null;
+		finishResult = check(op);
+
+		if (finishResult == RESULT_OK) {
+			switch (op) {
+			case READ_DATA:
+			case READ_DATA_AND_DELETED:
+			case WRITE_DATA:
+				firstSector = parameters[1];
+				length = (parameters[2] & 0x1F) * DiskImage.SECTOR_SIZE;
+				break;
+			case 0x12:
+			case 0x16:
+			case 0x0A:
+				// the single sector commands are for 128 byte sectors
+				finishResult = RESULT_SECTOR_NOT_FOUND;
+				break;
+			case READ_ID:
+				firstSector = 0;
+				length = parameters[2] * 4;
+				break;
+			case FORMAT:
+				format();
+				break;
+			default:
+				break;
+			}
+		}
+		schedule(length > 0 ? OFFER : FINISH, cycle + delay + (fast ? 0 : COMMAND_CYCLES));
+	}
+
+	/**
+	 * @return the result a command that reaches the disk would fail with, or
+	 *         {@link #RESULT_OK}
+	 */
+	private int check(int op) {
+
+		DiskImage disk = disks[drive];
+		if (disk == null) {
+			return RESULT_NOT_READY;
+		}
+		if (track >= DiskImage.TRACKS || side >= disk.getSides()) {
+			return RESULT_SECTOR_NOT_FOUND;
+		}
+		boolean writes = op == WRITE_DATA || op == 0x0A || op == 0x0E || op == 0x0F || op == FORMAT;
+		if (writes && !disk.isWritable()) {
+			return RESULT_WRITE_PROTECT;
+		}
+		boolean sectors = op == READ_DATA || op == READ_DATA_AND_DELETED || op == WRITE_DATA || op == VERIFY;
+		if (sectors && ((parameters[2] >> 5) != 1
+				|| parameters[1] + (parameters[2] & 0x1F) > DiskImage.SECTORS)) {
+			return RESULT_SECTOR_NOT_FOUND;
+		}
+		return RESULT_OK;
+	}
+
+	/**
+	 * Move the head of the selected drive.
+	 *
+	 * @return how long it takes
+	 */
+	private long seek(int track) {
+
+		int steps = Math.abs(track - tracks[drive]);
+		tracks[drive] = track;
+		if (fast || steps == 0) {
+			return 0;
+		}
+		return (long)steps * STEP_CYCLES + SETTLE_CYCLES;
+	}
+
+	private void format() {
+
+		DiskImage disk = disks[drive];
+		try {
+			for (int s = 0; s < DiskImage.SECTORS; s++) {
+				ByteBuffer sector = disk.writableSector(side, track, s);
+				while (sector.hasRemaining()) {
+					sector.put((byte)0xE5);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			finishResult = RESULT_SECTOR_NOT_FOUND;
+		}
+	}
+
+	private void step(long cycle) {
+
+		due = -1;
+		if (phase == OFFER) {
+			offer(cycle);
+		} else if (phase == FINISH) {
+			phase = IDLE;
+			result = finishResult;
+			status = STATUS_RESULT_FULL | STATUS_INTERRUPT;
+			cpu.assertNmi(source);
+		}
+	}
+
+	/**
+	 * Ask for the next byte, with NMI: to be read from the data register, or
+	 * written to it.
+	 */
+	private void offer(long cycle) {
+
+		int op = command & 0x3F;
+		int offset = position % DiskImage.SECTOR_SIZE;
+		if (op == READ_ID) {
+			int[] id = { track, 0, (position / 4) % DiskImage.SECTORS, 1 };
+			data = id[position % 4];
+		} else {
+			if (offset == 0 || sector == null) {
+				int s = firstSector + position / DiskImage.SECTOR_SIZE;
+				if (op == WRITE_DATA) {
+					try {
+						sector = disks[drive].writableSector(side, track, s);
+					} catch (IllegalArgumentException e) {
+						finish(RESULT_SECTOR_NOT_FOUND, cycle);
+						return;
+					}
+				} else {
+					sector = disks[drive].sector(side, track, s);
+				}
+			}
+			if (op != WRITE_DATA) {
+				data = sector.get(offset) & 0xFF;
+			}
+		}
+
+		phase = TAKE;
+		status = STATUS_BUSY | STATUS_INTERRUPT | STATUS_DATA_REQUEST;
+		cpu.assertNmi(source);
+	}
+
+	/**
+	 * The data register has been read or written: move on to the next byte,
+	 * if that's what the command was waiting for.
+	 */
+	private void taken(boolean written, long cycle) {
+
+		boolean writing = (command & 0x3F) == WRITE_DATA;
+		if (phase != TAKE || written != writing) {
+			return;
+		}
+		if (writing) {
+			sector.put(position % DiskImage.SECTOR_SIZE, (byte)data);
+		}
+		status = STATUS_BUSY;
+		cpu.releaseNmi(source);
+
+		long next = cycle + (fast ? FAST_BYTE_CYCLES : BYTE_CYCLES);
+		if (++position < length) {
+			schedule(OFFER, next);
+		} else {
+			schedule(FINISH, next);
+		}
+	}
+
+	private void finish(int result, long cycle) {
+
+		finishResult = result;
+		schedule(FINISH, cycle);
+	}
+
+	private void schedule(int phase, long cycle) {
+
+		this.phase = phase;
+		this.due = cycle;
+		cpu.getScheduler().schedule(step, cycle);
+	}
+
+	//=== registers
+
+	private void writeSpecial(int register, int value) {
+
+		switch (register) {
+		case SPECIAL_TRACK_0:
+			tracks[0] = value;
+			break;
+		case SPECIAL_TRACK_1:
+			tracks[1] = value;
+			break;
+		case SPECIAL_MODE:
+			mode = value;
+			break;
+		case SPECIAL_DRIVE_OUTPUT:
+			driveOutput = value;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private int readSpecial(int register) {
+
+		switch (register) {
+		case SPECIAL_TRACK_0:
+			return tracks[0];
+		case SPECIAL_TRACK_1:
+			return tracks[1];
+		case SPECIAL_MODE:
+			return mode;
+		case SPECIAL_DRIVE_OUTPUT:
+			return driveOutput;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the drive input lines: ready for each drive with a disk, track
+	 *         0 and write protect for the selected one
+	 */
+	private int driveStatus() {
+
+		int drive = (command & 0x80) != 0 ? 1 : 0;
+		int value = (disks[0] != null ? 0x04 : 0) | (disks[1] != null ? 0x40 : 0);
+		if (tracks[drive] == 0) {
+			value |= 0x02;
+		}
+		if (disks[drive] != null && !disks[drive].isWritable()) {
+			value |= 0x08;
+		}
+		return value;
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 5 + 5 + 1 + 1 + 2 + 1 + 1 + 1 + 1 + 1 + 2 + 2 + 1 + 8;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		buffer.put((byte)status);
+		buffer.put((byte)result);
+		buffer.put((byte)data);
+		buffer.put((byte)command);
+		buffer.put((byte)parameterCount);
+		for (int parameter : parameters) {
+			buffer.put((byte)parameter);
+		}
+		buffer.put((byte)mode);
+		buffer.put((byte)driveOutput);
+		buffer.put((byte)tracks[0]);
+		buffer.put((byte)tracks[1]);
+		buffer.put((byte)phase);
+		buffer.put((byte)drive);
+		buffer.put((byte)side);
+		buffer.put((byte)track);
+		buffer.put((byte)firstSector);
+		buffer.putShort((short)position);
+		buffer.putShort((short)length);
+		buffer.put((byte)finishResult);
+		buffer.putLong(due);
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		status = buffer.get() & 0xFF;
+		result = buffer.get() & 0xFF;
+		data = buffer.get() & 0xFF;
+		command = buffer.get() & 0xFF;
+		parameterCount = buffer.get() & 0xFF;
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = buffer.get() & 0xFF;
+		}
+		mode = buffer.get() & 0xFF;
+		driveOutput = buffer.get() & 0xFF;
+		tracks[0] = buffer.get() & 0xFF;
+		tracks[1] = buffer.get() & 0xFF;
+		phase = buffer.get();
+		drive = buffer.get();
+		side = buffer.get();
+		track = buffer.get() & 0xFF;
+		firstSector = buffer.get() & 0xFF;
+		position = buffer.getShort() & 0xFFFF;
+		length = buffer.getShort() & 0xFFFF;
+		finishResult = buffer.get() & 0xFF;
+		due = buffer.getLong();
+
+		// the sector is found again from the disk in the drive
+		sector = null;
+		if (phase == TAKE && disks[drive] != null && (command & 0x3F) != READ_ID) {
+			int s = firstSector + position / DiskImage.SECTOR_SIZE;
+			sector = (command & 0x3F) == WRITE_DATA && disks[drive].isWritable()
+					? disks[drive].writableSector(side, track, s)
+					: disks[drive].sector(side, track, s);
+		}
+		if (due >= 0) {
+			cpu.getScheduler().schedule(step, due);
+		} else {
+			cpu.getScheduler().cancel(step);
+		}
+		if ((status & STATUS_INTERRUPT) != 0) {
+			cpu.assertNmi(source);
+		} else {
+			cpu.releaseNmi(source);
+		}
+	}
+}
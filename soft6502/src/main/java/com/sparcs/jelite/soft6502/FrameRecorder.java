@@ -0,0 +1,215 @@
+package com.sparcs.jelite.soft6502;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Saves {@link Video} frames to files without a display, for replays and
+ * regression runs: listen to the video with one of these and every Nth
+ * frame is written as a PNG or raw RGB file to a directory.
+ *
+ * The emulation thread only copies the frame's pixels into a free slot of a
+ * ring of off-heap buffers, allocated up front; a background thread encodes
+ * and writes them, so the emulation never waits for compression or I/O. If
+ * the encoder falls so far behind that the ring is full, frames are dropped
+ * rather than waited for, and counted.
+ */
+public class FrameRecorder implements Video.FrameListener, AutoCloseable {
+
+	public enum Format {
+
+		/** {@code frame-00000001.png} */
+		PNG,
+
+		/** {@code frame-00000001.rgb}: 3 bytes a pixel, row after row */
+		RAW
+	}
+
+	private static final int FRAME_SIZE = Video.WIDTH * Video.HEIGHT;
+
+	private static final class Slot {
+
+		final IntBuffer pixels;
+		long frame;
+
+		Slot(IntBuffer pixels) {
+
+			this.pixels = pixels;
+		}
+	}
+
+	// tells the encoder to stop
+	private static final Slot STOP = new Slot(null);
+
+	private final Path directory;
+	private final Format format;
+	private final int every;
+	private final BlockingQueue<Slot> free;
+	private final BlockingQueue<Slot> full;
+	private final Thread encoder;
+
+	private long frames;
+	private volatile long written;
+	private volatile long dropped;
+	private volatile IOException failure;
+
+	/**
+	 * @param slots frames that can be waiting to be encoded
+	 * @param every save every this many frames (1 for all of them)
+	 */
+	public FrameRecorder(Path directory, Format format, int slots, int every) {
+
+		if (slots < 1 || every < 1) {
+			throw new IllegalArgumentException("Need at least a slot, and to save at least every frame");
+		}
+		this.directory = directory;
+		this.format = format;
+		this.every = every;
+
+		free = new ArrayBlockingQueue<>(slots);
+		full = new ArrayBlockingQueue<>(slots + 1);
+		ByteBuffer ring = ByteBuffer.allocateDirect(slots * FRAME_SIZE * 4).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < slots; i++) {
+			ring.limit((i + 1) * FRAME_SIZE * 4);
+			ring.position(i * FRAME_SIZE * 4);
+			free.add(new Slot(ring.slice().order(ByteOrder.nativeOrder()).asIntBuffer()));
+		}
+
+		encoder = new Thread(this::encode, "frame-recorder");
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+
+	@Override
+	public void frame(Video video, long cycle) {
+
+		if (frames++ % every != 0) {
+			return;
+		}
+		Slot slot = free.poll();
+		if (slot == null) {
+			dropped++;
+			return;
+		}
+		slot.frame = frames;
+		slot.pixels.clear();
+		slot.pixels.put(video.getPixels());
+		full.add(slot);
+	}
+
+	/**
+	 * @return the number of frames seen, saved or not
+	 */
+	public long getFrames() {
+
+		return frames;
+	}
+
+	/**
+	 * @return the number of frames written to files so far
+	 */
+	public long getWritten() {
+
+		return written;
+	}
+
+	/**
+	 * @return the number of frames that should have been saved but weren't,
+	 *         because the ring was full
+	 */
+	public long getDropped() {
+
+		return dropped;
+	}
+
+	/**
+	 * @return the first error writing a file, or null; the recorder carries
+	 *         on with the next frame regardless
+	 */
+	public IOException getFailure() {
+
+		return failure;
+	}
+
+	/**
+	 * Finish writing the frames waiting in the ring, and stop.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+
+		if (encoder.isAlive()) {
+			full.put(STOP);
+			encoder.join();
+		}
+	}
+
+	private void encode() {
+
+		BufferedImage image = new BufferedImage(Video.WIDTH, Video.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		ByteBuffer rgb = ByteBuffer.allocate(FRAME_SIZE * 3);
+
+		while (true) {
+			Slot slot;
+			try {
+				slot = full.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (slot == STOP) {
+				return;
+			}
+
+			slot.pixels.clear();
+			slot.pixels.get(pixels);
+			long frame = slot.frame;
+			free.add(slot);
+
+			try {
+				if (format == Format.PNG) {
+					ImageIO.write(image, "png", file(frame, "png").toFile());
+				} else {
+					write(pixels, rgb, file(frame, "rgb"));
+				}
+				written++;
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	private Path file(long frame, String extension) {
+
+		return directory.resolve(String.format("frame-%08d.%s", frame, extension));
+	}
+
+	private static void write(int[] pixels, ByteBuffer rgb, Path file) throws IOException {
+
+		rgb.clear();
+		for (int pixel : pixels) {
+			rgb.put((byte)(pixel >> 16));
+			rgb.put((byte)(pixel >> 8));
+			rgb.put((byte)pixel);
+		}
+		rgb.flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (rgb.hasRemaining()) {
+				channel.write(rgb);
+			}
+		}
+	}
+}
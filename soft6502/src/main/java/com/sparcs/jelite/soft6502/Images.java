@@ -0,0 +1,102 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reading and writing the files memory is loaded from and dumped to: ROM
+ * images (see {@link RomCache} to share them) and raw memory dumps. Disk
+ * images are {@link DiskImage}s.
+ *
+ * Large files are memory mapped and small ones read with a
+ * {@link FileChannel}, so either way they go into the backing store with one
+ * bulk copy.
+ */
+public final class Images {
+
+	// below this it's cheaper to read than to set up a mapping
+	private static final int MAP_THRESHOLD = 64*1024;
+
+	private Images() {
+	}
+
+	/**
+	 * @return the whole of a file, read fully into a heap buffer
+	 * @throws EOFException if the file shrinks while it's being read
+	 */
+	public static ByteBuffer read(Path file) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(size(channel, file));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException(String.format("%s: only %d of %d bytes",
+							file, buffer.position(), buffer.capacity()));
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * @return the whole of a file, mapped read-only
+	 */
+	public static ByteBuffer map(Path file) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size(channel, file));
+		}
+	}
+
+	/**
+	 * Load the whole of a file directly into the backing store at
+	 * {@code off}, ignoring any mapping.
+	 *
+	 * @return the number of bytes loaded
+	 * @throws IllegalArgumentException if it doesn't fit
+	 */
+	public static int load(Ram16Bit ram, Path file, int off) throws IOException {
+
+		long size;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			size = channel.size();
+		}
+		if (off < 0 || off + size > ram.getBackingStore().length) {
+			throw new IllegalArgumentException(String.format("%s: %d bytes don't fit at %d", file, size, off));
+		}
+
+		ByteBuffer buffer = size < MAP_THRESHOLD ? read(file) : map(file);
+		int len = buffer.remaining();
+		ram.load(buffer, off);
+		return len;
+	}
+
+	/**
+	 * Write {@code len} bytes of the backing store from {@code off} to a
+	 * file, replacing anything already there.
+	 */
+	public static void dump(Ram16Bit ram, Path file, int off, int len) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.wrap(ram.getBackingStore(), off, len);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static int size(FileChannel channel, Path file) throws IOException {
+
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(String.format("%s is too big: %d bytes", file, size));
+		}
+		return (int)size;
+	}
+}
@@ -0,0 +1,90 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * The BBC's memory mapped I/O area: FRED (&FC00-&FCFF), JIM (&FD00-&FDFF)
+ * and SHEILA (&FE00-&FEFF).
+ * 
+ * Devices register for address ranges, filling in a dispatch table with an
+ * entry for every address, so finding the device for an access is a single
+ * array index. Addresses nobody has claimed read as &FF and ignore writes.
+ * 
+ * Only the three I/O pages are handed to the bus; every other page of the
+ * {@link PagedMemory} keeps its RAM/ROM fast path.
+ */
+public class IoBus implements IoHandler {
+
+	public static final int FRED = 0xFC00;
+	public static final int JIM = 0xFD00;
+	public static final int SHEILA = 0xFE00;
+
+	private static final int SIZE = 0xFF00 - FRED;
+
+	private static final IoDevice UNMAPPED = new IoDevice() {
+
+		@Override
+		public int read(int addr, long cycle) {
+
+			return 0xFF;
+		}
+
+		@Override
+		public void write(int addr, int value, long cycle) {
+		}
+	};
+
+	private final Soft6502 cpu;
+	private final IoDevice[] devices = new IoDevice[SIZE];
+
+	public IoBus(Soft6502 cpu) {
+
+		this.cpu = cpu;
+		for (int i = 0; i < SIZE; i++) {
+			devices[i] = UNMAPPED;
+		}
+	}
+
+	/**
+	 * Hand FRED, JIM and SHEILA in {@code memory} to this bus.
+	 */
+	public void attach(PagedMemory memory) {
+
+		memory.mapIo(FRED >> 8, SIZE >> 8, this);
+	}
+
+	/**
+	 * Route accesses to {@code first}-{@code last} (inclusive) to
+	 * {@code device}, replacing whatever was there.
+	 */
+	public void register(int first, int last, IoDevice device) {
+
+		if (first < FRED || last >= FRED + SIZE || first > last) {
+			throw new IllegalArgumentException(String.format("Not an I/O range: %04X-%04X", first, last));
+		}
+		for (int addr = first; addr <= last; addr++) {
+			devices[addr - FRED] = device;
+		}
+	}
+
+	public void unregister(int first, int last) {
+
+		register(first, last, UNMAPPED);
+	}
+
+	public IoDevice getDevice(int addr) {
+
+		IoDevice device = devices[addr - FRED];
+		return device == UNMAPPED ? null : device;
+	}
+
+	@Override
+	public int read(int addr) {
+
+		return devices[addr - FRED].read(addr, cpu.clockticks);
+	}
+
+	@Override
+	public void write(int addr, int value) {
+
+		devices[addr - FRED].write(addr, value, cpu.clockticks);
+	}
+}
@@ -0,0 +1,14 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * Memory mapped hardware attached to an {@link IoBus}.
+ * 
+ * {@code cycle} is the CPU's clock ticks at the start of the instruction
+ * making the access.
+ */
+public interface IoDevice {
+
+	int read(int addr, long cycle);
+
+	void write(int addr, int value, long cycle);
+}
@@ -0,0 +1,11 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * Services reads and writes to pages of {@link PagedMemory} mapped as I/O.
+ */
+public interface IoHandler {
+
+	int read(int addr);
+
+	void write(int addr, int value);
+}
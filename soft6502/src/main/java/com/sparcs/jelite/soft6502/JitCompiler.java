@@ -0,0 +1,1041 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_BREAK;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CONSTANT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_DECIMAL;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_INTERRUPT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+import static org.objectweb.asm.Opcodes.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import com.sparcs.jelite.soft6502.Opcode.Mode;
+
+/**
+ * Compiles a {@link BlockEngine.Block} to a class of its own.
+ *
+ * The generated method keeps the registers in locals, does the work of each
+ * instruction inline (calling the same ALU helpers as {@link SwitchEngine}),
+ * and adds up constant cycle counts as it goes, only writing them to a local
+ * where they're needed. A block that branches back to its own start loops
+ * inside the method.
+ *
+ * Flags a later instruction in the block overwrites before anything reads
+ * them aren't worked out at all; that's most of the N and Z updates.
+ *
+ * The interpreter has to be able to take over between any two instructions
+ * that could touch a device (anything outside zero page and the stack), or
+ * the block's own code, or could let an interrupt in (CLI, PLP). After each
+ * of those the registers and flags are brought right up to date, the CPU's
+ * clock ticks are set for devices to see beforehand, and the method checks
+ * {@link Compiled#mustStop}. That's why blocks in zero page or the stack
+ * aren't compiled, nor those with BRK or RTI, nor undocumented instructions.
+ *
+ * Classes are loaded as hidden classes where the JVM has them (Java 15 on),
+ * so they can be unloaded once their block is thrown away.
+ */
+final class JitCompiler {
+
+	private static final String CPU = Type.getInternalName(Soft6502.class);
+	private static final String RAM = Type.getInternalName(Ram16Bit.class);
+	private static final String BLOCK = Type.getInternalName(BlockEngine.Block.class);
+	private static final String COMPILED = Type.getInternalName(Compiled.class);
+	private static final String HELPERS = Type.getInternalName(SwitchEngine.class);
+
+	private static final String RUN = "(L" + CPU + ";L" + BLOCK + ";)V";
+	private static final String CHECK = "(L" + CPU + ";L" + BLOCK + ";JI)Z";
+	private static final String GET_BYTE = "(I)I";
+	private static final String SET_BYTE = "(II)V";
+
+	private static final int BASE_STACK = 0x0100;
+	private static final int ALL_FLAGS = 0xFF;
+	private static final int NZ = FLAG_SIGN | FLAG_ZERO;
+
+	// locals
+	private static final int CPU_LOCAL = 1;
+	private static final int BLOCK_LOCAL = 2;
+	private static final int RAM_LOCAL = 3;
+	private static final int A = 4;
+	private static final int X = 5;
+	private static final int Y = 6;
+	private static final int SP = 7;
+	private static final int P = 8;
+	private static final int EA = 9;
+	private static final int T = 10;
+	private static final int PC = 11;
+	private static final int TICKS = 12;
+	private static final int N = 14;
+
+	// ea held in the EA local, rather than known
+	private static final int DYNAMIC = -1;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final AtomicInteger classes = new AtomicInteger();
+
+	// Lookup.defineHiddenClass, if this JVM has it
+	private static final Method defineHiddenClass;
+	private static final Object noOptions;
+	static {
+		Method method = null;
+		Object options = null;
+		try {
+			options = Array.newInstance(Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"), 0);
+			method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+		} catch (ReflectiveOperationException e) {
+			// before Java 15
+		}
+		defineHiddenClass = method;
+		noOptions = options;
+	}
+
+	private final BlockEngine.Block block;
+	private final int count;
+	private final Opcode[] opcodes;
+	private final int[] operands;
+	private final int[] next;
+	private MethodVisitor mv;
+	private final Label loop = new Label();
+	private final Label exit = new Label();
+
+	// constant ticks not yet added to the TICKS local
+	private int pending;
+
+	private JitCompiler(BlockEngine.Block block) {
+
+		this.block = block;
+		this.count = block.code.length / 2;
+		this.opcodes = new Opcode[count];
+		this.operands = new int[count];
+		this.next = new int[count];
+		for (int i = 0; i < count; i++) {
+			int word = block.code[i * 2];
+			opcodes[i] = Opcode.byCode[word & 0xFF];
+			operands[i] = word >>> 12;
+			next[i] = block.code[i * 2 + 1];
+		}
+	}
+
+	/**
+	 * @return the compiled block, or null if it's one that can't be compiled
+	 */
+	static Compiled compile(BlockEngine.Block block) {
+
+		JitCompiler compiler = new JitCompiler(block);
+		if (!compiler.canCompile()) {
+			return null;
+		}
+		byte[] bytes = compiler.generate();
+		try {
+			return (Compiled)define(bytes).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't load compiled block", e);
+		}
+	}
+
+	private boolean canCompile() {
+
+		int end = next[count - 1];
+		if (block.start < 0x0200 || ((end - 1) & 0xFFFF) < 0x0200) {
+			return false;
+		}
+		for (Opcode opcode : opcodes) {
+			if (!supported(opcode.getMnemonic())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Class<?> define(byte[] bytes) throws ReflectiveOperationException {
+
+		if (defineHiddenClass != null) {
+			MethodHandles.Lookup lookup = (MethodHandles.Lookup)defineHiddenClass.invoke(LOOKUP, bytes, true, noOptions);
+			return lookup.lookupClass();
+		}
+		Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass", byte[].class, int.class, int.class);
+		defineClass.setAccessible(true);
+		return (Class<?>)defineClass.invoke(JitCompiler.class.getClassLoader(), bytes, 0, bytes.length);
+	}
+
+	//=== generation
+
+	private byte[] generate() {
+
+		String name = String.format("%s$%04X$%d", COMPILED, block.start, classes.incrementAndGet());
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) {
+
+				return "java/lang/Object";
+			}
+		};
+		cw.visit(V1_8, ACC_FINAL | ACC_SUPER, name, null, COMPILED, null);
+
+		mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, COMPILED, "<init>", "()V", false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(0, "run", RUN, null, null);
+		mv.visitCode();
+		prologue();
+		mv.visitLabel(loop);
+
+		boolean[] exits = exits();
+		int[] liveAfter = liveness(exits);
+		for (int i = 0; i < count; i++) {
+			instruction(i, exits[i], liveAfter[i]);
+		}
+
+		epilogue();
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private void prologue() {
+
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitFieldInsn(GETFIELD, CPU, "ram", "L" + RAM + ";");
+		mv.visitVarInsn(ASTORE, RAM_LOCAL);
+		for (String register : new String[] { "a", "x", "y", "sp", "status" }) {
+			mv.visitVarInsn(ALOAD, CPU_LOCAL);
+			mv.visitFieldInsn(GETFIELD, CPU, register, "I");
+			mv.visitVarInsn(ISTORE, local(register));
+		}
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitFieldInsn(GETFIELD, CPU, "clockticks", "J");
+		mv.visitVarInsn(LSTORE, TICKS);
+		mv.visitInsn(LCONST_0);
+		mv.visitVarInsn(LSTORE, N);
+		push(0);
+		mv.visitVarInsn(ISTORE, EA);
+		push(0);
+		mv.visitVarInsn(ISTORE, T);
+		push(0);
+		mv.visitVarInsn(ISTORE, PC);
+	}
+
+	private void epilogue() {
+
+		mv.visitLabel(exit);
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitVarInsn(ILOAD, PC);
+		mv.visitFieldInsn(PUTFIELD, CPU, "pc", "I");
+		for (String register : new String[] { "a", "x", "y", "sp", "status" }) {
+			mv.visitVarInsn(ALOAD, CPU_LOCAL);
+			mv.visitVarInsn(ILOAD, local(register));
+			mv.visitFieldInsn(PUTFIELD, CPU, register, "I");
+		}
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitVarInsn(LLOAD, TICKS);
+		mv.visitFieldInsn(PUTFIELD, CPU, "clockticks", "J");
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitInsn(DUP);
+		mv.visitFieldInsn(GETFIELD, CPU, "instructions", "J");
+		mv.visitVarInsn(LLOAD, N);
+		mv.visitInsn(LADD);
+		mv.visitFieldInsn(PUTFIELD, CPU, "instructions", "J");
+		mv.visitInsn(RETURN);
+	}
+
+	private static int local(String register) {
+
+		switch (register) {
+		case "a":
+			return A;
+		case "x":
+			return X;
+		case "y":
+			return Y;
+		case "sp":
+			return SP;
+		default:
+			return P;
+		}
+	}
+
+	/**
+	 * @return which instructions the interpreter may need to take over after;
+	 *         never the last, which leaves anyway
+	 */
+	private boolean[] exits() {
+
+		boolean[] exits = new boolean[count];
+		for (int i = 0; i < count - 1; i++) {
+			String mnemonic = opcodes[i].getMnemonic();
+			exits[i] = mnemonic.equals("CLI") || mnemonic.equals("PLP") || mayReachDevice(opcodes[i]);
+		}
+		return exits;
+	}
+
+	/**
+	 * @return the flags read after each instruction before being overwritten
+	 */
+	private int[] liveness(boolean[] exits) {
+
+		int[] liveAfter = new int[count];
+		int live = ALL_FLAGS;
+		for (int i = count - 1; i >= 0; i--) {
+			if (exits[i]) {
+				live = ALL_FLAGS;
+			}
+			liveAfter[i] = live;
+			String mnemonic = opcodes[i].getMnemonic();
+			live = (live & ~defines(mnemonic)) | uses(mnemonic);
+		}
+		return liveAfter;
+	}
+
+	private void instruction(int i, boolean exit, int liveAfter) {
+
+		Opcode opcode = opcodes[i];
+		String mnemonic = opcode.getMnemonic();
+		Mode mode = opcode.getMode();
+		int operand = operands[i];
+		boolean last = i == count - 1;
+
+		// devices see the cycle the instruction starts on
+		if (mayReachDevice(opcode)) {
+			flush();
+			mv.visitVarInsn(ALOAD, CPU_LOCAL);
+			mv.visitVarInsn(LLOAD, TICKS);
+			mv.visitFieldInsn(PUTFIELD, CPU, "clockticks", "J");
+		}
+		pending += opcode.getTicks();
+
+		boolean flags = (liveAfter & NZ) != 0;
+		int ea;
+
+		switch (mnemonic) {
+
+		case "LDA":
+			load(mode, operand, A, flags);
+			break;
+		case "LDX":
+			load(mode, operand, X, flags);
+			break;
+		case "LDY":
+			load(mode, operand, Y, flags);
+			break;
+
+		case "STA":
+			store(mode, operand, A);
+			break;
+		case "STX":
+			store(mode, operand, X);
+			break;
+		case "STY":
+			store(mode, operand, Y);
+			break;
+
+		case "TAX":
+			transfer(A, X, flags);
+			break;
+		case "TAY":
+			transfer(A, Y, flags);
+			break;
+		case "TXA":
+			transfer(X, A, flags);
+			break;
+		case "TYA":
+			transfer(Y, A, flags);
+			break;
+		case "TSX":
+			transfer(SP, X, flags);
+			break;
+		case "TXS":
+			transfer(X, SP, false);
+			break;
+
+		case "INX":
+			step(X, IADD, flags);
+			break;
+		case "INY":
+			step(Y, IADD, flags);
+			break;
+		case "DEX":
+			step(X, ISUB, flags);
+			break;
+		case "DEY":
+			step(Y, ISUB, flags);
+			break;
+
+		case "INC":
+		case "DEC":
+			ea = address(mode, operand, false);
+			read(mode, operand, ea);
+			push(1);
+			mv.visitInsn(mnemonic.equals("INC") ? IADD : ISUB);
+			push(0xFF);
+			mv.visitInsn(IAND);
+			mv.visitVarInsn(ISTORE, T);
+			write(ea, T);
+			if (flags) {
+				nz(T);
+			}
+			break;
+
+		case "AND":
+			logical(mode, operand, IAND, flags);
+			break;
+		case "ORA":
+			logical(mode, operand, IOR, flags);
+			break;
+		case "EOR":
+			logical(mode, operand, IXOR, flags);
+			break;
+
+		case "ADC":
+		case "SBC":
+			ea = address(mode, operand, true);
+			mv.visitVarInsn(ILOAD, P);
+			mv.visitVarInsn(ILOAD, A);
+			read(mode, operand, ea);
+			mv.visitMethodInsn(INVOKESTATIC, HELPERS, mnemonic.toLowerCase(), "(III)I", false);
+			unpack(A);
+			break;
+
+		case "CMP":
+			compare(mode, operand, A);
+			break;
+		case "CPX":
+			compare(mode, operand, X);
+			break;
+		case "CPY":
+			compare(mode, operand, Y);
+			break;
+
+		case "BIT":
+			ea = address(mode, operand, false);
+			mv.visitVarInsn(ILOAD, P);
+			mv.visitVarInsn(ILOAD, A);
+			read(mode, operand, ea);
+			mv.visitMethodInsn(INVOKESTATIC, COMPILED, "bit", "(III)I", false);
+			mv.visitVarInsn(ISTORE, P);
+			break;
+
+		case "ASL":
+		case "LSR":
+		case "ROL":
+		case "ROR":
+			shift(mode, operand, mnemonic.toLowerCase());
+			break;
+
+		case "CLC":
+			flag(FLAG_CARRY, false);
+			break;
+		case "SEC":
+			flag(FLAG_CARRY, true);
+			break;
+		case "CLI":
+			flag(FLAG_INTERRUPT, false);
+			break;
+		case "SEI":
+			flag(FLAG_INTERRUPT, true);
+			break;
+		case "CLD":
+			flag(FLAG_DECIMAL, false);
+			break;
+		case "SED":
+			flag(FLAG_DECIMAL, true);
+			break;
+		case "CLV":
+			flag(FLAG_OVERFLOW, false);
+			break;
+
+		case "PHA":
+			mv.visitVarInsn(ILOAD, A);
+			mv.visitVarInsn(ISTORE, T);
+			pushStack(T);
+			break;
+		case "PHP":
+			mv.visitVarInsn(ILOAD, P);
+			push(FLAG_BREAK);
+			mv.visitInsn(IOR);
+			mv.visitVarInsn(ISTORE, T);
+			pushStack(T);
+			break;
+		case "PLA":
+			pullStack();
+			mv.visitVarInsn(ISTORE, A);
+			if (flags) {
+				nz(A);
+			}
+			break;
+		case "PLP":
+			pullStack();
+			push(FLAG_CONSTANT);
+			mv.visitInsn(IOR);
+			mv.visitVarInsn(ISTORE, P);
+			break;
+
+		case "NOP":
+			if (Opcode.isPenaltyNop(opcode.getCode())) {
+				address(mode, operand, true);
+			}
+			break;
+
+		case "BPL":
+			branch(i, FLAG_SIGN, IFNE);
+			return;
+		case "BMI":
+			branch(i, FLAG_SIGN, IFEQ);
+			return;
+		case "BVC":
+			branch(i, FLAG_OVERFLOW, IFNE);
+			return;
+		case "BVS":
+			branch(i, FLAG_OVERFLOW, IFEQ);
+			return;
+		case "BCC":
+			branch(i, FLAG_CARRY, IFNE);
+			return;
+		case "BCS":
+			branch(i, FLAG_CARRY, IFEQ);
+			return;
+		case "BNE":
+			branch(i, FLAG_ZERO, IFNE);
+			return;
+		case "BEQ":
+			branch(i, FLAG_ZERO, IFEQ);
+			return;
+
+		case "JMP":
+			if (mode == Mode.INDIRECT) {
+				mv.visitVarInsn(ALOAD, RAM_LOCAL);
+				push(operand);
+				mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "getByte", GET_BYTE, false);
+				mv.visitVarInsn(ALOAD, RAM_LOCAL);
+				push((operand & 0xFF00) | ((operand + 1) & 0xFF));
+				mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "getByte", GET_BYTE, false);
+				push(8);
+				mv.visitInsn(ISHL);
+				mv.visitInsn(IOR);
+				mv.visitVarInsn(ISTORE, PC);
+				leave(i);
+			} else {
+				jump(i, operand);
+			}
+			return;
+
+		case "JSR":
+			push(((next[i] - 1) >> 8) & 0xFF);
+			mv.visitVarInsn(ISTORE, T);
+			pushStack(T);
+			push((next[i] - 1) & 0xFF);
+			mv.visitVarInsn(ISTORE, T);
+			pushStack(T);
+			push(operand);
+			mv.visitVarInsn(ISTORE, PC);
+			leave(i);
+			return;
+
+		case "RTS":
+			mv.visitVarInsn(ALOAD, RAM_LOCAL);
+			mv.visitVarInsn(ILOAD, SP);
+			mv.visitMethodInsn(INVOKESTATIC, COMPILED, "pullWord", "(L" + RAM + ";I)I", false);
+			push(1);
+			mv.visitInsn(IADD);
+			push(0xFFFF);
+			mv.visitInsn(IAND);
+			mv.visitVarInsn(ISTORE, PC);
+			mv.visitVarInsn(ILOAD, SP);
+			push(2);
+			mv.visitInsn(IADD);
+			push(0xFF);
+			mv.visitInsn(IAND);
+			mv.visitVarInsn(ISTORE, SP);
+			leave(i);
+			return;
+
+		default:
+			throw new IllegalStateException("Can't compile " + mnemonic);
+		}
+
+		if (last) {
+			// ran off the end of the block
+			push(next[i]);
+			mv.visitVarInsn(ISTORE, PC);
+			leave(i);
+		} else if (exit) {
+			Label carryOn = new Label();
+			flush();
+			check("mustStop");
+			mv.visitJumpInsn(IFEQ, carryOn);
+			push(next[i]);
+			mv.visitVarInsn(ISTORE, PC);
+			count(i + 1);
+			mv.visitJumpInsn(GOTO, this.exit);
+			mv.visitLabel(carryOn);
+		}
+	}
+
+	//=== addressing
+
+	/**
+	 * Work out the effective address, if it's not known already.
+	 *
+	 * @return the address, or {@link #DYNAMIC} if it's been left in EA
+	 */
+	private int address(Mode mode, int operand, boolean penalty) {
+
+		switch (mode) {
+		case ZERO_PAGE:
+		case ABSOLUTE:
+			return operand;
+		case ZERO_PAGE_X:
+			indexed(operand, X, 0xFF);
+			return DYNAMIC;
+		case ZERO_PAGE_Y:
+			indexed(operand, Y, 0xFF);
+			return DYNAMIC;
+		case ABSOLUTE_X:
+			indexed(operand, X, 0xFFFF);
+			if (penalty) {
+				push(operand);
+				pagePenalty();
+			}
+			return DYNAMIC;
+		case ABSOLUTE_Y:
+			indexed(operand, Y, 0xFFFF);
+			if (penalty) {
+				push(operand);
+				pagePenalty();
+			}
+			return DYNAMIC;
+		case INDIRECT_X:
+			mv.visitVarInsn(ALOAD, RAM_LOCAL);
+			push(operand);
+			mv.visitVarInsn(ILOAD, X);
+			mv.visitInsn(IADD);
+			mv.visitMethodInsn(INVOKESTATIC, HELPERS, "zpWord", "(L" + RAM + ";I)I", false);
+			mv.visitVarInsn(ISTORE, EA);
+			return DYNAMIC;
+		case INDIRECT_Y:
+			mv.visitVarInsn(ALOAD, RAM_LOCAL);
+			push(operand);
+			mv.visitMethodInsn(INVOKESTATIC, HELPERS, "zpWord", "(L" + RAM + ";I)I", false);
+			mv.visitVarInsn(ISTORE, T);
+			mv.visitVarInsn(ILOAD, T);
+			mv.visitVarInsn(ILOAD, Y);
+			mv.visitInsn(IADD);
+			push(0xFFFF);
+			mv.visitInsn(IAND);
+			mv.visitVarInsn(ISTORE, EA);
+			if (penalty) {
+				mv.visitVarInsn(ILOAD, T);
+				pagePenalty();
+			}
+			return DYNAMIC;
+		default:
+			// immediate and accumulator have no address
+			return DYNAMIC;
+		}
+	}
+
+	private void indexed(int operand, int register, int mask) {
+
+		push(operand);
+		mv.visitVarInsn(ILOAD, register);
+		mv.visitInsn(IADD);
+		push(mask);
+		mv.visitInsn(IAND);
+		mv.visitVarInsn(ISTORE, EA);
+	}
+
+	// base address on the stack; EA holds the effective address
+	private void pagePenalty() {
+
+		mv.visitVarInsn(ILOAD, EA);
+		mv.visitMethodInsn(INVOKESTATIC, HELPERS, "pagePenalty", "(II)I", false);
+		mv.visitInsn(I2L);
+		mv.visitVarInsn(LLOAD, TICKS);
+		mv.visitInsn(LADD);
+		mv.visitVarInsn(LSTORE, TICKS);
+	}
+
+	private void pushAddress(int ea) {
+
+		if (ea == DYNAMIC) {
+			mv.visitVarInsn(ILOAD, EA);
+		} else {
+			push(ea);
+		}
+	}
+
+	// leaves the operand's value on the stack
+	private void read(Mode mode, int operand, int ea) {
+
+		switch (mode) {
+		case IMMEDIATE:
+			push(operand);
+			break;
+		case ACCUMULATOR:
+			mv.visitVarInsn(ILOAD, A);
+			break;
+		default:
+			mv.visitVarInsn(ALOAD, RAM_LOCAL);
+			pushAddress(ea);
+			mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "getByte", GET_BYTE, false);
+			break;
+		}
+	}
+
+	private void write(int ea, int local) {
+
+		mv.visitVarInsn(ALOAD, RAM_LOCAL);
+		pushAddress(ea);
+		mv.visitVarInsn(ILOAD, local);
+		mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "setByte", SET_BYTE, false);
+	}
+
+	//=== operations
+
+	private void load(Mode mode, int operand, int register, boolean flags) {
+
+		int ea = address(mode, operand, true);
+		read(mode, operand, ea);
+		mv.visitVarInsn(ISTORE, register);
+		if (flags) {
+			nz(register);
+		}
+	}
+
+	private void store(Mode mode, int operand, int register) {
+
+		write(address(mode, operand, false), register);
+	}
+
+	private void transfer(int from, int to, boolean flags) {
+
+		mv.visitVarInsn(ILOAD, from);
+		mv.visitVarInsn(ISTORE, to);
+		if (flags) {
+			nz(to);
+		}
+	}
+
+	private void step(int register, int op, boolean flags) {
+
+		mv.visitVarInsn(ILOAD, register);
+		push(1);
+		mv.visitInsn(op);
+		push(0xFF);
+		mv.visitInsn(IAND);
+		mv.visitVarInsn(ISTORE, register);
+		if (flags) {
+			nz(register);
+		}
+	}
+
+	private void logical(Mode mode, int operand, int op, boolean flags) {
+
+		int ea = address(mode, operand, true);
+		mv.visitVarInsn(ILOAD, A);
+		read(mode, operand, ea);
+		mv.visitInsn(op);
+		mv.visitVarInsn(ISTORE, A);
+		if (flags) {
+			nz(A);
+		}
+	}
+
+	private void compare(Mode mode, int operand, int register) {
+
+		int ea = address(mode, operand, true);
+		mv.visitVarInsn(ILOAD, P);
+		mv.visitVarInsn(ILOAD, register);
+		read(mode, operand, ea);
+		mv.visitMethodInsn(INVOKESTATIC, HELPERS, "compare", "(III)I", false);
+		mv.visitVarInsn(ISTORE, P);
+	}
+
+	private void shift(Mode mode, int operand, String helper) {
+
+		int ea = address(mode, operand, false);
+		mv.visitVarInsn(ILOAD, P);
+		read(mode, operand, ea);
+		mv.visitMethodInsn(INVOKESTATIC, HELPERS, helper, "(II)I", false);
+		if (mode == Mode.ACCUMULATOR) {
+			unpack(A);
+		} else {
+			unpack(T);
+			write(ea, T);
+		}
+	}
+
+	// (status << 8) | result on the stack
+	private void unpack(int result) {
+
+		mv.visitInsn(DUP);
+		push(8);
+		mv.visitInsn(ISHR);
+		mv.visitVarInsn(ISTORE, P);
+		push(0xFF);
+		mv.visitInsn(IAND);
+		mv.visitVarInsn(ISTORE, result);
+	}
+
+	private void nz(int register) {
+
+		mv.visitVarInsn(ILOAD, P);
+		mv.visitVarInsn(ILOAD, register);
+		mv.visitMethodInsn(INVOKESTATIC, HELPERS, "nz", "(II)I", false);
+		mv.visitVarInsn(ISTORE, P);
+	}
+
+	private void flag(int flag, boolean set) {
+
+		mv.visitVarInsn(ILOAD, P);
+		if (set) {
+			push(flag);
+			mv.visitInsn(IOR);
+		} else {
+			push(~flag);
+			mv.visitInsn(IAND);
+		}
+		mv.visitVarInsn(ISTORE, P);
+	}
+
+	private void pushStack(int local) {
+
+		mv.visitVarInsn(ALOAD, RAM_LOCAL);
+		push(BASE_STACK);
+		mv.visitVarInsn(ILOAD, SP);
+		mv.visitInsn(IADD);
+		mv.visitVarInsn(ILOAD, local);
+		mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "setByte", SET_BYTE, false);
+		mv.visitVarInsn(ILOAD, SP);
+		push(1);
+		mv.visitInsn(ISUB);
+		push(0xFF);
+		mv.visitInsn(IAND);
+		mv.visitVarInsn(ISTORE, SP);
+	}
+
+	// leaves the byte pulled on the stack
+	private void pullStack() {
+
+		mv.visitVarInsn(ILOAD, SP);
+		push(1);
+		mv.visitInsn(IADD);
+		push(0xFF);
+		mv.visitInsn(IAND);
+		mv.visitVarInsn(ISTORE, SP);
+		mv.visitVarInsn(ALOAD, RAM_LOCAL);
+		push(BASE_STACK);
+		mv.visitVarInsn(ILOAD, SP);
+		mv.visitInsn(IADD);
+		mv.visitMethodInsn(INVOKEVIRTUAL, RAM, "getByte", GET_BYTE, false);
+	}
+
+	//=== control flow
+
+	/**
+	 * @param notTaken how to test the flag to skip the branch
+	 */
+	private void branch(int i, int flag, int notTaken) {
+
+		Label skip = new Label();
+		int target = operands[i];
+
+		mv.visitVarInsn(ILOAD, P);
+		push(flag);
+		mv.visitInsn(IAND);
+		mv.visitJumpInsn(notTaken, skip);
+
+		int saved = pending;
+		pending += ((next[i] ^ target) & 0xFF00) == 0 ? 1 : 2;
+		jump(i, target);
+
+		mv.visitLabel(skip);
+		pending = saved;
+		push(next[i]);
+		mv.visitVarInsn(ISTORE, PC);
+		leave(i);
+	}
+
+	private void jump(int i, int target) {
+
+		if (target == block.start) {
+			flush();
+			count(i + 1);
+			check("canRepeat");
+			mv.visitJumpInsn(IFNE, loop);
+			push(target);
+			mv.visitVarInsn(ISTORE, PC);
+			mv.visitJumpInsn(GOTO, exit);
+		} else {
+			push(target);
+			mv.visitVarInsn(ISTORE, PC);
+			leave(i);
+		}
+	}
+
+	// leave with PC set, after instruction i
+	private void leave(int i) {
+
+		flush();
+		count(i + 1);
+		mv.visitJumpInsn(GOTO, exit);
+	}
+
+	private void check(String helper) {
+
+		mv.visitVarInsn(ALOAD, CPU_LOCAL);
+		mv.visitVarInsn(ALOAD, BLOCK_LOCAL);
+		mv.visitVarInsn(LLOAD, TICKS);
+		mv.visitVarInsn(ILOAD, P);
+		mv.visitMethodInsn(INVOKESTATIC, COMPILED, helper, CHECK, false);
+	}
+
+	private void count(int instructions) {
+
+		mv.visitVarInsn(LLOAD, N);
+		mv.visitLdcInsn((long)instructions);
+		mv.visitInsn(LADD);
+		mv.visitVarInsn(LSTORE, N);
+	}
+
+	private void flush() {
+
+		if (pending != 0) {
+			mv.visitVarInsn(LLOAD, TICKS);
+			mv.visitLdcInsn((long)pending);
+			mv.visitInsn(LADD);
+			mv.visitVarInsn(LSTORE, TICKS);
+			pending = 0;
+		}
+	}
+
+	private void push(int value) {
+
+		if (value >= -1 && value <= 5) {
+			mv.visitInsn(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(BIPUSH, value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			mv.visitIntInsn(SIPUSH, value);
+		} else {
+			mv.visitLdcInsn(value);
+		}
+	}
+
+	//=== what instructions do
+
+	private static boolean supported(String mnemonic) {
+
+		switch (mnemonic) {
+		case "BRK":
+		case "RTI":
+			return false;
+		default:
+			return defines(mnemonic) != -1;
+		}
+	}
+
+	// anything but zero page and the stack might be I/O
+	private static boolean mayReachDevice(Opcode opcode) {
+
+		switch (opcode.getMode()) {
+		case ABSOLUTE:
+		case ABSOLUTE_X:
+		case ABSOLUTE_Y:
+		case INDIRECT_X:
+		case INDIRECT_Y:
+			return touchesMemory(opcode.getMnemonic());
+		default:
+			return false;
+		}
+	}
+
+	// other than through the stack
+	private static boolean touchesMemory(String mnemonic) {
+
+		switch (mnemonic) {
+		case "LDA": case "LDX": case "LDY": case "STA": case "STX": case "STY":
+		case "INC": case "DEC": case "AND": case "ORA": case "EOR": case "ADC":
+		case "SBC": case "CMP": case "CPX": case "CPY": case "BIT":
+		case "ASL": case "LSR": case "ROL": case "ROR":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the flags an instruction reads
+	 */
+	private static int uses(String mnemonic) {
+
+		switch (mnemonic) {
+		case "ADC": case "SBC":
+			return FLAG_CARRY | FLAG_DECIMAL;
+		case "ROL": case "ROR": case "BCC": case "BCS":
+			return FLAG_CARRY;
+		case "BEQ": case "BNE":
+			return FLAG_ZERO;
+		case "BMI": case "BPL":
+			return FLAG_SIGN;
+		case "BVC": case "BVS":
+			return FLAG_OVERFLOW;
+		case "PHP": case "BRK":
+			return ALL_FLAGS;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the flags an instruction sets, or -1 if it isn't known here
+	 */
+	private static int defines(String mnemonic) {
+
+		switch (mnemonic) {
+		case "LDA": case "LDX": case "LDY": case "TAX": case "TAY": case "TXA":
+		case "TYA": case "TSX": case "INX": case "INY": case "DEX": case "DEY":
+		case "INC": case "DEC": case "AND": case "ORA": case "EOR": case "PLA":
+			return NZ;
+		case "ADC": case "SBC":
+			return NZ | FLAG_CARRY | FLAG_OVERFLOW;
+		case "CMP": case "CPX": case "CPY": case "ASL": case "LSR": case "ROL": case "ROR":
+			return NZ | FLAG_CARRY;
+		case "BIT":
+			return NZ | FLAG_OVERFLOW;
+		case "CLC": case "SEC":
+			return FLAG_CARRY;
+		case "CLI": case "SEI":
+			return FLAG_INTERRUPT;
+		case "CLD": case "SED":
+			return FLAG_DECIMAL;
+		case "CLV":
+			return FLAG_OVERFLOW;
+		case "PLP": case "RTI":
+			return ALL_FLAGS;
+		case "STA": case "STX": case "STY": case "TXS": case "PHA": case "PHP":
+		case "NOP": case "JMP": case "JSR": case "RTS": case "BRK":
+		case "BPL": case "BMI": case "BVC": case "BVS":
+		case "BCC": case "BCS": case "BNE": case "BEQ":
+			return 0;
+		default:
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * A {@link BlockEngine} that compiles blocks to bytecode once they've been
+ * entered often enough (see {@link JitCompiler}), so HotSpot can optimise
+ * each hot block as a method of its own.
+ * 
+ * Compiled code falls back to the interpreter whenever it has to: when a
+ * block would run past the clock goal, when an interrupt can be taken, and
+ * when a block's code is written to, which throws the block away along with
+ * its class. Blocks in pages that keep being rewritten aren't compiled at
+ * all.
+ */
+public class JitEngine extends BlockEngine {
+
+	public static final int DEFAULT_THRESHOLD = 64;
+
+	// pages rewritten more often than this hold code that modifies itself
+	// too much to be worth compiling
+	private static final int MAX_REWRITES = 16;
+
+	private final int threshold;
+
+	// counters
+	private long compilations;
+
+	public JitEngine() {
+
+		this(DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * @param threshold the number of times a block is entered before it's
+	 *        compiled
+	 */
+	public JitEngine(int threshold) {
+
+		this.threshold = threshold;
+	}
+
+	@Override
+	Block lookup(int pc) {
+
+		Block block = super.lookup(pc);
+		if (++block.entries == threshold && !isRewritten(block)) {
+			block.compiled = JitCompiler.compile(block);
+			if (block.compiled != null) {
+				compilations++;
+			}
+		}
+		return block;
+	}
+
+	private boolean isRewritten(Block block) {
+
+		int page = block.start >>> 8;
+		return getRewrites(page) > MAX_REWRITES
+				|| (block.spans && getRewrites((page + 1) & 0xFF) > MAX_REWRITES);
+	}
+
+	//=== counters
+
+	/**
+	 * @return the number of blocks compiled
+	 */
+	public long getCompilations() {
+
+		return compilations;
+	}
+
+	@Override
+	public void resetCounters() {
+
+		super.resetCounters();
+		compilations = 0;
+	}
+}
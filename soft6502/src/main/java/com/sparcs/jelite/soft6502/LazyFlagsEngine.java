@@ -0,0 +1,1475 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_BREAK;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CONSTANT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_DECIMAL;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_INTERRUPT;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+import static com.sparcs.jelite.soft6502.SwitchEngine.branchPenalty;
+import static com.sparcs.jelite.soft6502.SwitchEngine.pagePenalty;
+import static com.sparcs.jelite.soft6502.SwitchEngine.word;
+import static com.sparcs.jelite.soft6502.SwitchEngine.zpWord;
+
+import java.util.function.Predicate;
+
+/**
+ * A {@link SwitchEngine} that works out the N, Z, C and V flags only when
+ * something reads them.
+ * 
+ * Most flag updates are overwritten before a branch, PHP, BRK or interrupt
+ * gets to see them, so rather than keep the status register up to date this
+ * keeps the last result that set each flag, in locals:
+ * 
+ * <pre>
+ * nr: N is bit 7
+ * zr: Z is set when the bottom 8 bits are zero
+ * cr: C is bit 8
+ * vr: V is bit 7
+ * </pre>
+ * 
+ * e.g. LDA just copies the value to {@code nr} and {@code zr}, and ADC leaves
+ * its 9 bit sum in {@code cr}. The other flags stay in {@code p}. The status
+ * register is put together whenever it's pushed, and before the CPU sees it
+ * (a condition is tested, or {@link #run} returns).
+ * 
+ * Behaviour must match {@link OpcodeEngine} exactly.
+ */
+public class LazyFlagsEngine implements Engine {
+
+	private static final int BASE_STACK = 0x0100;
+
+	private static final int[] TICKS = SwitchEngine.TICKS;
+
+	@Override
+	public void run(Soft6502 cpu, Predicate<Soft6502> condition) {
+
+		Ram16Bit ram = cpu.ram;
+		int pc = cpu.pc;
+		int a = cpu.a;
+		int x = cpu.x;
+		int y = cpu.y;
+		int sp = cpu.sp;
+		int p = cpu.status;
+		int nr = p;
+		int zr = ~p & FLAG_ZERO;
+		int cr = p << 8;
+		int vr = p << 1;
+		long ticks = cpu.clockticks;
+		long n = 0;
+		int ea, t, v;
+
+		// re-read every instruction: a device may schedule an event that
+		// pulls the goal in
+		while (ticks < cpu.clockgoal) {
+
+			// leave interrupts to the CPU, between instructions
+			if (cpu.interruptPending && (cpu.nmiPending || (p & FLAG_INTERRUPT) == 0)) {
+				break;
+			}
+
+			if (condition != null) {
+				cpu.pc = pc;
+				cpu.a = a;
+				cpu.x = x;
+				cpu.y = y;
+				cpu.sp = sp;
+				cpu.status = status(p, nr, zr, cr, vr);
+				cpu.clockticks = ticks;
+				cpu.instructions += n;
+				n = 0;
+				if (condition.test(cpu)) {
+					break;
+				}
+			}
+
+			// for I/O devices, which see the cycle an instruction starts on
+			cpu.clockticks = ticks;
+
+			n++;
+			int op = ram.getByte(pc);
+			pc = (pc + 1) & 0xFFFF;
+			ticks += TICKS[op];
+
+			switch (op) {
+
+			case 0x00: // BRK
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(BASE_STACK + sp, (pc >> 8) & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 1) & 0xFF), pc & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 2) & 0xFF), status(p, nr, zr, cr, vr) | FLAG_BREAK);
+				sp = (sp - 3) & 0xFF;
+				p |= FLAG_INTERRUPT;
+				pc = word(ram, 0xFFFE);
+				break;
+
+			case 0x01: // ORA (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x05: // ORA zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x06: // ASL zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 1;
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x08: // PHP
+				ram.setByte(BASE_STACK + sp, status(p, nr, zr, cr, vr) | FLAG_BREAK);
+				sp = (sp - 1) & 0xFF;
+				break;
+
+			case 0x09: // ORA #
+				a |= ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = a;
+				break;
+
+			case 0x0A: // ASL A
+				cr = a << 1;
+				a = cr & 0xFF;
+				nr = zr = a;
+				break;
+
+			case 0x0D: // ORA abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x0E: // ASL abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 1;
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x10: // BPL
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((nr & 0x80) == 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0x11: // ORA (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x15: // ORA zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x16: // ASL zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 1;
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x18: // CLC
+				cr = 0;
+				break;
+
+			case 0x19: // ORA abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x1D: // ORA abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a |= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x1E: // ASL abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 1;
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x20: // JSR abs
+				ea = word(ram, pc);
+				t = pc + 1;
+				ram.setByte(BASE_STACK + sp, (t >> 8) & 0xFF);
+				ram.setByte(BASE_STACK + ((sp - 1) & 0xFF), t & 0xFF);
+				sp = (sp - 2) & 0xFF;
+				pc = ea;
+				break;
+
+			case 0x21: // AND (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x24: // BIT zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				nr = v;
+				zr = a & v;
+				vr = v << 1;
+				break;
+
+			case 0x25: // AND zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x26: // ROL zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = (v << 1) | ((cr >> 8) & 1);
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x28: // PLP
+				sp = (sp + 1) & 0xFF;
+				p = ram.getByte(BASE_STACK + sp) | FLAG_CONSTANT;
+				nr = p;
+				zr = ~p & FLAG_ZERO;
+				cr = p << 8;
+				vr = p << 1;
+				break;
+
+			case 0x29: // AND #
+				a &= ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = a;
+				break;
+
+			case 0x2A: // ROL A
+				cr = (a << 1) | ((cr >> 8) & 1);
+				a = cr & 0xFF;
+				nr = zr = a;
+				break;
+
+			case 0x2C: // BIT abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = ram.getByte(ea);
+				nr = v;
+				zr = a & v;
+				vr = v << 1;
+				break;
+
+			case 0x2D: // AND abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x2E: // ROL abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = (v << 1) | ((cr >> 8) & 1);
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x30: // BMI
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((nr & 0x80) != 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0x31: // AND (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x35: // AND zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x36: // ROL zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = (v << 1) | ((cr >> 8) & 1);
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x38: // SEC
+				cr = 0x100;
+				break;
+
+			case 0x39: // AND abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x3D: // AND abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a &= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x3E: // ROL abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = (v << 1) | ((cr >> 8) & 1);
+				t = cr & 0xFF;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x40: // RTI
+				sp = (sp + 1) & 0xFF;
+				p = ram.getByte(BASE_STACK + sp) | FLAG_CONSTANT;
+				nr = p;
+				zr = ~p & FLAG_ZERO;
+				cr = p << 8;
+				vr = p << 1;
+				pc = ram.getByte(BASE_STACK + ((sp + 1) & 0xFF)) | (ram.getByte(BASE_STACK + ((sp + 2) & 0xFF)) << 8);
+				sp = (sp + 2) & 0xFF;
+				break;
+
+			case 0x41: // EOR (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x45: // EOR zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x46: // LSR zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 8;
+				t = v >> 1;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x48: // PHA
+				ram.setByte(BASE_STACK + sp, a);
+				sp = (sp - 1) & 0xFF;
+				break;
+
+			case 0x49: // EOR #
+				a ^= ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = a;
+				break;
+
+			case 0x4A: // LSR A
+				cr = a << 8;
+				a >>= 1;
+				nr = zr = a;
+				break;
+
+			case 0x4C: // JMP abs
+				pc = word(ram, pc);
+				break;
+
+			case 0x4D: // EOR abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x4E: // LSR abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 8;
+				t = v >> 1;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x50: // BVC
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((vr & 0x80) == 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0x51: // EOR (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x55: // EOR zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x56: // LSR zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 8;
+				t = v >> 1;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x58: // CLI
+				p &= ~FLAG_INTERRUPT;
+				break;
+
+			case 0x59: // EOR abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x5D: // EOR abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a ^= ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0x5E: // LSR abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = ram.getByte(ea);
+				cr = v << 8;
+				t = v >> 1;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x60: // RTS
+				pc = ((ram.getByte(BASE_STACK + ((sp + 1) & 0xFF)) | (ram.getByte(BASE_STACK + ((sp + 2) & 0xFF)) << 8)) + 1) & 0xFFFF;
+				sp = (sp + 2) & 0xFF;
+				break;
+
+			case 0x61: // ADC (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x65: // ADC zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x66: // ROR zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				t = (v >> 1) | ((cr >> 1) & 0x80);
+				cr = v << 8;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x68: // PLA
+				sp = (sp + 1) & 0xFF;
+				a = ram.getByte(BASE_STACK + sp);
+				nr = zr = a;
+				break;
+
+			case 0x69: // ADC #
+				t = adc(p, a, ram.getByte(pc), cr);
+				pc = (pc + 1) & 0xFFFF;
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x6A: // ROR A
+				t = (a >> 1) | ((cr >> 1) & 0x80);
+				cr = a << 8;
+				a = t;
+				nr = zr = a;
+				break;
+
+			case 0x6C: // JMP (abs)
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = ram.getByte(t) | (ram.getByte((t & 0xFF00) | ((t + 1) & 0xFF)) << 8);
+				pc = ea;
+				break;
+
+			case 0x6D: // ADC abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x6E: // ROR abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = ram.getByte(ea);
+				t = (v >> 1) | ((cr >> 1) & 0x80);
+				cr = v << 8;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x70: // BVS
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((vr & 0x80) != 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0x71: // ADC (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x75: // ADC zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x76: // ROR zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = ram.getByte(ea);
+				t = (v >> 1) | ((cr >> 1) & 0x80);
+				cr = v << 8;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x78: // SEI
+				p |= FLAG_INTERRUPT;
+				break;
+
+			case 0x79: // ADC abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x7D: // ADC abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = adc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0x7E: // ROR abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = ram.getByte(ea);
+				t = (v >> 1) | ((cr >> 1) & 0x80);
+				cr = v << 8;
+				ram.setByte(ea, t);
+				nr = zr = t;
+				break;
+
+			case 0x81: // STA (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x84: // STY zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x85: // STA zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x86: // STX zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x88: // DEY
+				y = (y - 1) & 0xFF;
+				nr = zr = y;
+				break;
+
+			case 0x8A: // TXA
+				a = x;
+				nr = zr = a;
+				break;
+
+			case 0x8C: // STY abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x8D: // STA abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x8E: // STX abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x90: // BCC
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((cr & 0x100) == 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0x91: // STA (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x94: // STY zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, y);
+				break;
+
+			case 0x95: // STA zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x96: // STX zp,Y
+				ea = (ram.getByte(pc) + y) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				ram.setByte(ea, x);
+				break;
+
+			case 0x98: // TYA
+				a = y;
+				nr = zr = a;
+				break;
+
+			case 0x99: // STA abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0x9A: // TXS
+				sp = x;
+				break;
+
+			case 0x9D: // STA abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ram.setByte(ea, a);
+				break;
+
+			case 0xA0: // LDY #
+				y = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = y;
+				break;
+
+			case 0xA1: // LDA (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xA2: // LDX #
+				x = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = x;
+				break;
+
+			case 0xA4: // LDY zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				y = ram.getByte(ea);
+				nr = zr = y;
+				break;
+
+			case 0xA5: // LDA zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xA6: // LDX zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				x = ram.getByte(ea);
+				nr = zr = x;
+				break;
+
+			case 0xA8: // TAY
+				y = a;
+				nr = zr = y;
+				break;
+
+			case 0xA9: // LDA #
+				a = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = a;
+				break;
+
+			case 0xAA: // TAX
+				x = a;
+				nr = zr = x;
+				break;
+
+			case 0xAC: // LDY abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				y = ram.getByte(ea);
+				nr = zr = y;
+				break;
+
+			case 0xAD: // LDA abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xAE: // LDX abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				x = ram.getByte(ea);
+				nr = zr = x;
+				break;
+
+			case 0xB0: // BCS
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((cr & 0x100) != 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0xB1: // LDA (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xB4: // LDY zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				y = ram.getByte(ea);
+				nr = zr = y;
+				break;
+
+			case 0xB5: // LDA zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xB6: // LDX zp,Y
+				ea = (ram.getByte(pc) + y) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				x = ram.getByte(ea);
+				nr = zr = x;
+				break;
+
+			case 0xB8: // CLV
+				vr = 0;
+				break;
+
+			case 0xB9: // LDA abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xBA: // TSX
+				x = sp;
+				nr = zr = x;
+				break;
+
+			case 0xBC: // LDY abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				y = ram.getByte(ea);
+				nr = zr = y;
+				break;
+
+			case 0xBD: // LDA abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				a = ram.getByte(ea);
+				nr = zr = a;
+				break;
+
+			case 0xBE: // LDX abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				x = ram.getByte(ea);
+				nr = zr = x;
+				break;
+
+			case 0xC0: // CPY #
+				cr = y + (ram.getByte(pc) ^ 0xFF) + 1;
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = cr;
+				break;
+
+			case 0xC1: // CMP (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xC4: // CPY zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				cr = y + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xC5: // CMP zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xC6: // DEC zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xC8: // INY
+				y = (y + 1) & 0xFF;
+				nr = zr = y;
+				break;
+
+			case 0xC9: // CMP #
+				cr = a + (ram.getByte(pc) ^ 0xFF) + 1;
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = cr;
+				break;
+
+			case 0xCA: // DEX
+				x = (x - 1) & 0xFF;
+				nr = zr = x;
+				break;
+
+			case 0xCC: // CPY abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				cr = y + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xCD: // CMP abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xCE: // DEC abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xD0: // BNE
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((zr & 0xFF) != 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0xD1: // CMP (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xD5: // CMP zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xD6: // DEC zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xD8: // CLD
+				p &= ~FLAG_DECIMAL;
+				break;
+
+			case 0xD9: // CMP abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xDD: // CMP abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				cr = a + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xDE: // DEC abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = (ram.getByte(ea) - 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xE0: // CPX #
+				cr = x + (ram.getByte(pc) ^ 0xFF) + 1;
+				pc = (pc + 1) & 0xFFFF;
+				nr = zr = cr;
+				break;
+
+			case 0xE1: // SBC (zp,X)
+				ea = zpWord(ram, ram.getByte(pc) + x);
+				pc = (pc + 1) & 0xFFFF;
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xE4: // CPX zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				cr = x + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xE5: // SBC zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xE6: // INC zp
+				ea = ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xE8: // INX
+				x = (x + 1) & 0xFF;
+				nr = zr = x;
+				break;
+
+			case 0xE9: // SBC #
+			case 0xEB: // SBC #
+				t = sbc(p, a, ram.getByte(pc), cr);
+				pc = (pc + 1) & 0xFFFF;
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xEC: // CPX abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				cr = x + (ram.getByte(ea) ^ 0xFF) + 1;
+				nr = zr = cr;
+				break;
+
+			case 0xED: // SBC abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xEE: // INC abs
+				ea = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xF0: // BEQ
+				t = (byte)ram.getByte(pc);
+				pc = (pc + 1) & 0xFFFF;
+				if ((zr & 0xFF) == 0) {
+					ea = (pc + t) & 0xFFFF;
+					ticks += branchPenalty(pc, ea);
+					pc = ea;
+				}
+				break;
+
+			case 0xF1: // SBC (zp),Y
+				t = zpWord(ram, ram.getByte(pc));
+				pc = (pc + 1) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xF5: // SBC zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xF6: // INC zp,X
+				ea = (ram.getByte(pc) + x) & 0xFF;
+				pc = (pc + 1) & 0xFFFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0xF8: // SED
+				p |= FLAG_DECIMAL;
+				break;
+
+			case 0xF9: // SBC abs,Y
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + y) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xFD: // SBC abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				ticks += pagePenalty(t, ea);
+				t = sbc(p, a, ram.getByte(ea), cr);
+				a = t & 0xFF;
+				cr = t;
+				nr = t >> 8;
+				vr = t >> 7;
+				zr = t >> 16;
+				break;
+
+			case 0xFE: // INC abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ea = (t + x) & 0xFFFF;
+				v = (ram.getByte(ea) + 1) & 0xFF;
+				ram.setByte(ea, v);
+				nr = zr = v;
+				break;
+
+			case 0x02: // NOP
+			case 0x12: // NOP
+			case 0x1A: // NOP
+			case 0x22: // NOP
+			case 0x32: // NOP
+			case 0x3A: // NOP
+			case 0x42: // NOP
+			case 0x52: // NOP
+			case 0x5A: // NOP
+			case 0x62: // NOP
+			case 0x72: // NOP
+			case 0x7A: // NOP
+			case 0x92: // NOP
+			case 0xB2: // NOP
+			case 0xD2: // NOP
+			case 0xDA: // NOP
+			case 0xEA: // NOP
+			case 0xF2: // NOP
+			case 0xFA: // NOP
+				break;
+
+			case 0x04: // NOP zp
+			case 0x0B: // NOP #
+			case 0x14: // NOP zp,X
+			case 0x2B: // NOP #
+			case 0x34: // NOP zp,X
+			case 0x44: // NOP zp
+			case 0x4B: // NOP #
+			case 0x54: // NOP zp,X
+			case 0x64: // NOP zp
+			case 0x6B: // NOP #
+			case 0x74: // NOP zp,X
+			case 0x80: // NOP #
+			case 0x82: // NOP #
+			case 0x89: // NOP #
+			case 0x8B: // NOP #
+			case 0x93: // NOP (zp),Y
+			case 0xAB: // NOP #
+			case 0xC2: // NOP #
+			case 0xCB: // NOP #
+			case 0xD4: // NOP zp,X
+			case 0xE2: // NOP #
+			case 0xF4: // NOP zp,X
+				pc = (pc + 1) & 0xFFFF;
+				break;
+
+			case 0x0C: // NOP abs
+			case 0x9B: // NOP abs,Y
+			case 0x9C: // NOP abs,X
+			case 0x9E: // NOP abs,Y
+			case 0x9F: // NOP abs,Y
+				pc = (pc + 2) & 0xFFFF;
+				break;
+
+			case 0x1C: // NOP abs,X
+			case 0x3C: // NOP abs,X
+			case 0x5C: // NOP abs,X
+			case 0x7C: // NOP abs,X
+			case 0xDC: // NOP abs,X
+			case 0xFC: // NOP abs,X
+				t = word(ram, pc);
+				pc = (pc + 2) & 0xFFFF;
+				ticks += pagePenalty(t, t + x);
+				break;
+
+			// LAX, SAX and the undocumented read-modify-writes are rare enough
+			// to leave to Opcode, which keeps this method under the limit
+			case 0x03: // SLO (zp,X)
+			case 0x07: // SLO zp
+			case 0x0F: // SLO abs
+			case 0x13: // SLO (zp),Y
+			case 0x17: // SLO zp,X
+			case 0x1B: // SLO abs,Y
+			case 0x1F: // SLO abs,X
+			case 0x23: // RLA (zp,X)
+			case 0x27: // RLA zp
+			case 0x2F: // RLA abs
+			case 0x33: // RLA (zp),Y
+			case 0x37: // RLA zp,X
+			case 0x3B: // RLA abs,Y
+			case 0x3F: // RLA abs,X
+			case 0x43: // SRE (zp,X)
+			case 0x47: // SRE zp
+			case 0x4F: // SRE abs
+			case 0x53: // SRE (zp),Y
+			case 0x57: // SRE zp,X
+			case 0x5B: // SRE abs,Y
+			case 0x5F: // SRE abs,X
+			case 0x63: // RRA (zp,X)
+			case 0x67: // RRA zp
+			case 0x6F: // RRA abs
+			case 0x73: // RRA (zp),Y
+			case 0x77: // RRA zp,X
+			case 0x7B: // RRA abs,Y
+			case 0x7F: // RRA abs,X
+			case 0x83: // SAX (zp,X)
+			case 0x87: // SAX zp
+			case 0x8F: // SAX abs
+			case 0x97: // SAX zp,Y
+			case 0xA3: // LAX (zp,X)
+			case 0xA7: // LAX zp
+			case 0xAF: // LAX abs
+			case 0xB3: // LAX (zp),Y
+			case 0xB7: // LAX zp,Y
+			case 0xBB: // LAX abs,Y
+			case 0xBF: // LAX abs,Y
+			case 0xC3: // DCP (zp,X)
+			case 0xC7: // DCP zp
+			case 0xCF: // DCP abs
+			case 0xD3: // DCP (zp),Y
+			case 0xD7: // DCP zp,X
+			case 0xDB: // DCP abs,Y
+			case 0xDF: // DCP abs,X
+			case 0xE3: // ISB (zp,X)
+			case 0xE7: // ISB zp
+			case 0xEF: // ISB abs
+			case 0xF3: // ISB (zp),Y
+			case 0xF7: // ISB zp,X
+			case 0xFB: // ISB abs,Y
+			case 0xFF: // ISB abs,X
+				cpu.pc = pc;
+				cpu.a = a;
+				cpu.x = x;
+				cpu.y = y;
+				cpu.status = status(p, nr, zr, cr, vr);
+				ticks += Opcode.byCode[op].executeWithPenalty(cpu);
+				pc = cpu.pc;
+				a = cpu.a;
+				x = cpu.x;
+				y = cpu.y;
+				p = cpu.status;
+				nr = p;
+				zr = ~p & FLAG_ZERO;
+				cr = p << 8;
+				vr = p << 1;
+				break;
+			}
+		}
+
+		cpu.pc = pc;
+		cpu.a = a;
+		cpu.x = x;
+		cpu.y = y;
+		cpu.sp = sp;
+		cpu.status = status(p, nr, zr, cr, vr);
+		cpu.clockticks = ticks;
+		cpu.instructions += n;
+	}
+
+	// ADC and SBC return result(8) C(1) in the bottom 9 bits, like the binary
+	// sum, with V in bit 14, N in bit 15 and a byte that's zero iff Z in bits
+	// 16-23: one shift away from each lazy flag
+
+	static int adc(int p, int a, int value, int cr) {
+
+		if ((p & FLAG_DECIMAL) != 0) {
+			return lazy(Decimal.adc((cr >> 8) & FLAG_CARRY, a, value));
+		}
+		return add(a, value, (cr >> 8) & 1);
+	}
+
+	// value is the operand, not its complement
+	static int sbc(int p, int a, int value, int cr) {
+
+		if ((p & FLAG_DECIMAL) != 0) {
+			return lazy(Decimal.sbc((cr >> 8) & FLAG_CARRY, a, value));
+		}
+		return add(a, value ^ 0xFF, (cr >> 8) & 1);
+	}
+
+	private static int add(int a, int value, int c) {
+
+		int t = a + value + c;
+
+		return t | (((a ^ t) & (value ^ t) & 0x80) << 7) | ((t & 0x80) << 8) | ((t & 0xFF) << 16);
+	}
+
+	// a Decimal entry already has C, V and N where they're wanted
+	private static int lazy(int entry) {
+
+		return entry | ((~entry & (FLAG_ZERO << 8)) << 7);
+	}
+
+	static int status(int p, int nr, int zr, int cr, int vr) {
+
+		return (p & ~(FLAG_SIGN | FLAG_ZERO | FLAG_CARRY | FLAG_OVERFLOW))
+				| (nr & FLAG_SIGN)
+				| ((zr & 0xFF) == 0 ? FLAG_ZERO : 0)
+				| ((cr >> 8) & FLAG_CARRY)
+				| ((vr >> 1) & FLAG_OVERFLOW);
+	}
+}
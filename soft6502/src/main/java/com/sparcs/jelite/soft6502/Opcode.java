@@ -16,6 +16,7 @@ public class Opcode {
 	private byte code;
 	private String mnemonic;
 	private int operandSize;
+	private Mode mode;
 	private Consumer<Soft6502> getEffectiveAddress;
 	private Consumer<Soft6502> execute;
 	private int ticks;
@@ -35,6 +36,22 @@ public class Opcode {
 		} else {
 			operandSize = 0;
 		}
+		mode = Mode.values()[modeList.indexOf(getEffectiveAddress)];
+	}
+
+	/**
+	 * Addressing modes, in the order of {@code modeList}.
+	 */
+	public enum Mode {
+		IMPLIED, ACCUMULATOR, IMMEDIATE,
+		ZERO_PAGE, ZERO_PAGE_X, ZERO_PAGE_Y, RELATIVE,
+		ABSOLUTE, ABSOLUTE_X, ABSOLUTE_Y,
+		INDIRECT, INDIRECT_X, INDIRECT_Y
+	}
+
+	public int getCode() {
+
+		return code & 0xFF;
 	}
 
 	public int getTicks() {
@@ -42,21 +59,41 @@ public class Opcode {
 		return ticks;
 	}
 
+	public String getMnemonic() {
+
+		return mnemonic;
+	}
+
+	public int getOperandSize() {
+
+		return operandSize;
+	}
+
+	public Mode getMode() {
+
+		return mode;
+	}
+
 	public String disassemble(Soft6502 cpu) {
 
+		return disassemble(cpu.pc, cpu.ram.getByte((cpu.pc + 1) & 0xFFFF), cpu.ram.getByte((cpu.pc + 2) & 0xFFFF));
+	}
+
+	public String disassemble(int pc, int operand1, int operand2) {
+
 		StringBuilder sb = new StringBuilder();
 		
 		// PC--
 		// 0000 4C FE FF  JMP $FFFE
-		sb.append(String.format("%04X ", cpu.pc))
+		sb.append(String.format("%04X ", pc))
 		  .append(String.format("%02X ",  code));
 		if( operandSize > 0 ) {
-			sb.append(String.format("%02X ",  cpu.ram.getByte(cpu.pc+1)));
+			sb.append(String.format("%02X ",  operand1));
 		} else {
 			sb.append("   ");
 		}
 		if( operandSize > 1 ) {
-			sb.append(String.format("%02X ",  cpu.ram.getByte(cpu.pc+2)));
+			sb.append(String.format("%02X ",  operand2));
 		} else {
 			sb.append("   ");
 		}
@@ -69,38 +106,88 @@ public class Opcode {
 
 	public void execute(Soft6502 cpu) {
 
+		cpu.opcode = code & 0xFF;
 		getEffectiveAddress.accept(cpu);
 		execute.accept(cpu);
 	}
 
+	/**
+	 * Execute, with the PC just past the opcode byte, for engines that leave
+	 * the odd instruction to this table.
+	 *
+	 * @return the extra cycle for crossing a page, if the instruction takes it
+	 */
+	int executeWithPenalty(Soft6502 cpu) {
+
+		cpu.penaltyop = 0;
+		cpu.penaltyaddr = 0;
+		execute(cpu);
+		return cpu.penaltyop & cpu.penaltyaddr;
+	}
+
+	/**
+	 * @return true for the NOP abs,X forms that take a cycle for crossing a
+	 *         page (the other abs,X and abs,Y "NOP"s are really stores)
+	 */
+	static boolean isPenaltyNop(int code) {
+
+		switch (code) {
+		case 0x1C:
+		case 0x3C:
+		case 0x5C:
+		case 0x7C:
+		case 0xDC:
+		case 0xFC:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	//===
 
 	//a few general functions used by various other functions
 	private static void push16(Soft6502 cpu, int pushval) {
 		
-	    cpu.ram.setByte(BASE_STACK + cpu.sp, (byte)((pushval >> 8) & 0xFF));
-	    cpu.ram.setByte(BASE_STACK + ((cpu.sp - 1) & 0xFF), (byte)(pushval & 0xFF));
-	    cpu.sp -= 2;
+	    cpu.ram.setByte(BASE_STACK + cpu.sp, (pushval >> 8) & 0xFF);
+	    cpu.ram.setByte(BASE_STACK + ((cpu.sp - 1) & 0xFF), pushval & 0xFF);
+	    cpu.sp = (cpu.sp - 2) & 0xFF;
 	}
 
-	static void push8(Soft6502 cpu, byte value) {
+	static void push8(Soft6502 cpu, int value) {
 		
-		cpu.ram.setByte(BASE_STACK + cpu.sp--, value);
+		cpu.ram.setByte(BASE_STACK + cpu.sp, value);
+		cpu.sp = (cpu.sp - 1) & 0xFF;
 	}
 
-	static byte pop8(Soft6502 cpu) {
+	static int pop8(Soft6502 cpu) {
 		
-	    return (byte)(cpu.ram.getByte(BASE_STACK + ++cpu.sp));
+		cpu.sp = (cpu.sp + 1) & 0xFF;
+	    return cpu.ram.getByte(BASE_STACK + cpu.sp);
 	}
 
 	static int pop16(Soft6502 cpu) {
 		
 	    int temp16 = cpu.ram.getByte(BASE_STACK + ((cpu.sp + 1) & 0xFF)) |
 	    			 ((int)cpu.ram.getByte(BASE_STACK + ((cpu.sp + 2) & 0xFF)) << 8);
-	    cpu.sp += 2;
+	    cpu.sp = (cpu.sp + 2) & 0xFF;
 	    return temp16;
 	}
 
+	// the operand byte at PC, stepping past it; PC wraps round from $FFFF to $0000
+	private static int fetch(Soft6502 cpu) {
+
+		int value = cpu.ram.getByte(cpu.pc);
+		cpu.pc = (cpu.pc + 1) & 0xFFFF;
+		return value;
+	}
+
+	private static int fetchWord(Soft6502 cpu) {
+
+		int low = fetch(cpu);
+		return low | (fetch(cpu) << 8);
+	}
+
 	//===
 	
 	// implied
@@ -115,96 +202,88 @@ public class Opcode {
 	// immediate
 	private static Consumer<Soft6502> imm = (cpu) -> {
 
-		cpu.ea = cpu.pc++;
+		cpu.ea = cpu.pc;
+		cpu.pc = (cpu.pc + 1) & 0xFFFF;
 	};
 
 	// zero-page
 	private static Consumer<Soft6502> zp = (cpu) -> {
 		
-		cpu.ea = cpu.ram.getByte(cpu.pc++);
+		cpu.ea = fetch(cpu);
 	};
 
 	// zero-page,X
 	private static Consumer<Soft6502> zpx = (cpu) -> {
 		
-		cpu.ea = ((int)cpu.ram.getByte(cpu.pc++) + (int)cpu.x) & 0xFF; //zero-page wraparound
+		cpu.ea = (fetch(cpu) + (int)cpu.x) & 0xFF; //zero-page wraparound
 	};
 
 	// zero-page,Y
 	private static Consumer<Soft6502> zpy = (cpu) -> { 
-		cpu.ea = ((int)cpu.ram.getByte((int)cpu.pc++) + (int)cpu.y) & 0xFF; //zero-page wraparound
+		cpu.ea = (fetch(cpu) + (int)cpu.y) & 0xFF; //zero-page wraparound
 	};
 
 	// relative for branch ops (8-bit immediate value, sign-extended)
 	private static Consumer<Soft6502> rel = (cpu) -> {
 		
-		cpu.reladdr = (byte)cpu.ram.getByte(cpu.pc++);
-	    if ((cpu.reladdr & 0x80) != 0) {
-	    	cpu.reladdr |= 0xFF00;
-	    }
+		cpu.reladdr = (byte)fetch(cpu); // sign-extended
 	};
 
 	// absolute
 	private static Consumer<Soft6502> abso = (cpu) -> { 
 		
-		cpu.ea = (int)cpu.ram.getByte(cpu.pc) | ((int)cpu.ram.getByte(cpu.pc+1) << 8);
-	    cpu.pc += 2;
+		cpu.ea = fetchWord(cpu);
 	};
 
 	// absolute,X
 	private static Consumer<Soft6502> absx = (cpu) -> {
 		
 	    int startpage;
-	    cpu.ea = ((int)cpu.ram.getByte(cpu.pc) | ((int)cpu.ram.getByte(cpu.pc+1) << 8));
+	    cpu.ea = fetchWord(cpu);
 	    startpage = cpu.ea & 0xFF00;
-	    cpu.ea += (int)cpu.x;
+	    cpu.ea = (cpu.ea + cpu.x) & 0xFFFF;
 
 	    if (startpage != (cpu.ea & 0xFF00)) { //one cycle penlty for page-crossing on some opcodes
 	    	cpu.penaltyaddr = 1;
 	    }
-
-	    cpu.pc += 2;
 	};
 
 	// absolute,Y
 	private static Consumer<Soft6502> absy = (cpu) -> {
 		
 	    int startpage;
-	    cpu.ea = ((int)cpu.ram.getByte(cpu.pc) | ((int)cpu.ram.getByte(cpu.pc+1) << 8));
+	    cpu.ea = fetchWord(cpu);
 	    startpage = cpu.ea & 0xFF00;
-	    cpu.ea += (int)cpu.y;
+	    cpu.ea = (cpu.ea + cpu.y) & 0xFFFF;
 
 	    if (startpage != (cpu.ea & 0xFF00)) { //one cycle penlty for page-crossing on some opcodes
 	    	cpu.penaltyaddr = 1;
 	    }
-
-	    cpu.pc += 2;
 	};
 
 	// indirect
 	private static Consumer<Soft6502> ind = (cpu) -> {
 
-		int eahelp = (int)cpu.ram.getByte(cpu.pc) | (int)((int)cpu.ram.getByte(cpu.pc+1) << 8);
+		int eahelp = fetchWord(cpu);
 		int eahelp2 = (eahelp & 0xFF00) | ((eahelp + 1) & 0x00FF); //replicate 6502 page-boundary wraparound bug
 		cpu.ea = (int)cpu.ram.getByte(eahelp) | ((int)cpu.ram.getByte(eahelp2) << 8);
-	    cpu.pc += 2;
 	};
 
 	// (indirect,X)
 	private static Consumer<Soft6502> indx = (cpu) -> {
 
-		int eahelp = (int)(((int)cpu.ram.getByte(cpu.pc++) + (int)cpu.x) & 0xFF); //zero-page wraparound for table pointer
+		int eahelp = (fetch(cpu) + (int)cpu.x) & 0xFF; //zero-page wraparound for table pointer
 		cpu.ea = (int)cpu.ram.getByte(eahelp & 0x00FF) | ((int)cpu.ram.getByte((eahelp+1) & 0x00FF) << 8);
 	};
 
 	// (indirect),Y
 	private static Consumer<Soft6502> indy = (cpu) -> {
 
-		int eahelp = (int)cpu.ram.getByte(cpu.pc++);
+		int eahelp = fetch(cpu);
 	    int eahelp2 = (eahelp & 0xFF00) | ((eahelp + 1) & 0x00FF); //zero-page wraparound
 	    cpu.ea = (int)cpu.ram.getByte(eahelp) | ((int)cpu.ram.getByte(eahelp2) << 8);
 	    int startpage = cpu.ea & 0xFF00;
-	    cpu.ea += (int)cpu.y;
+	    cpu.ea = (cpu.ea + cpu.y) & 0xFFFF;
 
 	    if (startpage != (cpu.ea & 0xFF00)) { //one cycle penlty for page-crossing on some opcodes
 	    	cpu.penaltyaddr = 1;
@@ -219,9 +298,9 @@ public class Opcode {
 	private static void putvalue(Soft6502 cpu, int value) {
 		
 	    if (cpu.ea == -1) {
-	    	cpu.a = (byte)(value & 0x00FF);
+	    	cpu.a = value & 0x00FF;
 	    } else {
-	    	cpu.ram.setByte(cpu.ea, (byte)(value & 0x00FF));
+	    	cpu.ram.setByte(cpu.ea, value & 0x00FF);
 	    }
 	}
 
@@ -229,7 +308,7 @@ public class Opcode {
 
 	private static void saveaccum(Soft6502 cpu, int value) {
 
-		cpu.a = (byte)(value & 0xFF);
+		cpu.a = value & 0xFF;
 	}
 
 	//flag modifier macros
@@ -319,13 +398,16 @@ public class Opcode {
 	    }
 	}
 
-	//===
+	// A + value + C, shared by ADC and RRA
+	private static void addvalue(Soft6502 cpu, int value) {
+
+	    if ((cpu.status & Soft6502.FLAG_DECIMAL) != 0) {
+	    	int result = Decimal.adc(cpu.status, cpu.a, value);
+	    	cpu.status = result >> 8;
+	    	saveaccum(cpu, result);
+	    	return;
+	    }
 
-	//instruction handler functions
-	private static Consumer<Soft6502> adc = (cpu) -> {
-		
-		cpu.penaltyop = 1;
-	    int value = getvalue(cpu);
 	    int result = (int)cpu.a + value + (int)(cpu.status & Soft6502.FLAG_CARRY);
 
 	    carrycalc(cpu, result);
@@ -333,23 +415,29 @@ public class Opcode {
 	    overflowcalc(cpu, result, cpu.a, value);
 	    signcalc(cpu, result);
 
-//	    #ifndef NES_CPU
-//	    if (status & FLAG_DECIMAL) {
-//	        clearcarry();
-//
-//	        if ((a & 0x0F) > 0x09) {
-//	            a += 0x06;
-//	        }
-//	        if ((a & 0xF0) > 0x90) {
-//	            a += 0x60;
-//	            setcarry();
-//	        }
-//
-//	        clockticks6502++;
-//	    }
-//	    #endif
-
 	    saveaccum(cpu, result);
+	}
+
+	// A - value - !C, shared by SBC and ISB
+	private static void subtractvalue(Soft6502 cpu, int value) {
+
+	    if ((cpu.status & Soft6502.FLAG_DECIMAL) != 0) {
+	    	int result = Decimal.sbc(cpu.status, cpu.a, value);
+	    	cpu.status = result >> 8;
+	    	saveaccum(cpu, result);
+	    	return;
+	    }
+
+	    addvalue(cpu, value ^ 0x00FF);
+	}
+
+	//===
+
+	//instruction handler functions
+	private static Consumer<Soft6502> adc = (cpu) -> {
+		
+		cpu.penaltyop = 1;
+	    addvalue(cpu, getvalue(cpu));
 	};
 
 	private static Consumer<Soft6502> and = (cpu) -> {
@@ -378,7 +466,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_CARRY) == 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -391,7 +479,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_CARRY) > 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -404,7 +492,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_ZERO) > 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -419,14 +507,14 @@ public class Opcode {
 	    int result = (int)cpu.a & value;
 
 	    zerocalc(cpu, result);
-	    cpu.status = (byte)((cpu.status & 0x3F) | (byte)(value & 0xC0));
+	    cpu.status = (cpu.status & 0x3F) | (value & 0xC0);
 	};
 
 	private static Consumer<Soft6502> bmi = (cpu) -> {
 		
 	    if ((cpu.status & Soft6502.FLAG_SIGN) > 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -439,7 +527,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_ZERO) == 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -450,9 +538,9 @@ public class Opcode {
 
 	private static Consumer<Soft6502> bpl = (cpu) -> {
 		
-	    if ((cpu.status & Soft6502.FLAG_SIGN) > 0) {
+	    if ((cpu.status & Soft6502.FLAG_SIGN) == 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -463,9 +551,9 @@ public class Opcode {
 
 	private static Consumer<Soft6502> brk = (cpu) -> {
 		
-		cpu.pc++;
+		cpu.pc = (cpu.pc + 1) & 0xFFFF;
 	    push16(cpu, cpu.pc); //push next instruction address onto stack
-	    push8(cpu, (byte)(cpu.status | Soft6502.FLAG_BREAK)); //push CPU status to stack
+	    push8(cpu, cpu.status | Soft6502.FLAG_BREAK); //push CPU status to stack
 	    setinterrupt(cpu); //set interrupt flag
 	    cpu.pc = (int)cpu.ram.getByte(0xFFFE) | ((int)cpu.ram.getByte(0xFFFF) << 8);
 	};
@@ -474,7 +562,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_OVERFLOW) == 0) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -487,7 +575,7 @@ public class Opcode {
 		
 	    if ((cpu.status & Soft6502.FLAG_OVERFLOW) == Soft6502.FLAG_OVERFLOW) {
 	        int oldpc = cpu.pc;
-	        cpu.pc += cpu.reladdr;
+	        cpu.pc = (cpu.pc + cpu.reladdr) & 0xFFFF;
 	        if ((oldpc & 0xFF00) != (cpu.pc & 0xFF00)) {
 	        	cpu.clockticks += 2; //check if jump crossed a page boundary
 	        } else {
@@ -520,12 +608,12 @@ public class Opcode {
 	    int value = getvalue(cpu);
 	    int result = (int)cpu.a - value;
 
-	    if (cpu.a >= (byte)(value & 0x00FF)) {
+	    if (cpu.a >= value) {
 	    	setcarry(cpu);
 	    } else {
 	    	clearcarry(cpu);
 	    }
-	    if (cpu.a == (byte)(value & 0x00FF)) {
+	    if (cpu.a == value) {
 	    	setzero(cpu);
 	    } else {
 	    	clearzero(cpu);
@@ -538,12 +626,12 @@ public class Opcode {
 	    int value = getvalue(cpu);
 	    int result = (int)cpu.x - value;
 
-	    if (cpu.x >= (byte)(value & 0x00FF)) {
+	    if (cpu.x >= value) {
 	    	setcarry(cpu);
 	    } else {
 	    	clearcarry(cpu);
 	    }
-	    if (cpu.x == (byte)(value & 0x00FF)) {
+	    if (cpu.x == value) {
 	    	setzero(cpu);
 	    } else {
 	    	clearzero(cpu);
@@ -556,12 +644,12 @@ public class Opcode {
 	    int value = getvalue(cpu);
 	    int result = (int)cpu.y - value;
 
-	    if (cpu.y >= (byte)(value & 0x00FF)) {
+	    if (cpu.y >= value) {
 	    	setcarry(cpu);
 	    } else {
 	    	clearcarry(cpu);
 	    }
-	    if (cpu.y == (byte)(value & 0x00FF)) {
+	    if (cpu.y == value) {
 	    	setzero(cpu);
 	    } else {
 	    	clearzero(cpu);
@@ -581,7 +669,7 @@ public class Opcode {
 
 	private static Consumer<Soft6502> dex = (cpu) -> {
 		
-		cpu.x--;
+		cpu.x = (cpu.x - 1) & 0xFF;
 
 	    zerocalc(cpu, cpu.x);
 	    signcalc(cpu, cpu.x);
@@ -589,7 +677,7 @@ public class Opcode {
 
 	private static Consumer<Soft6502> dey = (cpu) -> {
 		
-		cpu.y--;
+		cpu.y = (cpu.y - 1) & 0xFF;
 
 	    zerocalc(cpu, cpu.y);
 	    signcalc(cpu, cpu.y);
@@ -619,7 +707,7 @@ public class Opcode {
 
 	private static Consumer<Soft6502> inx = (cpu) -> {
 		
-		cpu.x++;
+		cpu.x = (cpu.x + 1) & 0xFF;
 
 	    zerocalc(cpu, cpu.x);
 	    signcalc(cpu, cpu.x);
@@ -627,7 +715,7 @@ public class Opcode {
 
 	private static Consumer<Soft6502> iny = (cpu) -> {
 		
-		cpu.y++;
+		cpu.y = (cpu.y + 1) & 0xFF;
 
 	    zerocalc(cpu, cpu.y);
 	    signcalc(cpu, cpu.y);
@@ -648,7 +736,7 @@ public class Opcode {
 		
 		cpu.penaltyop = 1;
 	    int value = getvalue(cpu);
-	    cpu.a = (byte)(value & 0x00FF);
+	    cpu.a = value;
 
 	    zerocalc(cpu, cpu.a);
 	    signcalc(cpu, cpu.a);
@@ -657,7 +745,7 @@ public class Opcode {
 	private static Consumer<Soft6502> ldx = (cpu) -> {
 		
 		cpu.penaltyop = 1;
-	    cpu.x = (byte)(getvalue(cpu) & 0x00FF);
+	    cpu.x = getvalue(cpu);
 
 	    zerocalc(cpu, cpu.x);
 	    signcalc(cpu, cpu.x);
@@ -666,7 +754,7 @@ public class Opcode {
 	private static Consumer<Soft6502> ldy = (cpu) -> {
 		
 		cpu.penaltyop = 1;
-	    cpu.y = (byte)(getvalue(cpu) & 0x00FF);
+	    cpu.y = getvalue(cpu);
 
 	    zerocalc(cpu, cpu.y);
 	    signcalc(cpu, cpu.y);
@@ -690,15 +778,8 @@ public class Opcode {
 
 	private static Consumer<Soft6502> nop = (cpu) -> {
 		
-	    switch (cpu.opcode) {
-	        case 0x1C:
-	        case 0x3C:
-	        case 0x5C:
-	        case 0x7C:
-	        case (byte)0xDC:
-	        case (byte)0xFC:
-	            cpu.penaltyop = 1;
-	            break;
+	    if (isPenaltyNop(cpu.opcode)) {
+	    	cpu.penaltyop = 1;
 	    }
 	};
 
@@ -715,12 +796,12 @@ public class Opcode {
 
 	private static Consumer<Soft6502> pha = (cpu) -> {
 		
-	    push8(cpu, (byte)(cpu.a & 0xFF));
+	    push8(cpu, cpu.a);
 	};
 
 	private static Consumer<Soft6502> php = (cpu) -> {
 		
-	    push8(cpu, (byte)(cpu.status | Soft6502.FLAG_BREAK));
+	    push8(cpu, cpu.status | Soft6502.FLAG_BREAK);
 	};
 
 	private static Consumer<Soft6502> pla = (cpu) -> {
@@ -733,7 +814,7 @@ public class Opcode {
 
 	private static Consumer<Soft6502> plp = (cpu) -> {
 		
-		cpu.status = (byte)(pop8(cpu) | Soft6502.FLAG_CONSTANT);
+		cpu.status = pop8(cpu) | Soft6502.FLAG_CONSTANT;
 	};
 
 	private static Consumer<Soft6502> rol = (cpu) -> {
@@ -765,45 +846,20 @@ public class Opcode {
 
 	private static Consumer<Soft6502> rti = (cpu) -> {
 		
-		cpu.status = pop8(cpu);
+		cpu.status = pop8(cpu) | Soft6502.FLAG_CONSTANT;
 	    int value = pop16(cpu);
 	    cpu.pc = value;
 	};
 
 	private static Consumer<Soft6502> rts = (cpu) -> {
 		
-	    cpu.pc = pop16(cpu) + 1;
+	    cpu.pc = (pop16(cpu) + 1) & 0xFFFF;
 	};
 
 	private static Consumer<Soft6502> sbc = (cpu) -> {
 		
 	    cpu.penaltyop = 1;
-	    int value = getvalue(cpu) ^ 0x00FF;
-	    int result = (int)cpu.a + value + (int)(cpu.status & Soft6502.FLAG_CARRY);
-
-	    carrycalc(cpu, result);
-	    zerocalc(cpu, result);
-	    overflowcalc(cpu, result, cpu.a, value);
-	    signcalc(cpu, result);
-
-//	    #ifndef NES_CPU
-//	    if (status & FLAG_DECIMAL) {
-//	        clearcarry();
-//
-//	        a -= 0x66;
-//	        if ((a & 0x0F) > 0x09) {
-//	            a += 0x06;
-//	        }
-//	        if ((a & 0xF0) > 0x90) {
-//	            a += 0x60;
-//	            setcarry();
-//	        }
-//
-//	        clockticks6502++;
-//	    }
-//	    #endif
-
-	    saveaccum(cpu, result);
+	    subtractvalue(cpu, getvalue(cpu));
 	};
 
 	private static Consumer<Soft6502> sec = (cpu) -> {
@@ -881,22 +937,115 @@ public class Opcode {
 	    signcalc(cpu, cpu.a);
 	};
 
-	private static Consumer<Soft6502> lax = nop;
-	private static Consumer<Soft6502> sax = nop;
-	private static Consumer<Soft6502> dcp = nop;
-	private static Consumer<Soft6502> isb = nop;
-	private static Consumer<Soft6502> slo = nop;
-	private static Consumer<Soft6502> rla = nop;
-	private static Consumer<Soft6502> sre = nop;
-	private static Consumer<Soft6502> rra = nop;
+	// The undocumented NMOS opcodes below each do their read-modify-write
+	// with one read and one write, as the real thing does, rather than by
+	// chaining two of the handlers above. Only LAX takes a page crossing
+	// penalty; the indexed RMW forms already include it in their cycles.
+
+	private static Consumer<Soft6502> lax = (cpu) -> {
+		
+		cpu.penaltyop = 1;
+	    cpu.a = getvalue(cpu);
+	    cpu.x = cpu.a;
+
+	    zerocalc(cpu, cpu.a);
+	    signcalc(cpu, cpu.a);
+	};
+
+	private static Consumer<Soft6502> sax = (cpu) -> {
+		
+	    putvalue(cpu, cpu.a & cpu.x);
+	};
+
+	private static Consumer<Soft6502> dcp = (cpu) -> {
+		
+	    int value = (getvalue(cpu) - 1) & 0x00FF;
+	    putvalue(cpu, value);
+
+	    if (cpu.a >= value) {
+	    	setcarry(cpu);
+	    } else {
+	    	clearcarry(cpu);
+	    }
+	    zerocalc(cpu, cpu.a - value);
+	    signcalc(cpu, cpu.a - value);
+	};
+
+	private static Consumer<Soft6502> isb = (cpu) -> {
+		
+	    int value = (getvalue(cpu) + 1) & 0x00FF;
+	    putvalue(cpu, value);
+
+	    subtractvalue(cpu, value);
+	};
+
+	private static Consumer<Soft6502> slo = (cpu) -> {
+		
+	    int value = getvalue(cpu) << 1;
+	    putvalue(cpu, value);
+	    int result = (int)cpu.a | (value & 0x00FF);
+
+	    carrycalc(cpu, value);
+	    zerocalc(cpu, result);
+	    signcalc(cpu, result);
+
+	    saveaccum(cpu, result);
+	};
+
+	private static Consumer<Soft6502> rla = (cpu) -> {
+		
+	    int value = (getvalue(cpu) << 1) | (cpu.status & Soft6502.FLAG_CARRY);
+	    putvalue(cpu, value);
+	    int result = (int)cpu.a & value;
+
+	    carrycalc(cpu, value);
+	    zerocalc(cpu, result);
+	    signcalc(cpu, result);
+
+	    saveaccum(cpu, result);
+	};
+
+	private static Consumer<Soft6502> sre = (cpu) -> {
+		
+	    int value = getvalue(cpu);
+	    putvalue(cpu, value >> 1);
+	    int result = (int)cpu.a ^ (value >> 1);
+
+	    if ( (value & 1) == 0) {
+	    	clearcarry(cpu);
+	    } else {
+	    	setcarry(cpu);
+	    }
+	    zerocalc(cpu, result);
+	    signcalc(cpu, result);
+
+	    saveaccum(cpu, result);
+	};
+
+	private static Consumer<Soft6502> rra = (cpu) -> {
+		
+	    int value = getvalue(cpu);
+	    int result = (value >> 1) | ((cpu.status & Soft6502.FLAG_CARRY) << 7);
+	    putvalue(cpu, result);
+
+	    if ( (value & 1) == 0) {
+	    	clearcarry(cpu);
+	    } else {
+	    	setcarry(cpu);
+	    }
+	    addvalue(cpu, result);
+	};
 
 	//===
 
 	private static List<Consumer<Soft6502>> oneOperandList = Arrays.asList(
-		imm, zp, zpx, zpy, rel
+		imm, zp, zpx, zpy, rel, indx, indy
 	);
 	private static List<Consumer<Soft6502>> twoOperandList = Arrays.asList(
-		abso, absx, absy, ind, indx, indy
+		abso, absx, absy, ind
+	);
+	private static List<Consumer<Soft6502>> modeList = Arrays.asList(
+		imp, acc, imm, zp, zpx, zpy, rel, abso, absx, absy, ind, indx, indy
 	);
 
 	public static Opcode[] byCode = {
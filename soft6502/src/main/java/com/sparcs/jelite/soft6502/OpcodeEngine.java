@@ -0,0 +1,40 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.function.Predicate;
+
+/**
+ * Executes instructions through the {@link Opcode#byCode} table.
+ * 
+ * This is the reference implementation: slow (every instruction is two
+ * megamorphic {@code Consumer} calls) but easy to read. Wrap it (or any
+ * engine) in a {@link Tracer} to see what it's doing.
+ */
+public class OpcodeEngine implements Engine {
+
+	@Override
+	public void run(Soft6502 cpu, Predicate<Soft6502> condition) {
+
+		while (cpu.clockticks < cpu.clockgoal) {
+			if (cpu.interruptPending && cpu.isInterruptible()) {
+				break;
+			}
+			if (condition != null && condition.test(cpu)) {
+				break;
+			}
+			step(cpu);
+		}
+	}
+
+	private void step(Soft6502 cpu) {
+
+		int opcodeByte = cpu.ram.getByte(cpu.pc);
+		Opcode opcode = Opcode.byCode[opcodeByte];
+		cpu.pc = (cpu.pc + 1) & 0xFFFF;
+
+		int penalty = opcode.executeWithPenalty(cpu);
+
+		cpu.clockticks += opcode.getTicks() + penalty;
+
+		cpu.instructions++;
+	}
+}
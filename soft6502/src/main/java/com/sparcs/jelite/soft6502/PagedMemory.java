@@ -0,0 +1,306 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * Memory whose 256 pages of 256 bytes can each be mapped as RAM, ROM or I/O.
+ * 
+ * Every page has a read and a write array, usually the backing store, and
+ * an offset into it, which is added to the CPU address to give the index of
+ * the byte, so RAM and ROM accesses are a table lookup and a single array
+ * index. Writes to ROM pages are pointed at a scratch page that's never
+ * read, so they don't need a test either. A page with no array is I/O,
+ * handed to its {@link IoHandler}.
+ * 
+ * The first 64K of the backing store holds the contents of the address space
+ * at reset (load ROM images there and map those pages as ROM); subclasses can
+ * ask for more to hold images that get paged in and out. ROM images can
+ * instead be mapped where they are, so any number of memories share one copy
+ * of each (see {@link RomCache}); they aren't part of the backing store, so
+ * aren't in a {@link Snapshot} either, and have to be mapped again before
+ * one is restored.
+ * 
+ * A page can be watched, so that whoever has cached something derived from
+ * its contents (decoded instructions, say) hears when they change. Writes to
+ * a watched RAM page take the slow path once; watching then stops, so the
+ * fast path costs nothing extra.
+ * 
+ * The pages of the backing store that are written are kept track of the
+ * same way, for incremental {@link Snapshot}s: once they've been drained, a
+ * RAM page mapped onto a clean one takes the slow path for its first write,
+ * which marks it dirty (see {@link DirtyPages}). Until something drains
+ * them every page is dirty, so nothing takes the slow path at all.
+ */
+public class PagedMemory extends Ram16Bit {
+
+	public static final int PAGE_SIZE = 256;
+	public static final int PAGES = 256;
+
+	// where writes to ROM end up
+	private static final int SINK = LEN_64K;
+
+	// a null array is I/O, or for writes, a watched RAM page as well
+	final byte[][] readPages = new byte[PAGES][];
+	final int[] readMap = new int[PAGES];
+	final byte[][] writePages = new byte[PAGES][];
+	final int[] writeMap = new int[PAGES];
+	private final IoHandler[] handlers = new IoHandler[PAGES];
+	private final Watcher[] watchers = new Watcher[PAGES];
+
+	// the pages of the backing store written since they were last drained
+	private final DirtyPages dirty;
+
+	/**
+	 * Told when the contents of a watched page change.
+	 */
+	public interface Watcher {
+
+		void changed(int page);
+	}
+
+	public PagedMemory() {
+
+		this(0);
+	}
+
+	/**
+	 * @param extra bytes of backing store wanted beyond the 64K address space
+	 */
+	protected PagedMemory(int extra) {
+
+		super(LEN_64K + PAGE_SIZE + extra);
+		dirty = new DirtyPages((memory.length + PAGE_SIZE - 1) / PAGE_SIZE);
+		dirty.markAll();
+		mapRam(0, PAGES);
+	}
+
+	/**
+	 * Map pages to the same addresses in the backing store, read/write.
+	 */
+	public void mapRam(int firstPage, int count) {
+
+		for (int page = firstPage; page < firstPage + count; page++) {
+			map(page, memory, 0, memory, 0, null);
+		}
+	}
+
+	/**
+	 * Map pages to the same addresses in the backing store, ignoring writes.
+	 */
+	public void mapRom(int firstPage, int count) {
+
+		for (int page = firstPage; page < firstPage + count; page++) {
+			map(page, memory, 0, memory, SINK - (page << 8), null);
+		}
+	}
+
+	/**
+	 * Map pages from {@code firstPage} onto a ROM image where it is, rather
+	 * than copying it, ignoring writes. The image is shared, so mustn't
+	 * change while it's mapped.
+	 * 
+	 * @throws IllegalArgumentException if the image isn't a whole number of
+	 *         pages, or runs past the top of memory
+	 */
+	public void mapRom(int firstPage, byte[] image) {
+
+		int count = image.length / PAGE_SIZE;
+		if (image.length % PAGE_SIZE != 0 || firstPage + count > PAGES) {
+			throw new IllegalArgumentException(String.format("%d bytes won't map at page &%02X",
+					image.length, firstPage));
+		}
+		for (int i = 0; i < count; i++) {
+			mapPage(firstPage + i, image, i << 8);
+		}
+	}
+
+	/**
+	 * Hand every access to pages to {@code handler}.
+	 */
+	public void mapIo(int firstPage, int count, IoHandler handler) {
+
+		for (int page = firstPage; page < firstPage + count; page++) {
+			map(page, null, 0, null, 0, handler);
+		}
+	}
+
+	/**
+	 * Map a page onto an arbitrary 256 bytes of the backing store.
+	 */
+	protected void mapPage(int page, int physical, boolean writable) {
+
+		int offset = physical - (page << 8);
+		map(page, memory, offset, memory, writable ? offset : SINK - (page << 8), null);
+	}
+
+	/**
+	 * Map a page onto 256 bytes of a shared ROM image, ignoring writes.
+	 */
+	protected void mapPage(int page, byte[] image, int off) {
+
+		map(page, image, off - (page << 8), memory, SINK - (page << 8), null);
+	}
+
+	private void map(int page, byte[] read, int readOffset, byte[] write, int writeOffset, IoHandler handler) {
+
+		changed(page);
+		readPages[page] = read;
+		readMap[page] = readOffset;
+		writePages[page] = write;
+		writeMap[page] = writeOffset;
+		handlers[page] = handler;
+		trap(page);
+	}
+
+	public boolean isIo(int page) {
+
+		return readPages[page] == null;
+	}
+
+	public boolean isRom(int page) {
+
+		return readPages[page] != null && writePages[page] != null
+				&& (readPages[page] != writePages[page] || readMap[page] != writeMap[page]);
+	}
+
+	/**
+	 * Tell {@code watcher} the next time the contents of a page change, by a
+	 * write, a load or being remapped; it's told once, then has to watch the
+	 * page again to hear about the next change.
+	 * 
+	 * @throws IllegalArgumentException if it's an I/O page
+	 */
+	public void watch(int page, Watcher watcher) {
+
+		if (isIo(page)) {
+			throw new IllegalArgumentException(String.format("Page &%02X is I/O", page));
+		}
+		watchers[page] = watcher;
+		trap(page);
+	}
+
+	public boolean isWatched(int page) {
+
+		return watchers[page] != null;
+	}
+
+	private void changed(int page) {
+
+		Watcher watcher = watchers[page];
+		if (watcher != null) {
+			watchers[page] = null;
+			trap(page);
+			watcher.changed(page);
+		}
+	}
+
+	/**
+	 * Send writes to a RAM page down the slow path if they have to be seen,
+	 * because it's watched or its backing store is clean, and down the fast
+	 * path if not.
+	 */
+	private void trap(int page) {
+
+		if (readPages[page] != memory || handlers[page] != null || isRom(page)) {
+			return;
+		}
+		if (watchers[page] != null || !isWritten(page)) {
+			writePages[page] = null;
+		} else {
+			writePages[page] = memory;
+			writeMap[page] = readMap[page];
+		}
+	}
+
+	/**
+	 * @return whether the backing store a RAM page is mapped onto, which may
+	 *         straddle two of its pages, is dirty
+	 */
+	private boolean isWritten(int page) {
+
+		int off = readMap[page] + (page << 8);
+		return dirty.isDirty(off >>> 8) && dirty.isDirty((off + PAGE_SIZE - 1) >>> 8);
+	}
+
+	/**
+	 * @return whether a 256 byte page of the backing store has been written
+	 *         since the last drain; the first 256 are those the CPU sees at
+	 *         reset
+	 */
+	public boolean isDirty(int page) {
+
+		return dirty.isDirty(page);
+	}
+
+	@Override
+	public int[] drainDirtyPages() {
+
+		int[] pages = dirty.drain();
+		for (int page = 0; page < PAGES; page++) {
+			trap(page);
+		}
+		return pages;
+	}
+
+	@Override
+	boolean isTrackingDirtyPages() {
+
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The pages loaded are marked dirty, and every watched page is treated
+	 * as changed.
+	 */
+	@Override
+	void loaded(int off, int len) {
+
+		dirty.mark(off, len);
+		for (int page = 0; page < PAGES; page++) {
+			changed(page);
+			trap(page);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Every page is marked dirty, and every watched page is treated as
+	 * changed.
+	 */
+	@Override
+	void restored() {
+
+		loaded(0, memory.length);
+	}
+
+	@Override
+	public int getByte(int addr) {
+
+		byte[] page = readPages[addr >>> 8];
+		if (page != null) {
+			return page[readMap[addr >>> 8] + addr] & 0xFF;
+		}
+		return handlers[addr >>> 8].read(addr);
+	}
+
+	@Override
+	public void setByte(int addr, int value) {
+
+		byte[] page = writePages[addr >>> 8];
+		if (page != null) {
+			page[writeMap[addr >>> 8] + addr] = (byte)value;
+			return;
+		}
+		int index = addr >>> 8;
+		if (handlers[index] == null) {
+			// a watched RAM page, or one whose backing store is clean
+			memory[readMap[index] + addr] = (byte)value;
+			dirty.mark(readMap[index] + (index << 8), PAGE_SIZE);
+			changed(index);
+			trap(index);
+			return;
+		}
+		handlers[index].write(addr, value & 0xFF);
+	}
+}
@@ -0,0 +1,206 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Counts where another {@link Engine} spends its time: how often each opcode
+ * executes, and how many times, and for how many cycles, the instruction at
+ * each address does.
+ *
+ * Like the {@link Tracer}, profiling is switched on by selecting this engine,
+ * e.g. {@code cpu.setEngine(new Profiler(cpu.getEngine()))}, so when it isn't
+ * selected it costs nothing at all. The counts are kept in {@code long[]}s,
+ * so counting doesn't box or allocate; take a {@link #snapshot()} to look at
+ * them, or {@link #report} the hottest addresses.
+ *
+ * The wrapped engine is run one instruction at a time (see
+ * {@link SteppingEngine}), so expect a profiled CPU to be a lot slower than
+ * an unprofiled one. Interrupts aren't charged to any instruction.
+ */
+public class Profiler extends SteppingEngine {
+
+	private final long[] opcodes = new long[256];
+	private final long[] counts = new long[Ram16Bit.LEN_64K];
+	private final long[] cycles = new long[Ram16Bit.LEN_64K];
+
+	// the opcode last seen at each address, for the report
+	private final byte[] codes = new byte[Ram16Bit.LEN_64K];
+
+	// the opcode of the instruction being run
+	private int op;
+
+	/**
+	 * Counts taken at some point, which don't change as the CPU runs on.
+	 */
+	public static class Profile {
+
+		private final long[] opcodes;
+		private final long[] counts;
+		private final long[] cycles;
+		private final byte[] codes;
+
+		Profile(long[] opcodes, long[] counts, long[] cycles, byte[] codes) {
+
+			this.opcodes = opcodes;
+			this.counts = counts;
+			this.cycles = cycles;
+			this.codes = codes;
+		}
+
+		/**
+		 * @return how many times each opcode has executed
+		 */
+		public long getOpcodeCount(int opcode) {
+
+			return opcodes[opcode];
+		}
+
+		/**
+		 * @return how many times the instruction at {@code pc} has executed
+		 */
+		public long getCount(int pc) {
+
+			return counts[pc];
+		}
+
+		/**
+		 * @return the cycles taken by the instruction at {@code pc}, including
+		 *         any page crossing and branch penalties
+		 */
+		public long getCycles(int pc) {
+
+			return cycles[pc];
+		}
+
+		/**
+		 * @return the opcode last executed at {@code pc}
+		 */
+		public Opcode getOpcode(int pc) {
+
+			return Opcode.byCode[codes[pc] & 0xFF];
+		}
+
+		public long getTotalInstructions() {
+
+			return sum(opcodes);
+		}
+
+		public long getTotalCycles() {
+
+			return sum(cycles);
+		}
+
+		/**
+		 * @return up to {@code n} addresses that have taken the most cycles,
+		 *         most first, leaving out any that haven't executed
+		 */
+		public int[] hottest(int n) {
+
+			return top(cycles, n);
+		}
+
+		/**
+		 * @return up to {@code n} opcodes that have executed most often, most
+		 *         first, leaving out any that haven't executed
+		 */
+		public int[] commonest(int n) {
+
+			return top(opcodes, n);
+		}
+
+		/**
+		 * Describe the {@code n} hottest addresses, one line each, e.g.
+		 * {@code 1003 INX  count=1000 cycles=2000 (40.0%)}.
+		 */
+		public void report(int n, Consumer<String> out) {
+
+			long total = getTotalCycles();
+			for (int pc : hottest(n)) {
+				out.accept(String.format("%04X %-4s count=%d cycles=%d (%.1f%%)",
+						pc, getOpcode(pc).getMnemonic(), counts[pc], cycles[pc], 100.0 * cycles[pc] / total));
+			}
+		}
+	}
+
+	public Profiler(Engine engine) {
+
+		super(engine);
+	}
+
+	@Override
+	protected void before(Soft6502 cpu) {
+
+		op = cpu.ram.getByte(cpu.pc);
+	}
+
+	@Override
+	protected void after(Soft6502 cpu, int pc, long start) {
+
+		opcodes[op]++;
+		counts[pc]++;
+		cycles[pc] += cpu.clockticks - start;
+		codes[pc] = (byte)op;
+	}
+
+	/**
+	 * @return a copy of the counts so far
+	 */
+	public Profile snapshot() {
+
+		return new Profile(opcodes.clone(), counts.clone(), cycles.clone(), codes.clone());
+	}
+
+	/**
+	 * Describe the {@code n} hottest addresses so far; see
+	 * {@link Profile#report}.
+	 */
+	public void report(int n, Consumer<String> out) {
+
+		snapshot().report(n, out);
+	}
+
+	public void clear() {
+
+		Arrays.fill(opcodes, 0);
+		Arrays.fill(counts, 0);
+		Arrays.fill(cycles, 0);
+		Arrays.fill(codes, (byte)0);
+	}
+
+	private static long sum(long[] values) {
+
+		long sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the indices of up to {@code n} of the largest non-zero values,
+	 *         largest first
+	 */
+	static int[] top(long[] values, int n) {
+
+		int[] top = new int[Math.max(n, 1)];
+		int size = 0;
+		for (int i = 0; i < values.length; i++) {
+			long value = values[i];
+			if (value == 0 || n == 0 || (size == n && value <= values[top[n - 1]])) {
+				continue;
+			}
+			// insertion sort into the top n, dropping the last if it's full
+			int j = size < n ? size++ : n - 1;
+			while (j > 0 && values[top[j - 1]] < value) {
+				top[j] = top[j - 1];
+				j--;
+			}
+			top[j] = i;
+		}
+
+		int[] result = new int[size];
+		System.arraycopy(top, 0, result, 0, size);
+		return result;
+	}
+}
@@ -1,17 +1,63 @@
 package com.sparcs.jelite.soft6502;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+/**
+ * 64K of flat RAM: the whole 16 bit address space, with no ROM or I/O.
+ * 
+ * @see PagedMemory
+ */
 public class Ram16Bit {
 
-	public static final int LEN_64K = 64*1024*1024;
+	public static final int LEN_64K = 64*1024;
 	
-	private byte[] memory = new byte[LEN_64K];
+	protected final byte[] memory;
+
+	public Ram16Bit() {
+
+		this(LEN_64K);
+	}
+
+	/**
+	 * @param size size of the backing store; subclasses may need more than
+	 *        the 64K the CPU can address directly
+	 */
+	protected Ram16Bit(int size) {
+
+		memory = new byte[size];
+	}
 	
+	/**
+	 * Load directly into the backing store, ignoring any mapping.
+	 * 
+	 * @throws EOFException if the stream ends before {@code len} bytes
+	 */
 	public void load(InputStream stream, int off, int len) throws IOException {
 
-		stream.read(memory, off, len);
+		int n = 0;
+		while (n < len) {
+			int read = stream.read(memory, off + n, len - n);
+			if (read < 0) {
+				loaded(off, n);
+				throw new EOFException(String.format("Only %d of %d bytes to load", n, len));
+			}
+			n += read;
+		}
+		loaded(off, len);
+	}
+
+	/**
+	 * Load what's left of {@code buffer} directly into the backing store,
+	 * ignoring any mapping; see {@link Images} for files.
+	 */
+	public void load(ByteBuffer buffer, int off) {
+
+		int len = buffer.remaining();
+		buffer.get(memory, off, len);
+		loaded(off, len);
 	}
 
 	public int getByte(int addr) {
@@ -23,4 +69,46 @@ public class Ram16Bit {
 
 		memory[addr] = (byte)(value & 0xFF);
 	}
+
+	/**
+	 * The backing store, for {@link Snapshot}s; anything written to it
+	 * directly must be followed by {@link #restored()}.
+	 */
+	byte[] getBackingStore() {
+
+		return memory;
+	}
+
+	/**
+	 * @return whether this memory keeps track of the pages of its backing
+	 *         store that are written, for {@link #drainDirtyPages()}
+	 */
+	boolean isTrackingDirtyPages() {
+
+		return false;
+	}
+
+	/**
+	 * @return the 256 byte pages of the backing store written since they
+	 *         were last drained, in ascending order; they're all clean again
+	 *         afterwards
+	 * @throws UnsupportedOperationException if this memory doesn't keep
+	 *         track
+	 */
+	int[] drainDirtyPages() {
+
+		throw new UnsupportedOperationException("Written pages aren't tracked");
+	}
+
+	/**
+	 * Called once the backing store has been written behind the CPU's back.
+	 */
+	void restored() {
+	}
+
+	/**
+	 * Called once part of the backing store has been loaded.
+	 */
+	void loaded(int off, int len) {
+	}
 }
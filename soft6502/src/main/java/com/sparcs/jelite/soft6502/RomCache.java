@@ -0,0 +1,78 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ROM images read once and shared, so a hundred emulators started with the
+ * same OS and BASIC hold one copy of each between them rather than reading
+ * it a hundred times and copying it into each one's memory. The images are
+ * mapped where they are, so a read is still a page lookup and an array
+ * index.
+ *
+ * Files are read the first time they're asked for and assumed not to change
+ * after that. Safe to share between threads.
+ */
+public class RomCache {
+
+	private final ConcurrentMap<Path, byte[]> roms = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the contents of a ROM image, padded with zeros to a whole
+	 *         number of pages; it's shared by everyone who asks, so is never
+	 *         to be written to
+	 */
+	byte[] get(Path file) throws IOException {
+
+		Path key = file.toRealPath();
+		try {
+			return roms.computeIfAbsent(key, path -> {
+				try {
+					ByteBuffer buffer = Images.read(path);
+					byte[] image = new byte[(buffer.remaining() + PagedMemory.PAGE_SIZE - 1)
+							& -PagedMemory.PAGE_SIZE];
+					buffer.get(image, 0, buffer.remaining());
+					return image;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Map pages from {@code firstPage} onto a ROM image, read-only (the OS
+	 * goes at page &C0, say).
+	 */
+	public void map(PagedMemory memory, int firstPage, Path file) throws IOException {
+
+		memory.mapRom(firstPage, get(file));
+	}
+
+	/**
+	 * Map a sideways slot onto a ROM image.
+	 */
+	public void mapBank(SidewaysMemory memory, int slot, Path file) throws IOException {
+
+		memory.mapBank(slot, get(file));
+	}
+
+	/**
+	 * @return the number of images cached
+	 */
+	public int size() {
+
+		return roms.size();
+	}
+
+	public void clear() {
+
+		roms.clear();
+	}
+}
@@ -0,0 +1,35 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * The write-only ROMSEL latch (&FE30-&FE3F on a Model B) selecting which
+ * sideways slot of a {@link SidewaysMemory} is paged in.
+ */
+public class Romsel implements IoDevice {
+
+	public static final int FIRST = 0xFE30;
+	public static final int LAST = 0xFE3F;
+
+	private final SidewaysMemory memory;
+
+	public Romsel(SidewaysMemory memory) {
+
+		this.memory = memory;
+	}
+
+	public void attach(IoBus bus) {
+
+		bus.register(FIRST, LAST, this);
+	}
+
+	@Override
+	public int read(int addr, long cycle) {
+
+		return 0xFF;
+	}
+
+	@Override
+	public void write(int addr, int value, long cycle) {
+
+		memory.writeRomsel(value);
+	}
+}
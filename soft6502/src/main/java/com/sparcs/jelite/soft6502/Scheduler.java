@@ -0,0 +1,196 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.Arrays;
+
+/**
+ * Events for peripherals, keyed on the absolute CPU cycle they're due.
+ * 
+ * {@link Soft6502} runs its engine straight up to the next event, fires it on
+ * that instruction boundary and carries on, so a device that schedules its
+ * next piece of work (a timer expiring, a scanline ending) costs nothing in
+ * between, rather than being polled after every instruction.
+ * 
+ * Pending events are kept in a binary min-heap of cycle numbers held in a
+ * {@code long[]}, with the events in a parallel array; there are only ever a
+ * handful, so each {@link Event} can be scheduled at most once and
+ * rescheduling it replaces its entry.
+ */
+public class Scheduler {
+
+	public interface Event {
+
+		/**
+		 * @param cycle the cycle the event was due; the CPU's clock ticks may
+		 *        be a little past it, as events fire between instructions
+		 */
+		void fire(long cycle);
+	}
+
+	private final Soft6502 cpu;
+	private long[] cycles = new long[8];
+	private Event[] events = new Event[8];
+	private int size;
+
+	Scheduler(Soft6502 cpu) {
+
+		this.cpu = cpu;
+	}
+
+	/**
+	 * Fire {@code event} at {@code cycle}, replacing any time it was already
+	 * scheduled for.
+	 */
+	public void schedule(Event event, long cycle) {
+
+		int i = indexOf(event);
+		if (i < 0) {
+			if (size == cycles.length) {
+				grow();
+			}
+			i = size++;
+			events[i] = event;
+		}
+		cycles[i] = cycle;
+		siftDown(siftUp(i));
+
+		// pull in the current run if it's due before the engine would stop
+		if (cycle < cpu.clockgoal) {
+			cpu.clockgoal = cycle;
+		}
+	}
+
+	/**
+	 * @return whether {@code event} was pending
+	 */
+	public boolean cancel(Event event) {
+
+		int i = indexOf(event);
+		if (i < 0) {
+			return false;
+		}
+		removeAt(i);
+		return true;
+	}
+
+	/**
+	 * Drop every pending event, as when the clock is replaced by a
+	 * {@link Snapshot}.
+	 */
+	void clear() {
+
+		Arrays.fill(events, 0, size, null);
+		size = 0;
+	}
+
+	public boolean isScheduled(Event event) {
+
+		return indexOf(event) >= 0;
+	}
+
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * @return the cycle the earliest pending event is due, or
+	 *         {@link Long#MAX_VALUE} if there aren't any
+	 */
+	public long next() {
+
+		return size == 0 ? Long.MAX_VALUE : cycles[0];
+	}
+
+	/**
+	 * Fire, earliest first, every event due at or before {@code now},
+	 * including any they schedule.
+	 */
+	void fireDue(long now) {
+
+		while (size > 0 && cycles[0] <= now) {
+			Event event = events[0];
+			long cycle = cycles[0];
+			removeAt(0);
+			event.fire(cycle);
+		}
+	}
+
+	//===
+
+	private int indexOf(Event event) {
+
+		for (int i = 0; i < size; i++) {
+			if (events[i] == event) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeAt(int i) {
+
+		size--;
+		if (i != size) {
+			move(size, i);
+			siftDown(siftUp(i));
+		}
+		events[size] = null;
+	}
+
+	private int siftUp(int i) {
+
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (cycles[parent] <= cycles[i]) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+		return i;
+	}
+
+	private int siftDown(int i) {
+
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && cycles[child + 1] < cycles[child]) {
+				child++;
+			}
+			if (cycles[i] <= cycles[child]) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+		return i;
+	}
+
+	private void move(int from, int to) {
+
+		cycles[to] = cycles[from];
+		events[to] = events[from];
+	}
+
+	private void swap(int i, int j) {
+
+		long cycle = cycles[i];
+		Event event = events[i];
+		move(j, i);
+		cycles[j] = cycle;
+		events[j] = event;
+	}
+
+	private void grow() {
+
+		long[] newCycles = new long[cycles.length * 2];
+		Event[] newEvents = new Event[events.length * 2];
+		System.arraycopy(cycles, 0, newCycles, 0, size);
+		System.arraycopy(events, 0, newEvents, 0, size);
+		cycles = newCycles;
+		events = newEvents;
+	}
+}
@@ -0,0 +1,257 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * BBC Model B memory with 16 sideways ROM/RAM slots paged into &8000-&BFFF.
+ * 
+ * Every slot's 16K bank is kept in the backing store after the 64K address
+ * space, so selecting a slot (a write to ROMSEL) only re-points the 64 page
+ * table entries at the bank; nothing is copied. A slot can hold a shared ROM
+ * image instead (see {@link RomCache}), which its pages map onto where it is,
+ * so machines with the same ROMs don't each keep a copy.
+ *
+ * The banks' contents go into a {@link Snapshot} with the rest of the backing
+ * store; which slot is selected, and which are RAM, is the state saved here.
+ * Shared images aren't saved, so map the same ones before restoring.
+ */
+public class SidewaysMemory extends PagedMemory implements Stateful {
+
+	public static final int SLOTS = 16;
+	public static final int BANK_SIZE = 16*1024;
+
+	private static final int FIRST_PAGE = 0x80;
+	private static final int BANK_PAGES = BANK_SIZE / PAGE_SIZE;
+
+	// where the banks start in the backing store
+	private static final int BANKS = LEN_64K + PAGE_SIZE;
+
+	private final boolean[] writable = new boolean[SLOTS];
+
+	// shared images mapped in place of a slot's bank
+	private final byte[][] images = new byte[SLOTS][];
+	private int selected = -1;
+
+	// counters
+	private long romselWrites;
+	private long switches;
+	private final long[] selections = new long[SLOTS];
+
+	public SidewaysMemory() {
+
+		super(SLOTS * BANK_SIZE);
+		select(0);
+		resetCounters();
+	}
+
+	/**
+	 * Load an image into a slot's bank, whether or not it's selected.
+	 *
+	 * @throws IllegalArgumentException if it's bigger than a bank
+	 */
+	public void loadBank(int slot, InputStream stream, int len) throws IOException {
+
+		if (len > BANK_SIZE) {
+			throw new IllegalArgumentException(String.format("%d bytes won't fit in a %d byte bank",
+					len, BANK_SIZE));
+		}
+		unmapImage(slot);
+		load(stream, bankOffset(slot), len);
+	}
+
+	/**
+	 * Load what's left of {@code image} into a slot's bank, whether or not
+	 * it's selected.
+	 *
+	 * @throws IllegalArgumentException if it's bigger than a bank
+	 */
+	public void loadBank(int slot, ByteBuffer image) {
+
+		if (image.remaining() > BANK_SIZE) {
+			throw new IllegalArgumentException(String.format("%d bytes won't fit in a %d byte bank",
+					image.remaining(), BANK_SIZE));
+		}
+		unmapImage(slot);
+		load(image, bankOffset(slot));
+	}
+
+	/**
+	 * Map a slot onto a shared ROM image rather than its bank, and make it
+	 * ROM; an image smaller than a bank repeats through it, as an 8K chip
+	 * does in a 16K socket. The image mustn't change while it's mapped.
+	 *
+	 * @throws IllegalArgumentException if it's bigger than a bank, or not a
+	 *         whole number of pages
+	 */
+	public void mapBank(int slot, byte[] image) {
+
+		if (image.length == 0 || image.length > BANK_SIZE || image.length % PAGE_SIZE != 0) {
+			throw new IllegalArgumentException(String.format("%d bytes won't map onto a %d byte bank",
+					image.length, BANK_SIZE));
+		}
+		images[slot] = image;
+		writable[slot] = false;
+		if (slot == selected) {
+			remap(slot);
+		}
+	}
+
+	/**
+	 * Make a slot sideways RAM (writable) or ROM (the default); a shared
+	 * image mapped onto it is copied into its bank first, to be written to.
+	 */
+	public void setWritable(int slot, boolean writable) {
+
+		if (writable && images[slot] != null) {
+			byte[] image = images[slot];
+			for (int off = 0; off < BANK_SIZE; off += image.length) {
+				System.arraycopy(image, 0, memory, bankOffset(slot) + off, Math.min(image.length, BANK_SIZE - off));
+			}
+			loaded(bankOffset(slot), BANK_SIZE);
+			unmapImage(slot);
+		}
+		this.writable[slot] = writable;
+		if (slot == selected) {
+			remap(slot);
+		}
+	}
+
+	public boolean isWritable(int slot) {
+
+		return writable[slot];
+	}
+
+	public int getSelected() {
+
+		return selected;
+	}
+
+	/**
+	 * Handle a write to ROMSEL (&FE30); only the bottom four bits matter on
+	 * a Model B.
+	 */
+	public void writeRomsel(int value) {
+
+		romselWrites++;
+		select(value & 0x0F);
+	}
+
+	/**
+	 * Page a slot into &8000-&BFFF.
+	 */
+	public void select(int slot) {
+
+		if (slot == selected) {
+			return;
+		}
+		remap(slot);
+		selected = slot;
+		switches++;
+		selections[slot]++;
+	}
+
+	private void remap(int slot) {
+
+		byte[] image = images[slot];
+		if (image != null) {
+			int pages = image.length / PAGE_SIZE;
+			for (int page = 0; page < BANK_PAGES; page++) {
+				mapPage(FIRST_PAGE + page, image, (page % pages) << 8);
+			}
+			return;
+		}
+		int physical = bankOffset(slot);
+		for (int page = 0; page < BANK_PAGES; page++) {
+			mapPage(FIRST_PAGE + page, physical + (page << 8), writable[slot]);
+		}
+	}
+
+	/**
+	 * Go back to a slot's own bank, if it had a shared image mapped.
+	 */
+	private void unmapImage(int slot) {
+
+		if (images[slot] != null) {
+			images[slot] = null;
+			if (slot == selected) {
+				remap(slot);
+			}
+		}
+	}
+
+	private static int bankOffset(int slot) {
+
+		return BANKS + slot * BANK_SIZE;
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 1 + SLOTS;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		buffer.put((byte)selected);
+		for (int slot = 0; slot < SLOTS; slot++) {
+			buffer.put((byte)(writable[slot] ? 1 : 0));
+		}
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		int slot = buffer.get();
+		for (int i = 0; i < SLOTS; i++) {
+			writable[i] = buffer.get() != 0;
+			// sideways RAM was saved from its bank
+			if (writable[i]) {
+				images[i] = null;
+			}
+		}
+		// not a switch the program made, so leave the counters alone
+		remap(slot);
+		selected = slot;
+	}
+
+	//=== counters
+
+	/**
+	 * @return the number of writes to ROMSEL, including those that selected
+	 *         the slot already paged in
+	 */
+	public long getRomselWrites() {
+
+		return romselWrites;
+	}
+
+	/**
+	 * @return the number of times a different slot was paged in
+	 */
+	public long getSwitches() {
+
+		return switches;
+	}
+
+	/**
+	 * @return the number of times {@code slot} was paged in
+	 */
+	public long getSelections(int slot) {
+
+		return selections[slot];
+	}
+
+	public void resetCounters() {
+
+		romselWrites = 0;
+		switches = 0;
+		for (int slot = 0; slot < SLOTS; slot++) {
+			selections[slot] = 0;
+		}
+	}
+}
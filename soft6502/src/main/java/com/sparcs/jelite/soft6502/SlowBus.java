@@ -0,0 +1,83 @@
+package com.sparcs.jelite.soft6502;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The system VIA's slow bus: port A is a data bus to the sound chip (and
+ * the keyboard), and port B bits 0-2 address a bit of the addressable latch
+ * which bit 3 sets. Latch bit 0 low enables writes to the
+ * {@link Sn76489}, which takes port A's output as it goes low; bits 4 and
+ * 5 set the size of the screen the {@link Video} wraps round in.
+ *
+ * The keyboard, speech and LEDs aren't connected. Attach this and the
+ * sound chip to a {@link Snapshot} after the VIA, so what the VIA's ports
+ * output as it's restored is overridden.
+ */
+public class SlowBus implements Stateful {
+
+	public static final int LATCH_SOUND = 0;
+	public static final int LATCH_SCREEN_0 = 4;
+	public static final int LATCH_SCREEN_1 = 5;
+
+	// by latch bits 4 and 5: MODE 3, MODEs 0-2, MODE 6, MODEs 4 and 5
+	private static final int[] SCREEN_SIZES = { 0x4000, 0x5000, 0x2000, 0x2800 };
+
+	private final Via6522 via;
+	private final Sn76489 sound;
+	private final Video video;
+	private int latch = 0xFF;
+
+	/**
+	 * @param video null if there's no screen
+	 */
+	public SlowBus(Via6522 via, Sn76489 sound, Video video) {
+
+		this.via = via;
+		this.sound = sound;
+		this.video = video;
+		via.setPortBListener(this::portB);
+	}
+
+	public int getLatch() {
+
+		return latch;
+	}
+
+	private void portB(int value, long cycle) {
+
+		int bit = value & 7;
+		int old = latch;
+		if ((value & 8) != 0) {
+			latch |= 1 << bit;
+		} else {
+			latch &= ~(1 << bit);
+		}
+
+		if (bit == LATCH_SOUND && (old & 1) != 0 && (latch & 1) == 0) {
+			sound.write(via.getPortA(), cycle);
+		}
+		if ((bit == LATCH_SCREEN_0 || bit == LATCH_SCREEN_1) && old != latch && video != null) {
+			video.setScreenSize(SCREEN_SIZES[((latch >> 3) & 2) | ((latch >> 5) & 1)]);
+		}
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 1;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		buffer.put((byte)latch);
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		latch = buffer.get() & 0xFF;
+	}
+}
@@ -0,0 +1,313 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The SN76489 sound chip: three square wave tone channels and a noise
+ * channel, each with its own attenuation, clocked at 4MHz. On the BBC it's
+ * written through the system VIA's slow bus (see {@link SlowBus}).
+ *
+ * Writes aren't acted on as they happen. Each is queued with the cycle it
+ * was made on, and sound is made a block at a time, usually a frame's
+ * worth at vertical sync, with every write taking effect at the right
+ * sample in the block; so the chip costs nothing while the CPU runs, and
+ * playing the same writes always makes the same samples. Samples are 16
+ * bit mono, made into a buffer that's kept, so nothing is allocated as the
+ * sound plays.
+ *
+ * The channels are made bipolar, around 0, rather than between 0 and their
+ * level as the chip does; so a tone with a period of 1, which some
+ * programs use to play samples by changing its volume, is silent here.
+ */
+public class Sn76489 implements Stateful {
+
+	/**
+	 * Where blocks of samples go.
+	 */
+	public interface Sink {
+
+		void write(short[] samples, int offset, int length) throws IOException;
+	}
+
+	// the CPU is clocked at 2MHz, and the chip's counters at 4MHz / 16
+	private static final long CPU_HZ = 2000000;
+	private static final int CYCLES_PER_TICK = 8;
+
+	// the 15 bit noise shift register starts, and is reset, with its top bit set
+	private static final int NOISE_RESET = 0x4000;
+
+	// each channel's share of full scale at each attenuation, 2dB a step, and off
+	private static final short[] VOLUME = new short[16];
+	static {
+		for (int i = 0; i < 15; i++) {
+			VOLUME[i] = (short)Math.round(8191 * Math.pow(10, -i / 10.0));
+		}
+	}
+
+	private final int sampleRate;
+
+	// tone periods, the noise control and the four attenuations, as written
+	private final int[] tone = new int[3];
+	private int noise;
+	private final int[] attenuation = { 15, 15, 15, 15 };
+	private int latched;
+
+	private final int[] counter = new int[4];
+	private final boolean[] high = new boolean[4];
+	private int shifter = NOISE_RESET;
+
+	// writes waiting to be made into sound
+	private long[] queuedCycles = new long[64];
+	private byte[] queuedValues = new byte[64];
+	private int queueHead;
+	private int queueSize;
+
+	// sample n is at cycle origin + n * CPU_HZ / sampleRate
+	private long origin;
+	private long samples;
+
+	private final short[] block;
+
+	/**
+	 * @param sampleRate samples a second
+	 * @param start the cycle the first sample is at
+	 */
+	public Sn76489(int sampleRate, long start) {
+
+		if (sampleRate <= 0 || sampleRate > CPU_HZ / CYCLES_PER_TICK) {
+			throw new IllegalArgumentException("Can't make " + sampleRate + " samples a second");
+		}
+		this.sampleRate = sampleRate;
+		this.origin = start;
+		// a 50Hz frame's worth
+		this.block = new short[(sampleRate + 49) / 50];
+	}
+
+	public int getSampleRate() {
+
+		return sampleRate;
+	}
+
+	/**
+	 * Queue a write to the chip, made on {@code cycle}: one with bit 7 set
+	 * picks a register and sets its low 4 bits, one without sets the high 6
+	 * bits of a tone period, or the whole of any other register, picked
+	 * last.
+	 */
+	public void write(int value, long cycle) {
+
+		if (queueSize == queuedCycles.length) {
+			grow();
+		}
+		int tail = (queueHead + queueSize) % queuedCycles.length;
+		queuedCycles[tail] = cycle;
+		queuedValues[tail] = (byte)value;
+		queueSize++;
+	}
+
+	/**
+	 * @return the writes waiting to be made into sound
+	 */
+	public int getQueued() {
+
+		return queueSize;
+	}
+
+	/**
+	 * @return the attenuation of a channel, 0 (loudest) to 15 (off); the
+	 *         noise is channel 3
+	 */
+	public int getAttenuation(int channel) {
+
+		return attenuation[channel];
+	}
+
+	/**
+	 * @return the period of a tone channel, in 250kHz ticks a half cycle
+	 */
+	public int getTone(int channel) {
+
+		return tone[channel];
+	}
+
+	/**
+	 * Make the samples up to {@code cycle} into {@code buffer}, as many as
+	 * fit.
+	 *
+	 * @return the number of samples made; fewer than there are up to
+	 *         {@code cycle} if they didn't fit
+	 */
+	public int render(short[] buffer, int offset, int length, long cycle) {
+
+		int count = 0;
+		while (count < length) {
+			long at = sampleCycle(samples);
+			if (at >= cycle) {
+				break;
+			}
+			// the writes made by this sample take effect for it
+			while (queueSize > 0 && queuedCycles[queueHead] <= at) {
+				apply(queuedValues[queueHead]);
+				queueHead = (queueHead + 1) % queuedCycles.length;
+				queueSize--;
+			}
+			long next = sampleCycle(samples + 1);
+			buffer[offset + count++] = sample((int)(next / CYCLES_PER_TICK - at / CYCLES_PER_TICK));
+			samples++;
+		}
+		return count;
+	}
+
+	/**
+	 * Make the samples up to {@code cycle}, a block at a time, and give them
+	 * to {@code sink}.
+	 */
+	public void render(long cycle, Sink sink) throws IOException {
+
+		int count;
+		while ((count = render(block, 0, block.length, cycle)) > 0) {
+			sink.write(block, 0, count);
+		}
+	}
+
+	private long sampleCycle(long sample) {
+
+		return origin + sample * CPU_HZ / sampleRate;
+	}
+
+	private void apply(int value) {
+
+		boolean latch = (value & 0x80) != 0;
+		if (latch) {
+			latched = (value >> 4) & 7;
+		}
+		int channel = latched >> 1;
+		if ((latched & 1) != 0) {
+			attenuation[channel] = value & 0x0F;
+		} else if (channel == 3) {
+			noise = value & 0x07;
+			shifter = NOISE_RESET;
+		} else if (latch) {
+			tone[channel] = (tone[channel] & 0x3F0) | (value & 0x0F);
+		} else {
+			tone[channel] = ((value & 0x3F) << 4) | (tone[channel] & 0x0F);
+		}
+	}
+
+	/**
+	 * Run the chip for {@code ticks} and average what it puts out.
+	 */
+	private short sample(int ticks) {
+
+		if (ticks == 0) {
+			return 0;
+		}
+		int total = 0;
+		for (int t = 0; t < ticks; t++) {
+			for (int channel = 0; channel < 3; channel++) {
+				if (--counter[channel] <= 0) {
+					counter[channel] = tone[channel] == 0 ? 0x400 : tone[channel];
+					high[channel] = !high[channel];
+				}
+			}
+			if (--counter[3] <= 0) {
+				counter[3] = (noise & 3) == 3 ? (tone[2] == 0 ? 0x400 : tone[2]) : 0x10 << (noise & 3);
+				high[3] = !high[3];
+				if (high[3]) {
+					// white noise feeds back bits 0 and 1, periodic bit 0
+					int feedback = (noise & 4) != 0 ? (shifter ^ (shifter >> 1)) & 1 : shifter & 1;
+					shifter = (shifter >> 1) | (feedback << 14);
+				}
+			}
+
+			for (int channel = 0; channel < 3; channel++) {
+				int level = VOLUME[attenuation[channel]];
+				total += high[channel] ? level : -level;
+			}
+			int level = VOLUME[attenuation[3]];
+			total += (shifter & 1) != 0 ? level : -level;
+		}
+		return (short)(total / ticks);
+	}
+
+	private void grow() {
+
+		long[] cycles = new long[queuedCycles.length * 2];
+		byte[] values = new byte[cycles.length];
+		for (int i = 0; i < queueSize; i++) {
+			int from = (queueHead + i) % queuedCycles.length;
+			cycles[i] = queuedCycles[from];
+			values[i] = queuedValues[from];
+		}
+		queuedCycles = cycles;
+		queuedValues = values;
+		queueHead = 0;
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 3 * 2 + 1 + 4 + 1 + 4 * 2 + 1 + 2 + 8 + 8 + 4 + queueSize * 9;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		for (int period : tone) {
+			buffer.putShort((short)period);
+		}
+		buffer.put((byte)noise);
+		for (int level : attenuation) {
+			buffer.put((byte)level);
+		}
+		buffer.put((byte)latched);
+		for (int count : counter) {
+			buffer.putShort((short)count);
+		}
+		buffer.put((byte)((high[0] ? 1 : 0) | (high[1] ? 2 : 0) | (high[2] ? 4 : 0) | (high[3] ? 8 : 0)));
+		buffer.putShort((short)shifter);
+		buffer.putLong(origin);
+		buffer.putLong(samples);
+
+		// and the writes not made into sound yet
+		buffer.putInt(queueSize);
+		for (int i = 0; i < queueSize; i++) {
+			int from = (queueHead + i) % queuedCycles.length;
+			buffer.putLong(queuedCycles[from]);
+			buffer.put(queuedValues[from]);
+		}
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		for (int i = 0; i < tone.length; i++) {
+			tone[i] = buffer.getShort() & 0x3FF;
+		}
+		noise = buffer.get() & 0x07;
+		for (int i = 0; i < attenuation.length; i++) {
+			attenuation[i] = buffer.get() & 0x0F;
+		}
+		latched = buffer.get() & 0x07;
+		for (int i = 0; i < counter.length; i++) {
+			counter[i] = buffer.getShort() & 0xFFFF;
+		}
+		int levels = buffer.get();
+		for (int i = 0; i < high.length; i++) {
+			high[i] = (levels & (1 << i)) != 0;
+		}
+		shifter = buffer.getShort() & 0x7FFF;
+		origin = buffer.getLong();
+		samples = buffer.getLong();
+
+		queueHead = 0;
+		queueSize = 0;
+		for (int count = buffer.getInt(); count > 0; count--) {
+			long cycle = buffer.getLong();
+			write(buffer.get(), cycle);
+		}
+	}
+}
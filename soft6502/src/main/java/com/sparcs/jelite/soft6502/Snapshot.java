@@ -0,0 +1,378 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checkpoints a {@link Soft6502}: its registers and clocks, the whole backing
+ * store of its memory, and the state of any {@link Stateful} devices attached
+ * here (its memory, if that's {@code Stateful} itself, is attached as
+ * "memory").
+ *
+ * A full snapshot holds every byte of memory. An incremental one holds only
+ * the 256 byte pages that have changed since the last snapshot this saved or
+ * restored, so a long session can be checkpointed often; restore the full
+ * snapshot, then the incremental ones after it, in order. Those pages come
+ * from the memory's own record of the pages written, if it keeps one (a
+ * {@link PagedMemory} or {@link DirtyPageRam} does), otherwise from
+ * comparing memory with a copy kept at the last snapshot.
+ *
+ * Snapshots are written to a {@link FileChannel} with a gathering write, so a
+ * full one goes straight from the backing store's array, and restored from a
+ * {@link MappedByteBuffer}; either way memory is copied in bulk.
+ *
+ * <pre>
+ * header:  magic(32) version(16) kind(8)
+ * cpu:     pc(16) sp(8) a(8) x(8) y(8) p(8)
+ *          clockticks(64) instructions(64) deadline(64) irq(32) nmi(32) nmiPending(8)
+ * memory:  size(32), then
+ *          full: size bytes
+ *          incremental: count(32), count x { page(32) bytes(256) }
+ * devices: count(16), count x { name length(16) name(UTF-8) state length(32) state }
+ * </pre>
+ *
+ * (big-endian, as {@link ByteBuffer} is by default)
+ */
+public class Snapshot {
+
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4A363530; // "J650"
+	private static final byte FULL = 0;
+	private static final byte INCREMENTAL = 1;
+
+	private static final int HEADER_SIZE = 4 + 2 + 1;
+	private static final int CPU_SIZE = 2 + 5 + 3 * 8 + 2 * 4 + 1;
+	private static final int PAGE_SIZE = PagedMemory.PAGE_SIZE;
+
+	private final Soft6502 cpu;
+	private final Map<String, Stateful> devices = new LinkedHashMap<>();
+
+	// the memory's own record of which pages have changed, if it keeps one
+	private final boolean tracked;
+
+	// otherwise memory as of the last snapshot, to see which have changed since
+	private byte[] baseline;
+
+	private boolean checkpointed;
+
+	public Snapshot(Soft6502 cpu) {
+
+		this.cpu = cpu;
+		tracked = cpu.ram.isTrackingDirtyPages();
+		if (cpu.ram instanceof Stateful) {
+			attach("memory", (Stateful)cpu.ram);
+		}
+	}
+
+	/**
+	 * Include a device's state in snapshots; {@code name} identifies it in
+	 * the file, so must be the same when restoring.
+	 */
+	public void attach(String name, Stateful device) {
+
+		devices.put(name, device);
+	}
+
+	/**
+	 * Write a full snapshot at the channel's position.
+	 */
+	public void save(FileChannel channel) throws IOException {
+
+		byte[] memory = cpu.ram.getBackingStore();
+
+		write(channel, header(FULL, memory.length, 0), ByteBuffer.wrap(memory), devices());
+		checkpoint();
+	}
+
+	/**
+	 * Write a snapshot of only the pages that have changed since the last
+	 * snapshot saved or restored.
+	 */
+	public void saveIncremental(FileChannel channel) throws IOException {
+
+		if (!checkpointed) {
+			throw new IllegalStateException("No full snapshot of this memory to follow on from");
+		}
+
+		byte[] memory = cpu.ram.getBackingStore();
+		int[] changed;
+		int count;
+		if (tracked) {
+			changed = cpu.ram.drainDirtyPages();
+			count = changed.length;
+		} else {
+			int pages = (memory.length + PAGE_SIZE - 1) / PAGE_SIZE;
+			changed = new int[pages];
+			count = 0;
+			for (int page = 0; page < pages; page++) {
+				if (!samePage(memory, baseline, page)) {
+					changed[count++] = page;
+				}
+			}
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(count * (4 + PAGE_SIZE));
+		for (int i = 0; i < count; i++) {
+			int off = changed[i] * PAGE_SIZE;
+			int len = Math.min(PAGE_SIZE, memory.length - off);
+			body.putInt(changed[i]);
+			body.put(memory, off, len);
+			if (baseline != null) {
+				System.arraycopy(memory, off, baseline, off, len);
+			}
+		}
+		body.flip();
+
+		write(channel, header(INCREMENTAL, memory.length, count), body, devices());
+	}
+
+	/**
+	 * Restore a snapshot from the whole of the channel's file. Nothing is
+	 * changed unless all of it checks out.
+	 *
+	 * Pending {@link Scheduler} events are dropped, as they were due by the
+	 * clock being replaced; every attached device that uses events has to
+	 * schedule them again in {@link Stateful#restoreState}, and events of
+	 * anything not attached are lost.
+	 */
+	public void restore(FileChannel channel) throws IOException {
+
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+		if (buffer.remaining() < HEADER_SIZE + CPU_SIZE + 4 || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a snapshot");
+		}
+		int version = buffer.getShort();
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported snapshot version %d", version));
+		}
+		byte kind = buffer.get();
+		if (kind != FULL && kind != INCREMENTAL) {
+			throw new IOException(String.format("Unknown kind of snapshot %d", kind));
+		}
+
+		// read the registers now, but don't touch the CPU until the rest checks out
+		int pc = buffer.getShort() & 0xFFFF;
+		int sp = buffer.get() & 0xFF;
+		int a = buffer.get() & 0xFF;
+		int x = buffer.get() & 0xFF;
+		int y = buffer.get() & 0xFF;
+		int status = buffer.get() & 0xFF;
+		long clockticks = buffer.getLong();
+		long instructions = buffer.getLong();
+		long deadline = buffer.getLong();
+		int irq = buffer.getInt();
+		int nmi = buffer.getInt();
+		boolean nmiPending = buffer.get() != 0;
+
+		byte[] memory = cpu.ram.getBackingStore();
+		int size = buffer.getInt();
+		if (size != memory.length) {
+			throw new IOException(String.format("Snapshot is of %d bytes of memory, not %d", size, memory.length));
+		}
+
+		// check every page and device before writing any, so a bad file leaves the machine alone
+		int pages = buffer.position();
+		int count = 0;
+		if (kind == FULL) {
+			skip(buffer, size);
+		} else {
+			count = checkPages(buffer, memory.length);
+		}
+		Stateful[] restored = new Stateful[need(buffer, 2).getShort() & 0xFFFF];
+		ByteBuffer[] states = new ByteBuffer[restored.length];
+		checkDevices(buffer, restored, states);
+
+		buffer.position(pages);
+		if (kind == FULL) {
+			buffer.get(memory);
+		} else {
+			// past the count, which checkPages has read already
+			buffer.getInt();
+			for (; count > 0; count--) {
+				int off = buffer.getInt() * PAGE_SIZE;
+				buffer.get(memory, off, Math.min(PAGE_SIZE, memory.length - off));
+			}
+		}
+		cpu.ram.restored();
+		checkpoint();
+
+		cpu.pc = pc;
+		cpu.sp = sp;
+		cpu.a = a;
+		cpu.x = x;
+		cpu.y = y;
+		cpu.status = status;
+		cpu.clockticks = clockticks;
+		cpu.instructions = instructions;
+		cpu.deadline = deadline;
+		cpu.irq = irq;
+		cpu.nmi = nmi;
+		cpu.nmiPending = nmiPending;
+		cpu.interruptPending = nmiPending || irq != 0;
+
+		// events pending were due by the old clock
+		cpu.getScheduler().clear();
+		for (int i = 0; i < restored.length; i++) {
+			restored[i].restoreState(states[i]);
+		}
+	}
+
+	/**
+	 * Check an incremental snapshot's pages are all in memory and all there,
+	 * moving past them.
+	 *
+	 * @return the number of pages
+	 */
+	private static int checkPages(ByteBuffer buffer, int size) throws IOException {
+
+		int count = need(buffer, 4).getInt();
+		int pages = (size + PAGE_SIZE - 1) / PAGE_SIZE;
+		for (int i = 0; i < count; i++) {
+			int page = need(buffer, 4).getInt();
+			if (page < 0 || page >= pages) {
+				throw new IOException(String.format("Page %d is outside memory", page));
+			}
+			skip(buffer, Math.min(PAGE_SIZE, size - page * PAGE_SIZE));
+		}
+		return count;
+	}
+
+	/**
+	 * Check every device in the snapshot, after the count, is attached here
+	 * and has all its state there, picking out the devices and their state
+	 * in the order they're to be restored.
+	 */
+	private void checkDevices(ByteBuffer buffer, Stateful[] restored, ByteBuffer[] states) throws IOException {
+
+		for (int i = 0; i < restored.length; i++) {
+			byte[] name = new byte[need(buffer, 2).getShort() & 0xFFFF];
+			need(buffer, name.length).get(name);
+			int length = need(buffer, 4).getInt();
+			restored[i] = devices.get(new String(name, StandardCharsets.UTF_8));
+			if (restored[i] == null) {
+				throw new IOException("No device attached as " + new String(name, StandardCharsets.UTF_8));
+			}
+			if (length < 0) {
+				throw new IOException("Snapshot is cut short");
+			}
+			need(buffer, length);
+			states[i] = buffer.slice();
+			states[i].limit(length);
+			buffer.position(buffer.position() + length);
+		}
+	}
+
+	/**
+	 * @return {@code buffer}, once it's known to have {@code bytes} left
+	 */
+	private static ByteBuffer need(ByteBuffer buffer, int bytes) throws IOException {
+
+		if (buffer.remaining() < bytes) {
+			throw new IOException("Snapshot is cut short");
+		}
+		return buffer;
+	}
+
+	private static void skip(ByteBuffer buffer, int bytes) throws IOException {
+
+		need(buffer, bytes).position(buffer.position() + bytes);
+	}
+
+	/**
+	 * Start looking for changes from here.
+	 */
+	private void checkpoint() {
+
+		if (tracked) {
+			cpu.ram.drainDirtyPages();
+		} else {
+			baseline = cpu.ram.getBackingStore().clone();
+		}
+		checkpointed = true;
+	}
+
+	private ByteBuffer header(byte kind, int size, int count) {
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + CPU_SIZE + 4 + (kind == FULL ? 0 : 4));
+
+		buffer.putInt(MAGIC);
+		buffer.putShort((short)VERSION);
+		buffer.put(kind);
+
+		buffer.putShort((short)cpu.pc);
+		buffer.put((byte)cpu.sp);
+		buffer.put((byte)cpu.a);
+		buffer.put((byte)cpu.x);
+		buffer.put((byte)cpu.y);
+		buffer.put((byte)cpu.status);
+		buffer.putLong(cpu.clockticks);
+		buffer.putLong(cpu.instructions);
+		buffer.putLong(cpu.deadline);
+		buffer.putInt(cpu.irq);
+		buffer.putInt(cpu.nmi);
+		buffer.put((byte)(cpu.nmiPending ? 1 : 0));
+
+		buffer.putInt(size);
+		if (kind != FULL) {
+			buffer.putInt(count);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private ByteBuffer devices() {
+
+		int size = 2;
+		for (Map.Entry<String, Stateful> entry : devices.entrySet()) {
+			size += 2 + entry.getKey().getBytes(StandardCharsets.UTF_8).length + 4 + entry.getValue().getStateSize();
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putShort((short)devices.size());
+		for (Map.Entry<String, Stateful> entry : devices.entrySet()) {
+			byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			Stateful device = entry.getValue();
+			buffer.putShort((short)name.length);
+			buffer.put(name);
+			buffer.putInt(device.getStateSize());
+
+			int start = buffer.position();
+			device.saveState(buffer);
+			if (buffer.position() - start != device.getStateSize()) {
+				throw new IllegalStateException(String.format("%s wrote %d bytes of state, not %d",
+						entry.getKey(), buffer.position() - start, device.getStateSize()));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static boolean samePage(byte[] memory, byte[] baseline, int page) {
+
+		int end = Math.min((page + 1) * PAGE_SIZE, memory.length);
+		for (int i = page * PAGE_SIZE; i < end; i++) {
+			if (memory[i] != baseline[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer... buffers) throws IOException {
+
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+	}
+}
@@ -1,12 +1,9 @@
 package com.sparcs.jelite.soft6502;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.function.Predicate;
 
 public class Soft6502 {
 
-	private static final Logger log = LoggerFactory.getLogger(Soft6502.class);
-
 	// Registers
 	int pc;
 	int sp;
@@ -18,10 +15,24 @@ public class Soft6502 {
 	// External RAM
 	Ram16Bit ram;
 
+	// How instructions get executed
+	private Engine engine = new OpcodeEngine();
+
+	// Peripherals' pending work
+	private final Scheduler scheduler = new Scheduler(this);
+
+	// Interrupt lines: each is the wire-OR of the sources asserting it
+	int irq;
+	int nmi;
+	private int interruptSources;
+	boolean nmiPending; //latched on the NMI line's falling edge
+	boolean interruptPending; //nmiPending || irq asserted; engines check this between instructions
+
 	//helper variables
 	long instructions = 0; //keep track of total instructions executed
-	int clockticks = 0;
-	int clockgoal = 0;
+	long clockticks = 0;
+	long clockgoal = 0; //where the engine stops: the end of the timeslice or the next event
+	long deadline = 0; //end of the current timeslice
 	int oldpc;
 	int ea;
 	int reladdr;
@@ -33,24 +44,30 @@ public class Soft6502 {
 	byte penaltyop;
 	byte penaltyaddr;
 
-	void reset() {
+	public void reset() {
 		
 	    pc = (int)ram.getByte(0xFFFC) | ((int)ram.getByte(0xFFFD) << 8);
 	    a = 0;
 	    x = 0;
 	    y = 0;
 	    sp = 0xFD;
-	    status |= FLAG_CONSTANT;
+	    status |= FLAG_CONSTANT | FLAG_INTERRUPT;
 	}
 
-	public static int FLAG_CARRY = 0x01;
-	public static int FLAG_ZERO = 0x02;
-	public static int FLAG_INTERRUPT = 0x04;
-	public static int FLAG_DECIMAL = 0x08;
-	public static int FLAG_BREAK = 0x10;
-	public static int FLAG_CONSTANT = 0x20;
-	public static int FLAG_OVERFLOW = 0x40;
-	public static int FLAG_SIGN = 0x80;
+	public static final int FLAG_CARRY = 0x01;
+	public static final int FLAG_ZERO = 0x02;
+	public static final int FLAG_INTERRUPT = 0x04;
+	public static final int FLAG_DECIMAL = 0x08;
+	public static final int FLAG_BREAK = 0x10;
+	public static final int FLAG_CONSTANT = 0x20;
+	public static final int FLAG_OVERFLOW = 0x40;
+	public static final int FLAG_SIGN = 0x80;
+
+	public static final int VECTOR_NMI = 0xFFFA;
+	public static final int VECTOR_RESET = 0xFFFC;
+	public static final int VECTOR_IRQ = 0xFFFE;
+
+	private static final int BASE_STACK = 0x0100;
 
 	//===
 	
@@ -79,29 +96,183 @@ public class Soft6502 {
 		this.pc = pc;
 	}
 
+	public Engine getEngine() {
+
+		return engine;
+	}
+	public void setEngine(Engine engine) {
+
+		this.engine = engine;
+	}
+
+	public long getClockticks() {
+
+		return clockticks;
+	}
+
+	public long getInstructions() {
+
+		return instructions;
+	}
+
+	public Scheduler getScheduler() {
+
+		return scheduler;
+	}
+
+	/**
+	 * Execute a single instruction.
+	 */
 	public void step() {
 
-		int opcodeByte = ram.getByte(pc);
-		Opcode opcode = Opcode.byCode[opcodeByte];
-		log.trace(opcode.disassemble(this));
-		pc++;
-		
-	    penaltyop = 0;
-	    penaltyaddr = 0;
+		execute(clockticks + 1, null);
+		deadline = clockticks;
+	}
+
+	/**
+	 * Execute instructions for a timeslice of {@code cycles} clock ticks.
+	 * 
+	 * Execution stops on the boundary of the instruction that uses up the
+	 * budget, so the last instruction may run over; the overshoot is returned
+	 * and is deducted from the next timeslice, keeping a host that calls this
+	 * once per frame in step with real time.
+	 * 
+	 * @return the number of clock ticks executed beyond the budget
+	 */
+	public long run(long cycles) {
 
-	    opcode.execute(this);
-	    log.trace(dump());
+		deadline += cycles;
+		execute(deadline, null);
+		return clockticks - deadline;
+	}
+
+	/**
+	 * Execute instructions until {@code condition} holds; it's tested before
+	 * every instruction.
+	 * 
+	 * @return the number of clock ticks executed
+	 */
+	public long runUntil(Predicate<Soft6502> condition) {
+
+		long start = clockticks;
+		execute(Long.MAX_VALUE, condition);
+		deadline = clockticks;
+		return clockticks - start;
+	}
+
+	/**
+	 * Run the engine up to {@code goal}, stopping at each scheduled event on
+	 * the way to fire it, and whenever it has an interrupt to take.
+	 */
+	private void execute(long goal, Predicate<Soft6502> condition) {
+
+		while (clockticks < goal) {
+			clockgoal = Math.min(goal, scheduler.next());
+			engine.run(this, condition);
+			if (clockticks < clockgoal && !isInterruptible()) {
+				// the condition held
+				break;
+			}
+			scheduler.fireDue(clockticks);
+			if (isInterruptible()) {
+				interrupt();
+			}
+		}
+	}
+
+	//=== interrupts
+
+	/**
+	 * @return a bit no other device has, to identify a source when asserting
+	 *         and releasing the interrupt lines
+	 */
+	public int allocateInterruptSource() {
+
+		if (interruptSources == -1) {
+			throw new IllegalStateException("No more interrupt sources");
+		}
+		int source = Integer.lowestOneBit(~interruptSources);
+		interruptSources |= source;
+		return source;
+	}
+
+	public void assertIrq(int source) {
+
+		irq |= source;
+		interruptPending = true;
+	}
+
+	public void releaseIrq(int source) {
+
+		irq &= ~source;
+		interruptPending = nmiPending || irq != 0;
+	}
+
+	public boolean isIrqAsserted() {
+
+		return irq != 0;
+	}
+
+	/**
+	 * NMI is edge triggered: it's taken once when the first source asserts
+	 * the line, and not again until every source has released it.
+	 */
+	public void assertNmi(int source) {
+
+		if (nmi == 0) {
+			nmiPending = true;
+			interruptPending = true;
+		}
+		nmi |= source;
+	}
+
+	public void releaseNmi(int source) {
+
+		nmi &= ~source;
+	}
+
+	public boolean isNmiAsserted() {
+
+		return nmi != 0;
+	}
+
+	/**
+	 * @return whether an interrupt would be taken before the next instruction
+	 */
+	boolean isInterruptible() {
+
+		return nmiPending || (irq != 0 && (status & FLAG_INTERRUPT) == 0);
+	}
+
+	/**
+	 * Take an NMI, or if none is pending an IRQ, the way the 6502 does between
+	 * instructions: push PC and P (with B clear), set I and jump through the
+	 * vector.
+	 */
+	void interrupt() {
+
+		int vector = VECTOR_IRQ;
+		if (nmiPending) {
+			nmiPending = false;
+			interruptPending = irq != 0;
+			vector = VECTOR_NMI;
+		}
+
+		ram.setByte(BASE_STACK + sp, (pc >> 8) & 0xFF);
+		ram.setByte(BASE_STACK + ((sp - 1) & 0xFF), pc & 0xFF);
+		ram.setByte(BASE_STACK + ((sp - 2) & 0xFF), (status & ~FLAG_BREAK) | FLAG_CONSTANT);
+		sp = (sp - 3) & 0xFF;
+		status |= FLAG_INTERRUPT;
+		pc = ram.getByte(vector) | (ram.getByte(vector + 1) << 8);
+		clockticks += 7;
+	}
 
-	    clockticks += opcode.getTicks();
-	    if (penaltyop > 0 && penaltyaddr > 0) {
-	    	clockticks++;
-	    }
-	    clockgoal = clockticks;
+	String dump() {
 
-	    instructions++;
+		return dump(a, x, y, status, sp);
 	}
 
-	private String dump() {
+	static String dump(int a, int x, int y, int status, int sp) {
 
 		StringBuilder sb = new StringBuilder();
 		
@@ -0,0 +1,27 @@
+package com.sparcs.jelite.soft6502;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Something attached to the CPU whose state goes into a {@link Snapshot}
+ * along with the registers and memory: a device's registers, say.
+ *
+ * Scheduled events aren't saved, and restoring a snapshot drops every one
+ * pending; a device that had one pending must schedule it again when its
+ * state is restored.
+ */
+public interface Stateful {
+
+	/**
+	 * @return the number of bytes {@link #saveState} will write
+	 */
+	int getStateSize();
+
+	void saveState(ByteBuffer buffer);
+
+	/**
+	 * Read back exactly what {@link #saveState} wrote. Memory has already been
+	 * restored by the time this is called.
+	 */
+	void restoreState(ByteBuffer buffer);
+}
@@ -0,0 +1,72 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.function.Predicate;
+
+/**
+ * Runs another {@link Engine} one instruction at a time, so a subclass can
+ * look at the CPU before and after each; the {@link Tracer} and
+ * {@link Profiler} are switched on this way, by selecting them in place of
+ * the engine they wrap.
+ *
+ * Each instruction is run as a timeslice of its own, so expect the CPU to be
+ * a lot slower than with the wrapped engine alone. Interrupts are taken
+ * between the calls, so aren't seen by either hook.
+ */
+public abstract class SteppingEngine implements Engine {
+
+	private final Engine engine;
+
+	protected SteppingEngine(Engine engine) {
+
+		this.engine = engine;
+	}
+
+	public Engine getEngine() {
+
+		return engine;
+	}
+
+	@Override
+	public void run(Soft6502 cpu, Predicate<Soft6502> condition) {
+
+		long goal = cpu.clockgoal;
+
+		while (cpu.clockticks < goal) {
+			if (cpu.interruptPending && cpu.isInterruptible()) {
+				break;
+			}
+			if (condition != null && condition.test(cpu)) {
+				break;
+			}
+
+			int pc = cpu.pc;
+			long start = cpu.clockticks;
+			before(cpu);
+
+			cpu.clockgoal = start + 1;
+			engine.run(cpu, null);
+
+			after(cpu, pc, start);
+
+			// an event scheduled by the instruction may pull the goal in
+			goal = Math.min(goal, cpu.getScheduler().next());
+		}
+
+		cpu.clockgoal = goal;
+	}
+
+	/**
+	 * Called with the CPU as it is before each instruction.
+	 */
+	protected void before(Soft6502 cpu) {
+	}
+
+	/**
+	 * Called with the CPU as it is after each instruction.
+	 *
+	 * @param pc where the instruction was
+	 * @param start the clock ticks when it started
+	 */
+	protected void after(Soft6502 cpu, int pc, long start) {
+	}
+}
@@ -0,0 +1,112 @@
+package com.sparcs.jelite.soft6502;
+
+import java.util.function.Consumer;
+
+/**
+ * Records the last few instructions executed by another {@link Engine}.
+ *
+ * Tracing is switched on by selecting this engine, e.g.
+ * {@code cpu.setEngine(new Tracer(cpu.getEngine(), 4096))}, so when it isn't
+ * selected it costs nothing at all.
+ *
+ * Each instruction is stored as a fixed-width binary record (two
+ * {@code long}s) in a ring buffer allocated up front, so tracing doesn't
+ * allocate either; nothing is disassembled until {@link #dump} is called.
+ *
+ * <pre>
+ * word 0: PC(16) opcode(8) operand1(8) operand2(8) A(8) X(8) Y(8)
+ * word 1: P(8) SP(8) clockticks(48)
+ * </pre>
+ *
+ * The wrapped engine is run one instruction at a time (see
+ * {@link SteppingEngine}), so expect a traced CPU to be a lot slower than an
+ * untraced one.
+ */
+public class Tracer extends SteppingEngine {
+
+	private static final long TICKS_MASK = 0xFFFFFFFFFFFFL;
+
+	private final long[] ring;
+	private final int capacity;
+	private long count;
+
+	public Tracer(Engine engine, int capacity) {
+
+		super(engine);
+		this.capacity = capacity;
+		this.ring = new long[capacity * 2];
+	}
+
+	@Override
+	protected void before(Soft6502 cpu) {
+
+		int pc = cpu.pc;
+		Ram16Bit ram = cpu.ram;
+		int i = (int)(count++ % capacity) * 2;
+
+		ring[i] = ((long)pc << 48)
+				| ((long)ram.getByte(pc) << 40)
+				| ((long)ram.getByte((pc + 1) & 0xFFFF) << 32)
+				| ((long)ram.getByte((pc + 2) & 0xFFFF) << 24)
+				| (cpu.a << 16)
+				| (cpu.x << 8)
+				| cpu.y;
+		ring[i + 1] = ((long)cpu.status << 56)
+				| ((long)cpu.sp << 48)
+				| (cpu.clockticks & TICKS_MASK);
+	}
+
+	/**
+	 * @return the number of records held, at most the capacity
+	 */
+	public int size() {
+
+		return (int)Math.min(count, capacity);
+	}
+
+	/**
+	 * @return the number of instructions recorded since the last {@link #clear()}
+	 */
+	public long getCount() {
+
+		return count;
+	}
+
+	public void clear() {
+
+		count = 0;
+	}
+
+	/**
+	 * Disassemble the records held, oldest first, one line per instruction,
+	 * showing the registers as they were before it executed.
+	 *
+	 * e.g. {@code tracer.dump(log::trace)}
+	 */
+	public void dump(Consumer<String> out) {
+
+		for (long n = count - size(); n < count; n++) {
+			int i = (int)(n % capacity) * 2;
+			out.accept(format(ring[i], ring[i + 1]));
+		}
+	}
+
+	static String format(long word0, long word1) {
+
+		int pc = (int)(word0 >>> 48);
+		Opcode opcode = Opcode.byCode[(int)(word0 >>> 40) & 0xFF];
+		int operand1 = (int)(word0 >>> 32) & 0xFF;
+		int operand2 = (int)(word0 >>> 24) & 0xFF;
+		int a = (int)(word0 >>> 16) & 0xFF;
+		int x = (int)(word0 >>> 8) & 0xFF;
+		int y = (int)word0 & 0xFF;
+		int status = (int)(word1 >>> 56);
+		int sp = (int)(word1 >>> 48) & 0xFF;
+		long clockticks = word1 & TICKS_MASK;
+
+		return String.format("%-20s %s, ticks=%d",
+				opcode.disassemble(pc, operand1, operand2),
+				Soft6502.dump(a, x, y, status, sp),
+				clockticks);
+	}
+}
@@ -0,0 +1,549 @@
+package com.sparcs.jelite.soft6502;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A 6522 VIA: the BBC has a system VIA at &FE40 and a user VIA at &FE60,
+ * each with its 16 registers mirrored across 32 addresses.
+ *
+ * The timers aren't decremented as the CPU runs. Each remembers the cycle it
+ * was loaded on and what it was loaded with, works out its counter from
+ * {@code clockticks} when it's read, and schedules a {@link Scheduler} event
+ * for when it will next run out; so a VIA costs nothing between accesses,
+ * however its timers are set up. The VIA is clocked at 1MHz, so a count is
+ * two CPU cycles.
+ *
+ * Timer 1 runs one-shot or free-running; timer 2 one-shot, and it stands
+ * still when set to count pulses on PB6, which nothing drives. The
+ * interrupt flags and enables, and edge-triggered interrupts on CA1, CA2,
+ * CB1 and CB2 set up as inputs, work as on the real chip. The shift
+ * register only holds its value, and the handshake and PB7 outputs aren't
+ * generated; what the ports output is passed to a {@link PortListener}.
+ */
+public class Via6522 implements IoDevice, Stateful {
+
+	public static final int SYSTEM = 0xFE40;
+	public static final int USER = 0xFE60;
+
+	// the span of addresses each VIA is mirrored across
+	public static final int SIZE = 0x20;
+
+	public static final int ORB = 0;
+	public static final int ORA = 1;
+	public static final int DDRB = 2;
+	public static final int DDRA = 3;
+	public static final int T1C_L = 4;
+	public static final int T1C_H = 5;
+	public static final int T1L_L = 6;
+	public static final int T1L_H = 7;
+	public static final int T2C_L = 8;
+	public static final int T2C_H = 9;
+	public static final int SR = 10;
+	public static final int ACR = 11;
+	public static final int PCR = 12;
+	public static final int IFR = 13;
+	public static final int IER = 14;
+	public static final int ORA_NO_HANDSHAKE = 15;
+
+	public static final int INT_CA2 = 0x01;
+	public static final int INT_CA1 = 0x02;
+	public static final int INT_SR = 0x04;
+	public static final int INT_CB2 = 0x08;
+	public static final int INT_CB1 = 0x10;
+	public static final int INT_T2 = 0x20;
+	public static final int INT_T1 = 0x40;
+
+	private static final int ACR_T2_PULSES = 0x20;
+	private static final int ACR_T1_FREE_RUN = 0x40;
+
+	/**
+	 * Cycles from the start of a store to the counter loading: STA abs writes
+	 * on its last cycle, three in, and the counter starts from the next 1MHz
+	 * edge, giving the datasheet's N + 1.5 counts to the interrupt.
+	 */
+	static final int LOAD_DELAY = 4;
+
+	/**
+	 * Told whenever what a port outputs might have changed: the output
+	 * register's bits set up as outputs, and 1s (the pull-ups) elsewhere.
+	 */
+	public interface PortListener {
+
+		void output(int value, long cycle);
+	}
+
+	private final Soft6502 cpu;
+	private final int source;
+	private PortListener portA;
+	private PortListener portB;
+
+	private int ora;
+	private int orb;
+	private int ddra;
+	private int ddrb;
+	private int inputA = 0xFF;
+	private int inputB = 0xFF;
+	private int sr;
+	private int acr;
+	private int pcr;
+	private int ifr;
+	private int ier;
+
+	// CA1, CA2, CB1 and CB2 as last set
+	private boolean ca1;
+	private boolean ca2;
+	private boolean cb1;
+	private boolean cb2;
+
+	// timer 1 held t1Count on t1Base, and will interrupt when it runs out if armed
+	private int t1Latch;
+	private int t1Count;
+	private long t1Base;
+	private boolean t1Armed;
+
+	// timer 2's latch only has a low byte; the high byte goes straight in
+	private int t2Latch;
+	private int t2Count;
+	private long t2Base;
+	private boolean t2Armed;
+
+	private final Scheduler.Event t1Expiry = this::t1Expired;
+	private final Scheduler.Event t2Expiry = this::t2Expired;
+
+	public Via6522(Soft6502 cpu) {
+
+		this.cpu = cpu;
+		this.source = cpu.allocateInterruptSource();
+	}
+
+	/**
+	 * Put this VIA on the bus at {@code first}, {@link #SYSTEM} or
+	 * {@link #USER}.
+	 */
+	public void attach(IoBus bus, int first) {
+
+		bus.register(first, first + SIZE - 1, this);
+	}
+
+	public void setPortAListener(PortListener listener) {
+
+		this.portA = listener;
+	}
+
+	public void setPortBListener(PortListener listener) {
+
+		this.portB = listener;
+	}
+
+	/**
+	 * Set what's driving port A's pins; bits set up as outputs read back the
+	 * output register instead.
+	 */
+	public void setPortA(int value) {
+
+		inputA = value & 0xFF;
+	}
+
+	public void setPortB(int value) {
+
+		inputB = value & 0xFF;
+	}
+
+	/**
+	 * @return what port A outputs, with 1s for the bits set up as inputs
+	 */
+	public int getPortA() {
+
+		return (ora & ddra) | (~ddra & 0xFF);
+	}
+
+	public int getPortB() {
+
+		return (orb & ddrb) | (~ddrb & 0xFF);
+	}
+
+	/**
+	 * Set CA1, interrupting on the edge PCR bit 0 picks: on the system VIA
+	 * it's the CRTC's vertical sync.
+	 */
+	public void setCa1(boolean level) {
+
+		if (level != ca1 && level == ((pcr & 0x01) != 0)) {
+			interrupt(INT_CA1);
+		}
+		ca1 = level;
+	}
+
+	public void setCa2(boolean level) {
+
+		if (level != ca2 && isActiveEdge(pcr, level)) {
+			interrupt(INT_CA2);
+		}
+		ca2 = level;
+	}
+
+	public void setCb1(boolean level) {
+
+		if (level != cb1 && level == ((pcr & 0x10) != 0)) {
+			interrupt(INT_CB1);
+		}
+		cb1 = level;
+	}
+
+	public void setCb2(boolean level) {
+
+		if (level != cb2 && isActiveEdge(pcr >> 4, level)) {
+			interrupt(INT_CB2);
+		}
+		cb2 = level;
+	}
+
+	/**
+	 * @return the interrupt flags, as IFR reads
+	 */
+	public int getInterruptFlags() {
+
+		return (ifr & ier) != 0 ? ifr | 0x80 : ifr;
+	}
+
+	@Override
+	public int read(int addr, long cycle) {
+
+		switch (addr & 0x0F) {
+		case ORB:
+			clearPortFlags(INT_CB1 | INT_CB2, pcr >> 4);
+			return (orb & ddrb) | (inputB & ~ddrb);
+		case ORA:
+			clearPortFlags(INT_CA1 | INT_CA2, pcr);
+			return (ora & ddra) | (inputA & ~ddra);
+		case DDRB:
+			return ddrb;
+		case DDRA:
+			return ddra;
+		case T1C_L:
+			clearFlags(INT_T1);
+			return t1Counter(cycle) & 0xFF;
+		case T1C_H:
+			return t1Counter(cycle) >> 8;
+		case T1L_L:
+			return t1Latch & 0xFF;
+		case T1L_H:
+			return t1Latch >> 8;
+		case T2C_L:
+			clearFlags(INT_T2);
+			return t2Counter(cycle) & 0xFF;
+		case T2C_H:
+			return t2Counter(cycle) >> 8;
+		case SR:
+			clearFlags(INT_SR);
+			return sr;
+		case ACR:
+			return acr;
+		case PCR:
+			return pcr;
+		case IFR:
+			return getInterruptFlags();
+		case IER:
+			return ier | 0x80;
+		default:
+			return (ora & ddra) | (inputA & ~ddra);
+		}
+	}
+
+	@Override
+	public void write(int addr, int value, long cycle) {
+
+		value &= 0xFF;
+		switch (addr & 0x0F) {
+		case ORB:
+			orb = value;
+			clearPortFlags(INT_CB1 | INT_CB2, pcr >> 4);
+			portBChanged(cycle);
+			break;
+		case ORA:
+			ora = value;
+			clearPortFlags(INT_CA1 | INT_CA2, pcr);
+			portAChanged(cycle);
+			break;
+		case DDRB:
+			ddrb = value;
+			portBChanged(cycle);
+			break;
+		case DDRA:
+			ddra = value;
+			portAChanged(cycle);
+			break;
+		case T1C_L:
+		case T1L_L:
+			t1Latch = (t1Latch & 0xFF00) | value;
+			break;
+		case T1C_H:
+			t1Latch = (value << 8) | (t1Latch & 0xFF);
+			t1Count = t1Latch;
+			t1Base = cycle + LOAD_DELAY;
+			t1Armed = true;
+			scheduleT1();
+			clearFlags(INT_T1);
+			break;
+		case T1L_H:
+			t1Latch = (value << 8) | (t1Latch & 0xFF);
+			clearFlags(INT_T1);
+			break;
+		case T2C_L:
+			t2Latch = value;
+			break;
+		case T2C_H:
+			t2Count = (value << 8) | t2Latch;
+			t2Base = cycle + LOAD_DELAY;
+			t2Armed = true;
+			scheduleT2();
+			clearFlags(INT_T2);
+			break;
+		case SR:
+			sr = value;
+			clearFlags(INT_SR);
+			break;
+		case ACR:
+			setAcr(value, cycle);
+			break;
+		case PCR:
+			pcr = value;
+			break;
+		case IFR:
+			clearFlags(value & 0x7F);
+			break;
+		case IER:
+			if ((value & 0x80) != 0) {
+				ier |= value & 0x7F;
+			} else {
+				ier &= ~value;
+			}
+			updateIrq();
+			break;
+		default:
+			ora = value;
+			portAChanged(cycle);
+			break;
+		}
+	}
+
+	//=== timers
+
+	/**
+	 * @return timer 1's counter at {@code cycle}: counting down from what it
+	 *         was loaded with, through &FFFF, then either on down (one-shot)
+	 *         or round again from the latch (free-running)
+	 */
+	int t1Counter(long cycle) {
+
+		long elapsed = Math.max(0, cycle - t1Base) >> 1;
+		if (elapsed <= t1Count) {
+			return t1Count - (int)elapsed;
+		}
+		if ((acr & ACR_T1_FREE_RUN) == 0) {
+			return (int)(t1Count - elapsed) & 0xFFFF;
+		}
+		// each time round is the latch, down to 0, then &FFFF
+		long into = (elapsed - t1Count - 1) % (t1Latch + 2);
+		return into == 0 ? 0xFFFF : t1Latch - (int)(into - 1);
+	}
+
+	int t2Counter(long cycle) {
+
+		if ((acr & ACR_T2_PULSES) != 0) {
+			return t2Count;
+		}
+		long elapsed = Math.max(0, cycle - t2Base) >> 1;
+		return (int)(t2Count - elapsed) & 0xFFFF;
+	}
+
+	private void scheduleT1() {
+
+		if (t1Armed || (acr & ACR_T1_FREE_RUN) != 0) {
+			// it runs out going from 0 to &FFFF
+			cpu.getScheduler().schedule(t1Expiry, t1Base + 2L * (t1Count + 1));
+		} else {
+			cpu.getScheduler().cancel(t1Expiry);
+		}
+	}
+
+	private void scheduleT2() {
+
+		if (t2Armed && (acr & ACR_T2_PULSES) == 0) {
+			cpu.getScheduler().schedule(t2Expiry, t2Base + 2L * (t2Count + 1));
+		} else {
+			cpu.getScheduler().cancel(t2Expiry);
+		}
+	}
+
+	private void t1Expired(long cycle) {
+
+		if ((acr & ACR_T1_FREE_RUN) != 0) {
+			// reload from the latch a count later, and go round again
+			t1Count = t1Latch;
+			t1Base = cycle + 2;
+		} else {
+			t1Armed = false;
+		}
+		scheduleT1();
+		interrupt(INT_T1);
+	}
+
+	private void t2Expired(long cycle) {
+
+		t2Armed = false;
+		interrupt(INT_T2);
+	}
+
+	/**
+	 * Changing a timer's mode changes how its counter goes on from here, so
+	 * start counting again from where it's got to.
+	 */
+	private void setAcr(int value, long cycle) {
+
+		int changed = acr ^ value;
+		if ((changed & ACR_T1_FREE_RUN) != 0) {
+			long elapsed = Math.max(0, cycle - t1Base) >> 1;
+			t1Count = t1Counter(cycle);
+			t1Base += elapsed << 1;
+		}
+		if ((changed & ACR_T2_PULSES) != 0) {
+			long elapsed = Math.max(0, cycle - t2Base) >> 1;
+			t2Count = t2Counter(cycle);
+			t2Base += elapsed << 1;
+		}
+		acr = value;
+		if ((changed & ACR_T1_FREE_RUN) != 0) {
+			scheduleT1();
+		}
+		if ((changed & ACR_T2_PULSES) != 0) {
+			scheduleT2();
+		}
+	}
+
+	//=== interrupts
+
+	/**
+	 * @return whether a control line's new level is the edge its PCR bits
+	 *         (CA2's, or CB2's shifted down) pick, when it's an input
+	 */
+	private static boolean isActiveEdge(int control, boolean level) {
+
+		return (control & 0x08) == 0 && level == ((control & 0x04) != 0);
+	}
+
+	/**
+	 * Reading or writing a port clears its control lines' flags, except CA2
+	 * or CB2 when it's set up as an independent interrupt input.
+	 */
+	private void clearPortFlags(int flags, int control) {
+
+		if ((control & 0x0A) == 0x02) {
+			flags &= ~(INT_CA2 | INT_CB2);
+		}
+		clearFlags(flags);
+	}
+
+	private void interrupt(int flags) {
+
+		ifr |= flags;
+		updateIrq();
+	}
+
+	private void clearFlags(int flags) {
+
+		ifr &= ~flags;
+		updateIrq();
+	}
+
+	private void updateIrq() {
+
+		if ((ifr & ier) != 0) {
+			cpu.assertIrq(source);
+		} else {
+			cpu.releaseIrq(source);
+		}
+	}
+
+	private void portAChanged(long cycle) {
+
+		if (portA != null) {
+			portA.output(getPortA(), cycle);
+		}
+	}
+
+	private void portBChanged(long cycle) {
+
+		if (portB != null) {
+			portB.output(getPortB(), cycle);
+		}
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 12 + 2 + 2 + 8 + 1 + 1 + 2 + 8 + 1;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		buffer.put((byte)ora);
+		buffer.put((byte)orb);
+		buffer.put((byte)ddra);
+		buffer.put((byte)ddrb);
+		buffer.put((byte)inputA);
+		buffer.put((byte)inputB);
+		buffer.put((byte)sr);
+		buffer.put((byte)acr);
+		buffer.put((byte)pcr);
+		buffer.put((byte)ifr);
+		buffer.put((byte)ier);
+		buffer.put((byte)((ca1 ? 1 : 0) | (ca2 ? 2 : 0) | (cb1 ? 4 : 0) | (cb2 ? 8 : 0)));
+		buffer.putShort((short)t1Latch);
+		buffer.putShort((short)t1Count);
+		buffer.putLong(t1Base);
+		buffer.put((byte)(t1Armed ? 1 : 0));
+		buffer.put((byte)t2Latch);
+		buffer.putShort((short)t2Count);
+		buffer.putLong(t2Base);
+		buffer.put((byte)(t2Armed ? 1 : 0));
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		ora = buffer.get() & 0xFF;
+		orb = buffer.get() & 0xFF;
+		ddra = buffer.get() & 0xFF;
+		ddrb = buffer.get() & 0xFF;
+		inputA = buffer.get() & 0xFF;
+		inputB = buffer.get() & 0xFF;
+		sr = buffer.get() & 0xFF;
+		acr = buffer.get() & 0xFF;
+		pcr = buffer.get() & 0xFF;
+		ifr = buffer.get() & 0x7F;
+		ier = buffer.get() & 0x7F;
+		int lines = buffer.get();
+		ca1 = (lines & 1) != 0;
+		ca2 = (lines & 2) != 0;
+		cb1 = (lines & 4) != 0;
+		cb2 = (lines & 8) != 0;
+		t1Latch = buffer.getShort() & 0xFFFF;
+		t1Count = buffer.getShort() & 0xFFFF;
+		t1Base = buffer.getLong();
+		t1Armed = buffer.get() != 0;
+		t2Latch = buffer.get() & 0xFF;
+		t2Count = buffer.getShort() & 0xFFFF;
+		t2Base = buffer.getLong();
+		t2Armed = buffer.get() != 0;
+
+		scheduleT1();
+		scheduleT2();
+		updateIrq();
+		portAChanged(cpu.clockticks);
+		portBChanged(cpu.clockticks);
+	}
+}
@@ -0,0 +1,373 @@
+package com.sparcs.jelite.soft6502;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The BBC's video: a {@link Crtc6845} and a {@link VideoUla} turning screen
+ * memory into a frame of ARGB pixels, {@link #WIDTH} by {@link #HEIGHT}.
+ *
+ * Each frame starts at vertical sync, a {@link Scheduler} event, and is
+ * drawn a character row (a batch of scanlines) at a time as the beam would
+ * finish it: when a register is written, the rows the beam has finished
+ * are drawn first, with the old settings. That's what makes Elite's split
+ * screen work, with MODE 4 above and MODE 5 below a palette and control
+ * register change partway down.
+ *
+ * A row is only drawn again if the bytes it shows have changed since it was
+ * last drawn (they're compared with a copy, which catches scrolling as well
+ * as writes), or the ULA settings it was drawn with have; so a static
+ * cockpit costs a compare per frame. Every byte is drawn with a lookup in
+ * the ULA's table for the current settings.
+ *
+ * The graphics modes are all drawn; a byte at the 1MHz pixel clock (MODEs
+ * 4 to 6) is 16 pixels wide and one at 2MHz 8, so every mode fills the
+ * width. MODE 7 (teletext) and the cursor aren't drawn.
+ */
+public class Video implements Stateful {
+
+	public static final int WIDTH = 640;
+	public static final int HEIGHT = 256;
+
+	// cycles of a standard 50Hz frame, used until the CRTC is set up
+	private static final int DEFAULT_FRAME = 40000;
+
+	// anything shorter can't be a real frame
+	private static final int MIN_FRAME = 10000;
+
+	/**
+	 * Told at every vertical sync, once the frame before it is finished.
+	 */
+	public interface FrameListener {
+
+		void frame(Video video, long cycle);
+	}
+
+	private final Soft6502 cpu;
+	private final byte[] memory;
+	private final Crtc6845 crtc;
+	private final VideoUla ula;
+	private final int[] pixels = new int[WIDTH * HEIGHT];
+	private FrameListener listener;
+	private int screenSize = 0x2800;
+	private long frames;
+
+	private final Scheduler.Event vsync = this::vsync;
+
+	// this frame's layout, latched at vertical sync
+	private long frameStart;
+	private int lineCycles;
+	private int displayStart;
+	private int rows;
+	private int scanlines;
+	private int columns;
+	private int start;
+
+	// the next row the beam will finish
+	private int nextRow;
+
+	// what each row was last drawn from, the ULA settings it was drawn with
+	// (-1 bits if it hasn't been), and whether it was this frame
+	private byte[] drawn = new byte[0];
+	private long[] drawnKeys = new long[0];
+	private int[] drawnBits = new int[0];
+	private boolean[] redrawn = new boolean[0];
+	private boolean layoutChanged = true;
+
+	public Video(Soft6502 cpu) {
+
+		this.cpu = cpu;
+		this.memory = cpu.ram.getBackingStore();
+		this.crtc = new Crtc6845(this);
+		this.ula = new VideoUla(this);
+	}
+
+	/**
+	 * Put the CRTC and ULA on the bus and start the first frame.
+	 */
+	public void attach(IoBus bus) {
+
+		bus.register(Crtc6845.FIRST, Crtc6845.LAST, crtc);
+		bus.register(VideoUla.FIRST, VideoUla.LAST, ula);
+		startFrame(cpu.clockticks);
+	}
+
+	public Crtc6845 getCrtc() {
+
+		return crtc;
+	}
+
+	public VideoUla getUla() {
+
+		return ula;
+	}
+
+	public void setFrameListener(FrameListener listener) {
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Set how much memory the screen wraps round in, which on a Model B comes
+	 * from the system VIA's addressable latch: 20K for MODEs 0-2, 16K for
+	 * MODE 3, 10K (the default) for MODEs 4 and 5 and 8K for MODE 6.
+	 */
+	public void setScreenSize(int screenSize) {
+
+		changing(cpu.clockticks);
+		this.screenSize = screenSize;
+	}
+
+	/**
+	 * @return the frame, a row of {@link #WIDTH} ARGB pixels at a time; it's
+	 *         only complete when a {@link FrameListener} is told
+	 */
+	public int[] getPixels() {
+
+		return pixels;
+	}
+
+	/**
+	 * @return the number of frames finished
+	 */
+	public long getFrames() {
+
+		return frames;
+	}
+
+	/**
+	 * @return the number of character rows in the frame; this and the
+	 *         redrawn rows are for the frame just finished when a
+	 *         {@link FrameListener} is told
+	 */
+	public int getRows() {
+
+		return redrawn.length;
+	}
+
+	/**
+	 * @return whether a character row has been drawn again this frame (the
+	 *         rest are as they were)
+	 */
+	public boolean isRedrawn(int row) {
+
+		return redrawn[row];
+	}
+
+	/**
+	 * @return the number of character rows drawn again this frame
+	 */
+	public int getRedrawnRows() {
+
+		int count = 0;
+		for (boolean row : redrawn) {
+			if (row) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of pixel lines in each character row this frame
+	 */
+	public int getScanlines() {
+
+		return scanlines;
+	}
+
+	long now() {
+
+		return cpu.clockticks;
+	}
+
+	/**
+	 * Called before a register changes at {@code cycle}: draw the rows the
+	 * beam has finished by then, as they were.
+	 */
+	void changing(long cycle) {
+
+		if (lineCycles == 0) {
+			return;
+		}
+		long line = (cycle - frameStart) / lineCycles - displayStart;
+		int finished = line < 0 ? 0 : (int)Math.min(rows, line / scanlines);
+		while (nextRow < finished) {
+			drawRow(nextRow++);
+		}
+	}
+
+	private void vsync(long cycle) {
+
+		changing(Long.MAX_VALUE);
+		frames++;
+		if (listener != null) {
+			listener.frame(this, cycle);
+		}
+		startFrame(cycle);
+	}
+
+	private void startFrame(long cycle) {
+
+		int charCycles = ula.isFastClock() ? 1 : 2;
+		int rowsTotal = crtc.getRegister(Crtc6845.VERTICAL_TOTAL) + 1;
+		int scanlines = crtc.getRegister(Crtc6845.SCANLINES) + 1;
+		int adjust = crtc.getRegister(Crtc6845.VERTICAL_ADJUST);
+		int sync = crtc.getRegister(Crtc6845.VERTICAL_SYNC);
+
+		int lineCycles = (crtc.getRegister(Crtc6845.HORIZONTAL_TOTAL) + 1) * charCycles;
+		int lines = rowsTotal * scanlines + adjust;
+		if ((long)lines * lineCycles < MIN_FRAME) {
+			lineCycles = 128;
+			lines = DEFAULT_FRAME / lineCycles;
+		}
+
+		int rows = crtc.getRegister(Crtc6845.VERTICAL_DISPLAYED);
+		int columns = crtc.getRegister(Crtc6845.HORIZONTAL_DISPLAYED);
+		if (rows != this.rows || columns != this.columns || scanlines != this.scanlines) {
+			layoutChanged = true;
+		}
+
+		this.frameStart = cycle;
+		this.lineCycles = lineCycles;
+		// the display starts after the rows from vertical sync to the end of the frame
+		this.displayStart = Math.max(0, (rowsTotal - sync) * scanlines + adjust) % Math.max(1, lines);
+		this.scanlines = scanlines;
+		this.rows = rows;
+		this.columns = columns;
+		this.start = crtc.getStart();
+		this.nextRow = 0;
+
+		if (layoutChanged) {
+			drawn = new byte[rows * columns * 8];
+			drawnKeys = new long[rows];
+			drawnBits = new int[rows];
+			Arrays.fill(drawnBits, -1);
+			redrawn = new boolean[rows];
+			Arrays.fill(pixels, 0xFF000000);
+			layoutChanged = false;
+		} else {
+			Arrays.fill(redrawn, false);
+		}
+
+		cpu.getScheduler().schedule(vsync, cycle + (long)lines * lineCycles);
+	}
+
+	/**
+	 * Draw a character row if its memory, or how it's drawn, has changed.
+	 */
+	private void drawRow(int row) {
+
+		long key = ula.getKey();
+		int bits = ula.getTableBits();
+		int ma = start + row * columns;
+		boolean changed = ula.isTeletext() || drawnKeys[row] != key || drawnBits[row] != bits;
+
+		// compare with, and update, the copy of the row's memory
+		int copy = row * columns * 8;
+		for (int c = 0; c < columns; c++) {
+			int base = address(ma + c);
+			for (int s = 0; s < 8; s++) {
+				byte b = memory[(base + s) & 0x7FFF];
+				if (drawn[copy] != b) {
+					drawn[copy] = b;
+					changed = true;
+				}
+				copy++;
+			}
+		}
+		if (!changed) {
+			return;
+		}
+
+		drawnKeys[row] = key;
+		drawnBits[row] = bits;
+		redrawn[row] = true;
+
+		int[] table = ula.getTable();
+
+		int width = ula.isFastClock() ? VideoUla.PIXELS_PER_BYTE / 2 : VideoUla.PIXELS_PER_BYTE;
+		int visible = Math.min(columns, WIDTH / width);
+		for (int s = 0; s < scanlines; s++) {
+			int y = row * scanlines + s;
+			if (y >= HEIGHT) {
+				break;
+			}
+			int out = y * WIDTH;
+			if (s >= 8 || ula.isTeletext()) {
+				// lines 8 and 9 of MODEs 3 and 6 are blank
+				Arrays.fill(pixels, out, out + WIDTH, 0xFF000000);
+				continue;
+			}
+			copy = row * columns * 8 + s;
+			for (int c = 0; c < visible; c++) {
+				System.arraycopy(table, (drawn[copy] & 0xFF) * VideoUla.PIXELS_PER_BYTE, pixels, out, width);
+				out += width;
+				copy += 8;
+			}
+		}
+	}
+
+	/**
+	 * @return the memory address of the first line of a character: the CRTC
+	 *         address times 8, but wrapped round into the top of memory once
+	 *         it's gone past &7FFF
+	 */
+	private int address(int ma) {
+
+		int addr = (ma & 0x0FFF) << 3;
+		if ((ma & 0x1000) != 0) {
+			addr += 0x8000 - screenSize;
+		}
+		return addr & 0x7FFF;
+	}
+
+	//=== snapshots
+
+	@Override
+	public int getStateSize() {
+
+		return 1 + Crtc6845.REGISTERS + 1 + 16 + 4 + 8;
+	}
+
+	@Override
+	public void saveState(ByteBuffer buffer) {
+
+		buffer.put((byte)crtc.getSelected());
+		for (int i = 0; i < Crtc6845.REGISTERS; i++) {
+			buffer.put((byte)crtc.getRegister(i));
+		}
+		buffer.put((byte)ula.getControl());
+		for (int i = 0; i < 16; i++) {
+			buffer.put((byte)ula.getPalette(i));
+		}
+		buffer.putInt(screenSize);
+		buffer.putLong(frameStart);
+	}
+
+	@Override
+	public void restoreState(ByteBuffer buffer) {
+
+		// no catching up: memory has already been replaced
+		lineCycles = 0;
+
+		int selected = buffer.get() & 0xFF;
+		for (int i = 0; i < Crtc6845.REGISTERS; i++) {
+			crtc.setSelected(i);
+			crtc.write(Crtc6845.FIRST + 1, buffer.get() & 0xFF, cpu.clockticks);
+		}
+		crtc.setSelected(selected);
+		int control = buffer.get() & 0xFF;
+		int[] palette = new int[16];
+		for (int i = 0; i < 16; i++) {
+			palette[i] = buffer.get() & 0x0F;
+		}
+		ula.restore(control, palette);
+		screenSize = buffer.getInt();
+		long frameStart = buffer.getLong();
+
+		// draw everything again, and pick up the frame where it was
+		layoutChanged = true;
+		startFrame(frameStart);
+	}
+}
@@ -0,0 +1,222 @@
+package com.sparcs.jelite.soft6502;
+
+/**
+ * The Video ULA's two write-only registers: the control register at &FE20,
+ * which sets the pixel clock and how many pixels a byte holds, and the
+ * palette at &FE21, each write of which sets one of the 16 logical colours
+ * (top nibble) to a physical colour (bottom nibble, stored inverted, with
+ * bit 3 making it flash). Both are mirrored up to &FE2F.
+ *
+ * Each combination of the two gives a table, built here, of the pixels
+ * every possible screen byte turns into, so rendering is a lookup per byte.
+ * Writes only note the new settings; the table is found when a row is drawn
+ * with them, so a palette rewritten a byte at a time doesn't build one for
+ * every step on the way. The last few tables are kept, since a split-screen
+ * game like Elite switches between the same two every frame, and one that
+ * drops out is rebuilt in place for the next.
+ *
+ * The settings are summed up as a key, the 16 palette nibbles in a long,
+ * and the control bits that change the table: two rows drawn with the same
+ * key and bits look the same.
+ */
+public class VideoUla implements IoDevice {
+
+	public static final int FIRST = 0xFE20;
+	public static final int LAST = 0xFE2F;
+
+	public static final int CONTROL_FLASH = 0x01;
+	public static final int CONTROL_TELETEXT = 0x02;
+	public static final int CONTROL_FAST_CLOCK = 0x10;
+
+	/**
+	 * Output pixels in each table entry; a byte at the 1MHz clock covers all
+	 * of them, one at the 2MHz clock the first half.
+	 */
+	public static final int PIXELS_PER_BYTE = 16;
+
+	// physical colours 0-7 as ARGB: bit 0 red, bit 1 green, bit 2 blue
+	private static final int[] RGB = new int[8];
+	static {
+		for (int colour = 0; colour < 8; colour++) {
+			RGB[colour] = 0xFF000000
+					| ((colour & 1) != 0 ? 0xFF0000 : 0)
+					| ((colour & 2) != 0 ? 0x00FF00 : 0)
+					| ((colour & 4) != 0 ? 0x0000FF : 0);
+		}
+	}
+
+	// the control bits that change the table
+	static final int TABLE_BITS = 0x1F;
+
+	private static final int CACHED = 4;
+
+	private final Video video;
+	private int control;
+	private final int[] palette = new int[16];
+
+	// the palette, logical colour 0 in the top nibble
+	private long key;
+
+	private final long[] cachedPalettes = new long[CACHED];
+	private final int[] cachedControls = new int[CACHED];
+	private final int[][] cachedTables = new int[CACHED][];
+	private int nextCached;
+
+	// the table for the settings now, or null until it's wanted
+	private int[] table;
+
+	VideoUla(Video video) {
+
+		this.video = video;
+		restore(0, new int[16]);
+	}
+
+	@Override
+	public int read(int addr, long cycle) {
+
+		return 0xFF;
+	}
+
+	@Override
+	public void write(int addr, int value, long cycle) {
+
+		video.changing(cycle);
+		if ((addr & 1) == 0) {
+			control = value & 0xFF;
+		} else {
+			int logical = (value >> 4) & 0x0F;
+			palette[logical] = value & 0x0F;
+			int shift = (15 - logical) * 4;
+			key = (key & ~(0x0FL << shift)) | ((long)(value & 0x0F) << shift);
+		}
+		table = null;
+	}
+
+	public int getControl() {
+
+		return control;
+	}
+
+	/**
+	 * Set the control register directly, as if it had been written.
+	 */
+	public void setControl(int value) {
+
+		write(FIRST, value, video.now());
+	}
+
+	/**
+	 * @return the bottom nibble last written for a logical colour
+	 */
+	public int getPalette(int logical) {
+
+		return palette[logical];
+	}
+
+	/**
+	 * Set a logical colour directly, as if it had been written: the actual
+	 * physical colour, not inverted the way the hardware wants it.
+	 */
+	public void setPalette(int logical, int physical) {
+
+		write(FIRST + 1, (logical << 4) | ((physical & 0x08) | (~physical & 0x07)), video.now());
+	}
+
+	public boolean isTeletext() {
+
+		return (control & CONTROL_TELETEXT) != 0;
+	}
+
+	public boolean isFastClock() {
+
+		return (control & CONTROL_FAST_CLOCK) != 0;
+	}
+
+	/**
+	 * @return the palette now, as a key for the table
+	 */
+	long getKey() {
+
+		return key;
+	}
+
+	/**
+	 * @return the control bits now that change the table
+	 */
+	int getTableBits() {
+
+		return control & TABLE_BITS;
+	}
+
+	/**
+	 * @return the table for the settings now: output pixels
+	 *         {@code b * PIXELS_PER_BYTE} onwards are what screen byte
+	 *         {@code b} looks like; it may be rebuilt for other settings once
+	 *         they've been written
+	 */
+	int[] getTable() {
+
+		if (table == null) {
+			table = lookup();
+		}
+		return table;
+	}
+
+	void restore(int control, int[] palette) {
+
+		this.control = control;
+		key = 0;
+		for (int i = 0; i < this.palette.length; i++) {
+			this.palette[i] = palette[i];
+			key = (key << 4) | palette[i];
+		}
+		table = null;
+	}
+
+	private int[] lookup() {
+
+		int bits = control & TABLE_BITS;
+		for (int i = 0; i < CACHED; i++) {
+			if (cachedTables[i] != null && cachedPalettes[i] == key && cachedControls[i] == bits) {
+				return cachedTables[i];
+			}
+		}
+
+		int[] table = cachedTables[nextCached];
+		if (table == null) {
+			table = new int[256 * PIXELS_PER_BYTE];
+			cachedTables[nextCached] = table;
+		}
+		build(bits, table);
+		cachedPalettes[nextCached] = key;
+		cachedControls[nextCached] = bits;
+		nextCached = (nextCached + 1) % CACHED;
+		return table;
+	}
+
+	private void build(int control, int[] table) {
+
+		boolean fast = (control & CONTROL_FAST_CLOCK) != 0;
+		int charsPerLine = 10 << ((control >> 2) & 3);
+		int bytesPerLine = fast ? 80 : 40;
+		int pixels = Math.min(8, charsPerLine * 8 / bytesPerLine);
+		int width = (fast ? PIXELS_PER_BYTE / 2 : PIXELS_PER_BYTE) / pixels;
+
+		for (int b = 0; b < 256; b++) {
+			for (int k = 0; k < pixels; k++) {
+				// each pixel is shifted up in turn, and bits 7, 5, 3 and 1 pick its logical colour
+				int shifted = (b << k) & 0xFF;
+				int logical = ((shifted >> 4) & 8) | ((shifted >> 3) & 4) | ((shifted >> 2) & 2) | ((shifted >> 1) & 1);
+				int entry = palette[logical];
+				int physical = (entry & 7) ^ 7;
+				if ((entry & 8) != 0 && (control & CONTROL_FLASH) != 0) {
+					physical ^= 7;
+				}
+				int start = b * PIXELS_PER_BYTE + k * width;
+				for (int x = start; x < start + width; x++) {
+					table[x] = RGB[physical];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.sparcs.jelite.soft6502;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the samples from an {@link Sn76489} to a 16 bit mono WAV file, so
+ * sound can be checked, or listened to, without a sound card.
+ *
+ * Samples go out through one off-heap buffer, reused for every block; the
+ * sizes in the header are filled in on {@link #close()}.
+ */
+public class WavSink implements Sn76489.Sink, AutoCloseable {
+
+	private static final int HEADER_SIZE = 44;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(8192).order(ByteOrder.LITTLE_ENDIAN);
+	private final int sampleRate;
+	private long samples;
+
+	public WavSink(Path file, int sampleRate) throws IOException {
+
+		this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.sampleRate = sampleRate;
+		writeHeader();
+	}
+
+	@Override
+	public void write(short[] samples, int offset, int length) throws IOException {
+
+		for (int i = offset; i < offset + length; i++) {
+			if (buffer.remaining() < 2) {
+				flush();
+			}
+			buffer.putShort(samples[i]);
+		}
+		this.samples += length;
+	}
+
+	/**
+	 * @return the number of samples written
+	 */
+	public long getSamples() {
+
+		return samples;
+	}
+
+	/**
+	 * Write what's left, and the sizes into the header.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		try {
+			flush();
+			writeHeader();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void flush() throws IOException {
+
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void writeHeader() throws IOException {
+
+		int data = (int)Math.min(Integer.MAX_VALUE - HEADER_SIZE, samples * 2);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] { 'R', 'I', 'F', 'F' });
+		header.putInt(HEADER_SIZE - 8 + data);
+		header.put(new byte[] { 'W', 'A', 'V', 'E', 'f', 'm', 't', ' ' });
+		header.putInt(16);
+		// PCM, mono
+		header.putShort((short)1);
+		header.putShort((short)1);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * 2);
+		header.putShort((short)2);
+		header.putShort((short)16);
+		header.put(new byte[] { 'd', 'a', 't', 'a' });
+		header.putInt(data);
+		header.flip();
+
+		long position = channel.position();
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.position(Math.max(position, HEADER_SIZE));
+	}
+}
@@ -0,0 +1,140 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BlockEngineTest {
+
+	private BlockEngine engine = new BlockEngine();
+	private Soft6502 cpu = new Soft6502();
+
+	@Test
+	public void matchesOpcodeEngineInTimeslices() throws IOException {
+
+		Ram16Bit referenceRam = new Ram16Bit();
+		PagedMemory ram = new PagedMemory();
+		Soft6502 reference = new Soft6502();
+
+		Soft6502Test.loadFunctionalTest(referenceRam);
+		Soft6502Test.loadFunctionalTest(ram);
+		reference.setRam(referenceRam);
+		reference.setPC(0x0400);
+		cpu.setEngine(engine);
+		cpu.setRam(ram);
+		cpu.setPC(0x0400);
+
+		// Short timeslices, so blocks are often left part way through
+		while(true) {
+
+			reference.run(1000);
+			cpu.run(1000);
+
+			assertEquals(reference.pc, cpu.pc);
+			assertEquals(reference.a, cpu.a);
+			assertEquals(reference.x, cpu.x);
+			assertEquals(reference.y, cpu.y);
+			assertEquals(reference.sp, cpu.sp);
+			assertEquals(reference.status, cpu.status);
+			assertEquals(reference.clockticks, cpu.clockticks);
+
+			int pcBefore = reference.getPC();
+			reference.step();
+			cpu.step();
+			if( reference.getPC() == pcBefore ) {
+				
+				break;
+			}
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertEquals(reference.instructions, cpu.instructions);
+		for (int addr = 0; addr < 0x10000; addr++) {
+			assertEquals(String.format("%04X", addr), referenceRam.getByte(addr), ram.getByte(addr));
+		}
+	}
+
+	@Test
+	public void seesSelfModifyingCode() {
+
+		PagedMemory ram = new PagedMemory();
+		load(ram, 0x0200,
+				0xA9, 0x01,			// LDA #1
+				0x8D, 0x06, 0x02,	// STA &0206
+				0xA9, 0x00,			// LDA #0, modified to LDA #1
+				0x4C, 0x07, 0x02);	// JMP *
+		cpu.setEngine(engine);
+		cpu.setRam(ram);
+		cpu.setPC(0x0200);
+
+		cpu.run(100);
+
+		assertEquals(0x0207, cpu.getPC());
+		assertEquals(0x01, cpu.a);
+		assertEquals(1, engine.getInvalidations());
+	}
+
+	@Test
+	public void seesSidewaysBankSwitch() throws IOException {
+
+		SidewaysMemory ram = new SidewaysMemory();
+		for (int slot = 0; slot < 2; slot++) {
+			byte[] image = new byte[SidewaysMemory.BANK_SIZE];
+			image[0] = (byte)0xA9;				// LDA #&11 or #&22
+			image[1] = (byte)(0x11 * (slot + 1));
+			image[2] = 0x4C;					// JMP *
+			image[3] = 0x02;
+			image[4] = (byte)0x80;
+			ram.loadBank(slot, new ByteArrayInputStream(image), image.length);
+		}
+		cpu.setEngine(engine);
+		cpu.setRam(ram);
+
+		cpu.setPC(0x8000);
+		cpu.run(100);
+		assertEquals(0x11, cpu.a);
+
+		ram.select(1);
+		cpu.setPC(0x8000);
+		cpu.run(100);
+		assertEquals(0x22, cpu.a);
+	}
+
+	@Test
+	public void cachesBlocks() {
+
+		PagedMemory ram = new PagedMemory();
+		load(ram, 0x0200,
+				0xA2, 0x00,			// LDX #0
+				0xE8,				// INX
+				0xD0, 0xFD,			// BNE &0202
+				0x4C, 0x05, 0x02);	// JMP *
+		cpu.setEngine(engine);
+		cpu.setRam(ram);
+		cpu.setPC(0x0200);
+
+		cpu.run(10000);
+
+		assertEquals(0x0205, cpu.getPC());
+		assertEquals(3, engine.getTranslations());
+		assertEquals(0, engine.getInvalidations());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void needsPagedMemory() {
+
+		cpu.setEngine(engine);
+		cpu.setRam(new Ram16Bit());
+		cpu.run(100);
+	}
+
+	private static void load(PagedMemory ram, int addr, int... code) {
+
+		for (int i = 0; i < code.length; i++) {
+			ram.setByte(addr + i, code[i]);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_DECIMAL;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_OVERFLOW;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DecimalTest {
+
+	private static final int P = FLAG_DECIMAL | Soft6502.FLAG_CONSTANT;
+
+	@Test
+	public void adds() {
+
+		assertAdc(0x46, 0, 0x12, 0x34, 0);
+		assertAdc(0x41, 0, 0x15, 0x26, 0);
+		assertAdc(0x05, FLAG_CARRY | FLAG_SIGN | FLAG_OVERFLOW, 0x58, 0x46, FLAG_CARRY);
+		assertAdc(0x73, FLAG_CARRY | FLAG_OVERFLOW, 0x81, 0x92, 0);
+	}
+
+	@Test
+	public void subtracts() {
+
+		assertSbc(0x34, FLAG_CARRY, 0x46, 0x12, FLAG_CARRY);
+		assertSbc(0x27, FLAG_CARRY, 0x40, 0x13, FLAG_CARRY);
+		assertSbc(0x29, FLAG_CARRY, 0x32, 0x02, 0);
+		assertSbc(0x91, FLAG_SIGN, 0x12, 0x21, FLAG_CARRY);
+		assertSbc(0x87, FLAG_SIGN, 0x21, 0x34, FLAG_CARRY);
+	}
+
+	@Test
+	public void setsFlagsLikeNmos() {
+
+		// 99 + 01 = 00 carry 1, but Z comes from the binary sum ($9A) and N
+		// from the sum after the low digit is adjusted ($A0)
+		assertAdc(0x00, FLAG_CARRY | FLAG_SIGN, 0x99, 0x01, 0);
+	}
+
+	@Test
+	public void isUsedByTheEngines() {
+
+		Engine[] engines = { new OpcodeEngine(), new SwitchEngine(), new LazyFlagsEngine() };
+		for (Engine engine : engines) {
+			Ram16Bit ram = new Ram16Bit();
+			// SED, CLC, LDA #$19, ADC #$28, SEC, SBC #$08
+			int[] code = { 0xF8, 0x18, 0xA9, 0x19, 0x69, 0x28, 0x38, 0xE9, 0x08 };
+			for (int i = 0; i < code.length; i++) {
+				ram.setByte(0x0200 + i, code[i]);
+			}
+			Soft6502 cpu = new Soft6502(ram);
+			cpu.setEngine(engine);
+			cpu.setPC(0x0200);
+			cpu.runUntil(c -> c.getPC() == 0x0200 + code.length);
+
+			assertEquals(engine.getClass().getSimpleName(), 0x39, cpu.a);
+		}
+	}
+
+	private static void assertAdc(int result, int flags, int a, int value, int carry) {
+
+		int t = Decimal.adc(P | carry, a, value);
+		String sum = String.format("%02X + %02X + %d", a, value, carry);
+		assertEquals(sum, result, t & 0xFF);
+		assertEquals(sum, P | flags, t >> 8);
+	}
+
+	private static void assertSbc(int result, int flags, int a, int value, int carry) {
+
+		int t = Decimal.sbc(P | carry, a, value);
+		String difference = String.format("%02X - %02X - %d", a, value, 1 - carry);
+		assertEquals(difference, result, t & 0xFF);
+		assertEquals(difference, P | flags, t >> 8);
+	}
+}
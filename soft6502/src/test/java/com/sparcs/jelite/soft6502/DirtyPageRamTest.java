@@ -0,0 +1,72 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class DirtyPageRamTest {
+
+	private DirtyPageRam ram = new DirtyPageRam();
+
+	@Test
+	public void startsClean() {
+
+		assertArrayEquals(new int[0], ram.drainDirtyPages());
+	}
+
+	@Test
+	public void marksWrittenPages() {
+
+		ram.setByte(0x0000, 1);
+		ram.setByte(0x3FFF, 2);
+		ram.setByte(0x4000, 3);
+		ram.setByte(0xFFFF, 4);
+		ram.setByte(0xFF00, 5);
+
+		assertTrue(ram.isDirty(0x00));
+		assertTrue(ram.isDirty(0x3F));
+		assertFalse(ram.isDirty(0x01));
+		assertFalse(ram.isDirty(0x80));
+		assertArrayEquals(new int[] { 0x00, 0x3F, 0x40, 0xFF }, ram.drainDirtyPages());
+		assertEquals(5, ram.getByte(0xFF00));
+	}
+
+	@Test
+	public void drainingCleans() {
+
+		ram.setByte(0x1234, 1);
+		ram.drainDirtyPages();
+
+		assertFalse(ram.isDirty(0x12));
+		assertArrayEquals(new int[0], ram.drainDirtyPages());
+	}
+
+	@Test
+	public void marksLoadedPages() throws IOException {
+
+		ram.load(new ByteArrayInputStream(new byte[0x200]), 0x80FF, 0x102);
+
+		assertArrayEquals(new int[] { 0x80, 0x81, 0x82 }, ram.drainDirtyPages());
+	}
+
+	@Test
+	public void seesTheCpusWrites() {
+
+		// LDA #$AA, STA $2000, PHA, JMP *
+		int[] code = { 0xA9, 0xAA, 0x8D, 0x00, 0x20, 0x48, 0x4C, 0x06, 0x02 };
+		for (int i = 0; i < code.length; i++) {
+			ram.setByte(0x0200 + i, code[i]);
+		}
+		ram.drainDirtyPages();
+
+		Soft6502 cpu = new Soft6502(ram);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+		cpu.run(20);
+
+		assertArrayEquals(new int[] { 0x01, 0x20 }, ram.drainDirtyPages());
+	}
+}
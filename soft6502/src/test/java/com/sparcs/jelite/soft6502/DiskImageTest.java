@@ -0,0 +1,122 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.DiskImage.SECTOR_SIZE;
+import static com.sparcs.jelite.soft6502.DiskImage.TRACK_SIZE;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskImageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsSingleSidedTrackByTrack() throws IOException {
+
+		DiskImage disk = DiskImage.open(write("elite.ssd", sectors(25)));
+
+		assertEquals(1, disk.getSides());
+		assertEquals(0, disk.sector(0, 0, 0).get(0));
+		assertEquals(12, disk.sector(0, 1, 2).get(0));
+		assertEquals(SECTOR_SIZE, disk.sector(0, 2, 4).remaining());
+	}
+
+	@Test
+	public void interleavesDoubleSided() throws IOException {
+
+		DiskImage disk = DiskImage.open(write("ELITE.DSD", sectors(40)));
+
+		assertEquals(2, disk.getSides());
+		assertEquals(3, disk.sector(0, 0, 3).get(0));
+		assertEquals(13, disk.sector(1, 0, 3).get(0));
+		assertEquals(23, disk.sector(0, 1, 3).get(0));
+		assertEquals(33, disk.sector(1, 1, 3).get(0));
+	}
+
+	@Test
+	public void readsZerosPastTheEnd() throws IOException {
+
+		byte[] image = sectors(3);
+		byte[] partial = new byte[image.length - 100];
+		System.arraycopy(image, 0, partial, 0, partial.length);
+		DiskImage disk = DiskImage.open(write("short.ssd", partial));
+
+		ByteBuffer last = disk.sector(0, 0, 2);
+		assertEquals(SECTOR_SIZE, last.remaining());
+		assertEquals(2, last.get(0));
+		assertEquals(0, last.get(SECTOR_SIZE - 1));
+		assertEquals(0, disk.sector(0, 79, 9).get(0));
+	}
+
+	@Test
+	public void sectorsAreReadOnly() throws IOException {
+
+		assertTrue(DiskImage.open(write("a.ssd", sectors(1))).sector(0, 0, 0).isReadOnly());
+	}
+
+	@Test
+	public void writesThroughToTheBuffer() throws IOException {
+
+		ByteBuffer image = ByteBuffer.wrap(sectors(20));
+		DiskImage disk = new DiskImage(image, 1);
+		assertTrue(disk.isWritable());
+		assertFalse(DiskImage.open(write("a.ssd", sectors(1))).isWritable());
+
+		disk.writableSector(0, 1, 3).put(0, (byte)0x99);
+		assertEquals((byte)0x99, image.get(13 * SECTOR_SIZE));
+		assertEquals((byte)0x99, disk.sector(0, 1, 3).get(0));
+	}
+
+	@Test
+	public void readsTitle() {
+
+		ByteBuffer image = ByteBuffer.allocate(2 * SECTOR_SIZE);
+		image.put("ELITE   ".getBytes(StandardCharsets.US_ASCII));
+		image.position(SECTOR_SIZE);
+		image.put("DISK".getBytes(StandardCharsets.US_ASCII));
+		image.clear();
+
+		assertEquals("ELITE   DISK", new DiskImage(image, 1).getTitle());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void hasOnlyTenSectors() throws IOException {
+
+		DiskImage.open(write("a.ssd", sectors(1))).sector(0, 0, 10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mustFit() {
+
+		new DiskImage(ByteBuffer.allocate(80 * TRACK_SIZE + 1), 1);
+	}
+
+	private Path write(String name, byte[] image) throws IOException {
+
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, image);
+		return file;
+	}
+
+	/**
+	 * @return an image of {@code count} sectors, each filled with its number
+	 *         in the file
+	 */
+	private static byte[] sectors(int count) {
+
+		byte[] image = new byte[count * SECTOR_SIZE];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte)(i / SECTOR_SIZE);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,98 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class FarmTest {
+
+	private Farm farm = new Farm(3, 20000);
+
+	@After
+	public void afterTest() {
+
+		farm.close();
+	}
+
+	@Test
+	public void runsEveryMachineToTheEnd() throws IOException, InterruptedException {
+
+		for (int i = 0; i < 8; i++) {
+			farm.add(functionalTest(), cpu -> cpu.getPC() == Soft6502Test.SUCCESS_TRAP);
+		}
+
+		for (int runs = 0; farm.run(10000000) > 0; runs++) {
+			assertTrue("Machines still running", runs < 20);
+		}
+
+		List<Farm.Machine> machines = farm.getMachines();
+		assertEquals(8, machines.size());
+		long total = 0;
+		for (Farm.Machine machine : machines) {
+			assertTrue(machine.isDone());
+			assertNull(machine.getFailure());
+			assertEquals(Soft6502Test.SUCCESS_TRAP, machine.getCpu().getPC());
+			assertEquals(machines.get(0).getInstructions(), machine.getInstructions());
+			assertTrue(machine.getMips() > 0);
+			total += machine.getInstructions();
+		}
+		assertEquals(total, farm.getInstructions());
+		assertTrue(farm.getMips() > 0);
+	}
+
+	@Test
+	public void runsInQuanta() throws InterruptedException {
+
+		Farm.Machine machine = farm.add(jmpStar());
+
+		assertEquals(1, farm.run(50000));
+
+		// the last JMP may run over by a couple of cycles
+		long ticks = machine.getCpu().getClockticks();
+		assertTrue(ticks >= 50000 && ticks < 50003);
+	}
+
+	@Test
+	public void failureOnlyStopsThatMachine() throws InterruptedException {
+
+		Soft6502 broken = jmpStar();
+		broken.setEngine((cpu, condition) -> {
+			throw new IllegalStateException("broken");
+		});
+		Farm.Machine bad = farm.add(broken);
+		Farm.Machine good = farm.add(jmpStar());
+
+		assertEquals(1, farm.run(1000));
+
+		assertTrue(bad.isDone());
+		assertEquals("broken", bad.getFailure().getMessage());
+		assertFalse(good.isDone());
+		assertTrue(good.getCpu().getClockticks() >= 1000);
+	}
+
+	private static Soft6502 functionalTest() throws IOException {
+
+		PagedMemory ram = new PagedMemory();
+		Soft6502Test.loadFunctionalTest(ram);
+		Soft6502 cpu = new Soft6502(ram);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0400);
+		return cpu;
+	}
+
+	private static Soft6502 jmpStar() {
+
+		Ram16Bit ram = new Ram16Bit();
+		ram.setByte(0x0200, 0x4C);
+		ram.setByte(0x0201, 0x00);
+		ram.setByte(0x0202, 0x02);
+		Soft6502 cpu = new Soft6502(ram);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+		return cpu;
+	}
+}
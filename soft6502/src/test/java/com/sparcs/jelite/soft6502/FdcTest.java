@@ -0,0 +1,242 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.DiskImage.SECTOR_SIZE;
+import static com.sparcs.jelite.soft6502.DiskImage.TRACK_SIZE;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FdcTest {
+
+	private static final int NMI_HANDLER = 0x0D00;
+	private static final int BUFFER = 0x3000;
+	private static final int RESULT = 0x70;
+
+	// drive 0
+	private static final int DRIVE = 0x40;
+
+	private PagedMemory ram = new PagedMemory();
+	private Soft6502 cpu = new Soft6502(ram);
+	private Fdc8271 fdc = new Fdc8271(cpu);
+	private ByteBuffer image = ByteBuffer.allocate(2 * 3 * TRACK_SIZE);
+
+	@Before
+	public void beforeTest() {
+
+		// JMP *
+		ram.setByte(0x0200, 0x4C);
+		ram.setByte(0x0201, 0x00);
+		ram.setByte(0x0202, 0x02);
+
+		// the NMI handler reads a byte into BUFFER,X when one is offered, or the result into RESULT
+		int[] handler = {
+			0x48,             // PHA
+			0xAD, 0x80, 0xFE, // LDA &FE80
+			0x29, 0x04,       // AND #&04
+			0xF0, 0x0E,       // BEQ result
+			0xAD, 0x84, 0xFE, // LDA &FE84
+			0x9D, 0x00, 0x30, // STA BUFFER,X
+			0xE8,             // INX
+			0xD0, 0x0A,       // BNE exit
+			0xEE, 0x0D, 0x0D, // INC the STA's high byte
+			0xD0, 0x05,       // BNE exit
+			0xAD, 0x81, 0xFE, // result: LDA &FE81
+			0x85, RESULT,     // STA RESULT
+			0x68,             // exit: PLA
+			0x40              // RTI
+		};
+		for (int i = 0; i < handler.length; i++) {
+			ram.setByte(NMI_HANDLER + i, handler[i]);
+		}
+		ram.setByte(Soft6502.VECTOR_NMI, NMI_HANDLER & 0xFF);
+		ram.setByte(Soft6502.VECTOR_NMI + 1, NMI_HANDLER >> 8);
+		ram.setByte(RESULT, 0xFF);
+
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+		IoBus bus = new IoBus(cpu);
+		bus.attach(ram);
+		fdc.attach(bus);
+
+		// each sector of the .dsd filled with its side, track and sector
+		for (int track = 0; track < 3; track++) {
+			for (int side = 0; side < 2; side++) {
+				for (int sector = 0; sector < 10; sector++) {
+					for (int i = 0; i < SECTOR_SIZE; i++) {
+						image.put((byte)(side << 7 | track << 4 | sector));
+					}
+				}
+			}
+		}
+		image.clear();
+		fdc.insert(0, new DiskImage(image, 2));
+	}
+
+	@Test
+	public void readsSectorsThroughNmi() {
+
+		long cycles = command(DRIVE | Fdc8271.READ_DATA, 2, 3, 0x22);
+
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		for (int i = 0; i < SECTOR_SIZE; i++) {
+			assertEquals(0x23, ram.getByte(BUFFER + i));
+			assertEquals(0x24, ram.getByte(BUFFER + SECTOR_SIZE + i));
+		}
+		assertEquals(0, ram.getByte(BUFFER + 2 * SECTOR_SIZE));
+		assertEquals(2, fdc.getTrack(0));
+
+		// two steps, then a byte at a time
+		assertTrue(cycles > 2 * Fdc8271.STEP_CYCLES + 2 * SECTOR_SIZE * Fdc8271.BYTE_CYCLES);
+		assertEquals(0, fdc.getStatus());
+	}
+
+	@Test
+	public void fastDiskSkipsTheWaiting() {
+
+		fdc.setFast(true);
+		long cycles = command(DRIVE | Fdc8271.READ_DATA, 2, 3, 0x22);
+
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		assertEquals(0x24, ram.getByte(BUFFER + 2 * SECTOR_SIZE - 1));
+		assertTrue(cycles < 2 * SECTOR_SIZE * (Fdc8271.FAST_BYTE_CYCLES + 40));
+	}
+
+	@Test
+	public void readsSideOneFromDriveOutput() {
+
+		command(DRIVE | Fdc8271.WRITE_SPECIAL_REGISTER, Fdc8271.SPECIAL_DRIVE_OUTPUT, 0x20);
+		command(DRIVE | Fdc8271.READ_DATA, 1, 9, 0x21);
+
+		assertEquals(0x80 | 0x19, ram.getByte(BUFFER));
+	}
+
+	@Test
+	public void seeks() {
+
+		fdc.setFast(true);
+		command(DRIVE | Fdc8271.SEEK, 40);
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		assertEquals(40, fdc.getTrack(0));
+
+		command(DRIVE | Fdc8271.READ_SPECIAL_REGISTER, Fdc8271.SPECIAL_TRACK_0);
+		assertEquals(Fdc8271.STATUS_RESULT_FULL, fdc.getStatus());
+		assertEquals(40, fdc.read(Fdc8271.FIRST + 1, cpu.clockticks));
+	}
+
+	@Test
+	public void readsIds() {
+
+		command(DRIVE | Fdc8271.READ_ID, 1, 0, 2);
+
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		int[] ids = { 1, 0, 0, 1, 1, 0, 1, 1 };
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], ram.getByte(BUFFER + i));
+		}
+	}
+
+	@Test
+	public void writesSectors() {
+
+		fdc.setFast(true);
+		issue(DRIVE | Fdc8271.WRITE_DATA, 1, 4, 0x21);
+
+		// the CPU supplies each byte as it's asked
+		for (int i = 0; i < SECTOR_SIZE; i++) {
+			while ((fdc.getStatus() & Fdc8271.STATUS_DATA_REQUEST) == 0) {
+				cpu.run(10);
+			}
+			fdc.write(Fdc8271.FIRST + 4, i, cpu.clockticks);
+		}
+		while (ram.getByte(RESULT) == 0xFF) {
+			cpu.run(10);
+		}
+
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		ByteBuffer sector = fdc.getDisk(0).sector(0, 1, 4);
+		for (int i = 0; i < SECTOR_SIZE; i++) {
+			assertEquals((byte)i, sector.get(i));
+		}
+		assertEquals(0x15, image.get(2 * TRACK_SIZE + 5 * SECTOR_SIZE));
+	}
+
+	@Test
+	public void refusesToWriteProtectedDisks() {
+
+		fdc.insert(0, new DiskImage(image.asReadOnlyBuffer(), 2));
+		command(DRIVE | Fdc8271.WRITE_DATA, 1, 4, 0x21);
+
+		assertEquals(Fdc8271.RESULT_WRITE_PROTECT, ram.getByte(RESULT));
+	}
+
+	@Test
+	public void reportsMissingDisksAndSectors() {
+
+		command(0x80 | Fdc8271.READ_DATA, 0, 0, 0x21);
+		assertEquals(Fdc8271.RESULT_NOT_READY, ram.getByte(RESULT));
+
+		ram.setByte(RESULT, 0xFF);
+		command(DRIVE | Fdc8271.READ_DATA, 0, 9, 0x22);
+		assertEquals(Fdc8271.RESULT_SECTOR_NOT_FOUND, ram.getByte(RESULT));
+	}
+
+	@Test
+	public void readsDriveStatusAtOnce() {
+
+		command(DRIVE | Fdc8271.READ_DRIVE_STATUS);
+
+		assertEquals(Fdc8271.STATUS_RESULT_FULL, fdc.getStatus());
+		assertEquals(0x04 | 0x02, fdc.read(Fdc8271.FIRST + 1, cpu.clockticks));
+		assertFalse(cpu.isNmiAsserted());
+	}
+
+	@Test
+	public void resumesFromSnapshot() {
+
+		fdc.setFast(true);
+		issue(DRIVE | Fdc8271.READ_DATA, 0, 5, 0x21);
+		cpu.run(50 * Fdc8271.FAST_BYTE_CYCLES);
+		ByteBuffer state = ByteBuffer.allocate(fdc.getStateSize());
+		fdc.saveState(state);
+		assertFalse(state.hasRemaining());
+
+		fdc.write(Fdc8271.FIRST + 2, 1, cpu.clockticks);
+		assertEquals(0, fdc.getStatus());
+
+		state.flip();
+		fdc.restoreState(state);
+		while (ram.getByte(RESULT) == 0xFF) {
+			cpu.run(100);
+		}
+		assertEquals(Fdc8271.RESULT_OK, ram.getByte(RESULT));
+		assertEquals(0x05, ram.getByte(BUFFER));
+		assertEquals(0x05, ram.getByte(BUFFER + SECTOR_SIZE - 1));
+	}
+
+	/**
+	 * Issue a command and run until it's finished.
+	 *
+	 * @return the cycles it took
+	 */
+	private long command(int command, int... parameters) {
+
+		long start = cpu.clockticks;
+		issue(command, parameters);
+		// until the NMI handler has had the result
+		while ((fdc.getStatus() & (Fdc8271.STATUS_BUSY | Fdc8271.STATUS_INTERRUPT)) != 0) {
+			cpu.run(100);
+		}
+		return cpu.clockticks - start;
+	}
+
+	private void issue(int command, int... parameters) {
+
+		fdc.write(Fdc8271.FIRST, command, cpu.clockticks);
+		for (int parameter : parameters) {
+			fdc.write(Fdc8271.FIRST + 1, parameter, cpu.clockticks);
+		}
+	}
+}
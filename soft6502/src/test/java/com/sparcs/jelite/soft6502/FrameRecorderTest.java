@@ -0,0 +1,107 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Video video = new Video(new Soft6502(new PagedMemory()));
+
+	@Test
+	public void writesPng() throws Exception {
+
+		Path directory = folder.getRoot().toPath();
+		try (FrameRecorder recorder = new FrameRecorder(directory, FrameRecorder.Format.PNG, 4, 1)) {
+			video.getPixels()[Video.WIDTH + 2] = 0xFFFF00FF;
+			recorder.frame(video, 0);
+		}
+
+		BufferedImage image = ImageIO.read(directory.resolve("frame-00000001.png").toFile());
+		assertEquals(Video.WIDTH, image.getWidth());
+		assertEquals(Video.HEIGHT, image.getHeight());
+		assertEquals(0xFFFF00FF, image.getRGB(2, 1));
+		assertEquals(0xFF000000, image.getRGB(3, 1));
+	}
+
+	@Test
+	public void writesRawRgb() throws Exception {
+
+		Path directory = folder.getRoot().toPath();
+		try (FrameRecorder recorder = new FrameRecorder(directory, FrameRecorder.Format.RAW, 4, 1)) {
+			video.getPixels()[1] = 0xFF123456;
+			recorder.frame(video, 0);
+			assertEquals(1, recorder.getFrames());
+		}
+
+		byte[] rgb = Files.readAllBytes(directory.resolve("frame-00000001.rgb"));
+		assertEquals(Video.WIDTH * Video.HEIGHT * 3, rgb.length);
+		assertEquals(0x12, rgb[3]);
+		assertEquals(0x34, rgb[4]);
+		assertEquals(0x56, rgb[5]);
+	}
+
+	@Test
+	public void savesEveryNthFrame() throws Exception {
+
+		Path directory = folder.getRoot().toPath();
+		FrameRecorder recorder = new FrameRecorder(directory, FrameRecorder.Format.RAW, 16, 3);
+		for (int i = 0; i < 10; i++) {
+			recorder.frame(video, i);
+		}
+		recorder.close();
+
+		String[] files = directory.toFile().list();
+		Arrays.sort(files);
+		assertArrayEquals(new String[] {
+			"frame-00000001.rgb", "frame-00000004.rgb", "frame-00000007.rgb", "frame-00000010.rgb"
+		}, files);
+		assertEquals(10, recorder.getFrames());
+		assertEquals(4, recorder.getWritten() + recorder.getDropped());
+	}
+
+	@Test
+	public void keepsWhatEachFrameLookedLike() throws Exception {
+
+		Path directory = folder.getRoot().toPath();
+		try (FrameRecorder recorder = new FrameRecorder(directory, FrameRecorder.Format.RAW, 8, 1)) {
+			for (int i = 0; i < 5; i++) {
+				video.getPixels()[0] = i;
+				recorder.frame(video, i);
+			}
+		}
+
+		for (int i = 0; i < 5; i++) {
+			File file = directory.resolve(String.format("frame-%08d.rgb", i + 1)).toFile();
+			if (file.exists()) {
+				assertEquals(i, Files.readAllBytes(file.toPath())[2]);
+			}
+		}
+	}
+
+	@Test
+	public void carriesOnAfterFailure() throws Exception {
+
+		Path missing = folder.getRoot().toPath().resolve("missing");
+		FrameRecorder recorder = new FrameRecorder(missing, FrameRecorder.Format.RAW, 2, 1);
+		recorder.frame(video, 0);
+		recorder.close();
+
+		assertTrue(recorder.getFailure() instanceof IOException);
+		assertEquals(0, recorder.getWritten());
+	}
+}
@@ -0,0 +1,188 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImagesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void streamLoadKeepsReading() throws IOException {
+
+		byte[] image = pattern(1000);
+		Ram16Bit ram = new Ram16Bit();
+		ram.load(trickle(image), 0x1000, image.length);
+
+		for (int i = 0; i < image.length; i++) {
+			assertEquals(image[i] & 0xFF, ram.getByte(0x1000 + i));
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void streamLoadComplainsIfShort() throws IOException {
+
+		new Ram16Bit().load(trickle(new byte[100]), 0, 200);
+	}
+
+	@Test
+	public void loadsSmallAndLargeFiles() throws IOException {
+
+		for (int size : new int[] { 0x4000, 0x10000 }) {
+			byte[] image = pattern(size);
+			Path file = write(image);
+			Ram16Bit ram = new Ram16Bit();
+
+			assertEquals(size, Images.load(ram, file, Ram16Bit.LEN_64K - size));
+			assertEquals(image[0] & 0xFF, ram.getByte(Ram16Bit.LEN_64K - size));
+			assertEquals(image[size - 1] & 0xFF, ram.getByte(0xFFFF));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wontLoadPastTheEnd() throws IOException {
+
+		Images.load(new Ram16Bit(), write(new byte[0x100]), 0xFF01);
+	}
+
+	@Test
+	public void loadTellsWatchers() throws IOException {
+
+		PagedMemory ram = new PagedMemory();
+		int[] changed = { -1 };
+		ram.watch(0x12, page -> changed[0] = page);
+		Images.load(ram, write(new byte[1]), 0x1234);
+
+		assertEquals(0x12, changed[0]);
+	}
+
+	@Test
+	public void dumpsWhatItLoads() throws IOException {
+
+		Ram16Bit ram = new Ram16Bit();
+		Images.load(ram, write(pattern(0x300)), 0x2000);
+		Path dump = folder.newFile().toPath();
+		Images.dump(ram, dump, 0x2000, 0x300);
+
+		assertArrayEquals(pattern(0x300), Files.readAllBytes(dump));
+	}
+
+	@Test
+	public void romsAreReadOnce() throws IOException {
+
+		RomCache cache = new RomCache();
+		Path file = write(pattern(SidewaysMemory.BANK_SIZE));
+		SidewaysMemory first = new SidewaysMemory();
+		SidewaysMemory second = new SidewaysMemory();
+		cache.mapBank(first, 0, file);
+
+		Files.write(file, new byte[SidewaysMemory.BANK_SIZE]);
+		cache.mapBank(second, 0, folder.getRoot().toPath().resolve(".").resolve(file.getFileName()));
+
+		assertEquals(1, cache.size());
+		assertEquals(pattern(2)[1] & 0xFF, second.getByte(0x8001));
+		assertEquals(first.getByte(0xBFFF), second.getByte(0xBFFF));
+	}
+
+	@Test
+	public void romsAreSharedNotCopied() throws IOException {
+
+		RomCache cache = new RomCache();
+		Path file = write(pattern(0x1000));
+		PagedMemory first = new PagedMemory();
+		PagedMemory second = new PagedMemory();
+		cache.map(first, 0xC0, file);
+		cache.map(second, 0xC0, file);
+
+		assertSame(cache.get(file), cache.get(file));
+		assertEquals(pattern(0x1000)[0x0FFF] & 0xFF, second.getByte(0xCFFF));
+		assertTrue(first.isRom(0xCF));
+		assertFalse(first.isRom(0xD0));
+
+		// nothing is copied into the backing store, and writes go nowhere
+		first.setByte(0xC001, ~first.getByte(0xC001));
+		assertEquals(0, first.getBackingStore()[0xC001]);
+		assertEquals(pattern(2)[1] & 0xFF, first.getByte(0xC001));
+		assertEquals(pattern(2)[1], cache.get(file)[1]);
+	}
+
+	@Test
+	public void romsArePaddedToPages() throws IOException {
+
+		RomCache cache = new RomCache();
+		Path file = write(pattern(16));
+		PagedMemory memory = new PagedMemory();
+		cache.map(memory, 0xFF, file);
+
+		assertEquals(PagedMemory.PAGE_SIZE, cache.get(file).length);
+		assertEquals(pattern(16)[15] & 0xFF, memory.getByte(0xFF0F));
+		assertEquals(0, memory.getByte(0xFF10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bankHoldsOnly16K() throws IOException {
+
+		new SidewaysMemory().loadBank(1, ByteBuffer.allocate(SidewaysMemory.BANK_SIZE + 1));
+	}
+
+	@Test
+	public void streamedBankHoldsOnly16K() throws IOException {
+
+		SidewaysMemory memory = new SidewaysMemory();
+		byte[] image = new byte[SidewaysMemory.BANK_SIZE + 1];
+		Arrays.fill(image, (byte)0x55);
+		try {
+			memory.loadBank(1, new ByteArrayInputStream(image), image.length);
+			fail("Loaded more than a bank");
+		} catch (IllegalArgumentException e) {
+			// and the next slot's bank is untouched
+			memory.select(2);
+			assertEquals(0, memory.getByte(0x8000));
+		}
+	}
+
+	private Path write(byte[] image) throws IOException {
+
+		File file = folder.newFile();
+		Files.write(file.toPath(), image);
+		return file.toPath();
+	}
+
+	private static byte[] pattern(int size) {
+
+		byte[] image = new byte[size];
+		for (int i = 0; i < size; i++) {
+			image[i] = (byte)(i * 7 + (i >> 8));
+		}
+		return image;
+	}
+
+	/**
+	 * @return a stream that never returns more than 64 bytes at a time
+	 */
+	private static InputStream trickle(byte[] image) {
+
+		return new ByteArrayInputStream(image) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+
+				return super.read(b, off, Math.min(len, 64));
+			}
+		};
+	}
+}
@@ -0,0 +1,200 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InterruptTest {
+
+	private static final int MAIN = 0x1000;
+	private static final int IRQ_HANDLER = 0x2000;
+	private static final int NMI_HANDLER = 0x3000;
+
+	private PagedMemory memory = new PagedMemory();
+	private Soft6502 cpu;
+	private int source;
+
+	@Before
+	public void beforeTest() {
+
+		// main: CLI, then INY forever
+		int addr = MAIN;
+		memory.setByte(addr++, 0x58);
+		for (; addr < MAIN + 0x100; addr++) {
+			memory.setByte(addr, 0xC8);
+		}
+		memory.setByte(addr++, 0x4C);
+		memory.setByte(addr++, (MAIN + 1) & 0xFF);
+		memory.setByte(addr++, (MAIN + 1) >> 8);
+
+		// IRQ: INX, STA $FE00 (acknowledge), RTI
+		addr = IRQ_HANDLER;
+		memory.setByte(addr++, 0xE8);
+		memory.setByte(addr++, 0x8D);
+		memory.setByte(addr++, 0x00);
+		memory.setByte(addr++, 0xFE);
+		memory.setByte(addr++, 0x40);
+
+		// NMI: DEX, RTI
+		addr = NMI_HANDLER;
+		memory.setByte(addr++, 0xCA);
+		memory.setByte(addr++, 0x40);
+
+		memory.setByte(Soft6502.VECTOR_IRQ, IRQ_HANDLER & 0xFF);
+		memory.setByte(Soft6502.VECTOR_IRQ + 1, IRQ_HANDLER >> 8);
+		memory.setByte(Soft6502.VECTOR_NMI, NMI_HANDLER & 0xFF);
+		memory.setByte(Soft6502.VECTOR_NMI + 1, NMI_HANDLER >> 8);
+		memory.setByte(Soft6502.VECTOR_RESET, MAIN & 0xFF);
+		memory.setByte(Soft6502.VECTOR_RESET + 1, MAIN >> 8);
+
+		cpu = new Soft6502(memory);
+		source = cpu.allocateInterruptSource();
+
+		IoBus bus = new IoBus(cpu);
+		bus.attach(memory);
+		bus.register(0xFE00, 0xFE00, new IoDevice() {
+
+			@Override
+			public int read(int addr, long cycle) {
+
+				return 0;
+			}
+
+			@Override
+			public void write(int addr, int value, long cycle) {
+
+				cpu.releaseIrq(source);
+			}
+		});
+	}
+
+	@Test
+	public void resetMasksIrq() {
+
+		assertEquals(MAIN, cpu.getPC());
+		assertTrue((cpu.status & Soft6502.FLAG_INTERRUPT) != 0);
+
+		// skip the CLI
+		cpu.setPC(MAIN + 1);
+		cpu.assertIrq(source);
+		cpu.run(20);
+
+		assertEquals(0, cpu.x);
+		assertEquals(10, cpu.y);
+	}
+
+	@Test
+	public void takesIrqOnceUnmasked() {
+
+		cpu.step();
+		cpu.assertIrq(source);
+		cpu.run(100);
+
+		assertEquals(1, cpu.x);
+		assertFalse(cpu.isIrqAsserted());
+		assertTrue((cpu.status & Soft6502.FLAG_INTERRUPT) == 0);
+	}
+
+	@Test
+	public void takesIrqOnceUnmaskedWithSwitchEngine() {
+
+		cpu.setEngine(new SwitchEngine());
+		takesIrqOnceUnmasked();
+	}
+
+	@Test
+	public void takesIrqOnceUnmaskedWithTracer() {
+
+		cpu.setEngine(new Tracer(new SwitchEngine(), 16));
+		takesIrqOnceUnmasked();
+	}
+
+	@Test
+	public void pushesStatusWithBreakClear() {
+
+		cpu.step();
+		int sp = cpu.sp;
+		cpu.assertIrq(source);
+		cpu.step();
+
+		assertEquals(IRQ_HANDLER, cpu.getPC());
+		assertEquals((MAIN + 1) >> 8, memory.getByte(0x100 + sp));
+		assertEquals((MAIN + 1) & 0xFF, memory.getByte(0x100 + sp - 1));
+		assertEquals(0, memory.getByte(0x100 + sp - 2) & Soft6502.FLAG_BREAK);
+		assertEquals(0, memory.getByte(0x100 + sp - 2) & Soft6502.FLAG_INTERRUPT);
+		assertTrue((cpu.status & Soft6502.FLAG_INTERRUPT) != 0);
+		assertEquals(2 + 7, cpu.getClockticks());
+	}
+
+	@Test
+	public void irqIsWireOr() {
+
+		int other = cpu.allocateInterruptSource();
+		assertNotEquals(source, other);
+
+		cpu.step();
+		cpu.assertIrq(source);
+		cpu.assertIrq(other);
+		cpu.run(40);
+
+		// the handler only acknowledges one source, so it keeps being re-entered
+		assertTrue(cpu.isIrqAsserted());
+		assertTrue(cpu.x > 1);
+
+		// once the handler has been round again, it's quiet
+		cpu.releaseIrq(other);
+		cpu.run(40);
+		int x = cpu.x;
+		cpu.run(100);
+
+		assertFalse(cpu.isIrqAsserted());
+		assertEquals(x, cpu.x);
+	}
+
+	@Test
+	public void nmiIsEdgeTriggered() {
+
+		int other = cpu.allocateInterruptSource();
+
+		cpu.assertNmi(source);
+		cpu.assertNmi(other);
+		cpu.run(100);
+
+		assertEquals(0xFF, cpu.x);
+
+		cpu.releaseNmi(source);
+		cpu.run(100);
+
+		assertEquals(0xFF, cpu.x);
+
+		cpu.releaseNmi(other);
+		cpu.assertNmi(source);
+		cpu.run(100);
+
+		assertEquals(0xFE, cpu.x);
+	}
+
+	@Test
+	public void nmiIgnoresInterruptMask() {
+
+		cpu.setEngine(new SwitchEngine());
+		cpu.assertNmi(source);
+		cpu.step();
+
+		assertEquals(NMI_HANDLER, cpu.getPC());
+	}
+
+	@Test
+	public void interruptsTakenOnInstructionBoundaries() {
+
+		// the event asserts IRQ mid-timeslice; INY is 2 cycles
+		cpu.setEngine(new SwitchEngine());
+		cpu.step();
+		cpu.getScheduler().schedule(cycle -> cpu.assertIrq(source), 11);
+		cpu.run(12);
+
+		assertEquals(IRQ_HANDLER, cpu.getPC());
+		assertEquals(12 + 7, cpu.getClockticks());
+	}
+}
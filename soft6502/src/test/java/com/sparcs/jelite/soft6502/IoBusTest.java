@@ -0,0 +1,116 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IoBusTest {
+
+	private static class Latch implements IoDevice {
+
+		int value = 0x5A;
+		long readCycle = -1;
+		long writeCycle = -1;
+
+		@Override
+		public int read(int addr, long cycle) {
+
+			readCycle = cycle;
+			return value;
+		}
+
+		@Override
+		public void write(int addr, int value, long cycle) {
+
+			writeCycle = cycle;
+			this.value = value;
+		}
+	}
+
+	private SidewaysMemory memory = new SidewaysMemory();
+	private Soft6502 cpu = new Soft6502(memory);
+	private IoBus bus = new IoBus(cpu);
+	private Latch latch = new Latch();
+
+	@Before
+	public void beforeTest() throws IOException {
+
+		bus.attach(memory);
+		bus.register(0xFE40, 0xFE4F, latch);
+		new Romsel(memory).attach(bus);
+
+		byte[] image = new byte[SidewaysMemory.BANK_SIZE];
+		Arrays.fill(image, (byte)0x77);
+		memory.loadBank(7, new ByteArrayInputStream(image), image.length);
+
+		int addr = 0x1000;
+		memory.setByte(addr++, 0xA9);	// LDA #$07
+		memory.setByte(addr++, 0x07);
+		memory.setByte(addr++, 0x8D);	// STA $FE30
+		memory.setByte(addr++, 0x30);
+		memory.setByte(addr++, 0xFE);
+		memory.setByte(addr++, 0xAD);	// LDA $8000
+		memory.setByte(addr++, 0x00);
+		memory.setByte(addr++, 0x80);
+		memory.setByte(addr++, 0x8D);	// STA $FE41
+		memory.setByte(addr++, 0x41);
+		memory.setByte(addr++, 0xFE);
+		memory.setByte(addr++, 0xAE);	// LDX $FE4F
+		memory.setByte(addr++, 0x4F);
+		memory.setByte(addr++, 0xFE);
+		memory.setByte(addr++, 0xAC);	// LDY $FE00
+		memory.setByte(addr++, 0x00);
+		memory.setByte(addr++, 0xFE);
+		cpu.setPC(0x1000);
+	}
+
+	@Test
+	public void dispatchesToDevicesWithOpcodeEngine() {
+
+		runProgram();
+	}
+
+	@Test
+	public void dispatchesToDevicesWithSwitchEngine() {
+
+		cpu.setEngine(new SwitchEngine());
+		runProgram();
+	}
+
+	private void runProgram() {
+
+		for (int i = 0; i < 6; i++) {
+			cpu.step();
+		}
+
+		assertEquals(7, memory.getSelected());
+		assertEquals(0x77, cpu.a);
+		assertEquals(0x77, cpu.x);
+		assertEquals(0xFF, cpu.y);
+		assertEquals(2 + 4 + 4, latch.writeCycle);
+		assertEquals(2 + 4 + 4 + 4, latch.readCycle);
+	}
+
+	@Test
+	public void leavesOtherPagesAlone() {
+
+		assertFalse(memory.isIo(0xFB));
+		assertTrue(memory.isIo(0xFC));
+		assertTrue(memory.isIo(0xFD));
+		assertTrue(memory.isIo(0xFE));
+		assertFalse(memory.isIo(0xFF));
+		assertSame(latch, bus.getDevice(0xFE4F));
+		assertNull(bus.getDevice(0xFE50));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsRangesOutsideIoArea() {
+
+		bus.register(0xFBFF, 0xFC00, latch);
+	}
+}
@@ -0,0 +1,137 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class JitEngineTest {
+
+	// compile every block the first time it's entered
+	private JitEngine engine = new JitEngine(1);
+	private PagedMemory ram = new PagedMemory();
+	private Soft6502 cpu = new Soft6502(ram);
+
+	private Ram16Bit referenceRam = new Ram16Bit();
+	private Soft6502 reference = new Soft6502(referenceRam);
+
+	@Test
+	public void matchesOpcodeEngineInTimeslices() throws IOException {
+
+		Soft6502Test.loadFunctionalTest(referenceRam);
+		Soft6502Test.loadFunctionalTest(ram);
+		reference.setPC(0x0400);
+		cpu.setEngine(engine);
+		cpu.setPC(0x0400);
+
+		// The success trap is a JMP * that compiles to a loop, so just watch
+		// for the PC landing on it
+		for (int slice = 0; slice < 200000 && cpu.getPC() != Soft6502Test.SUCCESS_TRAP; slice++) {
+			reference.run(1000);
+			cpu.run(1000);
+			assertSameState();
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertTrue(engine.getCompilations() > 100);
+		for (int addr = 0; addr < 0x10000; addr++) {
+			assertEquals(String.format("%04X", addr), referenceRam.getByte(addr), ram.getByte(addr));
+		}
+	}
+
+	@Test
+	public void loopsInsideCompiledBlock() {
+
+		load(0x0200,
+				0xA2, 0x00,			// LDX #0
+				0xA0, 0x10,			// LDY #&10
+				0xCA,				// DEX
+				0xD0, 0xFD,			// BNE &0204
+				0x88,				// DEY
+				0xD0, 0xFA,			// BNE &0204
+				0x4C, 0x0A, 0x02);	// JMP *
+
+		runBoth(1000, 30);
+
+		assertEquals(0x020A, cpu.getPC());
+		assertTrue(engine.getCompilations() >= 4);
+	}
+
+	@Test
+	public void seesSelfModifyingCode() {
+
+		load(0x0200,
+				0xA2, 0x00,			// LDX #0
+				0xA9, 0x00,			// LDA #n
+				0xEE, 0x03, 0x02,	// INC &0203
+				0xE8,				// INX
+				0xD0, 0xF8,			// BNE &0202
+				0x4C, 0x0A, 0x02);	// JMP *
+
+		runBoth(1000, 10);
+
+		assertEquals(0x020A, cpu.getPC());
+		assertEquals(0xFF, cpu.a);
+		assertEquals(0x00, ram.getByte(0x0203));
+	}
+
+	@Test
+	public void stopsCompiledLoopForInterrupt() {
+
+		load(0x0200,
+				0x58,				// CLI
+				0xE8,				// INX
+				0x4C, 0x01, 0x02);	// JMP &0201
+		load(0x0300,
+				0x40);				// RTI
+		load(0xFFFE, 0x00, 0x03);
+
+		for (Soft6502 each : new Soft6502[] { reference, cpu }) {
+			final Soft6502 target = each;
+			final int source = target.allocateInterruptSource();
+			target.getScheduler().schedule(cycle -> target.assertIrq(source), 1001);
+		}
+
+		runBoth(100, 20);
+
+		assertTrue(cpu.isIrqAsserted());
+	}
+
+	/**
+	 * Run the same code on the reference CPU and a JIT compiled one, in
+	 * timeslices, checking they agree after each.
+	 */
+	private void runBoth(int timeslice, int slices) {
+
+		reference.setPC(0x0200);
+		cpu.setEngine(engine);
+		cpu.setPC(0x0200);
+
+		for (int i = 0; i < slices; i++) {
+			reference.run(timeslice);
+			cpu.run(timeslice);
+			assertSameState();
+		}
+	}
+
+	private void assertSameState() {
+
+		assertEquals(reference.pc, cpu.pc);
+		assertEquals(reference.a, cpu.a);
+		assertEquals(reference.x, cpu.x);
+		assertEquals(reference.y, cpu.y);
+		assertEquals(reference.sp, cpu.sp);
+		assertEquals(reference.status, cpu.status);
+		assertEquals(reference.clockticks, cpu.clockticks);
+		assertEquals(reference.instructions, cpu.instructions);
+	}
+
+	private void load(int addr, int... code) {
+
+		for (int i = 0; i < code.length; i++) {
+			ram.setByte(addr + i, code[i]);
+			referenceRam.setByte(addr + i, code[i]);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyFlagsEngineTest {
+
+	private Ram16Bit referenceRam = new Ram16Bit();
+	private Ram16Bit ram = new Ram16Bit();
+	private Soft6502 reference = new Soft6502();
+	private Soft6502 cpu = new Soft6502();
+
+	@Before
+	public void beforeTest() throws IOException {
+
+		Soft6502Test.loadFunctionalTest(referenceRam);
+		Soft6502Test.loadFunctionalTest(ram);
+
+		reference.setRam(referenceRam);
+		reference.setPC(0x0400);
+
+		cpu.setEngine(new LazyFlagsEngine());
+		cpu.setRam(ram);
+		cpu.setPC(0x0400);
+	}
+
+	@Test
+	public void matchesOpcodeEngineInLockstep() {
+
+		while(true) {
+
+			int pcBefore = reference.getPC();
+			reference.step();
+			cpu.step();
+
+			assertEquals(reference.pc, cpu.pc);
+			assertEquals(reference.a, cpu.a);
+			assertEquals(reference.x, cpu.x);
+			assertEquals(reference.y, cpu.y);
+			assertEquals(reference.sp, cpu.sp);
+			assertEquals(reference.status, cpu.status);
+			assertEquals(reference.clockticks, cpu.clockticks);
+
+			if( reference.getPC() == pcBefore ) {
+				
+				break;
+			}
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertEquals(reference.instructions, cpu.instructions);
+		for (int addr = 0; addr < 0x10000; addr++) {
+			assertEquals(String.format("%04X", addr), referenceRam.getByte(addr), ram.getByte(addr));
+		}
+	}
+
+	@Test
+	public void runsFunctionalTestInTimeslices() {
+
+		// Once a timeslice ends where a single further step doesn't move the
+		// PC, we've hit a trap.
+		while(true) {
+
+			cpu.run(40000);
+			int pcBefore = cpu.getPC();
+			cpu.step();
+			if( cpu.getPC() == pcBefore ) {
+				
+				break;
+			}
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+	}
+
+	@Test
+	public void matchesOpcodeEngineInTimeslices() {
+
+		// flags are only put back together at the end of a slice, so this
+		// checks them after runs of instructions rather than single steps
+		while(cpu.getPC() != Soft6502Test.SUCCESS_TRAP) {
+
+			long goal = reference.getClockticks() + 1000;
+			reference.run(goal - reference.getClockticks());
+			cpu.run(goal - cpu.getClockticks());
+
+			assertEquals(reference.pc, cpu.pc);
+			assertEquals(reference.a, cpu.a);
+			assertEquals(reference.x, cpu.x);
+			assertEquals(reference.y, cpu.y);
+			assertEquals(reference.sp, cpu.sp);
+			assertEquals(reference.status, cpu.status);
+			assertEquals(reference.clockticks, cpu.clockticks);
+		}
+	}
+
+	@Test
+	public void keepsFlagsAcrossStatusPush() {
+
+		// LDA #$80, SEC, PHP, CLC, LDA #1, PLP, BRK
+		int[] code = { 0xA9, 0x80, 0x38, 0x08, 0x18, 0xA9, 0x01, 0x28, 0x00 };
+		for (int i = 0; i < code.length; i++) {
+			ram.setByte(0x0200 + i, code[i]);
+		}
+		cpu.setPC(0x0200);
+		cpu.runUntil(c -> c.getPC() == 0x0208);
+
+		assertEquals(Soft6502.FLAG_SIGN | Soft6502.FLAG_CARRY,
+				cpu.status & (Soft6502.FLAG_SIGN | Soft6502.FLAG_ZERO | Soft6502.FLAG_CARRY));
+	}
+
+	@Test
+	public void runUntilTrapped() {
+
+		cpu.runUntil(new Soft6502Test.Trapped());
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertEquals(reference.runUntil(new Soft6502Test.Trapped()), cpu.getClockticks());
+		assertEquals(reference.getInstructions(), cpu.getInstructions());
+	}
+}
@@ -0,0 +1,178 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class PagedMemoryTest {
+
+	private PagedMemory memory = new PagedMemory();
+
+	@Test
+	public void defaultsToRam() {
+
+		memory.setByte(0x0000, 0x12);
+		memory.setByte(0xFFFF, 0x1FF);
+
+		assertEquals(0x12, memory.getByte(0x0000));
+		assertEquals(0xFF, memory.getByte(0xFFFF));
+		assertFalse(memory.isRom(0xFF));
+		assertFalse(memory.isIo(0xFF));
+	}
+
+	@Test
+	public void ignoresWritesToRom() {
+
+		memory.setByte(0xC000, 0x34);
+		memory.setByte(0xC0FF, 0x56);
+		memory.mapRom(0xC0, 0x40);
+
+		memory.setByte(0xC000, 0x78);
+		memory.setByte(0xC0FF, 0x78);
+
+		assertTrue(memory.isRom(0xC0));
+		assertEquals(0x34, memory.getByte(0xC000));
+		assertEquals(0x56, memory.getByte(0xC0FF));
+
+		memory.mapRam(0xC0, 0x40);
+		memory.setByte(0xC000, 0x78);
+		assertEquals(0x78, memory.getByte(0xC000));
+	}
+
+	@Test
+	public void handsIoPagesToHandler() {
+
+		final int[] written = new int[2];
+		memory.mapIo(0xFE, 1, new IoHandler() {
+
+			@Override
+			public int read(int addr) {
+
+				return addr & 0xFF;
+			}
+
+			@Override
+			public void write(int addr, int value) {
+
+				written[0] = addr;
+				written[1] = value;
+			}
+		});
+
+		memory.setByte(0xFE30, 0x10F);
+
+		assertTrue(memory.isIo(0xFE));
+		assertEquals(0xFE30, written[0]);
+		assertEquals(0x0F, written[1]);
+		assertEquals(0x44, memory.getByte(0xFE44));
+		memory.setByte(0xFD00, 0x99);
+		assertEquals(0x99, memory.getByte(0xFD00));
+	}
+
+	@Test
+	public void tellsWatcherOnceAboutWrites() {
+
+		final int[] changes = new int[1];
+		memory.watch(0x12, page -> changes[0] += page);
+
+		memory.setByte(0x1300, 0x01);
+		assertEquals(0, changes[0]);
+
+		memory.setByte(0x1234, 0x56);
+		memory.setByte(0x1235, 0x78);
+
+		assertEquals(0x12, changes[0]);
+		assertFalse(memory.isWatched(0x12));
+		assertFalse(memory.isRom(0x12));
+		assertEquals(0x56, memory.getByte(0x1234));
+		assertEquals(0x78, memory.getByte(0x1235));
+	}
+
+	@Test
+	public void tellsWatcherAboutRemapping() {
+
+		final int[] changes = new int[1];
+		memory.mapRom(0xC0, 0x40);
+		memory.watch(0xC0, page -> changes[0]++);
+
+		memory.setByte(0xC000, 0x01);
+		assertEquals(0, changes[0]);
+		assertTrue(memory.isRom(0xC0));
+
+		memory.mapRam(0xC0, 0x40);
+		assertEquals(1, changes[0]);
+	}
+
+	@Test
+	public void mapsPagesBelowWhereTheyAre() {
+
+		// &8000 mirrored at &0000, as RAM and then as ROM
+		memory.setByte(0x8012, 0x34);
+		memory.mapPage(0x00, 0x8000, true);
+		assertEquals(0x34, memory.getByte(0x0012));
+		memory.setByte(0x0013, 0x56);
+		assertEquals(0x56, memory.getByte(0x8013));
+		assertFalse(memory.isIo(0x00));
+
+		memory.mapPage(0x00, 0x8000, false);
+		memory.setByte(0x0013, 0x78);
+		assertEquals(0x56, memory.getByte(0x0013));
+		assertTrue(memory.isRom(0x00));
+
+		// and a watched mirror
+		final int[] changes = new int[1];
+		memory.mapPage(0x00, 0x8000, true);
+		memory.watch(0x00, page -> changes[0]++);
+		memory.setByte(0x00FF, 0x9A);
+		assertEquals(1, changes[0]);
+		assertEquals(0x9A, memory.getByte(0x80FF));
+	}
+
+	@Test
+	public void tracksWrittenPages() {
+
+		// everything is dirty until drained
+		assertTrue(memory.isDirty(0x12));
+		assertEquals(PagedMemory.LEN_64K / PagedMemory.PAGE_SIZE + 1, memory.drainDirtyPages().length);
+		assertFalse(memory.isDirty(0x12));
+
+		memory.setByte(0x1234, 0x56);
+		memory.setByte(0x1235, 0x78);
+		assertTrue(memory.isDirty(0x12));
+		assertEquals(0x56, memory.getByte(0x1234));
+		assertEquals(0x78, memory.getByte(0x1235));
+		assertArrayEquals(new int[] { 0x12 }, memory.drainDirtyPages());
+
+		// a mirror marks the page it's mapped onto, and a ROM write nothing
+		memory.mapPage(0x00, 0x8000, true);
+		memory.mapRom(0xC0, 0x40);
+		memory.setByte(0x0013, 0x9A);
+		memory.setByte(0xC000, 0x01);
+		assertArrayEquals(new int[] { 0x80 }, memory.drainDirtyPages());
+		assertEquals(0x9A, memory.getByte(0x8013));
+
+		// a watcher still hears about the first write
+		final int[] changes = new int[1];
+		memory.watch(0x12, page -> changes[0]++);
+		memory.setByte(0x1234, 0x11);
+		memory.setByte(0x1234, 0x22);
+		assertEquals(1, changes[0]);
+		assertArrayEquals(new int[] { 0x12 }, memory.drainDirtyPages());
+		assertEquals(0x22, memory.getByte(0x1234));
+	}
+
+	@Test
+	public void runsFunctionalTest() throws IOException {
+
+		Soft6502Test.loadFunctionalTest(memory);
+		Soft6502 cpu = new Soft6502(memory);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0400);
+
+		cpu.runUntil(new Soft6502Test.Trapped());
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+	}
+}
@@ -0,0 +1,112 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProfilerTest {
+
+	private Ram16Bit ram = new Ram16Bit();
+	private Soft6502 cpu = new Soft6502();
+	private Profiler profiler;
+
+	@Before
+	public void beforeTest() {
+
+		int addr = 0x1000;
+		ram.setByte(addr++, 0xA9);	// LDA #$42
+		ram.setByte(addr++, 0x42);
+		ram.setByte(addr++, 0xAA);	// TAX
+		ram.setByte(addr++, 0xE8);	// INX
+		ram.setByte(addr++, 0x4C);	// JMP $1003
+		ram.setByte(addr++, 0x03);
+		ram.setByte(addr++, 0x10);
+
+		cpu.setRam(ram);
+		cpu.setPC(0x1000);
+		profiler = new Profiler(new SwitchEngine());
+		cpu.setEngine(profiler);
+	}
+
+	@Test
+	public void countsOpcodesAndAddresses() {
+
+		// LDA, TAX, then 20 times round INX, JMP
+		cpu.run(4 + 20 * 5);
+		Profiler.Profile profile = profiler.snapshot();
+
+		assertEquals(1, profile.getOpcodeCount(0xA9));
+		assertEquals(20, profile.getOpcodeCount(0xE8));
+		assertEquals(20, profile.getOpcodeCount(0x4C));
+		assertEquals(0, profile.getOpcodeCount(0xEA));
+
+		assertEquals(1, profile.getCount(0x1000));
+		assertEquals(20, profile.getCount(0x1003));
+		assertEquals(0, profile.getCount(0x1001));
+		assertEquals(40, profile.getCycles(0x1003));
+		assertEquals(60, profile.getCycles(0x1004));
+
+		assertEquals(cpu.getInstructions(), profile.getTotalInstructions());
+		assertEquals(cpu.getClockticks(), profile.getTotalCycles());
+	}
+
+	@Test
+	public void snapshotStaysPut() {
+
+		cpu.run(10);
+		Profiler.Profile profile = profiler.snapshot();
+		long count = profile.getCount(0x1003);
+		cpu.run(100);
+
+		assertEquals(count, profile.getCount(0x1003));
+		assertTrue(profiler.snapshot().getCount(0x1003) > count);
+	}
+
+	@Test
+	public void ranksHottest() {
+
+		cpu.run(4 + 20 * 5);
+		Profiler.Profile profile = profiler.snapshot();
+
+		assertArrayEquals(new int[] { 0x1004, 0x1003 }, profile.hottest(2));
+		assertArrayEquals(new int[] { 0x1004, 0x1003, 0x1000, 0x1002 }, profile.hottest(10));
+		// a tie goes to the lower opcode
+		assertArrayEquals(new int[] { 0x4C, 0xE8 }, profile.commonest(2));
+	}
+
+	@Test
+	public void reportsWithMnemonics() {
+
+		cpu.run(4 + 20 * 5);
+		List<String> lines = new ArrayList<>();
+		profiler.report(2, lines::add);
+
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0), lines.get(0).startsWith("1004 JMP  count=20 cycles=60"));
+		assertTrue(lines.get(1), lines.get(1).startsWith("1003 INX  count=20 cycles=40"));
+	}
+
+	@Test
+	public void clears() {
+
+		cpu.run(100);
+		profiler.clear();
+
+		assertEquals(0, profiler.snapshot().getTotalInstructions());
+		assertEquals(0, profiler.snapshot().hottest(5).length);
+		// and forgets the opcodes it saw, so nothing's left to report
+		assertEquals("BRK", profiler.snapshot().getOpcode(0x1003).getMnemonic());
+	}
+
+	@Test
+	public void honoursTimeslice() {
+
+		assertEquals(1, cpu.run(5));	// LDA(2) + TAX(2) + INX(2)
+		assertEquals(3, cpu.getInstructions());
+		assertEquals(0x1004, cpu.getPC());
+	}
+}
@@ -0,0 +1,193 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SchedulerTest {
+
+	private Ram16Bit ram = new Ram16Bit();
+	private Soft6502 cpu;
+	private Scheduler scheduler;
+
+	// cycle due, cycle fired, ...
+	private List<Long> fired = new ArrayList<>();
+
+	private Scheduler.Event recorder = new Scheduler.Event() {
+
+		@Override
+		public void fire(long cycle) {
+
+			fired.add(cycle);
+			fired.add(cpu.getClockticks());
+		}
+	};
+
+	@Before
+	public void beforeTest() {
+
+		// NOP (2 cycles) forever
+		for (int addr = 0x1000; addr < 0x1100; addr++) {
+			ram.setByte(addr, 0xEA);
+		}
+		ram.setByte(0x1100, 0x4C);	// JMP $1000
+		ram.setByte(0x1101, 0x00);
+		ram.setByte(0x1102, 0x10);
+
+		cpu = new Soft6502(ram);
+		cpu.setPC(0x1000);
+		scheduler = cpu.getScheduler();
+	}
+
+	@Test
+	public void firesEarliestFirst() {
+
+		final List<String> order = new ArrayList<>();
+		long[] due = { 50, 7, 31, 7, 99, 2, 64, 18, 40, 3 };
+		for (int i = 0; i < due.length; i++) {
+			final String name = "e" + i;
+			scheduler.schedule(cycle -> order.add(name + "@" + cycle), due[i]);
+		}
+
+		assertEquals(10, scheduler.size());
+		assertEquals(2, scheduler.next());
+
+		cpu.run(100);
+
+		assertEquals(0, scheduler.size());
+		assertEquals(Long.MAX_VALUE, scheduler.next());
+		assertEquals(10, order.size());
+		assertEquals("e5@2", order.get(0));
+		assertEquals("e9@3", order.get(1));
+		assertEquals("e4@99", order.get(9));
+	}
+
+	@Test
+	public void stopsEngineAtEachEvent() {
+
+		scheduler.schedule(recorder, 11);
+		cpu.run(50);
+
+		assertEquals(2, fired.size());
+		assertEquals(11, (long)fired.get(0));
+		assertEquals(12, (long)fired.get(1));
+		assertEquals(50, cpu.getClockticks());
+	}
+
+	@Test
+	public void stopsSwitchEngineAtEachEvent() {
+
+		cpu.setEngine(new SwitchEngine());
+		stopsEngineAtEachEvent();
+	}
+
+	@Test
+	public void reschedulingReplaces() {
+
+		scheduler.schedule(recorder, 10);
+		scheduler.schedule(recorder, 20);
+
+		assertEquals(1, scheduler.size());
+
+		cpu.run(30);
+
+		assertEquals(2, fired.size());
+		assertEquals(20, (long)fired.get(0));
+	}
+
+	@Test
+	public void cancels() {
+
+		scheduler.schedule(recorder, 10);
+
+		assertTrue(scheduler.isScheduled(recorder));
+		assertTrue(scheduler.cancel(recorder));
+		assertFalse(scheduler.cancel(recorder));
+
+		cpu.run(30);
+
+		assertTrue(fired.isEmpty());
+	}
+
+	@Test
+	public void periodicEvents() {
+
+		final int[] count = new int[1];
+		scheduler.schedule(new Scheduler.Event() {
+
+			@Override
+			public void fire(long cycle) {
+
+				count[0]++;
+				scheduler.schedule(this, cycle + 100);
+			}
+		}, 100);
+
+		cpu.setEngine(new SwitchEngine());
+		cpu.run(10000);
+
+		assertEquals(100, count[0]);
+	}
+
+	@Test
+	public void eventsScheduledMidRunPullInTheGoal() {
+
+		cpu.setEngine(new SwitchEngine());
+		scheduler.schedule(new Scheduler.Event() {
+
+			@Override
+			public void fire(long cycle) {
+
+				// as a device would on an I/O write
+				scheduler.schedule(recorder, cycle + 5);
+			}
+		}, 20);
+		cpu.run(1000);
+
+		assertEquals(25, (long)fired.get(0));
+		assertEquals(26, (long)fired.get(1));
+	}
+
+	@Test
+	public void eventsScheduledByInstructionsPullInTheGoal() {
+
+		// STA $FE00 then NOPs, with the write scheduling an event 3 cycles on
+		PagedMemory memory = new PagedMemory();
+		memory.setByte(0x1000, 0x8D);
+		memory.setByte(0x1001, 0x00);
+		memory.setByte(0x1002, 0xFE);
+		for (int addr = 0x1003; addr < 0x1100; addr++) {
+			memory.setByte(addr, 0xEA);
+		}
+		cpu = new Soft6502(memory);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x1000);
+		scheduler = cpu.getScheduler();
+
+		IoBus bus = new IoBus(cpu);
+		bus.attach(memory);
+		bus.register(0xFE00, 0xFE00, new IoDevice() {
+
+			@Override
+			public int read(int addr, long cycle) {
+
+				return 0;
+			}
+
+			@Override
+			public void write(int addr, int value, long cycle) {
+
+				scheduler.schedule(recorder, cycle + 7);
+			}
+		});
+
+		cpu.run(200);
+
+		assertEquals(7, (long)fired.get(0));
+		assertEquals(8, (long)fired.get(1));
+	}
+}
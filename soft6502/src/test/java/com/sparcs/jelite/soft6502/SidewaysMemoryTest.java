@@ -0,0 +1,133 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SidewaysMemoryTest {
+
+	private SidewaysMemory memory = new SidewaysMemory();
+
+	@Before
+	public void beforeTest() throws IOException {
+
+		for (int slot = 0; slot < SidewaysMemory.SLOTS; slot++) {
+			byte[] image = new byte[SidewaysMemory.BANK_SIZE];
+			Arrays.fill(image, (byte)(0xA0 + slot));
+			memory.loadBank(slot, new ByteArrayInputStream(image), image.length);
+		}
+	}
+
+	@Test
+	public void pagesSelectedSlotIntoSidewaysArea() {
+
+		assertEquals(0, memory.getSelected());
+		assertEquals(0xA0, memory.getByte(0x8000));
+
+		memory.writeRomsel(0xFF);
+
+		assertEquals(15, memory.getSelected());
+		assertEquals(0xAF, memory.getByte(0x8000));
+		assertEquals(0xAF, memory.getByte(0xBFFF));
+		assertNotEquals(0xAF, memory.getByte(0x7FFF));
+		assertNotEquals(0xAF, memory.getByte(0xC000));
+	}
+
+	@Test
+	public void ignoresWritesToRomSlots() {
+
+		memory.select(3);
+		memory.setByte(0x9000, 0x01);
+
+		assertEquals(0xA3, memory.getByte(0x9000));
+	}
+
+	@Test
+	public void keepsSidewaysRamAcrossSwitches() {
+
+		memory.setWritable(4, true);
+		memory.select(4);
+		memory.setByte(0x9000, 0x01);
+		memory.select(5);
+
+		assertEquals(0xA5, memory.getByte(0x9000));
+
+		memory.select(4);
+
+		assertEquals(0x01, memory.getByte(0x9000));
+	}
+
+	@Test
+	public void mapsSharedImages() {
+
+		// an 8K image shows twice in the bank
+		byte[] image = new byte[SidewaysMemory.BANK_SIZE / 2];
+		image[0] = 0x12;
+		SidewaysMemory other = new SidewaysMemory();
+		memory.mapBank(6, image);
+		other.mapBank(6, image);
+		memory.select(6);
+		other.select(6);
+
+		assertEquals(0x12, memory.getByte(0x8000));
+		assertEquals(0x12, memory.getByte(0xA000));
+		assertEquals(0x12, other.getByte(0xA000));
+		memory.setByte(0x8000, 0x34);
+		assertEquals(0x12, memory.getByte(0x8000));
+
+		// made sideways RAM, it gets its own copy to write to
+		memory.setWritable(6, true);
+		memory.setByte(0x8000, 0x34);
+		assertEquals(0x34, memory.getByte(0x8000));
+		assertEquals(0x12, memory.getByte(0xA000));
+		assertEquals(0x12, other.getByte(0x8000));
+		assertEquals(0x12, image[0]);
+
+		// and loading a bank replaces the image
+		other.loadBank(6, ByteBuffer.wrap(new byte[] { 0x56 }));
+		assertEquals(0x56, other.getByte(0x8000));
+	}
+
+	@Test
+	public void tracksWrittenBanks() {
+
+		// bank 5 is past 64K and the scratch page
+		int bank = (PagedMemory.LEN_64K + PagedMemory.PAGE_SIZE) / PagedMemory.PAGE_SIZE + 5 * 0x40;
+		memory.setWritable(5, true);
+		memory.select(5);
+		memory.drainDirtyPages();
+
+		memory.setByte(0x8000, 0x55);
+		assertArrayEquals(new int[] { bank }, memory.drainDirtyPages());
+
+		// and a shared image copied in to be written is all dirty
+		memory.mapBank(6, new byte[SidewaysMemory.BANK_SIZE]);
+		memory.setWritable(6, true);
+		assertEquals(0x40, memory.drainDirtyPages().length);
+	}
+
+	@Test
+	public void countsSwitches() {
+
+		memory.writeRomsel(1);
+		memory.writeRomsel(1);
+		memory.writeRomsel(2);
+		memory.writeRomsel(1);
+
+		assertEquals(4, memory.getRomselWrites());
+		assertEquals(3, memory.getSwitches());
+		assertEquals(2, memory.getSelections(1));
+		assertEquals(1, memory.getSelections(2));
+		assertEquals(0, memory.getSelections(0));
+
+		memory.resetCounters();
+
+		assertEquals(0, memory.getSwitches());
+	}
+}
@@ -0,0 +1,395 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PagedMemory ram = new PagedMemory();
+	private Soft6502 cpu = new Soft6502(ram);
+	private Snapshot snapshot = new Snapshot(cpu);
+
+	@Before
+	public void beforeTest() throws IOException {
+
+		Soft6502Test.loadFunctionalTest(ram);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0400);
+	}
+
+	@Test
+	public void carriesOnFromFullSnapshot() throws IOException {
+
+		cpu.run(100000);
+		File file = folder.newFile();
+		save(file, false);
+
+		cpu.run(100000);
+		Soft6502 expected = copyRegisters(cpu);
+		byte[] expectedMemory = ram.getBackingStore().clone();
+
+		restore(file);
+		cpu.run(100000);
+
+		assertSameRegisters(expected, cpu);
+		assertArrayEquals(expectedMemory, ram.getBackingStore());
+	}
+
+	@Test
+	public void incrementalSnapshotHoldsOnlyChangedPages() throws IOException {
+
+		File full = folder.newFile();
+		save(full, false);
+
+		ram.setByte(0x2000, 0x11);
+		ram.setByte(0x2001, 0x22);
+		ram.setByte(0x7FFF, 0x33);
+		cpu.a = 0x44;
+		File incremental = folder.newFile();
+		save(incremental, true);
+
+		// two pages, plus the header, CPU and (no) devices
+		assertTrue(incremental.length() < 2 * (4 + PagedMemory.PAGE_SIZE) + 64);
+
+		Soft6502 other = new Soft6502(new PagedMemory());
+		Snapshot otherSnapshot = new Snapshot(other);
+		restore(otherSnapshot, full);
+		restore(otherSnapshot, incremental);
+
+		assertSameRegisters(cpu, other);
+		assertArrayEquals(ram.getBackingStore(), other.ram.getBackingStore());
+	}
+
+	@Test
+	public void incrementalFollowsOnFromPreviousIncremental() throws IOException {
+
+		save(folder.newFile(), false);
+		ram.setByte(0x2000, 0x11);
+		save(folder.newFile(), true);
+		File second = folder.newFile();
+		save(second, true);
+
+		assertTrue(second.length() < 64);
+	}
+
+	@Test
+	public void incrementalUsesDirtyPages() throws IOException {
+
+		DirtyPageRam dirty = new DirtyPageRam();
+		Soft6502 tracked = new Soft6502(dirty);
+		Snapshot trackedSnapshot = new Snapshot(tracked);
+		File full = folder.newFile();
+		save(trackedSnapshot, full, false);
+
+		// the same value again still counts as a change
+		dirty.setByte(0x2000, 0x00);
+		dirty.setByte(0x7FFF, 0x33);
+		File incremental = folder.newFile();
+		save(trackedSnapshot, incremental, true);
+
+		assertTrue(incremental.length() < 2 * (4 + PagedMemory.PAGE_SIZE) + 64);
+		assertTrue(incremental.length() > 2 * (4 + PagedMemory.PAGE_SIZE));
+		assertFalse(dirty.isDirty(0x20));
+
+		Soft6502 other = new Soft6502(new DirtyPageRam());
+		Snapshot otherSnapshot = new Snapshot(other);
+		restore(otherSnapshot, full);
+		restore(otherSnapshot, incremental);
+
+		assertArrayEquals(dirty.getBackingStore(), other.ram.getBackingStore());
+		assertFalse(((DirtyPageRam)other.ram).isDirty(0x7F));
+	}
+
+	@Test
+	public void incrementalUsesPagesWrittenToSidewaysBanks() throws IOException {
+
+		SidewaysMemory memory = new SidewaysMemory();
+		Soft6502 sideways = new Soft6502(memory);
+		Snapshot sidewaysSnapshot = new Snapshot(sideways);
+		memory.setWritable(5, true);
+		memory.select(5);
+		File full = folder.newFile();
+		save(sidewaysSnapshot, full, false);
+
+		// the same value again still counts as a change
+		memory.setByte(0x2000, 0x00);
+		memory.setByte(0x8000, 0x55);
+		File incremental = folder.newFile();
+		save(sidewaysSnapshot, incremental, true);
+
+		// two pages, plus the header, CPU and the selected bank
+		assertTrue(incremental.length() > 2 * (4 + PagedMemory.PAGE_SIZE));
+		assertTrue(incremental.length() < 3 * (4 + PagedMemory.PAGE_SIZE));
+
+		SidewaysMemory otherMemory = new SidewaysMemory();
+		Snapshot otherSnapshot = new Snapshot(new Soft6502(otherMemory));
+		restore(otherSnapshot, full);
+		restore(otherSnapshot, incremental);
+
+		assertArrayEquals(memory.getBackingStore(), otherMemory.getBackingStore());
+		assertEquals(0x55, otherMemory.getByte(0x8000));
+	}
+
+	@Test
+	public void restoreTellsWatchers() throws IOException {
+
+		File file = folder.newFile();
+		save(file, false);
+
+		int[] changed = { -1 };
+		ram.watch(0x04, page -> changed[0] = page);
+		restore(file);
+
+		assertEquals(0x04, changed[0]);
+	}
+
+	@Test
+	public void savesAttachedDevices() throws IOException {
+
+		SidewaysMemory memory = new SidewaysMemory();
+		Soft6502 sideways = new Soft6502(memory);
+		Snapshot sidewaysSnapshot = new Snapshot(sideways);
+		memory.setWritable(5, true);
+		memory.select(5);
+		memory.setByte(0x8000, 0x55);
+		File file = folder.newFile();
+		save(sidewaysSnapshot, file, false);
+
+		memory.setWritable(5, false);
+		memory.select(0);
+		restore(sidewaysSnapshot, file);
+
+		assertEquals(5, memory.getSelected());
+		assertTrue(memory.isWritable(5));
+		assertEquals(0x55, memory.getByte(0x8000));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles() throws IOException {
+
+		File file = folder.newFile();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[100]));
+		}
+		restore(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnknownKinds() throws IOException {
+
+		File file = folder.newFile();
+		save(file, false);
+		// the kind follows the magic number and version
+		patch(file, 6, new byte[] { 7 });
+		restore(file);
+	}
+
+	@Test
+	public void checksEveryPageBeforeRestoringAny() throws IOException {
+
+		File file = folder.newFile();
+		save(folder.newFile(), false);
+		ram.setByte(0x1234, 0x01);
+		ram.setByte(0x5678, 0x02);
+		save(file, true);
+		ram.setByte(0x1234, 0x03);
+
+		// the second page's number, after the header, registers, size, count
+		// and the first page
+		patch(file, 7 + 40 + 4 + 4 + 4 + 256, new byte[] { 0x7F, 0, 0, 0 });
+		try {
+			restore(file);
+			fail("Restored a page outside memory");
+		} catch (IOException e) {
+			assertEquals(0x03, ram.getByte(0x1234));
+		}
+
+		// nor one cut short
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.truncate(7 + 40 + 4 + 4 + 4 + 256 + 4 + 100);
+		}
+		patch(file, 7 + 40 + 4 + 4 + 4 + 256, new byte[] { 0, 0, 0, 0x56 });
+		try {
+			restore(file);
+			fail("Restored a snapshot cut short");
+		} catch (IOException e) {
+			assertEquals(0x03, ram.getByte(0x1234));
+		}
+	}
+
+	@Test
+	public void rejectsUnknownDevicesWithoutTouchingTheMachine() throws IOException {
+
+		Snapshot withCounter = new Snapshot(cpu);
+		withCounter.attach("counter", new Counter());
+		File file = folder.newFile();
+		save(withCounter, file, false);
+		ram.setByte(0x2000, 0x99);
+		cpu.a = 0x12;
+
+		try {
+			restore(file);
+			fail("Restored a device that isn't attached");
+		} catch (IOException e) {
+			assertEquals(0x99, ram.getByte(0x2000));
+			assertEquals(0x12, cpu.a);
+		}
+	}
+
+	@Test
+	public void rejectsDevicesCutShortWithoutTouchingTheMachine() throws IOException {
+
+		Counter counter = new Counter();
+		counter.value = 7;
+		Snapshot withCounter = new Snapshot(cpu);
+		withCounter.attach("counter", counter);
+		File file = folder.newFile();
+		save(withCounter, file, false);
+		ram.setByte(0x2000, 0x99);
+		counter.value = 8;
+
+		// anywhere in the count, name, length or state
+		long length = file.length();
+		for (int cut = 1; cut <= 2 + 2 + "counter".length() + 4 + 4; cut++) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(length - cut);
+			}
+			try {
+				restore(withCounter, file);
+				fail("Restored a snapshot cut short by " + cut);
+			} catch (IOException e) {
+				assertEquals(0x99, ram.getByte(0x2000));
+				assertEquals(8, counter.value);
+			}
+		}
+	}
+
+	@Test
+	public void dropsEventsDueByTheOldClock() throws IOException {
+
+		Counter counter = new Counter();
+		snapshot.attach("counter", counter);
+		File file = folder.newFile();
+		save(file, false);
+
+		Scheduler.Event stale = cycle -> fail("Fired an event from before the restore");
+		cpu.getScheduler().schedule(stale, cpu.getClockticks() + 10);
+		restore(file);
+
+		assertFalse(cpu.getScheduler().isScheduled(stale));
+		assertTrue(cpu.getScheduler().isScheduled(counter));
+		cpu.run(100);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void needsFullSnapshotFirst() throws IOException {
+
+		save(folder.newFile(), true);
+	}
+
+	private void save(File file, boolean incremental) throws IOException {
+
+		save(snapshot, file, incremental);
+	}
+
+	private static void save(Snapshot snapshot, File file, boolean incremental) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			if (incremental) {
+				snapshot.saveIncremental(channel);
+			} else {
+				snapshot.save(channel);
+			}
+		}
+	}
+
+	private void restore(File file) throws IOException {
+
+		restore(snapshot, file);
+	}
+
+	private static void restore(Snapshot snapshot, File file) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			snapshot.restore(channel);
+		}
+	}
+
+	private static void patch(File file, int position, byte[] bytes) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(bytes), position);
+		}
+	}
+
+	private static Soft6502 copyRegisters(Soft6502 cpu) {
+
+		Soft6502 copy = new Soft6502();
+		copy.pc = cpu.pc;
+		copy.sp = cpu.sp;
+		copy.a = cpu.a;
+		copy.x = cpu.x;
+		copy.y = cpu.y;
+		copy.status = cpu.status;
+		copy.clockticks = cpu.clockticks;
+		copy.instructions = cpu.instructions;
+		return copy;
+	}
+
+	private static void assertSameRegisters(Soft6502 expected, Soft6502 actual) {
+
+		assertEquals(expected.pc, actual.pc);
+		assertEquals(expected.sp, actual.sp);
+		assertEquals(expected.a, actual.a);
+		assertEquals(expected.x, actual.x);
+		assertEquals(expected.y, actual.y);
+		assertEquals(expected.status, actual.status);
+		assertEquals(expected.clockticks, actual.clockticks);
+		assertEquals(expected.instructions, actual.instructions);
+	}
+
+	/**
+	 * A device with one int of state, which schedules an event when it's
+	 * restored.
+	 */
+	private class Counter implements Stateful, Scheduler.Event {
+
+		int value;
+
+		@Override
+		public int getStateSize() {
+
+			return 4;
+		}
+
+		@Override
+		public void saveState(ByteBuffer buffer) {
+
+			buffer.putInt(value);
+		}
+
+		@Override
+		public void restoreState(ByteBuffer buffer) {
+
+			value = buffer.getInt();
+			cpu.getScheduler().schedule(this, cpu.getClockticks() + 1000);
+		}
+
+		@Override
+		public void fire(long cycle) {
+		}
+	}
+}
@@ -4,18 +4,45 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Predicate;
 
 import org.junit.Before;
 import org.junit.Test;
 
 public class Soft6502Test {
 
+	// 6502_functional_test.bin traps here (JMP *) once every test has passed
+	static final int SUCCESS_TRAP = 0x3399;
+
+	/**
+	 * Holds once the PC stops moving, i.e. the CPU has hit a trap: every
+	 * failure (and the success) in the functional test is a branch or jump
+	 * to itself.
+	 */
+	static class Trapped implements Predicate<Soft6502> {
+
+		private int lastPC = -1;
+
+		@Override
+		public boolean test(Soft6502 cpu) {
+
+			boolean trapped = cpu.getPC() == lastPC;
+			lastPC = cpu.getPC();
+			return trapped;
+		}
+	}
+
 	private Ram16Bit ram = new Ram16Bit();
 	private Soft6502 cpu = new Soft6502();
 	
 	@Before
 	public void beforeTest() throws IOException {
 
+		loadFunctionalTest(ram);
+	}
+
+	static void loadFunctionalTest(Ram16Bit ram) throws IOException {
+
 		InputStream data = Ram16Bit.class.getClassLoader().getResourceAsStream("6502_functional_test.bin");
 		assertNotNull(data);
 		ram.load(data, 0, Ram16Bit.LEN_64K);
@@ -33,8 +60,71 @@ public class Soft6502Test {
 			cpu.step();
 			if( cpu.getPC() == pcBefore ) {
 				
-				fail();
+				break;
 			}
 		}
+
+		assertEquals(String.format("Trapped at %04X", cpu.getPC()), SUCCESS_TRAP, cpu.getPC());
+	}
+
+	@Test
+	public void runUntilTrapped() {
+
+		cpu.setRam(ram);
+		cpu.setPC(0x0400);
+
+		long cycles = cpu.runUntil(new Trapped());
+
+		assertEquals(String.format("Trapped at %04X", cpu.getPC()), SUCCESS_TRAP, cpu.getPC());
+		assertEquals(cycles, cpu.getClockticks());
+	}
+
+	@Test
+	public void runStopsOnInstructionBoundary() {
+
+		// NOP (2 cycles) forever
+		for (int addr = 0x1000; addr < 0x1100; addr++) {
+			ram.setByte(addr, 0xEA);
+		}
+		cpu.setRam(ram);
+		cpu.setPC(0x1000);
+
+		assertEquals(1, cpu.run(5));
+		assertEquals(6, cpu.getClockticks());
+		assertEquals(3, cpu.getInstructions());
+
+		// the overshoot comes out of the next timeslice
+		assertEquals(0, cpu.run(5));
+		assertEquals(10, cpu.getClockticks());
+		assertEquals(5, cpu.getInstructions());
+	}
+
+	@Test
+	public void pcWrapsRoundFromTheTopOfMemory() {
+
+		Engine[] engines = { new OpcodeEngine(), new SwitchEngine(), new LazyFlagsEngine() };
+		for (Engine engine : engines) {
+			Ram16Bit ram = new Ram16Bit();
+			// LDA $1234 at $FFFE, its operand split across $FFFF and $0000
+			ram.setByte(0xFFFE, 0xAD);
+			ram.setByte(0xFFFF, 0x34);
+			ram.setByte(0x0000, 0x12);
+			ram.setByte(0x1234, 0x99);
+			// then LDX $80 at $0001
+			ram.setByte(0x0001, 0xA6);
+			ram.setByte(0x0002, 0x80);
+			ram.setByte(0x0080, 0x42);
+			Soft6502 cpu = new Soft6502(ram);
+			cpu.setEngine(engine);
+			cpu.setPC(0xFFFE);
+
+			String name = engine.getClass().getSimpleName();
+			cpu.step();
+			assertEquals(name, 0x0001, cpu.getPC());
+			assertEquals(name, 0x99, cpu.a);
+			cpu.step();
+			assertEquals(name, 0x0003, cpu.getPC());
+			assertEquals(name, 0x42, cpu.x);
+		}
 	}
 }
@@ -0,0 +1,167 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SoundTest {
+
+	private static final int RATE = 44100;
+	private static final long SECOND = 2000000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Sn76489 sound = new Sn76489(RATE, 0);
+	private short[] samples = new short[RATE];
+
+	@Test
+	public void playsTones() {
+
+		// 250kHz / (2 * 250) is 500Hz
+		tone(0, 250, 0, 0);
+
+		assertEquals(RATE, sound.render(samples, 0, samples.length, SECOND));
+		assertEquals(0, sound.getQueued());
+		assertEquals(500, crossings(0, RATE) / 2, 2);
+	}
+
+	@Test
+	public void writesTakeEffectWhenTheyWereMade() {
+
+		tone(0, 100, 15, 0);
+		sound.write(0x90, SECOND / 2);
+
+		assertEquals(RATE, sound.render(samples, 0, samples.length, SECOND));
+		for (int i = 0; i < RATE / 2 - 1; i++) {
+			assertEquals(0, samples[i]);
+		}
+		assertTrue(crossings(RATE / 2 + 1, RATE) > 900);
+	}
+
+	@Test
+	public void rendersOnlyUpToTheCycle() {
+
+		tone(0, 100, 0, 0);
+		sound.write(0x9F, SECOND);
+
+		// a frame of 40000 cycles is 882 samples
+		int count = sound.render(samples, 0, samples.length, 40000);
+		assertEquals(882, count);
+		assertEquals(1, sound.getQueued());
+
+		// and the next carries on from there
+		assertEquals(882, sound.render(samples, 0, samples.length, 80000));
+		assertEquals(10, sound.render(samples, 0, 10, SECOND));
+	}
+
+	@Test
+	public void makesNoise() {
+
+		// white noise at the fastest rate, full volume
+		sound.write(0xE4, 0);
+		sound.write(0xF0, 0);
+		sound.render(samples, 0, samples.length, SECOND);
+
+		assertEquals(15, sound.getAttenuation(0));
+		int crossings = crossings(0, RATE);
+		assertTrue(crossings > 1000 && crossings < RATE / 2);
+	}
+
+	@Test
+	public void writesWav() throws Exception {
+
+		Path file = folder.getRoot().toPath().resolve("sound.wav");
+		tone(1, 250, 0, 0);
+		try (WavSink sink = new WavSink(file, RATE)) {
+			sound.render(SECOND / 10, sink);
+			assertEquals(RATE / 10, sink.getSamples());
+		}
+
+		assertEquals(44 + 2 * RATE / 10, Files.size(file));
+		AudioFileFormat format = AudioSystem.getAudioFileFormat(file.toFile());
+		assertEquals(AudioFileFormat.Type.WAVE, format.getType());
+		assertEquals(RATE / 10, format.getFrameLength());
+		assertEquals(AudioFormat.Encoding.PCM_SIGNED, format.getFormat().getEncoding());
+		assertEquals(RATE, (int)format.getFormat().getSampleRate());
+		assertEquals(1, format.getFormat().getChannels());
+	}
+
+	@Test
+	public void writtenThroughSlowBus() {
+
+		Soft6502 cpu = new Soft6502(new PagedMemory());
+		Via6522 via = new Via6522(cpu);
+		SlowBus bus = new SlowBus(via, sound, null);
+
+		// as the OS does: the byte on port A, then sound write enable low and high again
+		via.write(Via6522.SYSTEM + Via6522.ORB, 0x08, 0);
+		via.write(Via6522.SYSTEM + Via6522.DDRA, 0xFF, 0);
+		via.write(Via6522.SYSTEM + Via6522.DDRB, 0x0F, 0);
+		assertEquals(0, sound.getQueued());
+		via.write(Via6522.SYSTEM + Via6522.ORA_NO_HANDSHAKE, 0x95, 100);
+		via.write(Via6522.SYSTEM + Via6522.ORB, 0x00, 110);
+		via.write(Via6522.SYSTEM + Via6522.ORB, 0x08, 130);
+		assertEquals(1, sound.getQueued());
+		assertEquals(0xFF, bus.getLatch());
+
+		via.write(Via6522.SYSTEM + Via6522.ORB, 0x04, 140);
+		assertEquals(0xEF, bus.getLatch());
+
+		sound.render(samples, 0, 10, 1000);
+		assertEquals(5, sound.getAttenuation(0));
+	}
+
+	@Test
+	public void restoresState() {
+
+		tone(2, 300, 3, 0);
+		sound.write(0xDF, SECOND);
+		sound.render(samples, 0, 100, SECOND / 2);
+		ByteBuffer state = ByteBuffer.allocate(sound.getStateSize());
+		sound.saveState(state);
+		assertFalse(state.hasRemaining());
+
+		short[] expected = new short[1000];
+		sound.render(expected, 0, expected.length, SECOND * 2);
+
+		Sn76489 restored = new Sn76489(RATE, 0);
+		state.flip();
+		restored.restoreState(state);
+		assertEquals(1, restored.getQueued());
+		short[] actual = new short[1000];
+		restored.render(actual, 0, actual.length, SECOND * 2);
+		assertArrayEquals(expected, actual);
+	}
+
+	/**
+	 * Queue a tone's period and attenuation.
+	 */
+	private void tone(int channel, int period, int attenuation, long cycle) {
+
+		sound.write(0x80 | channel << 5 | (period & 0x0F), cycle);
+		sound.write(period >> 4, cycle);
+		sound.write(0x90 | channel << 5 | attenuation, cycle);
+	}
+
+	private int crossings(int from, int to) {
+
+		int count = 0;
+		for (int i = from + 1; i < to; i++) {
+			if ((samples[i - 1] < 0) != (samples[i] < 0)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,89 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SwitchEngineTest {
+
+	private Ram16Bit referenceRam = new Ram16Bit();
+	private Ram16Bit ram = new Ram16Bit();
+	private Soft6502 reference = new Soft6502();
+	private Soft6502 cpu = new Soft6502();
+
+	@Before
+	public void beforeTest() throws IOException {
+
+		Soft6502Test.loadFunctionalTest(referenceRam);
+		Soft6502Test.loadFunctionalTest(ram);
+
+		reference.setRam(referenceRam);
+		reference.setPC(0x0400);
+
+		cpu.setEngine(new SwitchEngine());
+		cpu.setRam(ram);
+		cpu.setPC(0x0400);
+	}
+
+	@Test
+	public void matchesOpcodeEngineInLockstep() {
+
+		while(true) {
+
+			int pcBefore = reference.getPC();
+			reference.step();
+			cpu.step();
+
+			assertEquals(reference.pc, cpu.pc);
+			assertEquals(reference.a, cpu.a);
+			assertEquals(reference.x, cpu.x);
+			assertEquals(reference.y, cpu.y);
+			assertEquals(reference.sp, cpu.sp);
+			assertEquals(reference.status, cpu.status);
+			assertEquals(reference.clockticks, cpu.clockticks);
+
+			if( reference.getPC() == pcBefore ) {
+				
+				break;
+			}
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertEquals(reference.instructions, cpu.instructions);
+		for (int addr = 0; addr < 0x10000; addr++) {
+			assertEquals(String.format("%04X", addr), referenceRam.getByte(addr), ram.getByte(addr));
+		}
+	}
+
+	@Test
+	public void runsFunctionalTestInTimeslices() {
+
+		// Once a timeslice ends where a single further step doesn't move the
+		// PC, we've hit a trap.
+		while(true) {
+
+			cpu.run(40000);
+			int pcBefore = cpu.getPC();
+			cpu.step();
+			if( cpu.getPC() == pcBefore ) {
+				
+				break;
+			}
+		}
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+	}
+
+	@Test
+	public void runUntilTrapped() {
+
+		cpu.runUntil(new Soft6502Test.Trapped());
+
+		assertEquals(Soft6502Test.SUCCESS_TRAP, cpu.getPC());
+		assertEquals(reference.runUntil(new Soft6502Test.Trapped()), cpu.getClockticks());
+		assertEquals(reference.getInstructions(), cpu.getInstructions());
+	}
+}
@@ -0,0 +1,81 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracerTest {
+
+	private Ram16Bit ram = new Ram16Bit();
+	private Soft6502 cpu = new Soft6502();
+	private Tracer tracer;
+
+	@Before
+	public void beforeTest() {
+
+		int addr = 0x1000;
+		ram.setByte(addr++, 0xA9);	// LDA #$42
+		ram.setByte(addr++, 0x42);
+		ram.setByte(addr++, 0xAA);	// TAX
+		ram.setByte(addr++, 0xE8);	// INX
+		ram.setByte(addr++, 0x4C);	// JMP $1003
+		ram.setByte(addr++, 0x03);
+		ram.setByte(addr++, 0x10);
+
+		cpu.setRam(ram);
+		cpu.setPC(0x1000);
+		tracer = new Tracer(new SwitchEngine(), 4);
+		cpu.setEngine(tracer);
+	}
+
+	@Test
+	public void recordsStateBeforeEachInstruction() {
+
+		cpu.step();
+		cpu.step();
+
+		List<String> lines = dump();
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0), lines.get(0).startsWith("1000 A9 42     LDA"));
+		assertTrue(lines.get(0), lines.get(0).contains("A=00"));
+		assertTrue(lines.get(0), lines.get(0).endsWith("ticks=0"));
+		assertTrue(lines.get(1), lines.get(1).startsWith("1002 AA        TAX"));
+		assertTrue(lines.get(1), lines.get(1).contains("A=42"));
+		assertTrue(lines.get(1), lines.get(1).endsWith("ticks=2"));
+	}
+
+	@Test
+	public void keepsOnlyTheMostRecentRecords() {
+
+		cpu.run(100);
+
+		assertEquals(4, tracer.size());
+		assertTrue(tracer.getCount() > 4);
+		assertEquals(cpu.getInstructions(), tracer.getCount());
+
+		List<String> lines = dump();
+		assertTrue(lines.get(3), lines.get(3).startsWith(lines.get(1).substring(0, 20)));
+
+		tracer.clear();
+		assertEquals(0, tracer.size());
+	}
+
+	@Test
+	public void honoursTimeslice() {
+
+		assertEquals(1, cpu.run(5));	// LDA(2) + TAX(2) + INX(2)
+		assertEquals(3, cpu.getInstructions());
+		assertEquals(0x1004, cpu.getPC());
+	}
+
+	private List<String> dump() {
+
+		List<String> lines = new ArrayList<>();
+		tracer.dump(lines::add);
+		return lines;
+	}
+}
@@ -0,0 +1,185 @@
+package com.sparcs.jelite.soft6502;
+
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_CARRY;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_SIGN;
+import static com.sparcs.jelite.soft6502.Soft6502.FLAG_ZERO;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class UndocumentedOpcodeTest {
+
+	private static final int START = 0x1000;
+	private static final int DATA = 0x80;
+
+	// every engine should agree, whether or not it does these itself
+	private static final List<Supplier<Engine>> ENGINES = Arrays.asList(
+		OpcodeEngine::new, SwitchEngine::new, LazyFlagsEngine::new, BlockEngine::new, () -> new JitEngine(1)
+	);
+
+	private Engine engine;
+	private PagedMemory ram;
+	private Soft6502 cpu;
+
+	@Test
+	public void lax() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x85, 0xA7, DATA);	// LAX zp
+
+			assertRegisters(0x85, 0x85, FLAG_SIGN);
+		}
+	}
+
+	@Test
+	public void sax() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x00, 0xA9, 0xF0, 0xA2, 0x3C, 0x87, DATA);	// LDA #$F0, LDX #$3C, SAX zp
+
+			assertEquals(0x30, ram.getByte(DATA));
+			assertRegisters(0xF0, 0x3C, 0);
+		}
+	}
+
+	@Test
+	public void dcp() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x43, 0xA9, 0x42, 0xC7, DATA);	// LDA #$42, DCP zp
+
+			assertEquals(0x42, ram.getByte(DATA));
+			assertRegisters(0x42, 0, FLAG_ZERO | FLAG_CARRY);
+		}
+	}
+
+	@Test
+	public void isb() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x0F, 0x38, 0xA9, 0x20, 0xE7, DATA);	// SEC, LDA #$20, ISB zp
+
+			assertEquals(0x10, ram.getByte(DATA));
+			assertRegisters(0x10, 0, FLAG_CARRY);
+		}
+	}
+
+	@Test
+	public void slo() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x81, 0xA9, 0x01, 0x07, DATA);	// LDA #$01, SLO zp
+
+			assertEquals(0x02, ram.getByte(DATA));
+			assertRegisters(0x03, 0, FLAG_CARRY);
+		}
+	}
+
+	@Test
+	public void rla() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0xC0, 0x38, 0xA9, 0xFF, 0x27, DATA);	// SEC, LDA #$FF, RLA zp
+
+			assertEquals(0x81, ram.getByte(DATA));
+			assertRegisters(0x81, 0, FLAG_SIGN | FLAG_CARRY);
+		}
+	}
+
+	@Test
+	public void sre() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x03, 0xA9, 0xFF, 0x47, DATA);	// LDA #$FF, SRE zp
+
+			assertEquals(0x01, ram.getByte(DATA));
+			assertRegisters(0xFE, 0, FLAG_SIGN | FLAG_CARRY);
+		}
+	}
+
+	@Test
+	public void rra() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x03, 0x18, 0xA9, 0x10, 0x67, DATA);	// CLC, LDA #$10, RRA zp
+
+			// ROR leaves $01 and carry set, which the ADC then adds in
+			assertEquals(0x01, ram.getByte(DATA));
+			assertRegisters(0x12, 0, 0);
+		}
+	}
+
+	@Test
+	public void nopTakesPagePenalty() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x00, 0xA2, 0x01, 0x1C, 0xFF, 0x30);	// LDX #$01, NOP $30FF,X
+
+			// 2 + 4 + 1, then the 3 cycle JMP * until the timeslice runs out
+			assertEquals(name(), 7 + 3 * 31, cpu.getClockticks());
+		}
+	}
+
+	@Test
+	public void laxTakesPagePenalty() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x00, 0xA0, 0x01, 0xBF, 0xFF, 0x30);	// LDY #$01, LAX $30FF,Y
+
+			assertEquals(name(), 7 + 3 * 31, cpu.getClockticks());
+		}
+	}
+
+	@Test
+	public void storeFormsDontTakePagePenalty() {
+
+		for (Supplier<Engine> engine : ENGINES) {
+			run(engine, 0x00, 0xA2, 0x01, 0x1F, 0xFF, 0x30);	// LDX #$01, SLO $30FF,X
+
+			// 2 + 7, then JMP *
+			assertEquals(name(), 9 + 3 * 31, cpu.getClockticks());
+		}
+	}
+
+	/**
+	 * Run {@code code} then {@code JMP *} for 100 cycles, with {@code data}
+	 * at {@link #DATA} and the flags clear.
+	 */
+	private void run(Supplier<Engine> engine, int data, int... code) {
+
+		this.engine = engine.get();
+		ram = new PagedMemory();
+		int addr = START;
+		for (int b : code) {
+			ram.setByte(addr++, b);
+		}
+		ram.setByte(addr, 0x4C);
+		ram.setByte(addr + 1, addr & 0xFF);
+		ram.setByte(addr + 2, addr >> 8);
+		ram.setByte(DATA, data);
+
+		cpu = new Soft6502(ram);
+		cpu.setEngine(this.engine);
+		cpu.setPC(START);
+		cpu.run(100);
+
+		assertEquals(name(), addr, cpu.getPC());
+	}
+
+	private void assertRegisters(int a, int x, int flags) {
+
+		int nvzc = FLAG_SIGN | Soft6502.FLAG_OVERFLOW | FLAG_ZERO | FLAG_CARRY;
+		assertEquals(name(), a, cpu.a);
+		assertEquals(name(), x, cpu.x);
+		assertEquals(name(), flags, cpu.status & nvzc);
+	}
+
+	private String name() {
+
+		return engine.getClass().getSimpleName();
+	}
+}
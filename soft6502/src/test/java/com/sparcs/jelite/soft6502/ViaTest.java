@@ -0,0 +1,207 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ViaTest {
+
+	private PagedMemory ram = new PagedMemory();
+	private Soft6502 cpu = new Soft6502(ram);
+	private Via6522 via = new Via6522(cpu);
+	private int portB = -1;
+
+	@Before
+	public void beforeTest() {
+
+		// JMP *, with interrupts disabled
+		ram.setByte(0x0200, 0x4C);
+		ram.setByte(0x0201, 0x00);
+		ram.setByte(0x0202, 0x02);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+
+		IoBus bus = new IoBus(cpu);
+		bus.attach(ram);
+		via.attach(bus, Via6522.SYSTEM);
+		via.setPortBListener((value, cycle) -> portB = value);
+		write(Via6522.IER, 0x80 | Via6522.INT_T1 | Via6522.INT_T2 | Via6522.INT_CA1);
+	}
+
+	@Test
+	public void countsDownWithoutRunning() {
+
+		long start = cpu.clockticks;
+		via.write(Via6522.SYSTEM + Via6522.T1C_L, 0x34, start);
+		via.write(Via6522.SYSTEM + Via6522.T1C_H, 0x12, start);
+
+		// a count every two cycles, once the counter has loaded
+		long loaded = start + Via6522.LOAD_DELAY;
+		assertEquals(0x1234, counter(Via6522.T1C_L, loaded));
+		assertEquals(0x1234, counter(Via6522.T1C_L, loaded + 1));
+		assertEquals(0x1233, counter(Via6522.T1C_L, loaded + 2));
+		assertEquals(0x1234 - 500, counter(Via6522.T1C_L, loaded + 1000));
+
+		// and on through &FFFF when it's one-shot
+		assertEquals(0, counter(Via6522.T1C_L, loaded + 2 * 0x1234));
+		assertEquals(0xFFFF, counter(Via6522.T1C_L, loaded + 2 * 0x1235));
+		assertEquals(0xFFFE, counter(Via6522.T1C_L, loaded + 2 * 0x1236));
+	}
+
+	@Test
+	public void oneShotInterruptsOnce() {
+
+		write(Via6522.T1C_L, 100);
+		write(Via6522.T1C_H, 0);
+		long due = cpu.clockticks + Via6522.LOAD_DELAY + 2 * 101;
+		assertEquals(1, cpu.getScheduler().size());
+
+		cpu.run(due - cpu.clockticks - 3);
+		assertFalse(cpu.isIrqAsserted());
+		cpu.run(6);
+		assertTrue(cpu.isIrqAsserted());
+		assertEquals(0x80 | Via6522.INT_T1, read(Via6522.IFR));
+
+		// reading the low counter acknowledges it, and it doesn't come back
+		read(Via6522.T1C_L);
+		assertFalse(cpu.isIrqAsserted());
+		cpu.run(1000);
+		assertFalse(cpu.isIrqAsserted());
+		assertEquals(0, cpu.getScheduler().size());
+	}
+
+	@Test
+	public void freeRunsFromTheLatch() {
+
+		write(Via6522.ACR, 0x40);
+		write(Via6522.T1C_L, 98);
+		write(Via6522.T1C_H, 0);
+
+		// a period is the latch plus two counts
+		int interrupts = 0;
+		long end = cpu.clockticks + Via6522.LOAD_DELAY + 10 * 2 * 100 + 2;
+		while (cpu.clockticks < end) {
+			cpu.run(10);
+			if (cpu.isIrqAsserted()) {
+				interrupts++;
+				write(Via6522.IFR, Via6522.INT_T1);
+			}
+		}
+		assertEquals(10, interrupts);
+		assertTrue(via.t1Counter(cpu.clockticks) <= 98 || via.t1Counter(cpu.clockticks) == 0xFFFF);
+	}
+
+	@Test
+	public void timer2IsOneShot() {
+
+		write(Via6522.T2C_L, 10);
+		write(Via6522.T2C_H, 0);
+		cpu.run(40);
+		assertTrue(cpu.isIrqAsserted());
+		assertEquals(Via6522.INT_T2, read(Via6522.IFR) & 0x7F);
+
+		write(Via6522.IFR, Via6522.INT_T2);
+		assertFalse(cpu.isIrqAsserted());
+		long now = cpu.clockticks;
+		int counter = counter(Via6522.T2C_L, now);
+		assertTrue(counter > 0xFF00);
+		cpu.run(100);
+		assertFalse(cpu.isIrqAsserted());
+	}
+
+	@Test
+	public void timer2StandsStillCountingPulses() {
+
+		write(Via6522.ACR, 0x20);
+		write(Via6522.T2C_L, 10);
+		write(Via6522.T2C_H, 0);
+		cpu.run(100);
+		assertFalse(cpu.isIrqAsserted());
+		assertEquals(10, counter(Via6522.T2C_L, cpu.clockticks));
+	}
+
+	@Test
+	public void enablesInterrupts() {
+
+		write(Via6522.IER, Via6522.INT_T1);
+		assertEquals(0x80 | Via6522.INT_T2 | Via6522.INT_CA1, read(Via6522.IER));
+
+		write(Via6522.T1C_L, 10);
+		write(Via6522.T1C_H, 0);
+		cpu.run(40);
+		assertFalse(cpu.isIrqAsserted());
+		assertEquals(Via6522.INT_T1, read(Via6522.IFR));
+
+		write(Via6522.IER, 0x80 | Via6522.INT_T1);
+		assertTrue(cpu.isIrqAsserted());
+		assertEquals(0x80 | Via6522.INT_T1, read(Via6522.IFR));
+	}
+
+	@Test
+	public void interruptsOnCa1Edge() {
+
+		// negative edge, as the OS sets it up for vertical sync
+		via.setCa1(true);
+		assertFalse(cpu.isIrqAsserted());
+		via.setCa1(false);
+		assertTrue(cpu.isIrqAsserted());
+
+		// reading port A acknowledges it
+		read(Via6522.ORA);
+		assertFalse(cpu.isIrqAsserted());
+
+		write(Via6522.PCR, 0x01);
+		via.setCa1(true);
+		assertTrue(cpu.isIrqAsserted());
+	}
+
+	@Test
+	public void readsAndWritesPorts() {
+
+		via.setPortB(0xA5);
+		assertEquals(0xA5, read(Via6522.ORB));
+
+		write(Via6522.DDRB, 0x0F);
+		write(Via6522.ORB, 0x03);
+		assertEquals(0xA3, read(Via6522.ORB));
+		assertEquals(0xF3, portB);
+	}
+
+	@Test
+	public void restoresTimers() {
+
+		write(Via6522.T1C_L, 0);
+		write(Via6522.T1C_H, 0x10);
+		ByteBuffer state = ByteBuffer.allocate(via.getStateSize());
+		via.saveState(state);
+		assertFalse(state.hasRemaining());
+
+		write(Via6522.T1C_H, 0x20);
+		write(Via6522.IER, Via6522.INT_T1);
+		state.flip();
+		via.restoreState(state);
+
+		assertEquals(0x80 | Via6522.INT_T1 | Via6522.INT_T2 | Via6522.INT_CA1, read(Via6522.IER));
+		assertEquals(0x10, counter(Via6522.T1C_L, cpu.clockticks) >> 8);
+		cpu.run(2 * 0x1001 + 10);
+		assertTrue(cpu.isIrqAsserted());
+	}
+
+	private int read(int register) {
+
+		return via.read(Via6522.SYSTEM + register, cpu.clockticks);
+	}
+
+	private void write(int register, int value) {
+
+		via.write(Via6522.SYSTEM + register, value, cpu.clockticks);
+	}
+
+	private int counter(int low, long cycle) {
+
+		return via.read(Via6522.SYSTEM + low, cycle) | (via.read(Via6522.SYSTEM + low + 1, cycle) << 8);
+	}
+}
@@ -0,0 +1,229 @@
+package com.sparcs.jelite.soft6502;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VideoTest {
+
+	private static final int BLACK = 0xFF000000;
+	private static final int RED = 0xFFFF0000;
+	private static final int WHITE = 0xFFFFFFFF;
+
+	private static final int SCREEN = 0x5800;
+
+	// 39 rows of 8 lines of 128 cycles
+	private static final int FRAME = 39 * 8 * 128;
+
+	// vertical sync is at row 34, so the display starts 5 rows later
+	private static final int DISPLAY = 5 * 8 * 128;
+
+	private PagedMemory ram = new PagedMemory();
+	private Soft6502 cpu = new Soft6502(ram);
+	private Video video = new Video(cpu);
+	private int redrawn;
+
+	@Before
+	public void beforeTest() {
+
+		// JMP *
+		ram.setByte(0x0200, 0x4C);
+		ram.setByte(0x0201, 0x00);
+		ram.setByte(0x0202, 0x02);
+		cpu.setEngine(new SwitchEngine());
+		cpu.setPC(0x0200);
+
+		IoBus bus = new IoBus(cpu);
+		bus.attach(ram);
+		video.attach(bus);
+		video.setFrameListener((v, cycle) -> redrawn = v.getRedrawnRows());
+
+		// MODE 4, as the OS sets it up
+		int[] crtc = { 63, 40, 49, 0x24, 38, 0, 32, 34, 0, 7, 0x67, 8, SCREEN >> 11, 0 };
+		for (int i = 0; i < crtc.length; i++) {
+			video.getCrtc().setRegister(i, crtc[i]);
+		}
+		video.getUla().setControl(0x88);
+		for (int i = 0; i < 16; i++) {
+			video.getUla().setPalette(i, i < 8 ? 0 : 7);
+		}
+	}
+
+	@Test
+	public void drawsMode4() {
+
+		ram.setByte(SCREEN, 0x80);
+		ram.setByte(SCREEN + 1, 0x01);
+		ram.setByte(SCREEN + 8, 0xFF);
+		ram.setByte(SCREEN + 40 * 8, 0x80);
+		frames(2);
+
+		int[] pixels = video.getPixels();
+		assertEquals(32, video.getRows());
+
+		// two output pixels to a MODE 4 pixel
+		assertEquals(WHITE, pixels[0]);
+		assertEquals(WHITE, pixels[1]);
+		assertEquals(BLACK, pixels[2]);
+		assertEquals(WHITE, pixels[Video.WIDTH + 15]);
+		assertEquals(BLACK, pixels[Video.WIDTH + 13]);
+		assertEquals(WHITE, pixels[16]);
+		assertEquals(WHITE, pixels[31]);
+		assertEquals(WHITE, pixels[8 * Video.WIDTH]);
+		assertEquals(BLACK, pixels[7 * Video.WIDTH]);
+	}
+
+	@Test
+	public void drawsMode5() {
+
+		video.getUla().setControl(0xC4);
+		video.getUla().setPalette(10, 1);
+		ram.setByte(SCREEN, 0x88);
+		frames(2);
+
+		// four output pixels to a MODE 5 pixel, whose colour is made of bits 7 and 3
+		int[] pixels = video.getPixels();
+		for (int x = 0; x < 4; x++) {
+			assertEquals(RED, pixels[x]);
+		}
+		assertEquals(BLACK, pixels[4]);
+	}
+
+	@Test
+	public void redrawsOnlyChangedRows() {
+
+		// the first frame after setting up has nothing to draw, the next everything
+		frames(2);
+		assertEquals(32, redrawn);
+		frames(1);
+		assertEquals(0, redrawn);
+
+		ram.setByte(SCREEN + 5 * 320 + 17, 0xFF);
+		frames(1);
+		assertEquals(1, redrawn);
+		assertTrue(video.getRows() > 5);
+
+		frames(1);
+		assertEquals(0, redrawn);
+	}
+
+	@Test
+	public void redrawsEverythingForNewPalette() {
+
+		frames(2);
+		video.getUla().setPalette(0, 4);
+		frames(1);
+
+		assertEquals(32, redrawn);
+		assertEquals(0xFF0000FF, video.getPixels()[0]);
+	}
+
+	@Test
+	public void redrawsNothingForTheSamePalette() {
+
+		frames(2);
+		// through other colours and back, a byte at a time
+		for (int i = 0; i < 16; i++) {
+			video.getUla().setPalette(i, 3);
+		}
+		for (int i = 0; i < 16; i++) {
+			video.getUla().setPalette(i, i < 8 ? 0 : 7);
+		}
+		frames(1);
+
+		assertEquals(0, redrawn);
+	}
+
+	@Test
+	public void redrawsNothingForARepeatedSplit() {
+
+		for (int addr = SCREEN; addr < 0x8000; addr++) {
+			ram.setByte(addr, 0xAA);
+		}
+		// as Elite does, the whole palette rewritten a byte at a time at
+		// vertical sync and again at the split, through more settings than
+		// the ULA keeps tables for
+		Scheduler.Event split = cycle -> palette(7);
+		video.setFrameListener((v, cycle) -> {
+			redrawn = v.getRedrawnRows();
+			palette(0);
+			cpu.getScheduler().schedule(split, cycle + DISPLAY + 16 * 8 * 128);
+		});
+		frames(3);
+		assertEquals(WHITE, video.getPixels()[Video.HEIGHT * Video.WIDTH - 1]);
+
+		frames(1);
+		assertEquals(0, redrawn);
+	}
+
+	@Test
+	public void splitsScreen() {
+
+		for (int addr = SCREEN; addr < 0x8000; addr++) {
+			ram.setByte(addr, 0xFF);
+		}
+		// white halfway down, black again at vertical sync
+		Scheduler.Event split = cycle -> video.getUla().setPalette(15, 7);
+		video.setFrameListener((v, cycle) -> {
+			v.getUla().setPalette(15, 0);
+			cpu.getScheduler().schedule(split, cycle + DISPLAY + 16 * 8 * 128);
+		});
+		frames(3);
+
+		int[] pixels = video.getPixels();
+		assertEquals(BLACK, pixels[0]);
+		assertEquals(BLACK, pixels[(16 * 8 - 1) * Video.WIDTH]);
+		assertEquals(WHITE, pixels[16 * 8 * Video.WIDTH]);
+		assertEquals(WHITE, pixels[Video.HEIGHT * Video.WIDTH - 1]);
+	}
+
+	@Test
+	public void wrapsRoundScreenMemory() {
+
+		// start 32 characters before the end of memory
+		video.getCrtc().setRegister(Crtc6845.START_HIGH, 0x0F);
+		video.getCrtc().setRegister(Crtc6845.START_LOW, 0xE0);
+		ram.setByte(SCREEN, 0x80);
+		frames(2);
+
+		assertEquals(WHITE, video.getPixels()[32 * 16]);
+	}
+
+	@Test
+	public void restoresState() {
+
+		frames(1);
+		ByteBuffer state = ByteBuffer.allocate(video.getStateSize());
+		video.saveState(state);
+		assertFalse(state.hasRemaining());
+
+		video.getUla().setControl(0xC4);
+		video.getCrtc().setRegister(Crtc6845.VERTICAL_DISPLAYED, 10);
+		state.flip();
+		video.restoreState(state);
+
+		assertEquals(0x88, video.getUla().getControl());
+		assertEquals(32, video.getCrtc().getRegister(Crtc6845.VERTICAL_DISPLAYED));
+		assertEquals(0, video.getUla().getPalette(0) & 7 ^ 7);
+	}
+
+	/**
+	 * Set every logical colour to {@code physical}, one at a time.
+	 */
+	private void palette(int physical) {
+
+		for (int i = 0; i < 16; i++) {
+			video.getUla().setPalette(i, physical);
+		}
+	}
+
+	private void frames(int count) {
+
+		long frames = video.getFrames();
+		cpu.run((long)FRAME * count);
+		assertEquals(frames + count, video.getFrames());
+	}
+}